@@ -0,0 +1,23 @@
+-- 车辆记录：标准化车牌号列 + 复合索引
+-- 应用启动时 (ddl-auto: update + VehiclePlateBackfill) 会自动完成以下操作，
+-- 此脚本用于在大表上提前手动执行（例如在维护窗口内），执行后再部署新版本启动更快。
+
+USE `parking`;
+
+-- 1. 新增标准化车牌号列（去除连字符）
+ALTER TABLE `vehicle_records`
+  ADD COLUMN `entry_plate_normalized` VARCHAR(18) NULL,
+  ADD COLUMN `exit_plate_normalized` VARCHAR(18) NULL;
+
+-- 2. 回填历史数据（数据量很大时可以按 id 范围分批执行）
+UPDATE `vehicle_records`
+SET `entry_plate_normalized` = REPLACE(`entry_plate_number`, '-', ''),
+    `exit_plate_normalized` = REPLACE(`exit_plate_number`, '-', '')
+WHERE (`entry_plate_number` IS NOT NULL AND `entry_plate_normalized` IS NULL)
+   OR (`exit_plate_number` IS NOT NULL AND `exit_plate_normalized` IS NULL);
+
+-- 3. 复合索引：停车场 + 状态 + 标准化车牌号 + 时间（查询条件和排序都能走索引）
+CREATE INDEX `idx_vr_lot_status_entry_plate`
+  ON `vehicle_records` (`parking_lot_code`, `status`, `entry_plate_normalized`, `entry_time`);
+CREATE INDEX `idx_vr_lot_status_exit_plate`
+  ON `vehicle_records` (`parking_lot_code`, `status`, `exit_plate_normalized`, `exit_time`);
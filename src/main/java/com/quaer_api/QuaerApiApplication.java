@@ -4,9 +4,11 @@ import com.quaer_api.util.SingleInstanceLock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @Slf4j
 @SpringBootApplication
+@EnableScheduling
 public class QuaerApiApplication {
 
     public static final String VERSION = "251205.01";
@@ -1,5 +1,6 @@
 package com.quaer_api.config;
 
+import com.quaer_api.util.PartitionedExecutor;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -60,6 +61,90 @@ public class MqttProperties {
      */
     private ConnectionConfig connection = new ConnectionConfig();
 
+    /**
+     * 消息处理的执行模式: platform（平台线程通道） / virtual（虚拟线程，需要Java 21）
+     */
+    private ExecutorMode executor = ExecutorMode.PLATFORM;
+
+    /**
+     * 消息接入（异步分区处理）配置
+     */
+    private IngestConfig ingest = new IngestConfig();
+
+    /**
+     * 消息发布（异步发布、发送窗口、断线缓冲）配置
+     */
+    private PublishConfig publish = new PublishConfig();
+
+    public enum ExecutorMode {
+        /**
+         * 固定数量的平台线程，每个线程一个有界队列
+         */
+        PLATFORM,
+        /**
+         * 每条消息一个虚拟线程，同一车辆的消息串联执行
+         */
+        VIRTUAL
+    }
+
+    @Data
+    public static class IngestConfig {
+        /**
+         * 工作通道数量（每个通道一个工作线程，仅platform模式）
+         */
+        private int workers = 8;
+
+        /**
+         * 每个通道的队列容量（仅platform模式）
+         */
+        private int queueCapacity = 500;
+
+        /**
+         * 最多同时存在的待处理消息数（排队中 + 处理中，仅virtual模式）
+         * 注意：虚拟线程不受线程池限制，真正的并发瓶颈会转移到数据库连接池(hikari maximum-pool-size)
+         */
+        private int maxPending = 4000;
+
+        /**
+         * 队列满时的背压策略: block / caller-runs / drop
+         */
+        private PartitionedExecutor.BackpressurePolicy backpressure = PartitionedExecutor.BackpressurePolicy.BLOCK;
+
+        /**
+         * block策略下每次等待的时间(毫秒)，每次超时记录一次告警后继续等待（不由MQTT回调线程直接处理，保证同一车辆的顺序）
+         */
+        private long offerTimeoutMs = 2000;
+
+        /**
+         * 应用关闭时等待队列处理完成的最长时间(毫秒)
+         */
+        private long shutdownTimeoutMs = 10000;
+    }
+
+    @Data
+    public static class PublishConfig {
+        /**
+         * 最多同时等待确认(PUBACK)的消息数，超过时在本地缓冲区排队
+         */
+        private int maxInflight = 100;
+
+        /**
+         * 本地缓冲区容量（断线重连期间、发送窗口已满时排队），满时丢弃最早的普通消息，开闸消息优先保留
+         */
+        private int bufferCapacity = 1000;
+
+        /**
+         * 缓冲消息的最长保留时间(毫秒)，超时未发出的消息不再发送（避免重连后很久才开闸）
+         */
+        private long bufferTtlMs = 30000;
+
+        /**
+         * 开闸消息（/gate/...）的最长保留时间(毫秒)
+         * 不超过 parking.gate.await-ms：等待超时后已经按开闸失败处理，之后再发出的开闸指令不应到达闸机
+         */
+        private long priorityTtlMs = 2000;
+    }
+
     @Data
     public static class ConnectionConfig {
         /**
@@ -0,0 +1,389 @@
+package com.quaer_api.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 停车场业务配置属性
+ * 从application.yml中读取parking配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "parking")
+public class ParkingProperties {
+
+    /**
+     * 在场车辆内存索引配置
+     */
+    private OccupancyIndexConfig occupancyIndex = new OccupancyIndexConfig();
+
+    /**
+     * 实时统计计数器配置
+     */
+    private CountersConfig counters = new CountersConfig();
+
+    /**
+     * 历史汇总任务配置
+     */
+    private RollupConfig rollup = new RollupConfig();
+
+    /**
+     * 车牌搜索索引配置
+     */
+    private PlateSearchConfig plateSearch = new PlateSearchConfig();
+
+    /**
+     * 出场车牌模糊匹配配置
+     */
+    private FuzzyMatchConfig fuzzyMatch = new FuzzyMatchConfig();
+
+    /**
+     * 结构化事件日志配置
+     */
+    private EventLogConfig eventLog = new EventLogConfig();
+
+    /**
+     * 流水线监控指标配置
+     */
+    private MetricsConfig metrics = new MetricsConfig();
+
+    /**
+     * 链路追踪配置
+     */
+    private TracingConfig tracing = new TracingConfig();
+
+    /**
+     * 开闸指令通道配置
+     */
+    private GateConfig gate = new GateConfig();
+
+    /**
+     * MQTT消息去重配置
+     */
+    private DedupConfig dedup = new DedupConfig();
+
+    /**
+     * 已处理事件（幂等）配置
+     */
+    private ProcessedEventsConfig processedEvents = new ProcessedEventsConfig();
+
+    /**
+     * Square Webhook 异步接入配置
+     */
+    private WebhookIngestConfig webhookIngest = new WebhookIngestConfig();
+
+    @Data
+    public static class OccupancyIndexConfig {
+        /**
+         * 是否启用内存索引（关闭后所有查询直接走数据库）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 索引未命中时是否直接认定数据库中也没有记录（不再回查数据库）
+         * 8086/8087热切换期间两个实例会同时消费消息，对方实例写入的记录不在本实例索引中，
+         * 所以默认关闭；只有确定只有一个实例在运行时才建议开启
+         */
+        private boolean trustMisses = false;
+    }
+
+    @Data
+    public static class CountersConfig {
+        /**
+         * 与数据库对账的间隔(毫秒)
+         * 计数器只能看到本实例的写入，8086/8087热切换期间对方实例的写入要等对账后才会反映出来
+         */
+        private long reconcileIntervalMs = 60000;
+    }
+
+    @Data
+    public static class RollupConfig {
+        /**
+         * 是否启用定时汇总
+         */
+        private boolean enabled = true;
+
+        /**
+         * 汇总间隔(毫秒)
+         */
+        private long intervalMs = 300000;
+
+        /**
+         * 水位线回退时间(毫秒)：每次从 水位线 - overlapMs 开始扫描，
+         * 覆盖扫描时还没提交、但 updated_at 已经早于水位线的事务（重复汇总是幂等的）
+         */
+        private long overlapMs = 120000;
+
+        /**
+         * 第一次运行（没有水位线）时汇总最近多少天内有变化的记录
+         */
+        private int initialDays = 90;
+
+        /**
+         * 任务锁超时时间(毫秒)，超时后视为实例崩溃，由其他实例接手
+         */
+        private long lockTimeoutMs = 600000;
+    }
+
+    @Data
+    public static class PlateSearchConfig {
+        /**
+         * 是否使用n-gram索引搜索车牌（关闭后使用 LIKE '%车牌%' 扫描）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 补建索引的间隔(毫秒)
+         * 入场/出场时会实时写入索引，补建任务处理历史数据、写入失败的记录以及其他实例（旧版本）写入的记录
+         */
+        private long catchUpIntervalMs = 60000;
+
+        /**
+         * 补建任务每批处理的记录数
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 水位线回退时间(毫秒)，覆盖扫描时还没提交的事务
+         */
+        private long overlapMs = 120000;
+
+        /**
+         * 任务锁超时时间(毫秒)
+         */
+        private long lockTimeoutMs = 300000;
+    }
+
+    @Data
+    public static class FuzzyMatchConfig {
+        /**
+         * 是否启用模糊匹配：出场车牌精确查询不到入场记录、也没有异常出口记录时，
+         * 在本停车场的在场车辆中查找相似车牌（OCR把 O/0、I/1、B/8 等识别错），避免产生异常出口记录
+         */
+        private boolean enabled = true;
+
+        /**
+         * 最大加权编辑距离（普通插入/删除/替换代价为1）
+         * 默认小于1：只允许易混淆字符的替换（最多2个），任何一个普通字符不同都不匹配，避免匹配到另一辆车
+         */
+        private double maxDistance = 0.6;
+
+        /**
+         * 易混淆字符替换代价
+         */
+        private double confusionCost = 0.3;
+
+        /**
+         * 歧义判定：第二相似的车牌与最相似车牌的距离差小于该值时不匹配（宁可生成异常出口记录人工处理）
+         */
+        private double ambiguityMargin = 0.5;
+
+        /**
+         * 参与模糊匹配的最短车牌长度（太短的车牌容易误匹配）
+         */
+        private int minPlateLength = 5;
+
+        /**
+         * 识别权重下限：出场识别权重或入场记录的识别权重低于该值时不做模糊匹配（0表示不限制）
+         */
+        private double minWeight = 0;
+    }
+
+    @Data
+    public static class EventLogConfig {
+        /**
+         * 默认采样率（0~1，未在 sampleRates 中配置的分类使用该值）
+         */
+        private double defaultSampleRate = 1.0;
+
+        /**
+         * 按分类配置采样率（如 mqtt.received: 0.1），WARN/ERROR 事件不采样
+         */
+        private Map<String, Double> sampleRates = new HashMap<>();
+
+        /**
+         * 诊断模式最长持续时间(分钟)，到期后自动恢复（防止忘记关闭导致日志暴涨）
+         */
+        private int verboseMaxMinutes = 30;
+    }
+
+    @Data
+    public static class MetricsConfig {
+        /**
+         * 是否发布直方图桶（Prometheus 用 histogram_quantile 按停车场计算 P95/P99）
+         */
+        private boolean percentileHistogram = true;
+
+        /**
+         * 停车场标签的最大数量，超过后归为 other
+         */
+        private int maxLots = 100;
+    }
+
+    @Data
+    public static class TracingConfig {
+        /**
+         * 保留最近多少条链路（用于查询慢链路）
+         */
+        private int recentCapacity = 1000;
+
+        /**
+         * 慢链路阈值(毫秒)，超过时输出 trace.slow 事件日志（包含各阶段耗时）
+         */
+        private long slowThresholdMs = 1000;
+    }
+
+    @Data
+    public static class GateConfig {
+        /**
+         * 开闸线程数（高优先级，只发布 /gate/... 主题）
+         */
+        private int laneThreads = 2;
+
+        /**
+         * 开闸队列容量，满时在调用线程直接发送
+         */
+        private int queueCapacity = 256;
+
+        /**
+         * 入场校验通过后立即开闸，与保存入场记录并行（保存失败时闸机也已打开）
+         */
+        private boolean earlyEntryOpen = true;
+
+        /**
+         * 等待开闸指令发出的最长时间(毫秒)
+         */
+        private long awaitMs = 2000;
+    }
+
+    @Data
+    public static class DedupConfig {
+        /**
+         * 去重窗口(秒)：同一停车场+车牌+方向的消息时间戳间隔小于该值时视为重复
+         */
+        private long windowSeconds = 180;
+
+        /**
+         * 去重记录数上限（每条约32字节），达到上限时提前丢弃最老的一代
+         */
+        private int maxEntries = 200000;
+
+        /**
+         * 是否写入去重日志（内存映射文件），重启/热切换后新实例从日志恢复去重窗口
+         */
+        private boolean journalEnabled = true;
+
+        /**
+         * 去重日志目录（8086 / 8087 使用同一个目录，各自写 dedup-{端口}.journal）
+         */
+        private String journalDirectory = "data/dedup";
+
+        /**
+         * 去重日志记录数（每条32字节，环形覆盖），应不小于两个去重窗口内的新消息数
+         */
+        private int journalCapacity = 200000;
+
+        /**
+         * 读取其他实例去重日志的间隔(毫秒)
+         */
+        private long peerPollMs = 1000;
+    }
+
+    @Data
+    public static class ProcessedEventsConfig {
+        /**
+         * 是否按摄像头 message_id / Square event_id 拒绝重复事件
+         */
+        private boolean enabled = true;
+
+        /**
+         * 摄像头消息记录保留时间(小时)
+         */
+        private long cameraTtlHours = 24;
+
+        /**
+         * Square Webhook 事件记录保留时间(小时)，Square 最长重试72小时
+         */
+        private long squareTtlHours = 72;
+
+        /**
+         * 布隆过滤器每代预计记录数
+         */
+        private int bloomExpectedInsertions = 200000;
+
+        /**
+         * 布隆过滤器误判率（误判时多查询一次数据库）
+         */
+        private double bloomFalsePositiveRate = 0.01;
+
+        /**
+         * 记录停留在 processing 超过该时间(毫秒)视为处理中断（进程退出），重发的事件可以接管处理
+         * 应大于单个事件的最长处理时间
+         */
+        private long processingTimeoutMs = 60000;
+
+        /**
+         * 清理过期记录的间隔(毫秒)
+         */
+        private long purgeIntervalMs = 3600000;
+    }
+
+    @Data
+    public static class WebhookIngestConfig {
+        /**
+         * 是否落盘后立即返回200、由工作线程异步处理（关闭时在请求线程中直接处理）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 落盘目录（8086 / 8087 使用同一个目录，各自写 {端口} 子目录）
+         */
+        private String spoolDirectory = "data/webhook-spool";
+
+        /**
+         * 工作线程数（同一笔支付的事件固定在同一个线程按顺序处理）
+         */
+        private int workers = 4;
+
+        /**
+         * 每个工作线程的队列容量，队列满时由定时扫描补上
+         */
+        private int queueCapacity = 500;
+
+        /**
+         * 定时扫描落盘目录的间隔(毫秒)，也是处理失败后的重试间隔
+         */
+        private long rescanIntervalMs = 10000;
+
+        /**
+         * 定时扫描跳过落盘不到该时间的文件(毫秒)，这些文件正在提交给工作线程
+         */
+        private long rescanMinAgeMs = 5000;
+
+        /**
+         * 最多处理次数，仍失败时移动到 failed 目录
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * 另一个实例仍在运行时，它的文件超过该时间(毫秒)仍未处理才由本实例接管
+         */
+        private long claimAfterMs = 300000;
+
+        /**
+         * 另一个实例的心跳超过该时间(毫秒)未更新时视为已退出，立即接管它的全部文件
+         * 心跳在每次定时扫描时更新，应大于 rescanIntervalMs
+         */
+        private long peerTimeoutMs = 30000;
+
+        /**
+         * 应用关闭时等待队列处理完成的最长时间(毫秒)
+         * 小于 deploy-backend.sh 强制结束旧实例前的等待时间(3秒)；未处理完的文件由另一个实例立即接管
+         */
+        private long shutdownTimeoutMs = 2000;
+    }
+}
@@ -57,6 +57,16 @@ public class SquareProperties {
      */
     private WebhookConfig webhook;
 
+    /**
+     * 支付发件箱配置（出场后异步发起Square支付）
+     */
+    private OutboxConfig outbox = new OutboxConfig();
+
+    /**
+     * 收入汇总缓存配置
+     */
+    private SummaryConfig summary = new SummaryConfig();
+
     @Data
     public static class WebhookConfig {
         /**
@@ -74,4 +84,61 @@ public class SquareProperties {
          */
         private String subscriptionId;
     }
+
+    @Data
+    public static class OutboxConfig {
+        /**
+         * 轮询间隔(毫秒)，事务提交后会立即唤醒，轮询只用于重试和崩溃恢复
+         */
+        private long pollIntervalMs = 2000;
+
+        /**
+         * 每次轮询最多领取的记录数
+         */
+        private int batchSize = 20;
+
+        /**
+         * 并发调用Square的线程数
+         */
+        private int workers = 4;
+
+        /**
+         * 最大尝试次数，超过后标记为FAILED
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * 首次重试间隔(毫秒)，之后每次翻倍
+         */
+        private long retryBackoffMs = 2000;
+
+        /**
+         * 最大重试间隔(毫秒)
+         */
+        private long maxBackoffMs = 60000;
+
+        /**
+         * PROCESSING状态的超时时间(毫秒)，超时后视为实例崩溃，由其他实例重新领取
+         */
+        private long lockTimeoutMs = 120000;
+    }
+
+    @Data
+    public static class SummaryConfig {
+        /**
+         * 包含今天的汇总缓存时间(毫秒)
+         * webhook确认支付完成时会立即清空缓存，这个时间只限制另一个实例（热切换期间）写入的数据延迟多久可见
+         */
+        private long currentTtlMs = 30000;
+
+        /**
+         * 已经结束的时间范围的汇总缓存时间(毫秒)
+         */
+        private long historyTtlMs = 600000;
+
+        /**
+         * 最多缓存的汇总条数
+         */
+        private int maxEntries = 500;
+    }
 }
@@ -0,0 +1,91 @@
+package com.quaer_api.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 收费规则配置属性
+ * 从application.yml中读取tariff配置；数据库 tariff_plans 表中的停车场规则优先于这里的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "tariff")
+public class TariffProperties {
+
+    /**
+     * 没有单独配置的停车场使用的收费方案名称
+     */
+    private String defaultPlan = "default";
+
+    /**
+     * 从数据库重新加载收费规则的间隔(毫秒)
+     */
+    private long reloadIntervalMs = 60000;
+
+    /**
+     * 收费方案：方案名称 → 方案内容
+     */
+    private Map<String, PlanConfig> plans = new HashMap<>();
+
+    /**
+     * 停车场使用的收费方案：停车场编号 → 方案名称
+     */
+    private Map<String, String> lots = new HashMap<>();
+
+    @Data
+    public static class PlanConfig {
+        /**
+         * 免费时长(分钟)，停车时长不超过该值时不收费，0表示没有免费时长
+         */
+        private int graceMinutes = 0;
+
+        /**
+         * 计费单位(分钟)，不足一个单位按一个单位计算
+         */
+        private int unitMinutes = 1;
+
+        /**
+         * 每个自然日的封顶费用(分)，0表示不封顶
+         */
+        private long dailyCapCents = 0;
+
+        /**
+         * 单次停车的封顶费用(分)，0表示不封顶
+         */
+        private long maxChargeCents = 0;
+
+        /**
+         * 工作日（周一至周五）的分时段价格
+         */
+        private List<BandConfig> weekday = new ArrayList<>();
+
+        /**
+         * 周末（周六、周日）的分时段价格，为空时与工作日相同
+         */
+        private List<BandConfig> weekend = new ArrayList<>();
+    }
+
+    @Data
+    public static class BandConfig {
+        /**
+         * 开始时间（含），格式 HH:mm
+         */
+        private String from = "00:00";
+
+        /**
+         * 结束时间（不含），格式 HH:mm，24:00 表示当天结束
+         */
+        private String to = "24:00";
+
+        /**
+         * 每个计费单位的价格(分)
+         */
+        private long centsPerUnit = 0;
+    }
+}
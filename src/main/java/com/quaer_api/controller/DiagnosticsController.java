@@ -0,0 +1,120 @@
+package com.quaer_api.controller;
+
+import com.quaer_api.service.DiagnosticsService;
+import com.quaer_api.service.ProcessedEventStore;
+import com.quaer_api.service.TraceRecorder;
+import com.quaer_api.service.WebhookIngestService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 诊断控制器
+ * 运行时开启/关闭诊断模式（多行明细日志 + 事件日志不采样），查看事件日志统计和慢链路
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/diagnostics")
+public class DiagnosticsController {
+
+    @Autowired
+    private DiagnosticsService diagnosticsService;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    @Autowired
+    private ProcessedEventStore processedEventStore;
+
+    @Autowired
+    private WebhookIngestService webhookIngestService;
+
+    /**
+     * 查看诊断模式状态和各分类事件日志数量
+     * GET /api/diagnostics/logging
+     */
+    @GetMapping("/logging")
+    public ResponseEntity<Map<String, Object>> getLogging() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("logging", diagnosticsService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 开启/关闭诊断模式（只对当前实例生效）
+     * POST /api/diagnostics/verbose?enabled=true&minutes=10
+     *
+     * @param enabled 是否开启
+     * @param minutes 持续时间(分钟)，到期自动关闭
+     */
+    @PostMapping("/verbose")
+    public ResponseEntity<Map<String, Object>> setVerbose(
+            @RequestParam(value = "enabled") boolean enabled,
+            @RequestParam(value = "minutes", defaultValue = "10") int minutes
+    ) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("logging", enabled
+            ? diagnosticsService.enableVerbose(minutes)
+            : diagnosticsService.disableVerbose());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查看最近最慢的链路和开闸耗时统计（P50/P95/P99）
+     * GET /api/diagnostics/traces?limit=20&minMs=500&kind=camera
+     *
+     * @param limit 返回条数
+     * @param minMs 最小耗时(毫秒)
+     * @param kind 链路类型: camera / payment / webhook（可选）
+     */
+    @GetMapping("/traces")
+    public ResponseEntity<Map<String, Object>> getTraces(
+            @RequestParam(value = "limit", defaultValue = "20") int limit,
+            @RequestParam(value = "minMs", defaultValue = "0") long minMs,
+            @RequestParam(value = "kind", required = false) String kind
+    ) {
+        if (limit < 1 || limit > 200) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("message", "limit 必须在 1~200 之间");
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("recentCount", traceRecorder.getRecentCount());
+        response.put("gateLatency", traceRecorder.getGateLatency());
+        response.put("slowest", traceRecorder.getSlowest(limit, minMs, kind));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查看已处理事件（幂等）统计：布隆过滤器未命中数、拒绝的重复事件数、误判数
+     * GET /api/diagnostics/processed-events
+     */
+    @GetMapping("/processed-events")
+    public ResponseEntity<Map<String, Object>> getProcessedEvents() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("processedEvents", processedEventStore.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查看 Square Webhook 异步接入统计：待处理落盘文件数、重试中的文件数、队列排队时间
+     * GET /api/diagnostics/webhook-ingest
+     */
+    @GetMapping("/webhook-ingest")
+    public ResponseEntity<Map<String, Object>> getWebhookIngest() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("webhookIngest", webhookIngestService.getStats());
+        return ResponseEntity.ok(response);
+    }
+}
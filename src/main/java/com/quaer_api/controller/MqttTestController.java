@@ -1,6 +1,7 @@
 package com.quaer_api.controller;
 
 import com.quaer_api.service.MqttClientService;
+import com.quaer_api.service.MqttIngestDispatcher;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -22,6 +23,9 @@ public class MqttTestController {
     @Autowired
     private MqttClientService mqttClientService;
 
+    @Autowired
+    private MqttIngestDispatcher ingestDispatcher;
+
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     /**
@@ -107,6 +111,32 @@ public class MqttTestController {
         return result;
     }
 
+    /**
+     * 查看MQTT消息接入队列统计（队列深度、排队等待时间等）
+     * @return 统计信息
+     */
+    @GetMapping("/ingest/stats")
+    public Map<String, Object> getIngestStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("stats", ingestDispatcher.getStats());
+        result.put("timestamp", getCurrentTime());
+        return result;
+    }
+
+    /**
+     * 查看MQTT消息发布统计（发送窗口、缓冲区深度、丢弃数）
+     * @return 统计信息
+     */
+    @GetMapping("/publish/stats")
+    public Map<String, Object> getPublishStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("stats", mqttClientService.getPublishStats());
+        result.put("timestamp", getCurrentTime());
+        return result;
+    }
+
     /**
      * 发送测试消息
      * @return 响应结果
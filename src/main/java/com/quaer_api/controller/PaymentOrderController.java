@@ -1,16 +1,26 @@
 package com.quaer_api.controller;
 
+import com.quaer_api.dto.PaymentOrderListItem;
 import com.quaer_api.entity.PaymentOrder;
 import com.quaer_api.repository.PaymentOrderRepository;
+import com.quaer_api.service.PaymentOutboxDispatcher;
+import com.quaer_api.service.PaymentSummaryService;
+import com.quaer_api.util.KeysetCursor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.persistence.criteria.Predicate;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,9 +37,19 @@ import java.util.Optional;
 public class PaymentOrderController {
 
     private final PaymentOrderRepository paymentOrderRepository;
+    private final PaymentOutboxDispatcher paymentOutboxDispatcher;
+    private final PaymentSummaryService paymentSummaryService;
 
     /**
      * 查询支付订单列表（分页）
+     * 列表只返回 PaymentOrderListItem 中的字段，收据链接、风险评估等通过 /{id} 详情接口获取
+     *
+     * 两种分页方式：
+     * 1. 页码分页（默认）：page/pageSize，返回 total/totalPages
+     * 2. 游标分页：传入 cursor 参数（第一页传空值 cursor=），按 (localCreatedAt, id) 降序，
+     *    返回 nextCursor（没有更多数据时为null），不执行 COUNT 查询；需要总数时传 includeTotal=true
+     *    （Square的createdAt在收到webhook之前为空，所以游标分页使用本地创建时间）
+     *    按 squarePaymentId / orderId 精确查询时结果最多几条，不支持游标分页，同时传入 cursor 时返回400
      */
     @GetMapping
     public ResponseEntity<Map<String, Object>> getPaymentOrders(
@@ -38,11 +58,20 @@ public class PaymentOrderController {
             @RequestParam(required = false) String status,
             @RequestParam(required = false) String paymentSource,
             @RequestParam(required = false) String squarePaymentId,
-            @RequestParam(required = false) String orderId
+            @RequestParam(required = false) String orderId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal
     ) {
         try {
-            log.info("查询支付订单列表: page={}, pageSize={}, status={}, paymentSource={}, squarePaymentId={}, orderId={}",
-                page, pageSize, status, paymentSource, squarePaymentId, orderId);
+            log.info("查询支付订单列表: page={}, pageSize={}, status={}, paymentSource={}, squarePaymentId={}, orderId={}, cursor={}",
+                page, pageSize, status, paymentSource, squarePaymentId, orderId, cursor);
+
+            if (cursor != null) {
+                if (!isBlank(squarePaymentId) || !isBlank(orderId)) {
+                    throw new IllegalArgumentException("按 squarePaymentId / orderId 查询时不支持 cursor 游标分页");
+                }
+                return ResponseEntity.ok(getPaymentOrdersByCursor(status, paymentSource, cursor, pageSize, includeTotal));
+            }
 
             // 按创建时间降序排序（最新的在前面）
             Pageable pageable = PageRequest.of(
@@ -51,46 +80,9 @@ public class PaymentOrderController {
                 Sort.by(Sort.Direction.DESC, "createdAt")
             );
 
-            Page<PaymentOrder> paymentOrderPage;
-
-            // 根据条件查询
-            if (squarePaymentId != null && !squarePaymentId.trim().isEmpty()) {
-                // 如果提供了支付ID，直接按支付ID查询
-                Optional<PaymentOrder> order = paymentOrderRepository.findBySquarePaymentId(squarePaymentId);
-                if (order.isPresent()) {
-                    paymentOrderPage = new org.springframework.data.domain.PageImpl<>(
-                        java.util.Collections.singletonList(order.get()),
-                        pageable,
-                        1
-                    );
-                } else {
-                    paymentOrderPage = Page.empty(pageable);
-                }
-            } else if (orderId != null && !orderId.trim().isEmpty()) {
-                // 如果提供了订单ID，直接按订单ID查询
-                Optional<PaymentOrder> order = paymentOrderRepository.findByOrderId(orderId);
-                if (order.isPresent()) {
-                    paymentOrderPage = new org.springframework.data.domain.PageImpl<>(
-                        java.util.Collections.singletonList(order.get()),
-                        pageable,
-                        1
-                    );
-                } else {
-                    paymentOrderPage = Page.empty(pageable);
-                }
-            } else if (status != null && !status.trim().isEmpty() && paymentSource != null && !paymentSource.trim().isEmpty()) {
-                // 同时按状态和支付来源查询
-                paymentOrderPage = paymentOrderRepository.findByStatusAndPaymentSource(status, paymentSource, pageable);
-            } else if (status != null && !status.trim().isEmpty()) {
-                // 按状态查询
-                paymentOrderPage = paymentOrderRepository.findByStatus(status, pageable);
-            } else if (paymentSource != null && !paymentSource.trim().isEmpty()) {
-                // 按支付来源查询
-                paymentOrderPage = paymentOrderRepository.findByPaymentSource(paymentSource, pageable);
-            } else {
-                // 查询全部
-                paymentOrderPage = paymentOrderRepository.findAll(pageable);
-            }
+            // 只查询列表字段，完整订单通过详情接口获取
+            Page<PaymentOrderListItem> paymentOrderPage = paymentOrderRepository.findListItems(
+                buildPaymentOrderSpec(status, paymentSource, squarePaymentId, orderId), pageable);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -105,6 +97,11 @@ public class PaymentOrderController {
 
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
         } catch (Exception e) {
             log.error("查询支付订单列表失败", e);
             Map<String, Object> errorResponse = new HashMap<>();
@@ -114,6 +111,150 @@ public class PaymentOrderController {
         }
     }
 
+    /**
+     * 游标分页查询：WHERE (localCreatedAt, id) < (游标时间, 游标ID) ORDER BY localCreatedAt DESC, id DESC LIMIT pageSize + 1
+     * 多查一条用于判断是否还有下一页
+     */
+    private Map<String, Object> getPaymentOrdersByCursor(String status, String paymentSource, String cursor,
+                                                         int pageSize, boolean includeTotal) {
+        if (pageSize < 1 || pageSize > 500) {
+            throw new IllegalArgumentException("pageSize 必须在1~500之间");
+        }
+
+        Specification<PaymentOrder> filter = buildPaymentOrderSpec(status, paymentSource, null, null);
+
+        Specification<PaymentOrder> spec = filter;
+        if (!cursor.trim().isEmpty()) {
+            KeysetCursor position = KeysetCursor.decode(cursor);
+            OffsetDateTime time = position.getOffsetDateTime();
+            long id = position.getId();
+            spec = spec.and((root, query, cb) -> cb.or(
+                    cb.lessThan(root.get("localCreatedAt"), time),
+                    cb.and(cb.equal(root.get("localCreatedAt"), time), cb.lessThan(root.get("id"), id))));
+        }
+
+        Sort sort = Sort.by(Sort.Direction.DESC, "localCreatedAt").and(Sort.by(Sort.Direction.DESC, "id"));
+        List<PaymentOrderListItem> rows = paymentOrderRepository.findListItems(spec, sort, pageSize + 1);
+
+        boolean hasMore = rows.size() > pageSize;
+        List<PaymentOrderListItem> records = hasMore ? rows.subList(0, pageSize) : rows;
+        PaymentOrderListItem last = records.isEmpty() ? null : records.get(records.size() - 1);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("records", records);
+        response.put("pageSize", pageSize);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", hasMore && last != null && last.getLocalCreatedAt() != null
+            ? KeysetCursor.encode(last.getLocalCreatedAt(), last.getId()) : null);
+        if (includeTotal) {
+            response.put("total", paymentOrderRepository.count(filter));
+        }
+        return response;
+    }
+
+    /**
+     * 构建支付订单列表的筛选条件
+     * 提供了支付ID或订单ID时只按ID查询，否则按状态和支付来源筛选
+     */
+    private Specification<PaymentOrder> buildPaymentOrderSpec(String status, String paymentSource,
+                                                              String squarePaymentId, String orderId) {
+        return (root, query, cb) -> {
+            if (!isBlank(squarePaymentId)) {
+                return cb.equal(root.get("squarePaymentId"), squarePaymentId);
+            }
+            if (!isBlank(orderId)) {
+                return cb.equal(root.get("orderId"), orderId);
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            if (!isBlank(status)) {
+                predicates.add(cb.equal(root.get("status"), status));
+            }
+            if (!isBlank(paymentSource)) {
+                predicates.add(cb.equal(root.get("paymentSource"), paymentSource));
+            }
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * 查询支付发件箱状态（出场后异步发起Square支付的队列）
+     */
+    @GetMapping("/outbox/stats")
+    public ResponseEntity<Map<String, Object>> getOutboxStats() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("stats", paymentOutboxDispatcher.getStats());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("查询支付发件箱状态失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "查询失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * 收入汇总（按时间范围和Square Location，结果短时间缓存）
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/payment-orders/summary?range=today
+     * GET http://localhost:8086/api/payment-orders/summary?range=custom&startDate=2025-11-01&endDate=2025-11-30&locationIds=L1,L2
+     *
+     * @param range today / week / month / custom
+     * @param startDate custom时的开始日期（含）
+     * @param endDate custom时的结束日期（含）
+     * @param locationIds Square Location ID，多个用逗号分隔(可选，为空时汇总所有停车场)
+     * @param status 支付状态(可选，默认COMPLETED)
+     */
+    @GetMapping("/summary")
+    public ResponseEntity<Map<String, Object>> getSummary(
+            @RequestParam(defaultValue = "today") String range,
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate,
+            @RequestParam(required = false) String locationIds,
+            @RequestParam(required = false) String status
+    ) {
+        try {
+            OffsetDateTime[] window = paymentSummaryService.resolveRange(range,
+                startDate != null && !startDate.trim().isEmpty() ? LocalDate.parse(startDate.trim()) : null,
+                endDate != null && !endDate.trim().isEmpty() ? LocalDate.parse(endDate.trim()) : null);
+
+            List<String> locations = new ArrayList<>();
+            if (locationIds != null) {
+                for (String locationId : locationIds.split(",")) {
+                    if (!locationId.trim().isEmpty() && !locations.contains(locationId.trim())) {
+                        locations.add(locationId.trim());
+                    }
+                }
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("range", range);
+            response.put("summary", paymentSummaryService.summarize(window[0], window[1], locations, status));
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        } catch (Exception e) {
+            log.error("查询收入汇总失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "查询失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
     /**
      * 根据ID查询支付订单详情
      */
@@ -0,0 +1,204 @@
+package com.quaer_api.controller;
+
+import com.quaer_api.entity.LotDailyStats;
+import com.quaer_api.entity.LotHourlyStats;
+import com.quaer_api.repository.LotDailyStatsRepository;
+import com.quaer_api.repository.LotHourlyStatsRepository;
+import com.quaer_api.service.LotStatsRollupJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 历史报表Controller
+ * 只读取汇总表（lot_daily_stats / lot_hourly_stats），不扫描原始记录表
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/reports")
+@RequiredArgsConstructor
+public class ReportController {
+
+    /**
+     * 每日报表最多查询的天数
+     */
+    private static final long MAX_DAYS = 366;
+
+    private final LotDailyStatsRepository lotDailyStatsRepository;
+    private final LotHourlyStatsRepository lotHourlyStatsRepository;
+    private final LotStatsRollupJob lotStatsRollupJob;
+
+    /**
+     * 每日报表
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/reports/daily?parkingLotCode=P001&startDate=2025-11-01&endDate=2025-11-30
+     *
+     * @param parkingLotCode 停车场编号(可选，为空时返回所有停车场)
+     * @param startDate 开始日期(可选，默认最近30天)
+     * @param endDate 结束日期(可选，默认今天)
+     */
+    @GetMapping("/daily")
+    public ResponseEntity<Map<String, Object>> getDaily(
+            @RequestParam(required = false) String parkingLotCode,
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate
+    ) {
+        try {
+            LocalDate end = endDate != null && !endDate.trim().isEmpty() ? LocalDate.parse(endDate.trim()) : LocalDate.now();
+            LocalDate start = startDate != null && !startDate.trim().isEmpty() ? LocalDate.parse(startDate.trim()) : end.minusDays(29);
+            if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+                return badRequest("日期范围无效（最多366天）");
+            }
+
+            List<LotDailyStats> rows = parkingLotCode != null && !parkingLotCode.trim().isEmpty()
+                ? lotDailyStatsRepository.findByParkingLotCodeAndStatDateBetweenOrderByStatDateAsc(parkingLotCode.trim(), start, end)
+                : lotDailyStatsRepository.findByStatDateBetweenOrderByStatDateAscParkingLotCodeAsc(start, end);
+
+            long entries = 0;
+            long exits = 0;
+            long exitOnly = 0;
+            long revenueCents = 0;
+            long paymentCount = 0;
+            for (LotDailyStats row : rows) {
+                entries += row.getEntries();
+                exits += row.getExits();
+                exitOnly += row.getExitOnly();
+                revenueCents += row.getRevenueCents();
+                paymentCount += row.getPaymentCount();
+            }
+            Map<String, Object> totals = new LinkedHashMap<>();
+            totals.put("entries", entries);
+            totals.put("exits", exits);
+            totals.put("exitOnly", exitOnly);
+            totals.put("revenueCents", revenueCents);
+            totals.put("paymentCount", paymentCount);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("startDate", start);
+            response.put("endDate", end);
+            response.put("totals", totals);
+            response.put("records", rows);
+            return ResponseEntity.ok(response);
+
+        } catch (DateTimeParseException e) {
+            return badRequest("日期格式错误: " + e.getParsedString());
+        } catch (Exception e) {
+            log.error("查询每日报表失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "查询失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * 每小时报表
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/reports/hourly?parkingLotCode=P001&date=2025-11-03
+     *
+     * @param parkingLotCode 停车场编号(可选，为空时返回所有停车场)
+     * @param date 日期(可选，默认今天)
+     * @param days 天数(可选，默认1，最多31)
+     */
+    @GetMapping("/hourly")
+    public ResponseEntity<Map<String, Object>> getHourly(
+            @RequestParam(required = false) String parkingLotCode,
+            @RequestParam(required = false) String date,
+            @RequestParam(defaultValue = "1") int days
+    ) {
+        try {
+            if (days < 1 || days > 31) {
+                return badRequest("days 必须在1~31之间");
+            }
+            LocalDate day = date != null && !date.trim().isEmpty() ? LocalDate.parse(date.trim()) : LocalDate.now();
+            LocalDateTime start = day.atStartOfDay();
+            LocalDateTime end = start.plusDays(days);
+
+            List<LotHourlyStats> rows = parkingLotCode != null && !parkingLotCode.trim().isEmpty()
+                ? lotHourlyStatsRepository.findByParkingLotCodeAndStatHourGreaterThanEqualAndStatHourLessThanOrderByStatHourAsc(
+                    parkingLotCode.trim(), start, end)
+                : lotHourlyStatsRepository.findByStatHourGreaterThanEqualAndStatHourLessThanOrderByStatHourAscParkingLotCodeAsc(
+                    start, end);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("date", day);
+            response.put("days", days);
+            response.put("records", rows);
+            return ResponseEntity.ok(response);
+
+        } catch (DateTimeParseException e) {
+            return badRequest("日期格式错误: " + e.getParsedString());
+        } catch (Exception e) {
+            log.error("查询每小时报表失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "查询失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * 汇总任务状态（水位线、上次运行时间）
+     */
+    @GetMapping("/rollup/status")
+    public ResponseEntity<Map<String, Object>> getRollupStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("status", lotStatsRollupJob.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 立即执行一次增量汇总
+     */
+    @PostMapping("/rollup/run")
+    public ResponseEntity<Map<String, Object>> runRollup() {
+        log.info("手动执行历史汇总");
+        return ResponseEntity.ok(lotStatsRollupJob.run());
+    }
+
+    /**
+     * 重建日期范围内的汇总（修改历史数据或调整汇总规则后使用）
+     *
+     * 访问示例：
+     * POST http://localhost:8086/api/reports/rollup/rebuild?startDate=2025-10-01&endDate=2025-10-31
+     */
+    @PostMapping("/rollup/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollup(
+            @RequestParam String startDate,
+            @RequestParam String endDate
+    ) {
+        try {
+            LocalDate start = LocalDate.parse(startDate.trim());
+            LocalDate end = LocalDate.parse(endDate.trim());
+            if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+                return badRequest("日期范围无效（最多366天）");
+            }
+            log.info("手动重建历史汇总: {} ~ {}", start, end);
+            return ResponseEntity.ok(lotStatsRollupJob.rebuild(start, end));
+        } catch (DateTimeParseException e) {
+            return badRequest("日期格式错误: " + e.getParsedString());
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> badRequest(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("message", message);
+        return ResponseEntity.badRequest().body(errorResponse);
+    }
+}
@@ -1,6 +1,7 @@
 package com.quaer_api.controller;
 
 import com.quaer_api.service.SnapshotWhitelistService;
+import com.quaer_api.util.EventLog;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -69,10 +70,7 @@ public class SnapshotUploadController {
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "filename", required = false) String filename) {
 
-        log.info("=".repeat(80));
-        log.info("📸 收到图片上传请求 - 时间: {}", getCurrentTime());
-        log.info("=".repeat(80));
-
+        long start = System.currentTimeMillis();
         Map<String, Object> result = new HashMap<>();
 
         try {
@@ -81,7 +79,7 @@ public class SnapshotUploadController {
                 result.put("success", false);
                 result.put("message", "停车场编号不能为空");
                 result.put("timestamp", getCurrentTime());
-                log.error("❌ 上传失败：停车场编号为空");
+                EventLog.warn("snapshot.upload").with("result", "missing_lot").log();
                 return ResponseEntity.badRequest().body(result);
             }
 
@@ -89,7 +87,7 @@ public class SnapshotUploadController {
                 result.put("success", false);
                 result.put("message", "图片文件不能为空");
                 result.put("timestamp", getCurrentTime());
-                log.error("❌ 上传失败：文件为空");
+                EventLog.warn("snapshot.upload").with("lot", parkingLotCode).with("result", "empty_file").log();
                 return ResponseEntity.badRequest().body(result);
             }
 
@@ -102,21 +100,18 @@ public class SnapshotUploadController {
                 finalFilename = "snapshot_" + System.currentTimeMillis() + ".jpg";
             }
 
-            log.info("请求信息:");
-            log.info("  停车场编号: {}", parkingLotCode);
-            log.info("  文件名: {}", finalFilename);
-            log.info("  文件大小: {} KB", file.getSize() / 1024);
-            log.info("  文件类型: {}", file.getContentType());
-            log.info("  存储根目录: {}", getSnapshotBaseDir());
-
             // 🔒 白名单验证：检查文件名是否在白名单中
             if (!whitelistService.isInWhitelist(finalFilename)) {
                 result.put("success", false);
                 result.put("message", "文件未经授权，不在白名单中");
                 result.put("filename", finalFilename);
                 result.put("timestamp", getCurrentTime());
-                log.error("❌ 上传失败：文件未经授权（不在白名单中）: {}", finalFilename);
-                log.error("   提示：请确保先通过MQTT发送消息，将文件名加入白名单");
+                // 提示：需要先通过MQTT发送消息，将文件名加入白名单
+                EventLog.warn("snapshot.upload")
+                    .with("lot", parkingLotCode)
+                    .with("file", finalFilename)
+                    .with("result", "not_whitelisted")
+                    .log();
                 return ResponseEntity.status(403).body(result);
             }
 
@@ -140,14 +135,13 @@ public class SnapshotUploadController {
             // 🗑️ 上传成功后从白名单移除
             whitelistService.removeFromWhitelist(finalFilename);
 
-            log.info("-".repeat(80));
-            log.info("✅ 图片上传成功!");
-            log.info("  存储路径: {}", targetPath.toAbsolutePath());
-            log.info("  停车场编号: {}", parkingLotCode);
-            log.info("  文件名: {}", finalFilename);
-            log.info("  文件大小: {} KB ({} bytes)", file.getSize() / 1024, file.getSize());
-            log.info("  白名单剩余: {} 个文件", whitelistService.getWhitelistSize());
-            log.info("=".repeat(80));
+            EventLog.info("snapshot.upload")
+                .with("lot", parkingLotCode)
+                .with("file", finalFilename)
+                .with("bytes", file.getSize())
+                .with("whitelist", whitelistService.getWhitelistSize())
+                .with("ms", System.currentTimeMillis() - start)
+                .log();
 
             result.put("success", true);
             result.put("message", "图片上传成功");
@@ -160,10 +154,11 @@ public class SnapshotUploadController {
             return ResponseEntity.ok(result);
 
         } catch (IOException e) {
-            log.error("=".repeat(80));
-            log.error("❌ 图片上传失败（IO错误）!");
-            log.error("错误信息: {}", e.getMessage());
-            log.error("=".repeat(80));
+            EventLog.error("snapshot.upload")
+                .with("lot", parkingLotCode)
+                .with("result", "io_error")
+                .with("error", e.getMessage())
+                .log();
 
             result.put("success", false);
             result.put("message", "图片保存失败: " + e.getMessage());
@@ -172,10 +167,12 @@ public class SnapshotUploadController {
             return ResponseEntity.status(500).body(result);
 
         } catch (Exception e) {
-            log.error("=".repeat(80));
-            log.error("❌ 图片上传失败!", e);
-            log.error("错误信息: {}", e.getMessage());
-            log.error("=".repeat(80));
+            EventLog.error("snapshot.upload")
+                .with("lot", parkingLotCode)
+                .with("result", "failed")
+                .with("error", e.getMessage())
+                .cause(e)
+                .log();
 
             result.put("success", false);
             result.put("message", "图片上传失败: " + e.getMessage());
@@ -0,0 +1,45 @@
+package com.quaer_api.controller;
+
+import com.quaer_api.service.TariffEngine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 收费规则Controller
+ * 查看当前生效的收费方案，修改 tariff_plans 表后可手动重新加载
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/tariffs")
+@RequiredArgsConstructor
+public class TariffController {
+
+    private final TariffEngine tariffEngine;
+
+    /**
+     * 查询当前生效的收费方案
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getTariffs() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", tariffEngine.describe());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 重新加载收费方案（配置文件 + 数据库）
+     */
+    @PostMapping("/reload")
+    public ResponseEntity<Map<String, Object>> reload() {
+        log.info("手动重新加载收费方案");
+        Map<String, Object> response = tariffEngine.reload();
+        response.put("data", tariffEngine.describe());
+        return ResponseEntity.ok(response);
+    }
+}
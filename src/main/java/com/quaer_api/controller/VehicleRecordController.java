@@ -1,13 +1,20 @@
 package com.quaer_api.controller;
 
+import com.quaer_api.dto.VehicleRecordListItem;
 import com.quaer_api.entity.PaymentOrder;
 import com.quaer_api.entity.VehicleRecord;
 import com.quaer_api.repository.PaymentOrderRepository;
 import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.service.GateCommandService;
 import com.quaer_api.service.LedDisplayService;
-import com.quaer_api.service.MqttClientService;
+import com.quaer_api.service.ParkingCounterService;
+import com.quaer_api.service.PlateSearchIndexService;
 import com.quaer_api.service.SquareOnlinePaymentService;
 import com.quaer_api.service.SquareTerminalService;
+import com.quaer_api.service.TariffEngine;
+import com.quaer_api.service.VehicleOccupancyIndex;
+import com.quaer_api.service.VehicleStatisticsService;
+import com.quaer_api.util.KeysetCursor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -31,6 +38,7 @@ import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -61,7 +69,22 @@ public class VehicleRecordController {
     private LedDisplayService ledDisplayService;
 
     @Autowired
-    private MqttClientService mqttClientService;
+    private GateCommandService gateCommandService;
+
+    @Autowired
+    private VehicleOccupancyIndex occupancyIndex;
+
+    @Autowired
+    private TariffEngine tariffEngine;
+
+    @Autowired
+    private VehicleStatisticsService vehicleStatisticsService;
+
+    @Autowired
+    private ParkingCounterService parkingCounterService;
+
+    @Autowired
+    private PlateSearchIndexService plateSearchIndexService;
 
     @Value("${snapshot.base-dir:}")
     private String snapshotBaseDir;
@@ -86,6 +109,12 @@ public class VehicleRecordController {
 
     /**
      * 获取车辆记录列表（分页+筛选）
+     * 列表只返回 VehicleRecordListItem 中的字段，快照、LED配置、支付链接等通过 /{id} 详情接口获取
+     *
+     * 两种分页方式：
+     * 1. 页码分页（默认）：page/pageSize，返回 total/totalPages
+     * 2. 游标分页：传入 cursor 参数（第一页传空值 cursor=），按 id 降序（即创建顺序，翻页期间记录被更新也不会重复或遗漏），
+     *    返回 nextCursor（没有更多数据时为null），不执行 COUNT 查询；需要总数时传 includeTotal=true
      */
     @GetMapping
     public ResponseEntity<Map<String, Object>> getVehicleRecords(
@@ -96,70 +125,25 @@ public class VehicleRecordController {
             @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode,
             @RequestParam(value = "startDate", required = false) String startDate,
             @RequestParam(value = "endDate", required = false) String endDate,
-            @RequestParam(value = "paymentStatus", required = false) String paymentStatus
+            @RequestParam(value = "paymentStatus", required = false) String paymentStatus,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "includeTotal", defaultValue = "false") boolean includeTotal
     ) {
         try {
-            log.info("获取车辆记录列表: page={}, pageSize={}, status={}, plateNumber={}, parkingLotCode={}, startDate={}, endDate={}, paymentStatus={}",
-                    page, pageSize, status, plateNumber, parkingLotCode, startDate, endDate, paymentStatus);
-
-            // 创建分页对象（页码从0开始，按更新时间降序排序）
-            Pageable pageable = PageRequest.of(page - 1, pageSize, Sort.by(Sort.Direction.DESC, "updatedAt"));
-
-            // 构建动态查询条件
-            Specification<VehicleRecord> spec = (root, query, criteriaBuilder) -> {
-                List<Predicate> predicates = new ArrayList<>();
-
-                // 状态筛选
-                if (status != null && !status.trim().isEmpty()) {
-                    predicates.add(criteriaBuilder.equal(root.get("status"), status));
-                }
-
-                // 车牌号筛选（模糊搜索入口和出口车牌）
-                if (plateNumber != null && !plateNumber.trim().isEmpty()) {
-                    String pattern = "%" + plateNumber.trim() + "%";
-                    Predicate entryPlate = criteriaBuilder.like(root.get("entryPlateNumber"), pattern);
-                    Predicate exitPlate = criteriaBuilder.like(root.get("exitPlateNumber"), pattern);
-                    predicates.add(criteriaBuilder.or(entryPlate, exitPlate));
-                }
+            log.info("获取车辆记录列表: page={}, pageSize={}, status={}, plateNumber={}, parkingLotCode={}, startDate={}, endDate={}, paymentStatus={}, cursor={}",
+                    page, pageSize, status, plateNumber, parkingLotCode, startDate, endDate, paymentStatus, cursor);
 
-                // 停车场编号筛选
-                if (parkingLotCode != null && !parkingLotCode.trim().isEmpty()) {
-                    predicates.add(criteriaBuilder.equal(root.get("parkingLotCode"), parkingLotCode));
-                }
-
-                // 支付状态筛选
-                if (paymentStatus != null && !paymentStatus.trim().isEmpty()) {
-                    predicates.add(criteriaBuilder.equal(root.get("paymentStatus"), paymentStatus));
-                }
-
-                // 日期范围筛选（基于入场时间或出场时间）
-                if (startDate != null && !startDate.trim().isEmpty()) {
-                    try {
-                        LocalDateTime startDateTime = LocalDate.parse(startDate).atStartOfDay();
-                        Predicate entryAfter = criteriaBuilder.greaterThanOrEqualTo(root.get("entryTime"), startDateTime);
-                        Predicate exitAfter = criteriaBuilder.greaterThanOrEqualTo(root.get("exitTime"), startDateTime);
-                        predicates.add(criteriaBuilder.or(entryAfter, exitAfter));
-                    } catch (Exception e) {
-                        log.warn("无效的开始日期格式: {}", startDate);
-                    }
-                }
+            Specification<VehicleRecord> spec = buildVehicleRecordSpec(status, plateNumber, parkingLotCode, startDate, endDate, paymentStatus);
 
-                if (endDate != null && !endDate.trim().isEmpty()) {
-                    try {
-                        LocalDateTime endDateTime = LocalDate.parse(endDate).atTime(LocalTime.MAX);
-                        Predicate entryBefore = criteriaBuilder.lessThanOrEqualTo(root.get("entryTime"), endDateTime);
-                        Predicate exitBefore = criteriaBuilder.lessThanOrEqualTo(root.get("exitTime"), endDateTime);
-                        predicates.add(criteriaBuilder.or(entryBefore, exitBefore));
-                    } catch (Exception e) {
-                        log.warn("无效的结束日期格式: {}", endDate);
-                    }
-                }
+            if (cursor != null) {
+                return ResponseEntity.ok(getVehicleRecordsByCursor(spec, cursor, pageSize, includeTotal));
+            }
 
-                return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
-            };
+            // 创建分页对象（页码从0开始，按更新时间降序排序）
+            Pageable pageable = PageRequest.of(page - 1, pageSize, Sort.by(Sort.Direction.DESC, "updatedAt"));
 
-            // 执行分页查询
-            Page<VehicleRecord> recordPage = vehicleRecordRepository.findAll(spec, pageable);
+            // 执行分页查询（只查询列表字段，完整记录通过详情接口获取）
+            Page<VehicleRecordListItem> recordPage = vehicleRecordRepository.findListItems(spec, pageable);
 
             log.info("查询结果: 总记录数={}, 当前页记录数={}", recordPage.getTotalElements(), recordPage.getContent().size());
 
@@ -174,6 +158,11 @@ public class VehicleRecordController {
 
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
         } catch (Exception e) {
             log.error("获取车辆记录列表失败", e);
             Map<String, Object> errorResponse = new HashMap<>();
@@ -183,6 +172,97 @@ public class VehicleRecordController {
         }
     }
 
+    /**
+     * 游标分页查询：WHERE id < 游标ID ORDER BY id DESC LIMIT pageSize + 1
+     * 多查一条用于判断是否还有下一页
+     * 不按 updatedAt 排序：入场记录在出场、支付时会更新，翻页期间排序位置变化会导致重复或遗漏
+     */
+    private Map<String, Object> getVehicleRecordsByCursor(Specification<VehicleRecord> filter, String cursor,
+                                                          int pageSize, boolean includeTotal) {
+        if (pageSize < 1 || pageSize > 500) {
+            throw new IllegalArgumentException("pageSize 必须在1~500之间");
+        }
+
+        Specification<VehicleRecord> spec = filter;
+        if (!cursor.trim().isEmpty()) {
+            long id = KeysetCursor.decode(cursor).getId();
+            spec = spec.and((root, query, cb) -> cb.lessThan(root.get("id"), id));
+        }
+
+        Sort sort = Sort.by(Sort.Direction.DESC, "id");
+        List<VehicleRecordListItem> rows = vehicleRecordRepository.findListItems(spec, sort, pageSize + 1);
+
+        boolean hasMore = rows.size() > pageSize;
+        List<VehicleRecordListItem> records = hasMore ? rows.subList(0, pageSize) : rows;
+        VehicleRecordListItem last = records.isEmpty() ? null : records.get(records.size() - 1);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("records", records);
+        response.put("pageSize", pageSize);
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", hasMore && last != null ? KeysetCursor.encode(last.getId()) : null);
+        if (includeTotal) {
+            response.put("total", vehicleRecordRepository.count(filter));
+        }
+        return response;
+    }
+
+    /**
+     * 构建车辆记录列表的筛选条件
+     */
+    private Specification<VehicleRecord> buildVehicleRecordSpec(String status, String plateNumber, String parkingLotCode,
+                                                                String startDate, String endDate, String paymentStatus) {
+        return (root, query, criteriaBuilder) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            // 状态筛选
+            if (status != null && !status.trim().isEmpty()) {
+                predicates.add(criteriaBuilder.equal(root.get("status"), status));
+            }
+
+            // 车牌号筛选（入口或出口车牌，按子串搜索，3个字符及以上使用n-gram索引）
+            if (plateNumber != null && !plateNumber.trim().isEmpty()) {
+                predicates.add(plateSearchIndexService.plateMatches(plateNumber, root, query, criteriaBuilder));
+            }
+
+            // 停车场编号筛选
+            if (parkingLotCode != null && !parkingLotCode.trim().isEmpty()) {
+                predicates.add(criteriaBuilder.equal(root.get("parkingLotCode"), parkingLotCode));
+            }
+
+            // 支付状态筛选
+            if (paymentStatus != null && !paymentStatus.trim().isEmpty()) {
+                predicates.add(criteriaBuilder.equal(root.get("paymentStatus"), paymentStatus));
+            }
+
+            // 日期范围筛选（基于入场时间或出场时间）
+            if (startDate != null && !startDate.trim().isEmpty()) {
+                try {
+                    LocalDateTime startDateTime = LocalDate.parse(startDate).atStartOfDay();
+                    Predicate entryAfter = criteriaBuilder.greaterThanOrEqualTo(root.get("entryTime"), startDateTime);
+                    Predicate exitAfter = criteriaBuilder.greaterThanOrEqualTo(root.get("exitTime"), startDateTime);
+                    predicates.add(criteriaBuilder.or(entryAfter, exitAfter));
+                } catch (Exception e) {
+                    log.warn("无效的开始日期格式: {}", startDate);
+                }
+            }
+
+            if (endDate != null && !endDate.trim().isEmpty()) {
+                try {
+                    LocalDateTime endDateTime = LocalDate.parse(endDate).atTime(LocalTime.MAX);
+                    Predicate entryBefore = criteriaBuilder.lessThanOrEqualTo(root.get("entryTime"), endDateTime);
+                    Predicate exitBefore = criteriaBuilder.lessThanOrEqualTo(root.get("exitTime"), endDateTime);
+                    predicates.add(criteriaBuilder.or(entryBefore, exitBefore));
+                } catch (Exception e) {
+                    log.warn("无效的结束日期格式: {}", endDate);
+                }
+            }
+
+            return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
     /**
      * 获取单条车辆记录详情
      */
@@ -251,42 +331,31 @@ public class VehicleRecordController {
     }
 
     /**
-     * 获取统计信息
+     * 获取统计信息（数据库中按状态分组统计）
      */
     @GetMapping("/statistics")
     public ResponseEntity<Map<String, Object>> getStatistics(
-            @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode
+            @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate
     ) {
         try {
-            log.info("获取统计信息: parkingLotCode={}", parkingLotCode);
-
-            List<VehicleRecord> allRecords;
-
-            if (parkingLotCode != null && !parkingLotCode.trim().isEmpty()) {
-                Specification<VehicleRecord> spec = (root, query, criteriaBuilder) ->
-                        criteriaBuilder.equal(root.get("parkingLotCode"), parkingLotCode);
-                allRecords = vehicleRecordRepository.findAll(spec);
-            } else {
-                allRecords = vehicleRecordRepository.findAll();
-            }
+            log.info("获取统计信息: parkingLotCode={}, startDate={}, endDate={}", parkingLotCode, startDate, endDate);
 
-            long totalRecords = allRecords.size();
-            long enteredCount = allRecords.stream().filter(r -> "entered".equals(r.getStatus())).count();
-            long exitedCount = allRecords.stream().filter(r -> "exited".equals(r.getStatus())).count();
-            long exitOnlyCount = allRecords.stream().filter(r -> "exit_only".equals(r.getStatus())).count();
+            String lot = parkingLotCode != null && !parkingLotCode.trim().isEmpty() ? parkingLotCode : null;
+            LocalDateTime startTime = startDate != null && !startDate.trim().isEmpty()
+                    ? LocalDate.parse(startDate.trim()).atStartOfDay() : null;
+            LocalDateTime endTime = endDate != null && !endDate.trim().isEmpty()
+                    ? LocalDate.parse(endDate.trim()).atTime(LocalTime.MAX) : null;
 
-            Map<String, Object> statistics = new HashMap<>();
-            statistics.put("total", totalRecords);
-            statistics.put("entered", enteredCount);
-            statistics.put("exited", exitedCount);
-            statistics.put("exitOnly", exitOnlyCount);
+            Map<String, Object> statistics = vehicleStatisticsService.countByStatus(lot, startTime, endTime);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("statistics", statistics);
 
             log.info("统计结果: total={}, entered={}, exited={}, exitOnly={}",
-                    totalRecords, enteredCount, exitedCount, exitOnlyCount);
+                    statistics.get("total"), statistics.get("entered"), statistics.get("exited"), statistics.get("exitOnly"));
 
             return ResponseEntity.ok(response);
 
@@ -299,6 +368,179 @@ public class VehicleRecordController {
         }
     }
 
+    /**
+     * 获取扩展统计信息：当前在场车辆、每小时入场/出场车辆数、平均停留时长
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/vehicle-records/statistics/extended?parkingLotCode=P001&startDate=2025-11-01&endDate=2025-11-03
+     *
+     * @param parkingLotCode 停车场编号(可选)
+     * @param startDate 开始日期(可选，默认最近24小时)
+     * @param endDate 结束日期(可选，含当天)
+     */
+    @GetMapping("/statistics/extended")
+    public ResponseEntity<Map<String, Object>> getExtendedStatistics(
+            @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode,
+            @RequestParam(value = "startDate", required = false) String startDate,
+            @RequestParam(value = "endDate", required = false) String endDate
+    ) {
+        try {
+            log.info("获取扩展统计信息: parkingLotCode={}, startDate={}, endDate={}", parkingLotCode, startDate, endDate);
+
+            String lot = parkingLotCode != null && !parkingLotCode.trim().isEmpty() ? parkingLotCode : null;
+            LocalDateTime endTime = endDate != null && !endDate.trim().isEmpty()
+                    ? LocalDate.parse(endDate.trim()).plusDays(1).atStartOfDay()
+                    : LocalDateTime.now().withMinute(0).withSecond(0).withNano(0).plusHours(1);
+            LocalDateTime startTime = startDate != null && !startDate.trim().isEmpty()
+                    ? LocalDate.parse(startDate.trim()).atStartOfDay()
+                    : endTime.minusHours(24);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("statistics", vehicleStatisticsService.extendedStatistics(lot, startTime, endTime));
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        } catch (Exception e) {
+            log.error("获取扩展统计信息失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "获取扩展统计信息失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
+    /**
+     * 获取实时统计（内存计数器，不查询数据库）：在场车辆、今日出场、今日异常出口、待支付、今日收入
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/vehicle-records/statistics/live?parkingLotCode=P001
+     *
+     * @param parkingLotCode 停车场编号(可选)
+     */
+    @GetMapping("/statistics/live")
+    public ResponseEntity<Map<String, Object>> getLiveStatistics(
+            @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode
+    ) {
+        String lot = parkingLotCode != null && !parkingLotCode.trim().isEmpty() ? parkingLotCode.trim() : null;
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("statistics", parkingCounterService.getLiveStatistics(lot));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 与数据库对账实时统计计数器
+     */
+    @PostMapping("/statistics/live/reconcile")
+    public ResponseEntity<Map<String, Object>> reconcileLiveStatistics() {
+        log.info("手动对账实时统计计数器");
+        parkingCounterService.reconcile();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("statistics", parkingCounterService.getLiveStatistics(null));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取在场车辆内存索引状态
+     */
+    @GetMapping("/occupancy-index")
+    public ResponseEntity<Map<String, Object>> getOccupancyIndex() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("index", occupancyIndex.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 从数据库重建在场车辆内存索引
+     */
+    @PostMapping("/occupancy-index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildOccupancyIndex() {
+        log.info("手动重建在场车辆内存索引");
+        occupancyIndex.rebuild();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", occupancyIndex.isReady());
+        response.put("index", occupancyIndex.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查看车牌搜索索引状态
+     */
+    @GetMapping("/plate-index")
+    public ResponseEntity<Map<String, Object>> getPlateIndex() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("index", plateSearchIndexService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 立即补建车牌搜索索引
+     */
+    @PostMapping("/plate-index/catch-up")
+    public ResponseEntity<Map<String, Object>> catchUpPlateIndex() {
+        log.info("手动补建车牌搜索索引");
+        return ResponseEntity.ok(plateSearchIndexService.catchUp());
+    }
+
+    /**
+     * 按当前时间重新计算所有在场车辆的应付费用
+     *
+     * 访问示例：
+     * GET http://localhost:8086/api/vehicle-records/current-fees?parkingLotCode=P001
+     *
+     * @param parkingLotCode 停车场编号(可选)
+     * @return 在场车辆及当前应付费用
+     */
+    @GetMapping("/current-fees")
+    public ResponseEntity<Map<String, Object>> getCurrentFees(
+            @RequestParam(value = "parkingLotCode", required = false) String parkingLotCode
+    ) {
+        try {
+            String lot = parkingLotCode != null && !parkingLotCode.trim().isEmpty() ? parkingLotCode.trim() : null;
+            List<Object[]> sessions = vehicleRecordRepository.findOpenSessions(lot);
+
+            long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+            long totalCents = 0;
+            List<Map<String, Object>> items = new ArrayList<>(sessions.size());
+            for (Object[] row : sessions) {
+                String rowLot = (String) row[1];
+                LocalDateTime entryTime = (LocalDateTime) row[3];
+                int feeCents = tariffEngine.tariffFor(rowLot).priceCents(entryTime.toEpochSecond(ZoneOffset.UTC), now);
+                totalCents += feeCents;
+
+                Map<String, Object> item = new HashMap<>();
+                item.put("id", row[0]);
+                item.put("parkingLotCode", rowLot);
+                item.put("plateNumber", row[2]);
+                item.put("entryTime", entryTime);
+                item.put("feeCents", feeCents);
+                items.add(item);
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("count", items.size());
+            response.put("totalCents", totalCents);
+            response.put("data", items);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("计算在场车辆费用失败", e);
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", "计算在场车辆费用失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(errorResponse);
+        }
+    }
+
     /**
      * 手动发起双通道支付(终端 + 在线)
      *
@@ -387,8 +629,10 @@ public class VehicleRecordController {
                     // 保存在线支付链接到车辆记录
                     record.setOnlinePaymentUrl(onlinePaymentUrl);
                     record.setOnlinePaymentLinkId(onlinePaymentLinkId);
+                    ParkingCounterService.RecordState before = parkingCounterService.capture(record);
                     record.setPaymentStatus("pending");
                     vehicleRecordRepository.save(record);
+                    parkingCounterService.onRecordChanged(before, record);
 
                     // 🔥 关键修复：同时创建payment_orders记录，保存vehicle_record_id和order_id
                     // 这样webhook回来时就能找到记录并更新车辆记录的支付状态
@@ -691,10 +935,6 @@ public class VehicleRecordController {
     @PostMapping("/{id}/open-gate")
     public ResponseEntity<Map<String, Object>> openBarrierGate(@PathVariable Long id) {
         try {
-            log.info("========================================");
-            log.info("手动开闸: 记录ID={}", id);
-            log.info("========================================");
-
             // 查找记录
             VehicleRecord record = vehicleRecordRepository.findById(id)
                     .orElseThrow(() -> new RuntimeException("记录不存在: " + id));
@@ -714,48 +954,19 @@ public class VehicleRecordController {
                 return ResponseEntity.badRequest().body(errorResponse);
             }
 
-            // 转换端口号，失败时使用默认值1
-            int channel = 1;  // 默认值
-            if (record.getBackupChannelId() != null && !record.getBackupChannelId().trim().isEmpty()) {
-                try {
-                    channel = Integer.parseInt(record.getBackupChannelId().trim());
-                    log.info("📟 使用记录中的端口号: {}", channel);
-                } catch (NumberFormatException e) {
-                    log.warn("⚠️ 端口号转换失败，使用默认值1: {}", record.getBackupChannelId());
-                    channel = 1;
-                }
-            } else {
-                log.warn("⚠️ 记录中没有端口号，使用默认值1");
-            }
-
-            // 构建MQTT主题: /gate/{parking_lot_code}/{barrier_gate_id}/get
-            String topic = String.format("/gate/%s/%s/get",
-                    record.getParkingLotCode(),
-                    record.getBarrierGateId());
-
-            log.info("📡 MQTT主题: {}", topic);
-
-            // 生成唯一ID
-            String messageId = java.util.UUID.randomUUID().toString();
-
-            // 构建MQTT消息：常开端口，闭合2秒后自动断开
-            // closetime: 关闭继电器，2秒后自动打开（常开端口闭合2秒）
-            String mqttMessage = String.format(
-                    "{\"id\":\"%s\",\"type\":\"modbus\",\"msg\":{\"cmd\":\"opentime\",\"addr\":255,\"channel\":%d,\"time\":10}}",
-                    messageId,
-                    channel
-            );
+            // 通过开闸指令通道发送（高优先级线程，预先序列化的消息体）
+            GateCommandService.GateCommand command = gateCommandService.build("manual",
+                record.getParkingLotCode(), record.getBarrierGateId(), record.getBackupChannelId(),
+                record.getExitPlateNumber() != null ? record.getExitPlateNumber() : record.getEntryPlateNumber());
 
-            log.info("📨 MQTT消息: {}", mqttMessage);
-            log.info("  命令: opentime (常开端口打开1秒)");
-            log.info("  端口: {}", channel);
-            log.info("  时长: 10 (1秒)");
-
-            // 发送MQTT消息
-            mqttClientService.publish(topic, mqttMessage);
+            if (command == null || !gateCommandService.open(command)) {
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("success", false);
+                errorResponse.put("message", "开闸指令发送失败，请检查MQTT连接");
+                return ResponseEntity.status(500).body(errorResponse);
+            }
 
-            log.info("✅ 开闸指令已发送到MQTT");
-            log.info("========================================");
+            log.info("✅ 手动开闸指令已发送 | 记录ID: {} | 主题: {} | 端口: {}", id, command.getTopic(), command.getChannel());
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -763,9 +974,9 @@ public class VehicleRecordController {
             response.put("recordId", id);
             response.put("parkingLotCode", record.getParkingLotCode());
             response.put("barrierGateId", record.getBarrierGateId());
-            response.put("channel", channel);
-            response.put("topic", topic);
-            response.put("messageId", messageId);
+            response.put("channel", command.getChannel());
+            response.put("topic", command.getTopic());
+            response.put("messageId", command.getMessageId());
 
             return ResponseEntity.ok(response);
 
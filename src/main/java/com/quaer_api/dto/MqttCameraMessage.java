@@ -0,0 +1,38 @@
+package com.quaer_api.dto;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * MQTT摄像头消息（parking/{停车场编号}/camera）
+ * 按 event_type 直接反序列化为入场/出场消息，只解析一次JSON
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "event_type", visible = true)
+@JsonSubTypes({
+    @JsonSubTypes.Type(value = MqttEntryMessage.class, name = "entry"),
+    @JsonSubTypes.Type(value = MqttExitMessage.class, name = "exit")
+})
+public sealed interface MqttCameraMessage permits MqttEntryMessage, MqttExitMessage {
+
+    /**
+     * 消息ID（作为链路ID）
+     */
+    String getMessageId();
+
+    /**
+     * 事件类型: entry / exit
+     */
+    String getEventType();
+
+    String getAction();
+
+    /**
+     * 摄像头上报时间（yyyy-MM-dd HH:mm:ss，用于去重）
+     */
+    String getTimestamp();
+
+    /**
+     * 识别的车牌号（入场消息为入场车牌，出场消息为出场车牌）
+     */
+    String plateNumber();
+}
@@ -9,7 +9,7 @@ import java.math.BigDecimal;
  * MQTT入场消息DTO
  */
 @Data
-public class MqttEntryMessage {
+public final class MqttEntryMessage implements MqttCameraMessage {
 
     @JsonProperty("message_id")
     private String messageId;
@@ -71,4 +71,9 @@ public class MqttEntryMessage {
 
     @JsonProperty("backup_channel_id")
     private String backupChannelId;
+
+    @Override
+    public String plateNumber() {
+        return entryPlateNumber;
+    }
 }
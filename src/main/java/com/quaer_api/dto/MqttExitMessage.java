@@ -9,7 +9,7 @@ import java.math.BigDecimal;
  * MQTT出口消息DTO
  */
 @Data
-public class MqttExitMessage {
+public final class MqttExitMessage implements MqttCameraMessage {
 
     @JsonProperty("message_id")
     private String messageId;
@@ -91,4 +91,9 @@ public class MqttExitMessage {
 
     @JsonProperty("backup_channel_id")
     private String backupChannelId;
+
+    @Override
+    public String plateNumber() {
+        return exitPlateNumber;
+    }
 }
@@ -0,0 +1,65 @@
+package com.quaer_api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+
+/**
+ * 支付订单列表项DTO
+ * 只包含列表页显示的字段（收据链接、风险评估、卡片详细信息等在详情接口 /api/payment-orders/{id} 中返回）
+ *
+ * 注意：字段顺序与 PaymentOrderRepositoryCustomImpl.LIST_ATTRIBUTES 一致（构造函数投影）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentOrderListItem {
+
+    private Long id;
+
+    private String squarePaymentId;
+
+    private String orderId;
+
+    private String locationId;
+
+    private String receiptNumber;
+
+    /**
+     * 支付金额(分)
+     */
+    private Long amount;
+
+    /**
+     * 总金额(分)
+     */
+    private Long totalAmount;
+
+    private String currency;
+
+    private String status;
+
+    private String sourceType;
+
+    private String cardBrand;
+
+    private String last4;
+
+    /**
+     * 支付来源: ONLINE / TERMINAL
+     */
+    private String paymentSource;
+
+    private String deviceId;
+
+    private Long vehicleRecordId;
+
+    /**
+     * Square创建时间（收到webhook之前为空）
+     */
+    private OffsetDateTime createdAt;
+
+    private OffsetDateTime localCreatedAt;
+}
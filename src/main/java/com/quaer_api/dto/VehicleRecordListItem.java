@@ -0,0 +1,66 @@
+package com.quaer_api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 车辆记录列表项DTO
+ * 只包含列表页显示的字段（快照、LED配置、支付链接等在详情接口 /api/vehicle-records/{id} 中返回）
+ *
+ * 注意：字段顺序与 VehicleRecordRepositoryCustomImpl.LIST_ATTRIBUTES 一致（构造函数投影）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VehicleRecordListItem {
+
+    private Long id;
+
+    /**
+     * 停车场编号
+     */
+    private String parkingLotCode;
+
+    /**
+     * 状态: entered / exited / exit_only
+     */
+    private String status;
+
+    private String entryPlateNumber;
+
+    private LocalDateTime entryTime;
+
+    private String entryCameraName;
+
+    private String exitPlateNumber;
+
+    private LocalDateTime exitTime;
+
+    private String exitCameraName;
+
+    /**
+     * 停车时长（秒）
+     */
+    private Integer durationSeconds;
+
+    /**
+     * 停车时长（分钟）
+     */
+    private Integer parkingDurationMinutes;
+
+    /**
+     * 停车费（分）
+     */
+    private Integer parkingFeeCents;
+
+    private String paymentStatus;
+
+    private LocalDateTime paymentTime;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+}
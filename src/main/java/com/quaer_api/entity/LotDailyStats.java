@@ -0,0 +1,104 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 停车场每日汇总实体类
+ * 由 LotStatsRollupJob 根据 vehicle_records 和 payment_orders 增量汇总，历史报表直接读取这张表
+ */
+@Data
+@Entity
+@Table(name = "lot_daily_stats", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_lot_daily_stats_lot_date", columnNames = {"parking_lot_code", "stat_date"})
+}, indexes = {
+    @Index(name = "idx_lot_daily_stats_date", columnList = "stat_date")
+})
+public class LotDailyStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "parking_lot_code", length = 50, nullable = false)
+    private String parkingLotCode;
+
+    @Column(name = "stat_date", nullable = false)
+    private LocalDate statDate;
+
+    // ========== 车辆 ==========
+    /**
+     * 入场车辆数（按入场时间）
+     */
+    @Column(name = "entries", nullable = false)
+    private Integer entries = 0;
+
+    /**
+     * 正常出场车辆数（按出场时间）
+     */
+    @Column(name = "exits", nullable = false)
+    private Integer exits = 0;
+
+    /**
+     * 异常出口记录数（按出场时间）
+     */
+    @Column(name = "exit_only", nullable = false)
+    private Integer exitOnly = 0;
+
+    /**
+     * 正常出场车辆的停留时长（秒）：平均值、中位数、P90、P99、最大值
+     */
+    @Column(name = "avg_dwell_seconds")
+    private Integer avgDwellSeconds;
+
+    @Column(name = "p50_dwell_seconds")
+    private Integer p50DwellSeconds;
+
+    @Column(name = "p90_dwell_seconds")
+    private Integer p90DwellSeconds;
+
+    @Column(name = "p99_dwell_seconds")
+    private Integer p99DwellSeconds;
+
+    @Column(name = "max_dwell_seconds")
+    private Integer maxDwellSeconds;
+
+    // ========== 收入（已完成的支付，按本地创建时间） ==========
+    @Column(name = "revenue_cents", nullable = false)
+    private Long revenueCents = 0L;
+
+    @Column(name = "payment_count", nullable = false)
+    private Integer paymentCount = 0;
+
+    /**
+     * 终端支付收入
+     */
+    @Column(name = "terminal_revenue_cents", nullable = false)
+    private Long terminalRevenueCents = 0L;
+
+    /**
+     * 在线支付收入
+     */
+    @Column(name = "online_revenue_cents", nullable = false)
+    private Long onlineRevenueCents = 0L;
+
+    /**
+     * 来源未知的收入
+     */
+    @Column(name = "other_revenue_cents", nullable = false)
+    private Long otherRevenueCents = 0L;
+
+    /**
+     * 按卡品牌汇总的收入（JSON）：{"VISA":{"amountCents":1200,"count":3},...}
+     */
+    @Column(name = "card_brand_revenue", columnDefinition = "TEXT")
+    private String cardBrandRevenue;
+
+    /**
+     * 最近一次汇总时间
+     */
+    @Column(name = "computed_at")
+    private LocalDateTime computedAt;
+}
@@ -0,0 +1,50 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 停车场每小时汇总实体类
+ * 与 lot_daily_stats 同时汇总，只保存有数据的小时
+ */
+@Data
+@Entity
+@Table(name = "lot_hourly_stats", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_lot_hourly_stats_lot_hour", columnNames = {"parking_lot_code", "stat_hour"})
+}, indexes = {
+    @Index(name = "idx_lot_hourly_stats_hour", columnList = "stat_hour")
+})
+public class LotHourlyStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "parking_lot_code", length = 50, nullable = false)
+    private String parkingLotCode;
+
+    /**
+     * 小时开始时间（整点）
+     */
+    @Column(name = "stat_hour", nullable = false)
+    private LocalDateTime statHour;
+
+    @Column(name = "entries", nullable = false)
+    private Integer entries = 0;
+
+    @Column(name = "exits", nullable = false)
+    private Integer exits = 0;
+
+    @Column(name = "exit_only", nullable = false)
+    private Integer exitOnly = 0;
+
+    @Column(name = "revenue_cents", nullable = false)
+    private Long revenueCents = 0L;
+
+    @Column(name = "payment_count", nullable = false)
+    private Integer paymentCount = 0;
+
+    @Column(name = "computed_at")
+    private LocalDateTime computedAt;
+}
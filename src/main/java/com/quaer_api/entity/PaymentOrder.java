@@ -9,7 +9,12 @@ import java.time.OffsetDateTime;
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "payment_orders") // 数据库表名
+@Table(name = "payment_orders", indexes = { // 数据库表名
+    @Index(name = "idx_po_local_created_at", columnList = "local_created_at"),
+    @Index(name = "idx_po_local_updated_at", columnList = "local_updated_at"),
+    @Index(name = "idx_po_checkout_id", columnList = "checkout_id"),
+    @Index(name = "idx_po_order_id", columnList = "order_id")
+})
 public class PaymentOrder {
 
     @Id
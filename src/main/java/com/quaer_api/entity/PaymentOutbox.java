@@ -0,0 +1,128 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 支付发件箱实体类
+ * 出场事务中只写入一条发件箱记录，由 PaymentOutboxDispatcher 在事务提交后异步调用Square发起支付
+ */
+@Data
+@Entity
+@Table(name = "payment_outbox", indexes = {
+    @Index(name = "idx_payment_outbox_status_next", columnList = "status, next_attempt_at")
+})
+public class PaymentOutbox {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_PROCESSING = "PROCESSING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 关联的出场记录ID
+     */
+    @Column(name = "vehicle_record_id", nullable = false)
+    private Long vehicleRecordId;
+
+    /**
+     * 支付金额（分）
+     */
+    @Column(name = "amount_cents", nullable = false)
+    private Integer amountCents;
+
+    /**
+     * 支付设备ID（为空时使用配置文件中的默认设备）
+     */
+    @Column(name = "payment_device_id", length = 100)
+    private String paymentDeviceId;
+
+    /**
+     * Square Location ID（停车场编号）
+     */
+    @Column(name = "location_id", length = 50)
+    private String locationId;
+
+    /**
+     * 车牌号（用于支付描述和备注）
+     */
+    @Column(name = "plate_number", length = 18)
+    private String plateNumber;
+
+    /**
+     * 链路ID（出场摄像头消息的 message_id），发起支付时沿用，便于按同一ID查找出场和支付日志
+     */
+    @Column(name = "trace_id", length = 64)
+    private String traceId;
+
+    /**
+     * 状态
+     * 'PENDING': 等待发起
+     * 'PROCESSING': 已被某个实例领取，正在调用Square
+     * 'DONE': 终端支付和在线支付都已发起
+     * 'FAILED': 超过最大重试次数
+     */
+    @Column(name = "status", length = 20, nullable = false)
+    private String status = STATUS_PENDING;
+
+    /**
+     * 终端支付（POS机）是否已发起
+     */
+    @Column(name = "terminal_done", nullable = false)
+    private Boolean terminalDone = false;
+
+    /**
+     * 在线支付（二维码）是否已发起
+     */
+    @Column(name = "online_done", nullable = false)
+    private Boolean onlineDone = false;
+
+    /**
+     * 已尝试次数
+     */
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    /**
+     * 最近一次失败原因
+     */
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    /**
+     * 下次可尝试时间
+     */
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    /**
+     * 领取时间（PROCESSING状态超时未完成会被重新领取）
+     */
+    @Column(name = "locked_at")
+    private LocalDateTime lockedAt;
+
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+        if (nextAttemptAt == null) {
+            nextAttemptAt = createdAt;
+        }
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,57 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 已处理事件实体类
+ * 记录已处理的摄像头消息（message_id）和 Square Webhook 事件（event_id），
+ * 唯一约束保证同一事件只被处理一次（包括 8086 / 8087 两个实例之间）
+ *
+ * 处理前写入 processing，业务处理成功后改为 done：
+ * 进程在两者之间退出（kill、OOM、热切换）时记录停留在 processing，超时后重发的事件可以接管处理，不会被当作重复丢弃
+ *
+ * 由 ProcessedEventStore 维护，过期记录定时清理
+ */
+@Data
+@Entity
+@Table(name = "processed_events",
+    uniqueConstraints = @UniqueConstraint(name = "uk_processed_event_source_key", columnNames = {"source", "event_key"}),
+    indexes = @Index(name = "idx_processed_event_expires", columnList = "expires_at"))
+public class ProcessedEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 事件来源: camera / square
+     */
+    @Column(name = "source", length = 16, nullable = false)
+    private String source;
+
+    /**
+     * 事件ID（摄像头 message_id 或 Square event_id）
+     */
+    @Column(name = "event_key", length = 128, nullable = false)
+    private String eventKey;
+
+    /**
+     * 处理状态: processing / done（为空表示旧版本写入，视为 done）
+     */
+    @Column(name = "status", length = 16)
+    private String status;
+
+    /**
+     * 开始处理（processing）或处理完成（done）的时间
+     */
+    @Column(name = "processed_at", nullable = false)
+    private LocalDateTime processedAt;
+
+    /**
+     * 过期时间，之后可被清理（同一事件不会再被重发）
+     */
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
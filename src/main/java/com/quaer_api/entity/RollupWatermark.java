@@ -0,0 +1,60 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 汇总任务水位线实体类
+ * 记录上次汇总处理到的 vehicle_records.updated_at / payment_orders.local_updated_at，
+ * 同时作为多实例（8086/8087）之间的任务锁
+ * 车牌搜索索引补建任务（plate_ngrams）也使用本表记录 updated_at 水位线和任务锁
+ */
+@Data
+@Entity
+@Table(name = "rollup_watermarks")
+public class RollupWatermark {
+
+    /**
+     * 任务名称
+     */
+    @Id
+    @Column(name = "name", length = 50)
+    private String name;
+
+    /**
+     * 车辆记录水位线：updated_at 早于该时间的变化已经汇总
+     */
+    @Column(name = "vehicle_watermark")
+    private LocalDateTime vehicleWatermark;
+
+    /**
+     * 支付记录水位线：local_created_at / local_updated_at 早于该时间的变化已经汇总
+     */
+    @Column(name = "payment_watermark")
+    private LocalDateTime paymentWatermark;
+
+    /**
+     * 任务锁过期时间
+     */
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    /**
+     * 持有任务锁的实例
+     */
+    @Column(name = "locked_by", length = 100)
+    private String lockedBy;
+
+    @Column(name = "last_run_at")
+    private LocalDateTime lastRunAt;
+
+    /**
+     * 上次汇总的停车场-日期数量
+     */
+    @Column(name = "last_run_keys")
+    private Integer lastRunKeys;
+
+    @Column(name = "last_run_millis")
+    private Long lastRunMillis;
+}
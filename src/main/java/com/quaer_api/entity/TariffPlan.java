@@ -0,0 +1,63 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 停车场收费方案实体类
+ * 数据库中的方案优先于 application.yml 中的 tariff 配置，修改后无需重启（定时重新加载）
+ */
+@Data
+@Entity
+@Table(name = "tariff_plans")
+public class TariffPlan {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * 停车场编号
+     */
+    @Column(name = "parking_lot_code", length = 50, nullable = false, unique = true)
+    private String parkingLotCode;
+
+    /**
+     * 方案内容（JSON，字段与 application.yml 中 tariff.plans.* 相同）
+     * 例如：{"graceMinutes":15,"unitMinutes":30,"dailyCapCents":2000,
+     *       "weekday":[{"from":"07:00","to":"19:00","centsPerUnit":200},{"from":"19:00","to":"07:00","centsPerUnit":100}],
+     *       "weekend":[{"from":"00:00","to":"24:00","centsPerUnit":100}]}
+     */
+    @Column(name = "definition", columnDefinition = "TEXT", nullable = false)
+    private String definition;
+
+    /**
+     * 是否启用
+     */
+    @Column(name = "enabled", nullable = false)
+    private Boolean enabled = true;
+
+    /**
+     * 备注
+     */
+    @Column(name = "remark", length = 255)
+    private String remark;
+
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,29 @@
+package com.quaer_api.entity;
+
+import lombok.Data;
+import jakarta.persistence.*;
+
+/**
+ * 车牌n-gram索引实体类
+ * 每条车辆记录的入场/出场车牌（标准化、大写）拆分为所有连续3个字符（三元组），用于子串搜索
+ * 不足3个字符的搜索词不使用本表（旧版本写入的 "^" 前缀项不再使用，记录更新后重建索引时删除）
+ *
+ * 由 PlateSearchIndexService 维护
+ */
+@Data
+@Entity
+@Table(name = "vehicle_plate_ngrams",
+    uniqueConstraints = @UniqueConstraint(name = "uk_vpn_ngram_record", columnNames = {"ngram", "vehicle_record_id"}),
+    indexes = @Index(name = "idx_vpn_record", columnList = "vehicle_record_id"))
+public class VehiclePlateNgram {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "vehicle_record_id", nullable = false)
+    private Long vehicleRecordId;
+
+    @Column(name = "ngram", length = 4, nullable = false)
+    private String ngram;
+}
@@ -1,5 +1,6 @@
 package com.quaer_api.entity;
 
+import com.quaer_api.util.PlateUtils;
 import lombok.Data;
 import jakarta.persistence.*;
 import java.math.BigDecimal;
@@ -10,7 +11,17 @@ import java.time.LocalDateTime;
  */
 @Data
 @Entity
-@Table(name = "vehicle_records")
+@Table(name = "vehicle_records", indexes = {
+    @Index(name = "idx_vr_lot_status_entry_plate",
+           columnList = "parking_lot_code, status, entry_plate_normalized, entry_time"),
+    @Index(name = "idx_vr_lot_status_exit_plate",
+           columnList = "parking_lot_code, status, exit_plate_normalized, exit_time"),
+    @Index(name = "idx_vr_entry_time", columnList = "entry_time, parking_lot_code"),
+    @Index(name = "idx_vr_exit_time", columnList = "exit_time, parking_lot_code"),
+    @Index(name = "idx_vr_updated_at", columnList = "updated_at"),
+    @Index(name = "idx_vr_status_lot", columnList = "status, parking_lot_code"),
+    @Index(name = "idx_vr_payment_status_time", columnList = "payment_status, payment_time, parking_lot_code")
+})
 public class VehicleRecord {
 
     @Id
@@ -60,6 +71,12 @@ public class VehicleRecord {
     @Column(name = "entry_snapshot", length = 255)
     private String entrySnapshot;
 
+    /**
+     * 标准化的入场车牌号（去除连字符），保存时自动生成，用于索引查询
+     */
+    @Column(name = "entry_plate_normalized", length = 18)
+    private String entryPlateNormalized;
+
     // ========== 设备配置字段（入场时保存，出场时覆盖更新） ==========
     @Column(name = "payment_device_id", length = 50)
     private String paymentDeviceId;
@@ -110,6 +127,12 @@ public class VehicleRecord {
     @Column(name = "exit_snapshot", length = 255)
     private String exitSnapshot;
 
+    /**
+     * 标准化的出场车牌号（去除连字符），保存时自动生成，用于索引查询
+     */
+    @Column(name = "exit_plate_normalized", length = 18)
+    private String exitPlateNormalized;
+
     // ========== 统计字段 ==========
     @Column(name = "duration_seconds")
     private Integer durationSeconds;
@@ -170,10 +193,17 @@ public class VehicleRecord {
     protected void onCreate() {
         createdAt = LocalDateTime.now();
         updatedAt = LocalDateTime.now();
+        normalizePlates();
     }
 
     @PreUpdate
     protected void onUpdate() {
         updatedAt = LocalDateTime.now();
+        normalizePlates();
+    }
+
+    private void normalizePlates() {
+        entryPlateNormalized = PlateUtils.normalize(entryPlateNumber);
+        exitPlateNormalized = PlateUtils.normalize(exitPlateNumber);
     }
 }
@@ -0,0 +1,22 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.LotDailyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 停车场每日汇总Repository
+ */
+@Repository
+public interface LotDailyStatsRepository extends JpaRepository<LotDailyStats, Long> {
+
+    Optional<LotDailyStats> findByParkingLotCodeAndStatDate(String parkingLotCode, LocalDate statDate);
+
+    List<LotDailyStats> findByStatDateBetweenOrderByStatDateAscParkingLotCodeAsc(LocalDate startDate, LocalDate endDate);
+
+    List<LotDailyStats> findByParkingLotCodeAndStatDateBetweenOrderByStatDateAsc(String parkingLotCode, LocalDate startDate, LocalDate endDate);
+}
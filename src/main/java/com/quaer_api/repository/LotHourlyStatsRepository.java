@@ -0,0 +1,24 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.LotHourlyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 停车场每小时汇总Repository
+ */
+@Repository
+public interface LotHourlyStatsRepository extends JpaRepository<LotHourlyStats, Long> {
+
+    /**
+     * 查询时间范围内的小时汇总（开始时间含，结束时间不含）
+     */
+    List<LotHourlyStats> findByParkingLotCodeAndStatHourGreaterThanEqualAndStatHourLessThanOrderByStatHourAsc(
+            String parkingLotCode, LocalDateTime startHour, LocalDateTime endHour);
+
+    List<LotHourlyStats> findByStatHourGreaterThanEqualAndStatHourLessThanOrderByStatHourAscParkingLotCodeAsc(
+            LocalDateTime startHour, LocalDateTime endHour);
+}
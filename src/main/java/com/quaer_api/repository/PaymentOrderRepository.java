@@ -14,7 +14,8 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface PaymentOrderRepository extends JpaRepository<PaymentOrder, Long>, JpaSpecificationExecutor<PaymentOrder> {
+public interface PaymentOrderRepository extends JpaRepository<PaymentOrder, Long>, JpaSpecificationExecutor<PaymentOrder>,
+        PaymentOrderRepositoryCustom {
 
     // 基本查询方法
     Optional<PaymentOrder> findBySquarePaymentId(String squarePaymentId);
@@ -24,6 +25,14 @@ public interface PaymentOrderRepository extends JpaRepository<PaymentOrder, Long
     Optional<PaymentOrder> findByOrderId(String orderId);
     Optional<PaymentOrder> findByVehicleRecordId(Long vehicleRecordId);
 
+    // Webhook 关联支付记录：一次查询匹配 payment_id / checkout_id / order_id 中任意一个（均有索引），
+    // 由调用方按优先级选取；参数为null时该条件不匹配
+    @Query("SELECT p FROM PaymentOrder p WHERE p.squarePaymentId = :paymentId " +
+           "OR p.checkoutId = :checkoutId OR p.orderId = :orderId")
+    List<PaymentOrder> findAllByAnyId(@Param("paymentId") String paymentId,
+                                      @Param("checkoutId") String checkoutId,
+                                      @Param("orderId") String orderId);
+
     // 根据车辆记录ID查询，优先返回已完成的支付记录
     @Query("SELECT p FROM PaymentOrder p WHERE p.vehicleRecordId = :vehicleRecordId " +
            "ORDER BY CASE WHEN p.status = 'COMPLETED' THEN 0 ELSE 1 END, p.id DESC")
@@ -73,4 +82,30 @@ public interface PaymentOrderRepository extends JpaRepository<PaymentOrder, Long
 
     @Query("SELECT COUNT(p) FROM PaymentOrder p WHERE p.locationId IN :locationIds AND p.status = :status AND p.localCreatedAt >= :startTime AND p.localCreatedAt < :endTime")
     Long countByLocationIdsAndStatusAndDateRange(@Param("locationIds") List<String> locationIds, @Param("status") String status, @Param("startTime") OffsetDateTime startTime, @Param("endTime") OffsetDateTime endTime);
+
+    // ==================== 汇总任务查询方法 ====================
+
+    // 查询时间范围内新增或更新的支付记录涉及的停车场和日期，停车场优先取关联出场记录的停车场编号，其次取Location ID
+    // 返回 [parking_lot_code, date(yyyy-MM-dd)]
+    @Query(value = "SELECT DISTINCT COALESCE(v.parking_lot_code, p.location_id), DATE_FORMAT(p.local_created_at, '%Y-%m-%d') " +
+                   "FROM payment_orders p LEFT JOIN vehicle_records v ON v.id = p.vehicle_record_id " +
+                   "WHERE ((p.local_created_at >= :since AND p.local_created_at < :until) " +
+                   "    OR (p.local_updated_at >= :since AND p.local_updated_at < :until)) " +
+                   "AND p.local_created_at IS NOT NULL " +
+                   "AND COALESCE(v.parking_lot_code, p.location_id) IS NOT NULL",
+           nativeQuery = true)
+    List<Object[]> findChangedLotDays(@Param("since") OffsetDateTime since, @Param("until") OffsetDateTime until);
+
+    // 按支付来源、卡品牌、小时汇总停车场时间范围内已完成的支付
+    // 返回 [payment_source, card_brand, hour(0~23), amount, count]
+    @Query(value = "SELECT p.payment_source, p.card_brand, HOUR(p.local_created_at), COALESCE(SUM(p.amount), 0), COUNT(*) " +
+                   "FROM payment_orders p LEFT JOIN vehicle_records v ON v.id = p.vehicle_record_id " +
+                   "WHERE p.status = 'COMPLETED' " +
+                   "AND p.local_created_at >= :startTime AND p.local_created_at < :endTime " +
+                   "AND COALESCE(v.parking_lot_code, p.location_id) = :parkingLotCode " +
+                   "GROUP BY p.payment_source, p.card_brand, HOUR(p.local_created_at)",
+           nativeQuery = true)
+    List<Object[]> sumLotRevenueBySourceBrandAndHour(@Param("parkingLotCode") String parkingLotCode,
+                                                     @Param("startTime") OffsetDateTime startTime,
+                                                     @Param("endTime") OffsetDateTime endTime);
 }
@@ -0,0 +1,26 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.dto.PaymentOrderListItem;
+import com.quaer_api.entity.PaymentOrder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * 支付订单列表查询（只查询列表字段）
+ */
+public interface PaymentOrderRepositoryCustom {
+
+    /**
+     * 页码分页查询列表项
+     */
+    Page<PaymentOrderListItem> findListItems(Specification<PaymentOrder> spec, Pageable pageable);
+
+    /**
+     * 按排序查询前 limit 条列表项（游标分页）
+     */
+    List<PaymentOrderListItem> findListItems(Specification<PaymentOrder> spec, Sort sort, int limit);
+}
@@ -0,0 +1,45 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.dto.PaymentOrderListItem;
+import com.quaer_api.entity.PaymentOrder;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * 支付订单列表查询实现
+ */
+public class PaymentOrderRepositoryCustomImpl implements PaymentOrderRepositoryCustom {
+
+    /**
+     * 列表字段（顺序与 PaymentOrderListItem 构造函数一致）
+     */
+    private static final String[] LIST_ATTRIBUTES = {
+        "id", "squarePaymentId", "orderId", "locationId", "receiptNumber",
+        "amount", "totalAmount", "currency", "status", "sourceType",
+        "cardBrand", "last4", "paymentSource", "deviceId", "vehicleRecordId",
+        "createdAt", "localCreatedAt"
+    };
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<PaymentOrderListItem> findListItems(Specification<PaymentOrder> spec, Pageable pageable) {
+        return projection().findPage(spec, pageable);
+    }
+
+    @Override
+    public List<PaymentOrderListItem> findListItems(Specification<PaymentOrder> spec, Sort sort, int limit) {
+        return projection().findFirst(spec, sort, limit);
+    }
+
+    private SpecificationProjection<PaymentOrder, PaymentOrderListItem> projection() {
+        return new SpecificationProjection<>(entityManager, PaymentOrder.class, PaymentOrderListItem.class, LIST_ATTRIBUTES);
+    }
+}
@@ -0,0 +1,56 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.PaymentOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 支付发件箱Repository
+ */
+@Repository
+public interface PaymentOutboxRepository extends JpaRepository<PaymentOutbox, Long> {
+
+    /**
+     * 查询可以领取的发件箱记录ID：到期的PENDING记录，以及领取超时（实例崩溃）的PROCESSING记录
+     *
+     * @param now 当前时间
+     * @param staleBefore 领取时间早于此时间的PROCESSING记录视为超时
+     * @param pageable 每次最多领取的数量
+     * @return 发件箱记录ID列表（按ID升序，先出场的先发起支付）
+     */
+    @Query("SELECT o.id FROM PaymentOutbox o " +
+           "WHERE (o.status = 'PENDING' AND o.nextAttemptAt <= :now) " +
+           "   OR (o.status = 'PROCESSING' AND o.lockedAt < :staleBefore) " +
+           "ORDER BY o.id ASC")
+    List<Long> findClaimableIds(
+            @Param("now") LocalDateTime now,
+            @Param("staleBefore") LocalDateTime staleBefore,
+            Pageable pageable);
+
+    /**
+     * 领取一条发件箱记录（条件更新，多个实例同时领取时只有一个能成功）
+     *
+     * @return 1=领取成功，0=已被其他实例领取或尚未到期
+     */
+    @Modifying
+    @Query("UPDATE PaymentOutbox o SET o.status = 'PROCESSING', o.lockedAt = :now, o.updatedAt = :now " +
+           "WHERE o.id = :id " +
+           "AND ((o.status = 'PENDING' AND o.nextAttemptAt <= :now) " +
+           "  OR (o.status = 'PROCESSING' AND o.lockedAt < :staleBefore))")
+    int claim(@Param("id") Long id,
+              @Param("now") LocalDateTime now,
+              @Param("staleBefore") LocalDateTime staleBefore);
+
+    /**
+     * 统计各状态的发件箱记录数量（用于监控）
+     */
+    @Query("SELECT o.status, COUNT(o) FROM PaymentOutbox o GROUP BY o.status")
+    List<Object[]> countByStatus();
+}
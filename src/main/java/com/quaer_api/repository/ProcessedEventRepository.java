@@ -0,0 +1,58 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.ProcessedEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * 已处理事件Repository
+ */
+@Repository
+public interface ProcessedEventRepository extends JpaRepository<ProcessedEvent, Long> {
+
+    Optional<ProcessedEvent> findBySourceAndEventKey(String source, String eventKey);
+
+    /**
+     * 业务处理成功，标记为 done
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessedEvent e SET e.status = 'done', e.processedAt = :now " +
+           "WHERE e.source = :source AND e.eventKey = :eventKey")
+    int markDone(@Param("source") String source, @Param("eventKey") String eventKey, @Param("now") LocalDateTime now);
+
+    /**
+     * 接管超时仍为 processing 的记录（条件更新，多个实例同时接管时只有一个能成功）
+     *
+     * @return 1 表示接管成功
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessedEvent e SET e.processedAt = :now " +
+           "WHERE e.source = :source AND e.eventKey = :eventKey AND e.status = 'processing' AND e.processedAt < :staleBefore")
+    int takeOver(@Param("source") String source, @Param("eventKey") String eventKey,
+                 @Param("now") LocalDateTime now, @Param("staleBefore") LocalDateTime staleBefore);
+
+    /**
+     * 删除一条记录（处理失败时释放，允许重发的事件再次处理）
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ProcessedEvent e WHERE e.source = :source AND e.eventKey = :eventKey")
+    int deleteBySourceAndEventKey(@Param("source") String source, @Param("eventKey") String eventKey);
+
+    /**
+     * 清理过期记录
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ProcessedEvent e WHERE e.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,41 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.RollupWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * 汇总任务水位线Repository
+ */
+@Repository
+public interface RollupWatermarkRepository extends JpaRepository<RollupWatermark, String> {
+
+    /**
+     * 获取或续期任务锁（条件更新，多个实例同时执行时只有一个能成功）
+     * owner 是每次运行的令牌（见 JobLeaseService），只有同一次运行可以续期
+     *
+     * @return 1 表示获取成功
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE RollupWatermark w SET w.lockedUntil = :lockedUntil, w.lockedBy = :owner " +
+           "WHERE w.name = :name AND (w.lockedUntil IS NULL OR w.lockedUntil < :now OR w.lockedBy = :owner)")
+    int tryLock(@Param("name") String name,
+                @Param("now") LocalDateTime now,
+                @Param("lockedUntil") LocalDateTime lockedUntil,
+                @Param("owner") String owner);
+
+    /**
+     * 释放任务锁
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE RollupWatermark w SET w.lockedUntil = NULL WHERE w.name = :name AND w.lockedBy = :owner")
+    int unlock(@Param("name") String name, @Param("owner") String owner);
+}
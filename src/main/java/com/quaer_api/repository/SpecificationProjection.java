@@ -0,0 +1,92 @@
+package com.quaer_api.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import java.util.List;
+
+/**
+ * 按 Specification 查询指定列并直接构造DTO（SELECT new Dto(col1, col2, ...)）
+ * 列表接口只需要部分字段，不加载完整实体，减少结果集大小和Hibernate实体装配
+ *
+ * @param <T> 实体类型
+ * @param <R> DTO类型（构造函数参数顺序必须与 attributes 一致）
+ */
+final class SpecificationProjection<T, R> {
+
+    private final EntityManager entityManager;
+    private final Class<T> entityClass;
+    private final Class<R> resultClass;
+    private final String[] attributes;
+
+    SpecificationProjection(EntityManager entityManager, Class<T> entityClass, Class<R> resultClass, String... attributes) {
+        this.entityManager = entityManager;
+        this.entityClass = entityClass;
+        this.resultClass = resultClass;
+        this.attributes = attributes;
+    }
+
+    /**
+     * 页码分页（第一页不足一页时不执行COUNT）
+     */
+    Page<R> findPage(Specification<T> spec, Pageable pageable) {
+        List<R> content = query(spec, pageable.getSort(), pageable.getOffset(), pageable.getPageSize());
+        return PageableExecutionUtils.getPage(content, pageable, () -> count(spec));
+    }
+
+    /**
+     * 按排序取前 limit 条（游标分页）
+     */
+    List<R> findFirst(Specification<T> spec, Sort sort, int limit) {
+        return query(spec, sort, 0, limit);
+    }
+
+    private List<R> query(Specification<T> spec, Sort sort, long offset, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = cb.createQuery(resultClass);
+        Root<T> root = query.from(entityClass);
+
+        Selection<?>[] selections = new Selection<?>[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            selections[i] = root.get(attributes[i]);
+        }
+        query.select(cb.construct(resultClass, selections));
+
+        Predicate predicate = spec != null ? spec.toPredicate(root, query, cb) : null;
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        if (sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        }
+
+        TypedQuery<R> typedQuery = entityManager.createQuery(query);
+        typedQuery.setFirstResult((int) offset);
+        typedQuery.setMaxResults(limit);
+        return typedQuery.getResultList();
+    }
+
+    private long count(Specification<T> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(entityClass);
+        query.select(cb.count(root));
+
+        Predicate predicate = spec != null ? spec.toPredicate(root, query, cb) : null;
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return entityManager.createQuery(query).getSingleResult();
+    }
+}
@@ -0,0 +1,16 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.entity.TariffPlan;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * 停车场收费方案Repository
+ */
+@Repository
+public interface TariffPlanRepository extends JpaRepository<TariffPlan, Long> {
+
+    List<TariffPlan> findByEnabledTrue();
+}
@@ -1,22 +1,29 @@
 package com.quaer_api.repository;
 
 import com.quaer_api.entity.VehicleRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * 车辆记录Repository
  */
 @Repository
-public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Long>, JpaSpecificationExecutor<VehicleRecord> {
+public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Long>, JpaSpecificationExecutor<VehicleRecord>,
+        VehicleRecordRepositoryCustom {
 
     /**
      * 查询指定停车场+车牌的未出场记录（标准化车牌号，去掉连字符）
+     * 使用索引 idx_vr_lot_status_entry_plate (parking_lot_code, status, entry_plate_normalized, entry_time)
      *
      * @param parkingLotCode 停车场编号
      * @param normalizedPlate 标准化的车牌号（已去除连字符）
@@ -24,8 +31,8 @@ public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Lo
      */
     @Query("SELECT v FROM VehicleRecord v " +
            "WHERE v.parkingLotCode = :parkingLotCode " +
-           "AND REPLACE(v.entryPlateNumber, '-', '') = :normalizedPlate " +
            "AND v.status = 'entered' " +
+           "AND v.entryPlateNormalized = :normalizedPlate " +
            "ORDER BY v.entryTime DESC")
     Optional<VehicleRecord> findUnexitedRecordByParkingLotAndPlate(
             @Param("parkingLotCode") String parkingLotCode,
@@ -33,6 +40,7 @@ public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Lo
 
     /**
      * 查询指定停车场+车牌的异常出口记录（标准化车牌号，去掉连字符）
+     * 使用索引 idx_vr_lot_status_exit_plate (parking_lot_code, status, exit_plate_normalized, exit_time)
      *
      * @param parkingLotCode 停车场编号
      * @param normalizedPlate 标准化的车牌号（已去除连字符）
@@ -40,8 +48,8 @@ public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Lo
      */
     @Query("SELECT v FROM VehicleRecord v " +
            "WHERE v.parkingLotCode = :parkingLotCode " +
-           "AND REPLACE(v.exitPlateNumber, '-', '') = :normalizedPlate " +
            "AND v.status = 'exit_only' " +
+           "AND v.exitPlateNormalized = :normalizedPlate " +
            "ORDER BY v.exitTime DESC")
     Optional<VehicleRecord> findExitOnlyRecordByParkingLotAndPlate(
             @Param("parkingLotCode") String parkingLotCode,
@@ -49,6 +57,7 @@ public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Lo
 
     /**
      * 查询指定停车场+车牌的最新已出场记录（用于LED显示费用）
+     * OR的两个分支分别命中出场/入场两个复合索引（MySQL index merge）
      *
      * @param parkingLotCode 停车场编号
      * @param normalizedPlate 标准化的车牌号（已去除连字符）
@@ -56,12 +65,277 @@ public interface VehicleRecordRepository extends JpaRepository<VehicleRecord, Lo
      */
     @Query("SELECT v FROM VehicleRecord v " +
            "WHERE v.parkingLotCode = :parkingLotCode " +
-           "AND (REPLACE(v.exitPlateNumber, '-', '') = :normalizedPlate " +
-           "     OR REPLACE(v.entryPlateNumber, '-', '') = :normalizedPlate) " +
            "AND v.status = 'exited' " +
+           "AND (v.exitPlateNormalized = :normalizedPlate " +
+           "     OR v.entryPlateNormalized = :normalizedPlate) " +
            "AND v.exitTime IS NOT NULL " +
            "ORDER BY v.exitTime DESC")
     Optional<VehicleRecord> findLatestExitedRecordByParkingLotAndPlate(
             @Param("parkingLotCode") String parkingLotCode,
             @Param("normalizedPlate") String normalizedPlate);
+
+    /**
+     * 查询所有未关闭记录（在场车辆和异常出口记录）的索引字段，用于启动时重建内存索引
+     * 只返回 [id, parkingLotCode, status, entryPlateNumber, exitPlateNumber]，不加载完整实体
+     *
+     * @return 索引字段列表（按ID升序，同一车牌有多条记录时后面的覆盖前面的）
+     */
+    @Query("SELECT v.id, v.parkingLotCode, v.status, v.entryPlateNumber, v.exitPlateNumber " +
+           "FROM VehicleRecord v " +
+           "WHERE v.status IN ('entered', 'exit_only') " +
+           "ORDER BY v.id ASC")
+    List<Object[]> findOpenRecordKeys();
+
+    /**
+     * 查询在场车辆的计费字段，用于批量计算当前应付费用
+     * 只返回 [id, parkingLotCode, entryPlateNumber, entryTime]，不加载完整实体
+     *
+     * @param parkingLotCode 停车场编号（为空时查询所有停车场）
+     */
+    @Query("SELECT v.id, v.parkingLotCode, v.entryPlateNumber, v.entryTime " +
+           "FROM VehicleRecord v " +
+           "WHERE v.status = 'entered' AND v.entryTime IS NOT NULL " +
+           "AND (:parkingLotCode IS NULL OR v.parkingLotCode = :parkingLotCode) " +
+           "ORDER BY v.entryTime ASC")
+    List<Object[]> findOpenSessions(@Param("parkingLotCode") String parkingLotCode);
+
+    /**
+     * 按状态分组统计记录数
+     * 日期范围与列表查询一致：入场时间或出场时间落在范围内
+     *
+     * @param parkingLotCode 停车场编号（为空时统计所有停车场）
+     * @param startTime 开始时间（为空时不限）
+     * @param endTime 结束时间（为空时不限）
+     * @return [status, count]
+     */
+    @Query("SELECT v.status, COUNT(v) FROM VehicleRecord v " +
+           "WHERE (:parkingLotCode IS NULL OR v.parkingLotCode = :parkingLotCode) " +
+           "AND (:startTime IS NULL OR v.entryTime >= :startTime OR v.exitTime >= :startTime) " +
+           "AND (:endTime IS NULL OR v.entryTime <= :endTime OR v.exitTime <= :endTime) " +
+           "GROUP BY v.status")
+    List<Object[]> countGroupByStatus(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 按停车场统计当前在场车辆数和平均已停留时长
+     *
+     * @param parkingLotCode 停车场编号（为空时统计所有停车场）
+     * @return [parking_lot_code, count, avg_dwell_seconds]
+     */
+    @Query(value = "SELECT parking_lot_code, COUNT(*), AVG(TIMESTAMPDIFF(SECOND, entry_time, NOW())) " +
+                   "FROM vehicle_records " +
+                   "WHERE status = 'entered' " +
+                   "AND (:parkingLotCode IS NULL OR parking_lot_code = :parkingLotCode) " +
+                   "GROUP BY parking_lot_code",
+           nativeQuery = true)
+    List<Object[]> countOccupancyByLot(@Param("parkingLotCode") String parkingLotCode);
+
+    /**
+     * 按小时统计入场车辆数
+     *
+     * @return [hour(yyyy-MM-dd HH:00), count]，按小时升序
+     */
+    @Query(value = "SELECT DATE_FORMAT(entry_time, '%Y-%m-%d %H:00') AS hour_bucket, COUNT(*) " +
+                   "FROM vehicle_records " +
+                   "WHERE entry_time >= :startTime AND entry_time < :endTime " +
+                   "AND (:parkingLotCode IS NULL OR parking_lot_code = :parkingLotCode) " +
+                   "GROUP BY hour_bucket ORDER BY hour_bucket",
+           nativeQuery = true)
+    List<Object[]> countEntriesPerHour(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 按小时统计出场车辆数（正常出场和异常出场）
+     *
+     * @return [hour(yyyy-MM-dd HH:00), count]，按小时升序
+     */
+    @Query(value = "SELECT DATE_FORMAT(exit_time, '%Y-%m-%d %H:00') AS hour_bucket, COUNT(*) " +
+                   "FROM vehicle_records " +
+                   "WHERE exit_time >= :startTime AND exit_time < :endTime " +
+                   "AND (:parkingLotCode IS NULL OR parking_lot_code = :parkingLotCode) " +
+                   "GROUP BY hour_bucket ORDER BY hour_bucket",
+           nativeQuery = true)
+    List<Object[]> countExitsPerHour(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 统计时间范围内正常出场车辆的平均/最长停留时长
+     *
+     * @return 单行 [count, avg_duration_seconds, max_duration_seconds]
+     */
+    @Query("SELECT COUNT(v), AVG(v.durationSeconds), MAX(v.durationSeconds) FROM VehicleRecord v " +
+           "WHERE v.status = 'exited' AND v.durationSeconds IS NOT NULL " +
+           "AND v.exitTime >= :startTime AND v.exitTime < :endTime " +
+           "AND (:parkingLotCode IS NULL OR v.parkingLotCode = :parkingLotCode)")
+    List<Object[]> dwellStatistics(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 按停车场统计场内车辆数（用于计数器对账，使用索引 idx_vr_status_lot）
+     *
+     * @return [parkingLotCode, entered]
+     */
+    @Query("SELECT v.parkingLotCode, COUNT(v) FROM VehicleRecord v " +
+           "WHERE v.status = 'entered' GROUP BY v.parkingLotCode")
+    List<Object[]> countEnteredByLot();
+
+    /**
+     * 按停车场统计今天的出场数（用于计数器对账，使用索引 idx_vr_exit_time）
+     *
+     * @param dayStart 今天0点
+     * @return [parkingLotCode, exitedToday, exitOnlyToday]
+     */
+    @Query("SELECT v.parkingLotCode, " +
+           "SUM(CASE WHEN v.status = 'exited' THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN v.status = 'exit_only' THEN 1 ELSE 0 END) " +
+           "FROM VehicleRecord v WHERE v.exitTime >= :dayStart GROUP BY v.parkingLotCode")
+    List<Object[]> countExitsSince(@Param("dayStart") LocalDateTime dayStart);
+
+    /**
+     * 按停车场统计待支付数和今天的支付（用于计数器对账，使用索引 idx_vr_payment_status_time）
+     *
+     * @param dayStart 今天0点
+     * @return [parkingLotCode, pendingPayments, paidToday, revenueTodayCents]
+     */
+    @Query("SELECT v.parkingLotCode, " +
+           "SUM(CASE WHEN v.paymentStatus = 'pending' THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN v.paymentStatus = 'paid' THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN v.paymentStatus = 'paid' THEN COALESCE(v.parkingFeeCents, 0) ELSE 0 END) " +
+           "FROM VehicleRecord v " +
+           "WHERE v.paymentStatus = 'pending' OR (v.paymentStatus = 'paid' AND v.paymentTime >= :dayStart) " +
+           "GROUP BY v.parkingLotCode")
+    List<Object[]> countPaymentsSince(@Param("dayStart") LocalDateTime dayStart);
+
+    /**
+     * 查询时间范围内有变化的记录涉及的停车场和日期（入场日期和出场日期），用于增量汇总
+     *
+     * @return [parking_lot_code, date(yyyy-MM-dd)]
+     */
+    @Query(value = "SELECT parking_lot_code, DATE_FORMAT(entry_time, '%Y-%m-%d') FROM vehicle_records " +
+                   "WHERE updated_at >= :since AND updated_at < :until " +
+                   "AND parking_lot_code IS NOT NULL AND entry_time IS NOT NULL " +
+                   "UNION " +
+                   "SELECT parking_lot_code, DATE_FORMAT(exit_time, '%Y-%m-%d') FROM vehicle_records " +
+                   "WHERE updated_at >= :since AND updated_at < :until " +
+                   "AND parking_lot_code IS NOT NULL AND exit_time IS NOT NULL",
+           nativeQuery = true)
+    List<Object[]> findChangedLotDays(@Param("since") LocalDateTime since, @Param("until") LocalDateTime until);
+
+    /**
+     * 查询时间范围内有记录的停车场和日期（用于重建汇总）
+     *
+     * @return [parking_lot_code, date(yyyy-MM-dd)]
+     */
+    @Query(value = "SELECT parking_lot_code, DATE_FORMAT(entry_time, '%Y-%m-%d') FROM vehicle_records " +
+                   "WHERE entry_time >= :startTime AND entry_time < :endTime AND parking_lot_code IS NOT NULL " +
+                   "UNION " +
+                   "SELECT parking_lot_code, DATE_FORMAT(exit_time, '%Y-%m-%d') FROM vehicle_records " +
+                   "WHERE exit_time >= :startTime AND exit_time < :endTime AND parking_lot_code IS NOT NULL",
+           nativeQuery = true)
+    List<Object[]> findLotDaysBetween(@Param("startTime") LocalDateTime startTime, @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 按小时统计停车场的入场车辆数
+     *
+     * @return [hour(0~23), entries]
+     */
+    @Query(value = "SELECT HOUR(entry_time), COUNT(*) FROM vehicle_records " +
+                   "WHERE parking_lot_code = :parkingLotCode AND entry_time >= :startTime AND entry_time < :endTime " +
+                   "GROUP BY HOUR(entry_time)",
+           nativeQuery = true)
+    List<Object[]> countLotEntriesByHour(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 按小时统计停车场的正常出场和异常出口车辆数
+     *
+     * @return [hour(0~23), exits, exitOnly]
+     */
+    @Query(value = "SELECT HOUR(exit_time), " +
+                   "SUM(CASE WHEN status = 'exited' THEN 1 ELSE 0 END), " +
+                   "SUM(CASE WHEN status = 'exit_only' THEN 1 ELSE 0 END) " +
+                   "FROM vehicle_records " +
+                   "WHERE parking_lot_code = :parkingLotCode AND exit_time >= :startTime AND exit_time < :endTime " +
+                   "GROUP BY HOUR(exit_time)",
+           nativeQuery = true)
+    List<Object[]> countLotExitsByHour(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 查询停车场时间范围内正常出场车辆的停留时长（升序，用于计算分位数）
+     */
+    @Query("SELECT v.durationSeconds FROM VehicleRecord v " +
+           "WHERE v.parkingLotCode = :parkingLotCode AND v.status = 'exited' AND v.durationSeconds IS NOT NULL " +
+           "AND v.exitTime >= :startTime AND v.exitTime < :endTime " +
+           "ORDER BY v.durationSeconds ASC")
+    List<Integer> findLotDwellSeconds(
+            @Param("parkingLotCode") String parkingLotCode,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 当前最大的记录ID
+     */
+    @Query("SELECT COALESCE(MAX(v.id), 0) FROM VehicleRecord v")
+    Long findMaxId();
+
+    /**
+     * 回填标准化车牌号（按主键范围分批执行，避免长事务和大范围锁）
+     *
+     * @param fromId 起始ID（不含）
+     * @param toId 结束ID（含）
+     * @return 更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE vehicle_records " +
+                   "SET entry_plate_normalized = REPLACE(entry_plate_number, '-', ''), " +
+                   "    exit_plate_normalized = REPLACE(exit_plate_number, '-', '') " +
+                   "WHERE id > :fromId AND id <= :toId " +
+                   "AND ((entry_plate_number IS NOT NULL AND entry_plate_normalized IS NULL) " +
+                   "  OR (exit_plate_number IS NOT NULL AND exit_plate_normalized IS NULL))",
+           nativeQuery = true)
+    int backfillNormalizedPlates(@Param("fromId") long fromId, @Param("toId") long toId);
+
+    /**
+     * 回填指定时间之后新增或修改、缺少标准化车牌号的记录（使用索引 idx_vr_updated_at）
+     * 覆盖旧版本实例在热切换期间写入的新记录，以及它之后修改的已回填记录（如出场时写入出场车牌）
+     *
+     * @param since updated_at 起始时间（含）
+     * @return 更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE vehicle_records " +
+                   "SET entry_plate_normalized = REPLACE(entry_plate_number, '-', ''), " +
+                   "    exit_plate_normalized = REPLACE(exit_plate_number, '-', '') " +
+                   "WHERE updated_at >= :since " +
+                   "AND ((entry_plate_number IS NOT NULL AND entry_plate_normalized IS NULL) " +
+                   "  OR (exit_plate_number IS NOT NULL AND exit_plate_normalized IS NULL))",
+           nativeQuery = true)
+    int backfillNormalizedPlatesUpdatedSince(@Param("since") LocalDateTime since);
+
+    /**
+     * 按 (updated_at, id) 顺序查询之后有变化的记录车牌（补建车牌搜索索引用）
+     *
+     * @return [id, entryPlateNumber, exitPlateNumber, updatedAt]
+     */
+    @Query("SELECT v.id, v.entryPlateNumber, v.exitPlateNumber, v.updatedAt FROM VehicleRecord v " +
+           "WHERE v.updatedAt > :since OR (v.updatedAt = :since AND v.id > :afterId) " +
+           "ORDER BY v.updatedAt ASC, v.id ASC")
+    List<Object[]> findPlatesUpdatedAfter(@Param("since") LocalDateTime since,
+                                          @Param("afterId") long afterId,
+                                          Pageable pageable);
 }
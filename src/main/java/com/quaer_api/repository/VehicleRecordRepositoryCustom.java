@@ -0,0 +1,26 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.dto.VehicleRecordListItem;
+import com.quaer_api.entity.VehicleRecord;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * 车辆记录列表查询（只查询列表字段）
+ */
+public interface VehicleRecordRepositoryCustom {
+
+    /**
+     * 页码分页查询列表项
+     */
+    Page<VehicleRecordListItem> findListItems(Specification<VehicleRecord> spec, Pageable pageable);
+
+    /**
+     * 按排序查询前 limit 条列表项（游标分页）
+     */
+    List<VehicleRecordListItem> findListItems(Specification<VehicleRecord> spec, Sort sort, int limit);
+}
@@ -0,0 +1,46 @@
+package com.quaer_api.repository;
+
+import com.quaer_api.dto.VehicleRecordListItem;
+import com.quaer_api.entity.VehicleRecord;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * 车辆记录列表查询实现
+ */
+public class VehicleRecordRepositoryCustomImpl implements VehicleRecordRepositoryCustom {
+
+    /**
+     * 列表字段（顺序与 VehicleRecordListItem 构造函数一致）
+     */
+    private static final String[] LIST_ATTRIBUTES = {
+        "id", "parkingLotCode", "status",
+        "entryPlateNumber", "entryTime", "entryCameraName",
+        "exitPlateNumber", "exitTime", "exitCameraName",
+        "durationSeconds", "parkingDurationMinutes", "parkingFeeCents",
+        "paymentStatus", "paymentTime", "createdAt", "updatedAt"
+    };
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<VehicleRecordListItem> findListItems(Specification<VehicleRecord> spec, Pageable pageable) {
+        return projection().findPage(spec, pageable);
+    }
+
+    @Override
+    public List<VehicleRecordListItem> findListItems(Specification<VehicleRecord> spec, Sort sort, int limit) {
+        return projection().findFirst(spec, sort, limit);
+    }
+
+    private SpecificationProjection<VehicleRecord, VehicleRecordListItem> projection() {
+        return new SpecificationProjection<>(entityManager, VehicleRecord.class, VehicleRecordListItem.class, LIST_ATTRIBUTES);
+    }
+}
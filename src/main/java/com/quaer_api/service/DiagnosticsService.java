@@ -0,0 +1,125 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.util.EventLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggerConfiguration;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 诊断模式（运行时开关，不需要重启）
+ *
+ * 平时热路径只输出结构化的单行事件日志（EventLog，按分类采样），
+ * 原来的多行明细（MQTT消息内容、Square请求/响应JSON、Webhook完整数据等）降为DEBUG级别。
+ * 排查问题时开启诊断模式：
+ * - 本项目日志器临时调整为DEBUG，输出多行明细
+ * - EventLog 不再采样
+ * 到期（最长 parking.event-log.verbose-max-minutes）后自动恢复原来的日志级别
+ *
+ * 注意：只对当前实例生效（8086/8087需要分别开启）
+ */
+@Slf4j
+@Service
+public class DiagnosticsService {
+
+    /**
+     * 诊断模式下调整为DEBUG的日志器（logback-spring.xml 中单独配置了级别的日志器也要列出）
+     */
+    private static final List<String> VERBOSE_LOGGERS = List.of(
+        "com.quaer_api",
+        "com.quaer_api.service.MqttClientService",
+        "com.quaer_api.service.MqttMessageHandler"
+    );
+
+    @Autowired
+    private LoggingSystem loggingSystem;
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    /**
+     * 开启诊断模式前各日志器的配置级别（null表示继承上级）
+     */
+    private final Map<String, LogLevel> savedLevels = new HashMap<>();
+
+    private volatile LocalDateTime verboseUntil;
+
+    @PostConstruct
+    public void init() {
+        ParkingProperties.EventLogConfig config = parkingProperties.getEventLog();
+        EventLog.configure(config.getDefaultSampleRate(), config.getSampleRates());
+        log.info("✅ 事件日志采样配置 | 默认采样率: {} | 分类采样率: {}",
+            config.getDefaultSampleRate(), config.getSampleRates());
+    }
+
+    /**
+     * 开启诊断模式
+     *
+     * @param minutes 持续时间(分钟)，超过上限时按上限处理
+     */
+    public synchronized Map<String, Object> enableVerbose(int minutes) {
+        int maxMinutes = parkingProperties.getEventLog().getVerboseMaxMinutes();
+        int effectiveMinutes = Math.max(1, Math.min(minutes, maxMinutes));
+
+        if (verboseUntil == null) {
+            savedLevels.clear();
+            for (String name : VERBOSE_LOGGERS) {
+                LoggerConfiguration configuration = loggingSystem.getLoggerConfiguration(name);
+                savedLevels.put(name, configuration != null ? configuration.getConfiguredLevel() : null);
+                loggingSystem.setLogLevel(name, LogLevel.DEBUG);
+            }
+            EventLog.setVerbose(true);
+        }
+        verboseUntil = LocalDateTime.now().plusMinutes(effectiveMinutes);
+
+        log.warn("🔍 诊断模式已开启 | 持续: {}分钟 | 到期时间: {}", effectiveMinutes, verboseUntil);
+        return getStatus();
+    }
+
+    /**
+     * 关闭诊断模式，恢复原来的日志级别
+     */
+    public synchronized Map<String, Object> disableVerbose() {
+        if (verboseUntil != null) {
+            savedLevels.forEach(loggingSystem::setLogLevel);
+            savedLevels.clear();
+            EventLog.setVerbose(false);
+            verboseUntil = null;
+            log.warn("🔍 诊断模式已关闭，日志级别已恢复");
+        }
+        return getStatus();
+    }
+
+    /**
+     * 诊断模式到期自动关闭
+     */
+    @Scheduled(fixedDelay = 30000, initialDelay = 30000)
+    public void expireVerbose() {
+        LocalDateTime until = verboseUntil;
+        if (until != null && LocalDateTime.now().isAfter(until)) {
+            disableVerbose();
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        ParkingProperties.EventLogConfig config = parkingProperties.getEventLog();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("verbose", verboseUntil != null);
+        status.put("verboseUntil", verboseUntil);
+        status.put("defaultSampleRate", config.getDefaultSampleRate());
+        status.put("sampleRates", config.getSampleRates());
+        status.put("events", EventLog.getStats());
+        return status;
+    }
+}
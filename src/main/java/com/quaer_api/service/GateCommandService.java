@@ -0,0 +1,308 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.TraceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 开闸指令通道
+ *
+ * 入场自动开闸、支付成功自动开闸、手动开闸统一走这里：
+ * - 专用的高优先级线程发布 /gate/... 主题，不和LED显示等其他消息排在同一个线程里；
+ *   MqttClientService 的缓冲区和发送窗口中开闸消息也优先发送
+ * - 消息体使用预先序列化的模板，只填入消息ID和端口号，不再每次 String.format
+ * - 入场时可以在保存记录之前就提交开闸指令（parking.gate.early-entry-open），与数据库保存并行
+ *
+ * 用法：
+ *   GateCommand command = gateCommandService.build("payment", lot, gateId, channelId, plate);
+ *   gateCommandService.open(command);                   // 提交并等待发出
+ *
+ *   gateCommandService.submit(command);                 // 先提交
+ *   ...                                                 // 并行处理其他事情
+ *   gateCommandService.await(command);                  // 再等待发出
+ */
+@Slf4j
+@Service
+public class GateCommandService {
+
+    /**
+     * 消息模板：{"id":"<ID>","type":"modbus","msg":{"cmd":"opentime","addr":255,"channel":<端口>,"time":10}}
+     * opentime: 常开端口闭合后自动断开，time=10 即1秒
+     */
+    private static final byte[] PAYLOAD_PREFIX = "{\"id\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAYLOAD_MIDDLE =
+        "\",\"type\":\"modbus\",\"msg\":{\"cmd\":\"opentime\",\"addr\":255,\"channel\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAYLOAD_SUFFIX = ",\"time\":10}}".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int DEFAULT_CHANNEL = 1;
+
+    @Autowired
+    @Lazy
+    private MqttClientService mqttClientService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    /**
+     * 主题缓存：停车场|闸机ID → /gate/{parking_lot_code}/{barrier_gate_id}/get
+     */
+    private final ConcurrentHashMap<String, String> topics = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        ParkingProperties.GateConfig config = parkingProperties.getGate();
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时在调用线程直接发送：开闸指令不能丢
+        executor = new ThreadPoolExecutor(config.getLaneThreads(), config.getLaneThreads(), 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(config.getQueueCapacity()),
+            r -> {
+                Thread thread = new Thread(r, "gate-command-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        log.info("开闸指令通道已启动 | 线程数: {} | 入场提前开闸: {}",
+            config.getLaneThreads(), config.isEarlyEntryOpen());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 构建开闸指令
+     *
+     * @param source 来源（entry / payment / manual）
+     * @param lot 停车场编号
+     * @param gateId 闸机ID
+     * @param channelId 端口号（为空或无法解析时使用默认值1）
+     * @param plate 车牌号（仅用于日志）
+     * @return 缺少停车场编号或闸机ID时返回null
+     */
+    public GateCommand build(String source, String lot, String gateId, String channelId, String plate) {
+        if (lot == null || lot.trim().isEmpty()) {
+            log.warn("⚠️ 开闸失败：没有停车场编号(parking_lot_code) | 来源: {} | 车牌: {}", source, plate);
+            return null;
+        }
+        if (gateId == null || gateId.trim().isEmpty()) {
+            log.warn("⚠️ 开闸失败：没有闸机ID(barrier_gate_id) | 来源: {} | 停车场: {} | 车牌: {}", source, lot, plate);
+            return null;
+        }
+
+        int channel = DEFAULT_CHANNEL;
+        if (channelId != null && !channelId.trim().isEmpty()) {
+            try {
+                channel = Integer.parseInt(channelId.trim());
+            } catch (NumberFormatException e) {
+                log.warn("⚠️ 端口号转换失败，使用默认值1: {}", channelId);
+            }
+        } else {
+            log.debug("没有端口号，使用默认值1 | 停车场: {} | 闸机: {}", lot, gateId);
+        }
+
+        String topic = topics.computeIfAbsent(lot + '|' + gateId, key -> "/gate/" + lot + "/" + gateId + "/get");
+        String messageId = newMessageId();
+        return new GateCommand(source, lot, gateId, channel, topic, messageId, plate, payload(messageId, channel));
+    }
+
+    /**
+     * 提交开闸指令到开闸线程（不等待）
+     */
+    public GateCommand submit(GateCommand command) {
+        long queuedAt = System.nanoTime();
+        command.sent = new CompletableFuture<>();
+        executor.execute(() -> publish(command, queuedAt));
+        return command;
+    }
+
+    /**
+     * 提交开闸指令并等待发出
+     *
+     * @return 是否已发出
+     */
+    public boolean open(GateCommand command) {
+        return await(submit(command));
+    }
+
+    /**
+     * 等待已提交的开闸指令发出（最多 parking.gate.await-ms），发出后在当前链路记录开闸时间点
+     *
+     * @return 是否已发出
+     */
+    public boolean await(GateCommand command) {
+        if (!command.isSubmitted()) {
+            submit(command);
+        }
+        try {
+            long sentAt = command.sent.get(parkingProperties.getGate().getAwaitMs(), TimeUnit.MILLISECONDS);
+            if (sentAt < 0) {
+                return false;
+            }
+            TraceContext.attachLot(command.lot);
+            TraceContext.mark(TraceContext.GATE, sentAt);
+            return true;
+        } catch (TimeoutException e) {
+            log.warn("⚠️ 等待开闸指令发出超时 | 主题: {} | 车牌: {}", command.topic, command.plate);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            log.error("❌ 开闸指令发送失败 | 主题: {} | 错误: {}", command.topic, e.getCause().getMessage(), e.getCause());
+            return false;
+        }
+    }
+
+    private void publish(GateCommand command, long queuedAt) {
+        try {
+            mqttClientService.publishAsync(command.topic, command.payload)
+                .whenComplete((ignored, error) -> onPublished(command, queuedAt, error));
+        } catch (Throwable e) {
+            onPublished(command, queuedAt, e);
+        }
+    }
+
+    /**
+     * 收到确认（或失败）后记录耗时并通知等待方
+     */
+    private void onPublished(GateCommand command, long queuedAt, Throwable error) {
+        long sentAt = System.nanoTime();
+        pipelineMetrics.stop(PipelineMetrics.GATE_PUBLISH, command.lot, queuedAt);
+        if (error != null) {
+            pipelineMetrics.failure(PipelineMetrics.GATE_PUBLISH, command.lot);
+            EventLog.error("gate.failed")
+                .with("source", command.source)
+                .with("lot", command.lot)
+                .with("gate", command.gateId)
+                .with("plate", command.plate)
+                .with("error", error.getMessage())
+                .log();
+            command.sent.complete(-1L);
+            return;
+        }
+
+        EventLog.info("gate.open")
+            .with("source", command.source)
+            .with("lot", command.lot)
+            .with("gate", command.gateId)
+            .with("channel", command.channel)
+            .with("plate", command.plate)
+            .with("id", command.messageId)
+            .with("us", (sentAt - queuedAt) / 1000)
+            .log();
+        command.sent.complete(sentAt);
+    }
+
+    /**
+     * 按模板拼接消息体
+     */
+    private static byte[] payload(String messageId, int channel) {
+        byte[] id = messageId.getBytes(StandardCharsets.US_ASCII);
+        byte[] channelBytes = Integer.toString(channel).getBytes(StandardCharsets.US_ASCII);
+        byte[] payload = new byte[PAYLOAD_PREFIX.length + id.length + PAYLOAD_MIDDLE.length
+            + channelBytes.length + PAYLOAD_SUFFIX.length];
+        int pos = 0;
+        System.arraycopy(PAYLOAD_PREFIX, 0, payload, pos, PAYLOAD_PREFIX.length);
+        pos += PAYLOAD_PREFIX.length;
+        System.arraycopy(id, 0, payload, pos, id.length);
+        pos += id.length;
+        System.arraycopy(PAYLOAD_MIDDLE, 0, payload, pos, PAYLOAD_MIDDLE.length);
+        pos += PAYLOAD_MIDDLE.length;
+        System.arraycopy(channelBytes, 0, payload, pos, channelBytes.length);
+        pos += channelBytes.length;
+        System.arraycopy(PAYLOAD_SUFFIX, 0, payload, pos, PAYLOAD_SUFFIX.length);
+        return payload;
+    }
+
+    /**
+     * 消息ID（UUID v4 格式；只要求不重复，用 ThreadLocalRandom 避免 SecureRandom 的开销）
+     */
+    private static String newMessageId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long most = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long least = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(most, least).toString();
+    }
+
+    /**
+     * 一条开闸指令
+     */
+    public static final class GateCommand {
+
+        private final String source;
+        private final String lot;
+        private final String gateId;
+        private final int channel;
+        private final String topic;
+        private final String messageId;
+        private final String plate;
+        private final byte[] payload;
+        private volatile CompletableFuture<Long> sent;
+
+        private GateCommand(String source, String lot, String gateId, int channel, String topic,
+                            String messageId, String plate, byte[] payload) {
+            this.source = source;
+            this.lot = lot;
+            this.gateId = gateId;
+            this.channel = channel;
+            this.topic = topic;
+            this.messageId = messageId;
+            this.plate = plate;
+            this.payload = payload;
+        }
+
+        public String getLot() {
+            return lot;
+        }
+
+        public String getGateId() {
+            return gateId;
+        }
+
+        public int getChannel() {
+            return channel;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * 是否已提交到开闸线程
+         */
+        public boolean isSubmitted() {
+            return sent != null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.quaer_api.service;
+
+import com.quaer_api.entity.RollupWatermark;
+import com.quaer_api.repository.RollupWatermarkRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 后台任务锁（rollup_watermarks.locked_until / locked_by）
+ * 汇总任务、车牌索引补建任务共用
+ *
+ * - 进程内：同一个任务同一时间只允许一个线程运行（定时任务和手动触发的接口不会同时执行）
+ * - 进程间：数据库条件更新，8086 / 8087 同时执行时只有一个能获取；
+ *   每次运行使用新的令牌，续期和释放只对本次运行获取的锁生效
+ * - 锁在超时后自动失效，进程崩溃时不会一直占用
+ */
+@Slf4j
+@Service
+public class JobLeaseService {
+
+    @Autowired
+    private RollupWatermarkRepository rollupWatermarkRepository;
+
+    @Value("${server.port:8086}")
+    private String serverPort;
+
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * 本进程中正在运行的任务
+     */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 获取任务锁
+     *
+     * @param jobName 任务名称（rollup_watermarks.name，不存在时创建）
+     * @param timeoutMs 锁超时时间
+     * @return 获取失败（本进程或其他实例正在运行）时返回null
+     */
+    public Lease acquire(String jobName, long timeoutMs) {
+        if (!running.add(jobName)) {
+            return null;
+        }
+        Lease lease = new Lease(jobName, timeoutMs, serverPort + "-" + instanceId + "-"
+            + UUID.randomUUID().toString().substring(0, 8));
+        try {
+            if (!rollupWatermarkRepository.existsById(jobName)) {
+                try {
+                    RollupWatermark watermark = new RollupWatermark();
+                    watermark.setName(jobName);
+                    rollupWatermarkRepository.saveAndFlush(watermark);
+                } catch (DataIntegrityViolationException e) {
+                    // 另一个实例同时创建，忽略
+                }
+            }
+            if (lease.renew()) {
+                return lease;
+            }
+        } catch (RuntimeException e) {
+            running.remove(jobName);
+            throw e;
+        }
+        running.remove(jobName);
+        return null;
+    }
+
+    /**
+     * 一次运行持有的任务锁
+     */
+    public final class Lease {
+
+        private final String jobName;
+        private final long timeoutMs;
+        private final String token;
+
+        private Lease(String jobName, long timeoutMs, String token) {
+            this.jobName = jobName;
+            this.timeoutMs = timeoutMs;
+            this.token = token;
+        }
+
+        /**
+         * 续期（处理时间较长时调用）
+         *
+         * @return false 表示锁已超时并被其他实例获取
+         */
+        public boolean renew() {
+            LocalDateTime now = LocalDateTime.now();
+            return rollupWatermarkRepository.tryLock(jobName, now, now.plusNanos(timeoutMs * 1_000_000L), token) == 1;
+        }
+
+        /**
+         * 释放（在 finally 中调用）
+         */
+        public void release() {
+            try {
+                rollupWatermarkRepository.unlock(jobName, token);
+            } catch (Exception e) {
+                log.warn("⚠️ 释放任务锁失败 | 任务: {} | {}", jobName, e.getMessage());
+            } finally {
+                running.remove(jobName);
+            }
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+}
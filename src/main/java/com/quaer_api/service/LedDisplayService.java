@@ -61,7 +61,7 @@ public class LedDisplayService {
         try {
             String jsonMessage = objectMapper.writeValueAsString(message);
             mqttClientService.publish(topic, jsonMessage);
-            log.info("发送 LED 消息到主题 [{}]: {}", topic, jsonMessage);
+            log.debug("发送 LED 消息到主题 [{}]: {}", topic, jsonMessage);
         } catch (Exception e) {
             log.error("发送 LED MQTT 消息失败", e);
             throw new RuntimeException("发送 LED 消息失败: " + e.getMessage());
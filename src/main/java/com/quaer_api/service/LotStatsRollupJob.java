@@ -0,0 +1,222 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.RollupWatermark;
+import com.quaer_api.repository.PaymentOrderRepository;
+import com.quaer_api.repository.RollupWatermarkRepository;
+import com.quaer_api.repository.VehicleRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 停车场历史汇总定时任务
+ *
+ * 每次运行：
+ * 1. 获取任务锁（{@link JobLeaseService}：8086/8087同时运行、定时任务和手动触发同时运行时只有一个执行）
+ * 2. 查询水位线之后有变化的 vehicle_records（updated_at）和 payment_orders（local_created_at / local_updated_at），
+ *    得到受影响的 停车场+日期
+ * 3. 逐个重新计算这些 停车场+日期 的汇总（{@link LotStatsRollupService#recompute}）
+ * 4. 全部成功后推进水位线；失败时水位线不动，下次重新处理
+ */
+@Slf4j
+@Service
+public class LotStatsRollupJob {
+
+    public static final String JOB_NAME = "lot_stats";
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    @Autowired
+    private RollupWatermarkRepository rollupWatermarkRepository;
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Autowired
+    private PaymentOrderRepository paymentOrderRepository;
+
+    @Autowired
+    private LotStatsRollupService lotStatsRollupService;
+
+    @Autowired
+    private JobLeaseService jobLeaseService;
+
+    @Scheduled(fixedDelayString = "${parking.rollup.interval-ms:300000}", initialDelay = 60000)
+    public void scheduledRun() {
+        if (!parkingProperties.getRollup().isEnabled()) {
+            return;
+        }
+        run();
+    }
+
+    /**
+     * 执行一次增量汇总
+     *
+     * @return 执行结果
+     */
+    public Map<String, Object> run() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        JobLeaseService.Lease lease = jobLeaseService.acquire(JOB_NAME, parkingProperties.getRollup().getLockTimeoutMs());
+        if (lease == null) {
+            result.put("success", false);
+            result.put("message", "汇总任务正在运行");
+            return result;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            RollupWatermark watermark = rollupWatermarkRepository.findById(JOB_NAME).orElseThrow();
+            ParkingProperties.RollupConfig config = parkingProperties.getRollup();
+            LocalDateTime until = LocalDateTime.now();
+            LocalDateTime initial = until.minusDays(config.getInitialDays());
+            LocalDateTime vehicleSince = watermark.getVehicleWatermark() != null
+                ? watermark.getVehicleWatermark().minusNanos(config.getOverlapMs() * 1_000_000L) : initial;
+            LocalDateTime paymentSince = watermark.getPaymentWatermark() != null
+                ? watermark.getPaymentWatermark().minusNanos(config.getOverlapMs() * 1_000_000L) : initial;
+
+            Set<LotDay> keys = new TreeSet<>();
+            collect(keys, vehicleRecordRepository.findChangedLotDays(vehicleSince, until));
+            ZoneId zone = ZoneId.systemDefault();
+            collect(keys, paymentOrderRepository.findChangedLotDays(
+                paymentSince.atZone(zone).toOffsetDateTime(), until.atZone(zone).toOffsetDateTime()));
+
+            int processed = recomputeAll(keys, lease);
+
+            long elapsed = System.currentTimeMillis() - start;
+            watermark = rollupWatermarkRepository.findById(JOB_NAME).orElseThrow();
+            watermark.setVehicleWatermark(until);
+            watermark.setPaymentWatermark(until);
+            watermark.setLastRunAt(LocalDateTime.now());
+            watermark.setLastRunKeys(processed);
+            watermark.setLastRunMillis(elapsed);
+            rollupWatermarkRepository.save(watermark);
+
+            if (processed > 0) {
+                log.info("📊 历史汇总完成 | 停车场-日期数: {} | 水位线: {} | 耗时: {}ms", processed, until, elapsed);
+            }
+            result.put("success", true);
+            result.put("processed", processed);
+            result.put("watermark", until);
+            result.put("elapsedMs", elapsed);
+        } catch (Exception e) {
+            log.error("❌ 历史汇总失败，水位线保持不变: {}", e.getMessage(), e);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        } finally {
+            lease.release();
+        }
+        return result;
+    }
+
+    /**
+     * 重建日期范围内所有停车场的汇总（不影响水位线）
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate 结束日期（含）
+     */
+    public Map<String, Object> rebuild(LocalDate startDate, LocalDate endDate) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        JobLeaseService.Lease lease = jobLeaseService.acquire(JOB_NAME, parkingProperties.getRollup().getLockTimeoutMs());
+        if (lease == null) {
+            result.put("success", false);
+            result.put("message", "汇总任务正在运行");
+            return result;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            LocalDateTime startTime = startDate.atStartOfDay();
+            LocalDateTime endTime = endDate.plusDays(1).atStartOfDay();
+            Set<LotDay> keys = new TreeSet<>();
+            collect(keys, vehicleRecordRepository.findLotDaysBetween(startTime, endTime));
+            ZoneId zone = ZoneId.systemDefault();
+            collect(keys, paymentOrderRepository.findChangedLotDays(
+                startTime.atZone(zone).toOffsetDateTime(), endTime.atZone(zone).toOffsetDateTime()));
+            keys.removeIf(key -> key.date.isBefore(startDate) || key.date.isAfter(endDate));
+
+            int processed = recomputeAll(keys, lease);
+            log.info("📊 历史汇总重建完成 | 日期: {} ~ {} | 停车场-日期数: {} | 耗时: {}ms",
+                startDate, endDate, processed, System.currentTimeMillis() - start);
+            result.put("success", true);
+            result.put("processed", processed);
+            result.put("elapsedMs", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("❌ 历史汇总重建失败: {}", e.getMessage(), e);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        } finally {
+            lease.release();
+        }
+        return result;
+    }
+
+    /**
+     * 汇总任务状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", parkingProperties.getRollup().isEnabled());
+        rollupWatermarkRepository.findById(JOB_NAME).ifPresent(watermark -> {
+            status.put("vehicleWatermark", watermark.getVehicleWatermark());
+            status.put("paymentWatermark", watermark.getPaymentWatermark());
+            status.put("lastRunAt", watermark.getLastRunAt());
+            status.put("lastRunKeys", watermark.getLastRunKeys());
+            status.put("lastRunMillis", watermark.getLastRunMillis());
+            status.put("lockedUntil", watermark.getLockedUntil());
+            status.put("lockedBy", watermark.getLockedBy());
+        });
+        return status;
+    }
+
+    private int recomputeAll(Set<LotDay> keys, JobLeaseService.Lease lease) {
+        int processed = 0;
+        for (LotDay key : keys) {
+            lotStatsRollupService.recompute(key.parkingLotCode, key.date);
+            processed++;
+            // 处理时间较长时续期任务锁
+            if (processed % 100 == 0 && !lease.renew()) {
+                throw new IllegalStateException("汇总任务锁已被其他实例获取");
+            }
+        }
+        return processed;
+    }
+
+    private void collect(Set<LotDay> keys, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            if (row[0] != null && row[1] != null) {
+                keys.add(new LotDay((String) row[0], LocalDate.parse((String) row[1])));
+            }
+        }
+    }
+
+    /**
+     * 停车场 + 日期
+     */
+    private static final class LotDay implements Comparable<LotDay> {
+        private final String parkingLotCode;
+        private final LocalDate date;
+
+        private LotDay(String parkingLotCode, LocalDate date) {
+            this.parkingLotCode = parkingLotCode;
+            this.date = date;
+        }
+
+        @Override
+        public int compareTo(LotDay other) {
+            int byDate = date.compareTo(other.date);
+            return byDate != 0 ? byDate : parkingLotCode.compareTo(other.parkingLotCode);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.quaer_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quaer_api.entity.LotDailyStats;
+import com.quaer_api.entity.LotHourlyStats;
+import com.quaer_api.repository.LotDailyStatsRepository;
+import com.quaer_api.repository.LotHourlyStatsRepository;
+import com.quaer_api.repository.PaymentOrderRepository;
+import com.quaer_api.repository.VehicleRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 停车场汇总计算服务
+ * 重新计算一个停车场一天的汇总（lot_daily_stats 一行 + lot_hourly_stats 最多24行），
+ * 每次都从原始表完整计算，所以重复执行是幂等的
+ */
+@Slf4j
+@Service
+public class LotStatsRollupService {
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Autowired
+    private PaymentOrderRepository paymentOrderRepository;
+
+    @Autowired
+    private LotDailyStatsRepository lotDailyStatsRepository;
+
+    @Autowired
+    private LotHourlyStatsRepository lotHourlyStatsRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 重新计算停车场一天的汇总
+     *
+     * @param parkingLotCode 停车场编号
+     * @param date 日期
+     */
+    @Transactional
+    public void recompute(String parkingLotCode, LocalDate date) {
+        LocalDateTime dayStart = date.atStartOfDay();
+        LocalDateTime dayEnd = dayStart.plusDays(1);
+        LocalDateTime now = LocalDateTime.now();
+
+        // 每小时：[entries, exits, exitOnly, revenueCents, paymentCount]
+        long[][] hours = new long[24][5];
+
+        for (Object[] row : vehicleRecordRepository.countLotEntriesByHour(parkingLotCode, dayStart, dayEnd)) {
+            hours[toInt(row[0])][0] += toLong(row[1]);
+        }
+        for (Object[] row : vehicleRecordRepository.countLotExitsByHour(parkingLotCode, dayStart, dayEnd)) {
+            hours[toInt(row[0])][1] += toLong(row[1]);
+            hours[toInt(row[0])][2] += toLong(row[2]);
+        }
+
+        LotDailyStats daily = lotDailyStatsRepository.findByParkingLotCodeAndStatDate(parkingLotCode, date)
+            .orElseGet(LotDailyStats::new);
+        daily.setParkingLotCode(parkingLotCode);
+        daily.setStatDate(date);
+
+        // 收入：按支付来源、卡品牌、小时
+        ZoneId zone = ZoneId.systemDefault();
+        OffsetDateTime paymentStart = dayStart.atZone(zone).toOffsetDateTime();
+        OffsetDateTime paymentEnd = dayEnd.atZone(zone).toOffsetDateTime();
+        long terminal = 0;
+        long online = 0;
+        long other = 0;
+        Map<String, Map<String, Long>> byBrand = new TreeMap<>();
+        for (Object[] row : paymentOrderRepository.sumLotRevenueBySourceBrandAndHour(parkingLotCode, paymentStart, paymentEnd)) {
+            String source = (String) row[0];
+            String brand = row[1] != null ? (String) row[1] : "UNKNOWN";
+            long amount = toLong(row[3]);
+            long count = toLong(row[4]);
+
+            hours[toInt(row[2])][3] += amount;
+            hours[toInt(row[2])][4] += count;
+            if ("TERMINAL".equals(source)) {
+                terminal += amount;
+            } else if ("ONLINE".equals(source)) {
+                online += amount;
+            } else {
+                other += amount;
+            }
+            Map<String, Long> brandTotals = byBrand.computeIfAbsent(brand, k -> new HashMap<>());
+            brandTotals.merge("amountCents", amount, Long::sum);
+            brandTotals.merge("count", count, Long::sum);
+        }
+
+        long[] totals = new long[5];
+        for (long[] hour : hours) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += hour[i];
+            }
+        }
+
+        daily.setEntries((int) totals[0]);
+        daily.setExits((int) totals[1]);
+        daily.setExitOnly((int) totals[2]);
+        daily.setRevenueCents(totals[3]);
+        daily.setPaymentCount((int) totals[4]);
+        daily.setTerminalRevenueCents(terminal);
+        daily.setOnlineRevenueCents(online);
+        daily.setOtherRevenueCents(other);
+        daily.setCardBrandRevenue(byBrand.isEmpty() ? null : toJson(byBrand));
+
+        // 停留时长分位数（最近秩法）
+        List<Integer> dwell = vehicleRecordRepository.findLotDwellSeconds(parkingLotCode, dayStart, dayEnd);
+        if (dwell.isEmpty()) {
+            daily.setAvgDwellSeconds(null);
+            daily.setP50DwellSeconds(null);
+            daily.setP90DwellSeconds(null);
+            daily.setP99DwellSeconds(null);
+            daily.setMaxDwellSeconds(null);
+        } else {
+            long sum = 0;
+            for (Integer seconds : dwell) {
+                sum += seconds;
+            }
+            daily.setAvgDwellSeconds((int) (sum / dwell.size()));
+            daily.setP50DwellSeconds(percentile(dwell, 50));
+            daily.setP90DwellSeconds(percentile(dwell, 90));
+            daily.setP99DwellSeconds(percentile(dwell, 99));
+            daily.setMaxDwellSeconds(dwell.get(dwell.size() - 1));
+        }
+        daily.setComputedAt(now);
+        lotDailyStatsRepository.save(daily);
+
+        // 每小时汇总：更新已有的行，新增有数据的小时，删除已经没有数据的小时
+        Map<LocalDateTime, LotHourlyStats> existing = new HashMap<>();
+        for (LotHourlyStats hourly : lotHourlyStatsRepository
+                .findByParkingLotCodeAndStatHourGreaterThanEqualAndStatHourLessThanOrderByStatHourAsc(parkingLotCode, dayStart, dayEnd)) {
+            existing.put(hourly.getStatHour(), hourly);
+        }
+        for (int h = 0; h < 24; h++) {
+            long[] hour = hours[h];
+            LocalDateTime statHour = dayStart.plusHours(h);
+            LotHourlyStats hourly = existing.remove(statHour);
+            if (hour[0] == 0 && hour[1] == 0 && hour[2] == 0 && hour[4] == 0) {
+                if (hourly != null) {
+                    lotHourlyStatsRepository.delete(hourly);
+                }
+                continue;
+            }
+            if (hourly == null) {
+                hourly = new LotHourlyStats();
+                hourly.setParkingLotCode(parkingLotCode);
+                hourly.setStatHour(statHour);
+            }
+            hourly.setEntries((int) hour[0]);
+            hourly.setExits((int) hour[1]);
+            hourly.setExitOnly((int) hour[2]);
+            hourly.setRevenueCents(hour[3]);
+            hourly.setPaymentCount((int) hour[4]);
+            hourly.setComputedAt(now);
+            lotHourlyStatsRepository.save(hourly);
+        }
+        // 不在整点的旧数据（理论上不存在）
+        existing.values().forEach(lotHourlyStatsRepository::delete);
+    }
+
+    /**
+     * 最近秩法分位数
+     *
+     * @param sorted 升序排列的数据（非空）
+     * @param p 分位（1~100）
+     */
+    static int percentile(List<Integer> sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (Exception e) {
+            log.warn("⚠️ 卡品牌收入序列化失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static int toInt(Object value) {
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+}
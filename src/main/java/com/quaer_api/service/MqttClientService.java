@@ -1,37 +1,122 @@
 package com.quaer_api.service;
 
 import com.quaer_api.config.MqttProperties;
+import com.quaer_api.util.EventLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MQTT客户端服务
  * 负责连接MQTT服务器、订阅主题、发布消息
+ *
+ * 发布基于 MqttAsyncClient，调用线程不等待 PUBACK：
+ * - 发送窗口：最多 mqtt.publish.max-inflight 条消息同时等待确认，超过时在本地缓冲区排队
+ * - 断线重连期间消息进入本地缓冲区（mqtt.publish.buffer-capacity），重连成功后按顺序补发
+ * - 开闸消息（/gate/...）优先发送；缓冲区满时丢弃最早的普通消息，开闸消息优先保留
+ * - 缓冲超时的消息不再发送：开闸消息 mqtt.publish.priority-ttl-ms，其他消息 mqtt.publish.buffer-ttl-ms
+ * - publishAsync 返回的 Future 在收到确认（QoS0 为发出）后完成，丢弃或失败时异常完成
+ *
+ * 监控：parking.mqtt.publish.latency{priority}（从提交到确认）、parking.mqtt.publish.buffer（缓冲区深度）、
+ *       parking.mqtt.publish.inflight（等待确认数）、parking.mqtt.publish.dropped{reason}
  */
 @Slf4j
 @Service
 public class MqttClientService {
 
+    /**
+     * 优先发送的主题前缀（开闸指令）
+     */
+    private static final String PRIORITY_TOPIC_PREFIX = "/gate/";
+
     @Autowired
     private MqttProperties mqttProperties;
 
     @Autowired
-    private MqttMessageHandler messageHandler;
+    private MqttIngestDispatcher ingestDispatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-    private MqttClient mqttClient;
+    private MqttAsyncClient mqttClient;
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    /**
+     * 发送窗口（等待确认的消息数）
+     */
+    private Semaphore inflight;
+
+    /**
+     * 本地缓冲区：开闸消息 / 普通消息（由 bufferLock 保护）
+     */
+    private final ArrayDeque<PendingMessage> priorityBuffer = new ArrayDeque<>();
+    private final ArrayDeque<PendingMessage> normalBuffer = new ArrayDeque<>();
+    private final Object bufferLock = new Object();
+
+    private Timer priorityLatency;
+    private Timer normalLatency;
+    private final ConcurrentHashMap<String, Counter> droppedCounters = new ConcurrentHashMap<>();
+
+    /**
+     * 消息确认回调（userContext 为 PendingMessage）
+     */
+    private final IMqttActionListener deliveryListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            inflight.release();
+            PendingMessage pending = (PendingMessage) token.getUserContext();
+            long nanos = System.nanoTime() - pending.enqueuedAt;
+            (pending.priority ? priorityLatency : normalLatency).record(nanos, TimeUnit.NANOSECONDS);
+            pending.future.complete(null);
+
+            EventLog.info("mqtt.publish")
+                .with("topic", pending.topic)
+                .with("bytes", pending.message.getPayload().length)
+                .with("us", nanos / 1000)
+                .log();
+            drain();
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            inflight.release();
+            PendingMessage pending = (PendingMessage) token.getUserContext();
+            if (!mqttClient.isConnected() && !isExpired(pending)) {
+                // 连接断开导致未确认：放回缓冲区队首，重连后补发
+                requeue(pending);
+            } else {
+                drop(pending, "failed", exception);
+            }
+            drain();
+        }
+    };
+
     /**
      * 初始化MQTT客户端并连接
      */
@@ -41,6 +126,7 @@ public class MqttClientService {
             // 生成唯一的Client ID: parking_server_随机UUID后8位
             String uniqueClientId = mqttProperties.getClientId() + "_" +
                                    UUID.randomUUID().toString().substring(0, 8);
+            MqttProperties.PublishConfig publishConfig = mqttProperties.getPublish();
 
             log.info("=== 开始初始化MQTT客户端 ===");
             log.info("MQTT配置信息:");
@@ -51,27 +137,36 @@ public class MqttClientService {
             log.info("  订阅主题: {}", mqttProperties.getSubscribeTopics());
             log.info("  发布主题: {}", mqttProperties.getPublishTopic());
             log.info("  QoS级别: {}", mqttProperties.getQos());
+            log.info("  发送窗口: {} | 缓冲区容量: {}", publishConfig.getMaxInflight(), publishConfig.getBufferCapacity());
+
+            inflight = new Semaphore(publishConfig.getMaxInflight());
+            registerMetrics();
 
-            // 创建MQTT客户端，使用唯一的Client ID
-            mqttClient = new MqttClient(
+            // 创建MQTT异步客户端，使用唯一的Client ID
+            mqttClient = new MqttAsyncClient(
                     mqttProperties.getBrokerUrl(),
                     uniqueClientId,
                     new MemoryPersistence()
             );
 
+            // 收到的消息交给接入队列后再确认（见 MqttIngestDispatcher）
+            mqttClient.setManualAcks(true);
+
             // 设置回调
             mqttClient.setCallback(new MqttCallbackExtended() {
                 @Override
                 public void connectComplete(boolean reconnect, String serverURI) {
                     if (reconnect) {
-                        log.info(">>> MQTT重新连接成功! 服务器: {} 时间: {}",
-                                serverURI, getCurrentTime());
+                        log.info(">>> MQTT重新连接成功! 服务器: {} 时间: {} 待补发消息: {}",
+                                serverURI, getCurrentTime(), getBufferSize());
                         // 重连后重新订阅
                         subscribeTopics();
                     } else {
                         log.info(">>> MQTT首次连接成功! 服务器: {} 时间: {}",
                                 serverURI, getCurrentTime());
                     }
+                    // 补发断线期间缓冲的消息
+                    drain();
                 }
 
                 @Override
@@ -83,24 +178,20 @@ public class MqttClientService {
 
                 @Override
                 public void messageArrived(String topic, MqttMessage message) {
-                    log.info("<<< 收到MQTT消息");
-                    log.info("  主题: {}", topic);
-                    log.info("  内容: {}", new String(message.getPayload(), StandardCharsets.UTF_8));
-                    log.info("  QoS: {}", message.getQos());
-                    log.info("  时间: {}", getCurrentTime());
-
-                    // 调用消息处理器
-                    messageHandler.handleMessage(topic, message);
+                    EventLog.info("mqtt.received")
+                        .with("topic", topic)
+                        .with("bytes", message.getPayload().length)
+                        .with("qos", message.getQos())
+                        .log();
+
+                    // 交给接入分发器异步处理，不阻塞Paho回调线程（发布确认回调也在这个线程执行）
+                    // 入队后再确认，接入队列积压时 broker 停止发送
+                    ingestDispatcher.dispatch(topic, message, () -> acknowledge(message));
                 }
 
                 @Override
                 public void deliveryComplete(IMqttDeliveryToken token) {
-                    try {
-                        log.info(">>> 消息发送完成! Token: {} 时间: {}",
-                                token.getMessageId(), getCurrentTime());
-                    } catch (Exception e) {
-                        log.error("获取Token信息失败", e);
-                    }
+                    log.debug(">>> 消息发送完成! Token: {}", token.getMessageId());
                 }
             });
 
@@ -116,7 +207,7 @@ public class MqttClientService {
     }
 
     /**
-     * 连接到MQTT服务器
+     * 连接到MQTT服务器（等待首次连接完成）
      */
     private void connect() {
         try {
@@ -130,8 +221,10 @@ public class MqttClientService {
             options.setKeepAliveInterval(mqttProperties.getConnection().getKeepAliveInterval());
             options.setAutomaticReconnect(mqttProperties.getConnection().isAutomaticReconnect());
             options.setMaxReconnectDelay(mqttProperties.getConnection().getMaxReconnectDelay());
+            options.setMaxInflight(mqttProperties.getPublish().getMaxInflight());
 
-            mqttClient.connect(options);
+            mqttClient.connect(options).waitForCompletion(
+                    TimeUnit.SECONDS.toMillis(mqttProperties.getConnection().getConnectionTimeout()));
 
             log.info(">>> MQTT连接成功! 时间: {}", getCurrentTime());
 
@@ -146,55 +239,72 @@ public class MqttClientService {
     }
 
     /**
-     * 订阅主题
+     * 订阅主题（异步，在回调中记录结果，不阻塞Paho回调线程）
      */
     private void subscribeTopics() {
-        try {
-            if (mqttProperties.getSubscribeTopics() != null &&
-                !mqttProperties.getSubscribeTopics().isEmpty()) {
+        if (mqttProperties.getSubscribeTopics() == null || mqttProperties.getSubscribeTopics().isEmpty()) {
+            return;
+        }
+        for (String topic : mqttProperties.getSubscribeTopics()) {
+            try {
+                mqttClient.subscribe(topic, mqttProperties.getQos(), null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken token) {
+                        log.info(">>> 订阅主题成功: {} QoS: {} 时间: {}",
+                                topic, mqttProperties.getQos(), getCurrentTime());
+                    }
 
-                for (String topic : mqttProperties.getSubscribeTopics()) {
-                    mqttClient.subscribe(topic, mqttProperties.getQos());
-                    log.info(">>> 订阅主题成功: {} QoS: {} 时间: {}",
-                            topic, mqttProperties.getQos(), getCurrentTime());
-                }
+                    @Override
+                    public void onFailure(IMqttToken token, Throwable exception) {
+                        log.error("!!! 订阅主题失败! 主题: {} 时间: {}", topic, getCurrentTime(), exception);
+                    }
+                });
+            } catch (MqttException e) {
+                log.error("!!! 订阅主题失败! 主题: {} 时间: {}", topic, getCurrentTime(), e);
             }
-        } catch (MqttException e) {
-            log.error("!!! 订阅主题失败! 时间: {}", getCurrentTime(), e);
         }
     }
 
     /**
-     * 发布消息
+     * 发布消息（不等待确认，失败或丢弃时记录日志）
      * @param topic 主题
      * @param message 消息内容
      */
     public void publish(String topic, String message) {
-        try {
-            if (!mqttClient.isConnected()) {
-                log.warn("!!! MQTT未连接,无法发送消息! 时间: {}", getCurrentTime());
-                return;
-            }
-
-            MqttMessage mqttMessage = new MqttMessage();
-            mqttMessage.setPayload(message.getBytes(StandardCharsets.UTF_8));
-            mqttMessage.setQos(mqttProperties.getQos());
-            mqttMessage.setRetained(mqttProperties.isRetained());
-
-            log.info(">>> 准备发送MQTT消息");
-            log.info("  主题: {}", topic);
-            log.info("  内容: {}", message);
-            log.info("  QoS: {}", mqttProperties.getQos());
-            log.info("  时间: {}", getCurrentTime());
+        publishAsync(topic, message);
+    }
 
-            mqttClient.publish(topic, mqttMessage);
+    /**
+     * 异步发布消息
+     * @param topic 主题
+     * @param message 消息内容
+     * @return 收到确认后完成；被丢弃或发送失败时异常完成
+     */
+    public CompletableFuture<Void> publishAsync(String topic, String message) {
+        return publishAsync(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
 
-            log.info(">>> 消息发送成功! 时间: {}", getCurrentTime());
+    /**
+     * 异步发布已序列化的消息（开闸指令等预先拼好的消息体）
+     * @param topic 主题
+     * @param payload 消息内容(UTF-8)
+     * @return 收到确认后完成；被丢弃或发送失败时异常完成
+     */
+    public CompletableFuture<Void> publishAsync(String topic, byte[] payload) {
+        MqttMessage mqttMessage = new MqttMessage(payload);
+        mqttMessage.setQos(mqttProperties.getQos());
+        mqttMessage.setRetained(mqttProperties.isRetained());
+
+        if (log.isDebugEnabled()) {
+            log.debug(">>> 准备发送MQTT消息 | 主题: {} | QoS: {} | 内容: {}",
+                topic, mqttProperties.getQos(), new String(payload, StandardCharsets.UTF_8));
+        }
 
-        } catch (MqttException e) {
-            log.error("!!! 发布消息失败! 主题: {} 时间: {}",
-                    topic, getCurrentTime(), e);
+        PendingMessage pending = new PendingMessage(topic, mqttMessage, topic.startsWith(PRIORITY_TOPIC_PREFIX));
+        if (enqueue(pending)) {
+            drain();
         }
+        return pending.future;
     }
 
     /**
@@ -205,24 +315,240 @@ public class MqttClientService {
         publish(mqttProperties.getPublishTopic(), message);
     }
 
+    /**
+     * 放入缓冲区；缓冲区满时丢弃最早的普通消息，全是开闸消息时拒绝新消息
+     *
+     * @return 是否已放入
+     */
+    private boolean enqueue(PendingMessage pending) {
+        PendingMessage evicted = null;
+        boolean accepted = true;
+        synchronized (bufferLock) {
+            if (priorityBuffer.size() + normalBuffer.size() >= mqttProperties.getPublish().getBufferCapacity()) {
+                evicted = normalBuffer.pollFirst();
+                accepted = evicted != null;
+            }
+            if (accepted) {
+                (pending.priority ? priorityBuffer : normalBuffer).addLast(pending);
+            }
+        }
+        if (evicted != null) {
+            drop(evicted, "overflow", null);
+        }
+        if (!accepted) {
+            drop(pending, "overflow", null);
+        }
+        return accepted;
+    }
+
+    /**
+     * 发送失败（连接断开）的消息放回缓冲区前部，按提交顺序插入
+     * 断线时已发出的消息逐条回调失败，每条都放到队首会把补发顺序颠倒
+     */
+    private void requeue(PendingMessage pending) {
+        synchronized (bufferLock) {
+            ArrayDeque<PendingMessage> buffer = pending.priority ? priorityBuffer : normalBuffer;
+            List<PendingMessage> earlier = new ArrayList<>();
+            while (!buffer.isEmpty() && buffer.peekFirst().sequence < pending.sequence) {
+                earlier.add(buffer.pollFirst());
+            }
+            buffer.addFirst(pending);
+            for (int i = earlier.size() - 1; i >= 0; i--) {
+                buffer.addFirst(earlier.get(i));
+            }
+        }
+    }
+
+    /**
+     * 在发送窗口允许的范围内发出缓冲区中的消息（开闸消息优先）
+     */
+    private void drain() {
+        while (mqttClient != null && mqttClient.isConnected() && inflight.tryAcquire()) {
+            PendingMessage next;
+            synchronized (bufferLock) {
+                next = priorityBuffer.pollFirst();
+                if (next == null) {
+                    next = normalBuffer.pollFirst();
+                }
+            }
+            if (next == null) {
+                inflight.release();
+                // 释放窗口前可能有其他线程放入了消息但没拿到窗口
+                if (getBufferSize() == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (isExpired(next)) {
+                inflight.release();
+                drop(next, "expired", null);
+                continue;
+            }
+            if (!send(next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 确认收到的消息（QoS 1 发送 PUBACK，QoS 2 发送 PUBCOMP），可以在任意线程调用
+     */
+    private void acknowledge(MqttMessage message) {
+        if (message.getQos() == 0) {
+            return;
+        }
+        try {
+            mqttClient.messageArrivedComplete(message.getId(), message.getQos());
+        } catch (MqttException e) {
+            // 连接已断开：broker 重发未确认的消息（持久会话）
+            log.warn("⚠️ 确认MQTT消息失败 | 消息ID: {} | 错误: {}", message.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 交给Paho发送（不等待确认）
+     *
+     * @return 是否已交给Paho；连接已断开时放回缓冲区并返回false
+     */
+    private boolean send(PendingMessage pending) {
+        try {
+            mqttClient.publish(pending.topic, pending.message, pending, deliveryListener);
+            return true;
+        } catch (MqttException e) {
+            inflight.release();
+            int reason = e.getReasonCode();
+            if (reason == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED
+                || reason == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                requeue(pending);
+                return false;
+            }
+            drop(pending, "failed", e);
+            return true;
+        }
+    }
+
+    /**
+     * 定时清理超时未发出的缓冲消息（断线期间不会触发发送）
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void expireBuffered() {
+        List<PendingMessage> expired = new ArrayList<>();
+        synchronized (bufferLock) {
+            collectExpired(priorityBuffer, expired);
+            collectExpired(normalBuffer, expired);
+        }
+        for (PendingMessage pending : expired) {
+            drop(pending, "expired", null);
+        }
+    }
+
+    private void collectExpired(ArrayDeque<PendingMessage> buffer, List<PendingMessage> expired) {
+        while (!buffer.isEmpty() && isExpired(buffer.peekFirst())) {
+            expired.add(buffer.pollFirst());
+        }
+    }
+
+    private boolean isExpired(PendingMessage pending) {
+        MqttProperties.PublishConfig config = mqttProperties.getPublish();
+        long ttlMs = pending.priority ? config.getPriorityTtlMs() : config.getBufferTtlMs();
+        return System.nanoTime() - pending.enqueuedAt > TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    private void drop(PendingMessage pending, String reason, Throwable cause) {
+        droppedCounters.computeIfAbsent(reason, key -> Counter.builder("parking.mqtt.publish.dropped")
+            .description("未发出或发送失败的MQTT消息数")
+            .tag("reason", key)
+            .register(meterRegistry)
+        ).increment();
+
+        EventLog.warn("mqtt.publish.dropped")
+            .with("topic", pending.topic)
+            .with("reason", reason)
+            .with("error", cause != null ? cause.getMessage() : null)
+            .log();
+        pending.future.completeExceptionally(cause != null ? cause
+            : new IllegalStateException("MQTT消息未发出: " + reason + " | 主题: " + pending.topic));
+    }
+
+    private void registerMetrics() {
+        priorityLatency = latencyTimer("gate");
+        normalLatency = latencyTimer("normal");
+        Gauge.builder("parking.mqtt.publish.buffer", this, MqttClientService::getBufferSize)
+            .description("MQTT发布本地缓冲区中的消息数")
+            .register(meterRegistry);
+        Gauge.builder("parking.mqtt.publish.inflight", this, MqttClientService::getInflightCount)
+            .description("已发出等待确认的MQTT消息数")
+            .register(meterRegistry);
+    }
+
+    private Timer latencyTimer(String priority) {
+        return Timer.builder("parking.mqtt.publish.latency")
+            .description("MQTT消息从提交到收到确认的耗时")
+            .tag("priority", priority)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofMillis(1))
+            .maximumExpectedValue(Duration.ofSeconds(30))
+            .register(meterRegistry);
+    }
+
+    public int getBufferSize() {
+        synchronized (bufferLock) {
+            return priorityBuffer.size() + normalBuffer.size();
+        }
+    }
+
+    public int getInflightCount() {
+        return mqttProperties.getPublish().getMaxInflight() - inflight.availablePermits();
+    }
+
+    /**
+     * 发布统计（缓冲区深度、等待确认数、各原因丢弃数）
+     */
+    public Map<String, Object> getPublishStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connected", isConnected());
+        stats.put("inflight", getInflightCount());
+        stats.put("maxInflight", mqttProperties.getPublish().getMaxInflight());
+        synchronized (bufferLock) {
+            stats.put("bufferedGate", priorityBuffer.size());
+            stats.put("bufferedNormal", normalBuffer.size());
+        }
+        stats.put("bufferCapacity", mqttProperties.getPublish().getBufferCapacity());
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        droppedCounters.forEach((reason, counter) -> dropped.put(reason, (long) counter.count()));
+        stats.put("dropped", dropped);
+        return stats;
+    }
+
     /**
      * 检查连接状态
      */
     public boolean isConnected() {
         boolean connected = mqttClient != null && mqttClient.isConnected();
-        log.info("MQTT连接状态: {} 时间: {}", connected ? "已连接" : "未连接", getCurrentTime());
+        log.debug("MQTT连接状态: {} 时间: {}", connected ? "已连接" : "未连接", getCurrentTime());
         return connected;
     }
 
     /**
-     * 断开连接
+     * 断开连接（缓冲区中未发出的消息全部丢弃）
      */
     @PreDestroy
     public void disconnect() {
+        List<PendingMessage> remaining = new ArrayList<>();
+        synchronized (bufferLock) {
+            remaining.addAll(priorityBuffer);
+            remaining.addAll(normalBuffer);
+            priorityBuffer.clear();
+            normalBuffer.clear();
+        }
+        for (PendingMessage pending : remaining) {
+            drop(pending, "shutdown", null);
+        }
+
         try {
             if (mqttClient != null && mqttClient.isConnected()) {
                 log.info("--- 正在断开MQTT连接...");
-                mqttClient.disconnect();
+                mqttClient.disconnect().waitForCompletion(5000);
                 mqttClient.close();
                 log.info(">>> MQTT连接已断开! 时间: {}", getCurrentTime());
             }
@@ -241,7 +567,31 @@ public class MqttClientService {
     /**
      * 获取MQTT客户端
      */
-    public MqttClient getMqttClient() {
+    public MqttAsyncClient getMqttClient() {
         return mqttClient;
     }
+
+    /**
+     * 待发送的消息
+     */
+    private static final class PendingMessage {
+
+        /**
+         * 提交顺序（补发时保持原顺序）
+         */
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final String topic;
+        private final MqttMessage message;
+        private final boolean priority;
+        private final long sequence = SEQUENCE.incrementAndGet();
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(String topic, MqttMessage message, boolean priority) {
+            this.topic = topic;
+            this.message = message;
+            this.priority = priority;
+        }
+    }
 }
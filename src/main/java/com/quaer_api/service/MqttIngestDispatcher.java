@@ -0,0 +1,230 @@
+package com.quaer_api.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.quaer_api.config.MqttProperties;
+import com.quaer_api.util.LanePartitionedExecutor;
+import com.quaer_api.util.PartitionedExecutor;
+import com.quaer_api.util.PlateUtils;
+import com.quaer_api.util.TraceContext;
+import com.quaer_api.util.VirtualThreadPartitionedExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MQTT消息接入分发器
+ * 把Paho回调线程收到的消息交给分区工作线程池处理，避免慢速的数据库/Square调用阻塞整个接收线程
+ * 分区Key = 停车场编号 + 标准化车牌号：同一辆车的事件按顺序处理，不同车辆的事件并行处理
+ *
+ * Paho回调线程（MQTT Call）同时执行发布确认(PUBACK)回调，不能在这里等待：
+ * - 队列有空位时直接入队并确认消息
+ * - 队列已满时放入积压队列立即返回，由 mqtt-backlog 线程按到达顺序按背压策略提交（block 策略在这个线程等待），
+ *   入队后才确认消息；未确认的消息占用 broker 的发送窗口，积压数量受 broker 流控限制（QoS 1/2）
+ */
+@Slf4j
+@Component
+public class MqttIngestDispatcher {
+
+    @Autowired
+    private MqttProperties mqttProperties;
+
+    @Autowired
+    private MqttMessageHandler messageHandler;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private PartitionedExecutor executor;
+
+    /**
+     * 接入队列已满时等待提交的消息（按到达顺序）
+     */
+    private final BlockingQueue<Arrival> backlog = new LinkedBlockingQueue<>();
+
+    /**
+     * 积压队列中以及 mqtt-backlog 线程正在提交的消息数（为0时Paho回调线程才能直接入队，不会越过积压的消息）
+     */
+    private final AtomicInteger backlogSize = new AtomicInteger();
+
+    private volatile boolean accepting = true;
+
+    @PostConstruct
+    public void init() {
+        MqttProperties.IngestConfig config = mqttProperties.getIngest();
+        if (mqttProperties.getExecutor() == MqttProperties.ExecutorMode.VIRTUAL) {
+            executor = new VirtualThreadPartitionedExecutor(
+                "mqtt-ingest",
+                config.getMaxPending(),
+                config.getBackpressure(),
+                config.getOfferTimeoutMs()
+            );
+        } else {
+            executor = new LanePartitionedExecutor(
+                "mqtt-ingest",
+                config.getWorkers(),
+                config.getQueueCapacity(),
+                config.getBackpressure(),
+                config.getOfferTimeoutMs()
+            );
+        }
+        Thread backlogThread = new Thread(this::drainBacklog, "mqtt-backlog");
+        backlogThread.setDaemon(true);
+        backlogThread.start();
+    }
+
+    /**
+     * 分发收到的MQTT消息（在Paho回调线程中调用，不阻塞）
+     * @param topic 主题
+     * @param message MQTT消息
+     * @param ack 消息已入队（或被背压策略丢弃）后调用，确认消息
+     */
+    public void dispatch(String topic, MqttMessage message, Runnable ack) {
+        long receivedAt = pipelineMetrics.start();
+        String parkingLotCode = MqttMessageHandler.extractParkingLotCode(topic);
+        String partitionKey = resolvePartitionKey(topic, parkingLotCode, message.getPayload());
+        Runnable task = () -> {
+            // 链路从收到消息开始计时，解析出 message_id 后替换链路ID
+            TraceContext.begin(null, "camera", parkingLotCode, receivedAt);
+            try {
+                // 从收到消息到开始处理的排队时间
+                pipelineMetrics.stop(PipelineMetrics.MQTT_RECEIVE, parkingLotCode, receivedAt);
+                messageHandler.handleMessage(topic, message);
+            } finally {
+                traceRecorder.finish();
+            }
+        };
+        if (backlogSize.get() == 0 && executor.offer(partitionKey, task)) {
+            ack.run();
+            return;
+        }
+        backlogSize.incrementAndGet();
+        backlog.add(new Arrival(topic, parkingLotCode, partitionKey, task, ack));
+    }
+
+    /**
+     * mqtt-backlog 线程：按到达顺序把积压的消息按背压策略提交
+     */
+    private void drainBacklog() {
+        while (accepting) {
+            Arrival arrival;
+            try {
+                arrival = backlog.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (arrival == null) {
+                continue;
+            }
+            try {
+                if (!executor.submit(arrival.partitionKey, arrival.task)) {
+                    pipelineMetrics.failure(PipelineMetrics.MQTT_RECEIVE, arrival.parkingLotCode);
+                    log.error("❌ MQTT消息被背压策略丢弃 | 主题: {} | 分区Key: {}", arrival.topic, arrival.partitionKey);
+                }
+            } catch (Exception e) {
+                log.error("❌ 提交积压的MQTT消息失败 | 主题: {}", arrival.topic, e);
+            } finally {
+                backlogSize.decrementAndGet();
+                arrival.ack.run();
+            }
+        }
+    }
+
+    /**
+     * 计算分区Key
+     * 摄像头消息使用 停车场编号|标准化车牌号，其他消息按主题分区
+     */
+    private String resolvePartitionKey(String topic, String parkingLotCode, byte[] payload) {
+        if (!topic.contains("/camera")) {
+            return topic;
+        }
+        String plate = peekPlateNumber(payload);
+        if (plate == null) {
+            return parkingLotCode;
+        }
+        return parkingLotCode + "|" + PlateUtils.normalize(plate);
+    }
+
+    /**
+     * 使用流式解析器只读取顶层的车牌字段，不构建完整的JSON树
+     */
+    private String peekPlateNumber(byte[] payload) {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (("entry_plate_number".equals(field) || "exit_plate_number".equals(field))
+                        && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+        } catch (Exception e) {
+            log.debug("无法从消息中读取车牌号，按停车场分区: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 获取接入队列统计（用于监控）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", executor.getMode());
+        stats.put("backpressure", executor.getPolicy());
+        stats.put("queued", executor.getQueuedTaskCount());
+        stats.put("backlog", backlogSize.get());
+        if (executor instanceof LanePartitionedExecutor lanes) {
+            stats.put("workers", lanes.getLaneCount());
+            stats.put("laneDepths", lanes.getLaneDepths());
+        } else if (executor instanceof VirtualThreadPartitionedExecutor virtual) {
+            stats.put("maxPending", virtual.getMaxPending());
+            stats.put("activeKeys", virtual.getActiveKeyCount());
+        }
+        stats.put("submitted", executor.getSubmittedCount());
+        stats.put("completed", executor.getCompletedCount());
+        stats.put("failed", executor.getFailedCount());
+        stats.put("dropped", executor.getDroppedCount());
+        stats.put("callerRuns", executor.getCallerRunsCount());
+        stats.put("avgQueueWaitMs", executor.getAverageQueueWaitMillis());
+        stats.put("maxQueueWaitMs", executor.getMaxQueueWaitMillis());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("--- 正在关闭MQTT消息接入队列...");
+        accepting = false;
+        executor.shutdown(mqttProperties.getIngest().getShutdownTimeoutMs());
+        if (!backlog.isEmpty()) {
+            // 未确认的消息由 broker 重发（持久会话）
+            log.warn("⚠️ 关闭时仍有{}条积压的MQTT消息未提交", backlog.size());
+        }
+    }
+
+    /**
+     * 等待提交的消息
+     */
+    private record Arrival(String topic, String parkingLotCode, String partitionKey, Runnable task, Runnable ack) {
+    }
+}
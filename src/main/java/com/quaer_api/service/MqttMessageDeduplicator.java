@@ -1,39 +1,104 @@
 package com.quaer_api.service;
 
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.util.DedupJournal;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.LongLongHashMap;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * MQTT消息去重器
  * 对于同一个车牌号+同一个停车场在3分钟内收到的重复消息进行过滤
  * 间隔时间基于消息本身的timestamp字段，而非服务器接收时间
+ *
+ * 实现（每天数百万车牌时内存有上限、不产生垃圾对象）：
+ * - Key：停车场编号 + 车牌号（忽略连字符）+ 方向 的64位哈希，不拼接字符串
+ * - Value：消息时间戳（秒），手工解析 yyyy-MM-dd HH:mm:ss，不使用 DateTimeFormatter
+ * - 按服务器时间分代：当前代 + 上一代，每个去重窗口轮换一次，轮换时直接丢弃最老的一代（O(1)），
+ *   记录至少保留一个去重窗口
+ * - 总记录数上限 parking.dedup.max-entries，当前代写满时提前轮换
+ * - 按Key分为多个分段，各分段独立加锁
+ * - 新记录同时写入去重日志（DedupJournal，内存映射文件），8086/8087 热切换或重启时
+ *   新实例启动即从本机所有实例的日志恢复去重窗口，另一个实例仍在运行时定时增量读取它的新记录
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class MqttMessageDeduplicator {
 
+    private static final int STRIPES = 16;
+
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private final ParkingProperties parkingProperties;
+
+    @Value("${server.port:8086}")
+    private String serverPort;
+
     /**
-     * 消息去重缓存
-     * Key: parkingLotCode + "_" + plateNumber + "_" + direction
-     * Value: 消息的timestamp时间
+     * 去重日志（未启用或打开失败时为null）
      */
-    private final Map<String, LocalDateTime> messageCache = new ConcurrentHashMap<>();
+    private DedupJournal journal;
+
+    private Stripe[] stripes;
 
     /**
-     * 去重时间窗口（分钟）
+     * 去重窗口（秒）
      */
-    private static final int DEDUP_WINDOW_MINUTES = 3;
+    private long windowSeconds;
 
     /**
-     * 日期时间格式化器（与消息中的timestamp格式匹配）
+     * 每个分段当前代的记录数上限
      */
-    private static final DateTimeFormatter DATE_TIME_FORMATTER =
-        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private int generationCapacity;
+
+    /**
+     * 因记录数达到上限而提前轮换的次数
+     */
+    private final LongAdder forcedRotations = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        ParkingProperties.DedupConfig config = parkingProperties.getDedup();
+        windowSeconds = config.getWindowSeconds();
+        generationCapacity = Math.max(1, config.getMaxEntries() / STRIPES / 2);
+        stripes = new Stripe[STRIPES];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(now + windowSeconds * 1000);
+        }
+        log.info("消息去重器已初始化 | 去重窗口: {}秒 | 记录数上限: {}", windowSeconds, config.getMaxEntries());
+
+        if (config.isJournalEnabled()) {
+            openJournal(config);
+        }
+    }
+
+    /**
+     * 打开本实例的去重日志，并从本机所有实例的日志恢复去重窗口
+     */
+    private void openJournal(ParkingProperties.DedupConfig config) {
+        try {
+            long start = System.nanoTime();
+            journal = DedupJournal.open(Paths.get(config.getJournalDirectory()), serverPort, config.getJournalCapacity());
+            int restored = journal.restore(restoreNotBefore(), this::restore);
+            log.info("去重日志已恢复 | 文件: {} | 恢复记录数: {} | 当前记录数: {} | 耗时: {}毫秒",
+                journal.getFile(), restored, getCacheSize(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.warn("⚠️ 打开去重日志失败，重启后去重窗口将丢失: {}", e.getMessage(), e);
+            journal = null;
+        }
+    }
 
     /**
      * 检查消息是否为重复消息
@@ -45,70 +110,110 @@ public class MqttMessageDeduplicator {
      * @return true=重复消息（应该忽略），false=新消息（应该处理）
      */
     public boolean isDuplicate(String parkingLotCode, String plateNumber, String direction, String messageTimestamp) {
+        return isDuplicate(parkingLotCode, plateNumber, direction, messageTimestamp, System.currentTimeMillis());
+    }
+
+    /**
+     * 检查消息是否为重复消息（指定服务器时间，用于测试代的轮换）
+     */
+    boolean isDuplicate(String parkingLotCode, String plateNumber, String direction, String messageTimestamp,
+                        long now) {
         if (parkingLotCode == null || plateNumber == null || direction == null || messageTimestamp == null) {
             return false;
         }
 
-        // 标准化车牌号（去除连字符）
-        String normalizedPlate = plateNumber.replace("-", "");
-
-        // 生成缓存Key（包含方向）
-        String cacheKey = parkingLotCode + "_" + normalizedPlate + "_" + direction;
-
         // 解析消息时间戳
-        LocalDateTime currentMessageTime;
-        try {
-            currentMessageTime = LocalDateTime.parse(messageTimestamp, DATE_TIME_FORMATTER);
-        } catch (Exception e) {
+        long messageSeconds = parseTimestamp(messageTimestamp);
+        if (messageSeconds == MISSING) {
             log.warn("⚠️ 无法解析消息时间戳: {} | 停车场: {} | 车牌: {}",
-                messageTimestamp, parkingLotCode, normalizedPlate);
+                messageTimestamp, parkingLotCode, plateNumber);
             return false;  // 如果无法解析时间戳，则不去重
         }
 
-        // 从缓存中获取上次该车牌+方向的消息时间戳
-        LocalDateTime lastMessageTime = messageCache.get(cacheKey);
+        long key = key(parkingLotCode, plateNumber, direction);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.advance(now);
 
-        if (lastMessageTime == null) {
-            // 第一次收到该消息，记录时间戳并返回false（不是重复）
-            messageCache.put(cacheKey, currentMessageTime);
-            log.debug("首次收到消息 | 停车场: {} | 车牌: {} | 方向: {} | 消息时间: {}",
-                parkingLotCode, normalizedPlate, direction, messageTimestamp);
+            // 上次该车牌+方向的消息时间戳
+            long lastSeconds = stripe.get(key);
+            if (lastSeconds != MISSING && messageSeconds - lastSeconds < windowSeconds) {
+                // 在去重窗口内的重复消息
+                if (log.isDebugEnabled()) {
+                    log.debug("检测到重复消息，已忽略 | 停车场: {} | 车牌: {} | 方向: {} | 本次消息时间: {} | 间隔: {}秒",
+                        parkingLotCode, plateNumber, direction, messageTimestamp, messageSeconds - lastSeconds);
+                }
+                return true;
+            }
+
+            // 首次收到或超过去重窗口，记录时间戳并返回false（不是重复）
+            if (stripe.current.size() >= generationCapacity) {
+                stripe.rotate();
+                forcedRotations.increment();
+                EventLog.warn("dedup.evict")
+                    .with("capacity", parkingProperties.getDedup().getMaxEntries())
+                    .log();
+            }
+            stripe.current.put(key, messageSeconds);
+            if (journal != null) {
+                journal.append(key, messageSeconds, now);
+            }
             return false;
         }
+    }
 
-        // 计算消息时间戳之间的间隔（分钟）
-        long minutesDiff = java.time.Duration.between(lastMessageTime, currentMessageTime).toMinutes();
+    /**
+     * 恢复一条去重记录（来自去重日志，不再写回日志）
+     */
+    private void restore(long key, long messageSeconds, long writtenAtMillis) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            long lastSeconds = stripe.get(key);
+            if ((lastSeconds == MISSING || messageSeconds > lastSeconds)
+                && stripe.current.size() < generationCapacity) {
+                stripe.current.put(key, messageSeconds);
+            }
+        }
+    }
 
-        if (minutesDiff < DEDUP_WINDOW_MINUTES) {
-            // 在3分钟内的重复消息
-            log.warn("⚠️ 检测到重复消息，已忽略 | 停车场: {} | 车牌: {} | 方向: {} | 上次消息时间: {} | 本次消息时间: {} | 间隔: {}分钟",
-                parkingLotCode, normalizedPlate, direction, lastMessageTime, messageTimestamp, minutesDiff);
-            return true;
-        } else {
-            // 超过3分钟，更新时间戳并返回false（不是重复）
-            messageCache.put(cacheKey, currentMessageTime);
-            log.debug("消息间隔超过3分钟，允许处理 | 停车场: {} | 车牌: {} | 方向: {} | 上次消息时间: {} | 本次消息时间: {} | 间隔: {}分钟",
-                parkingLotCode, normalizedPlate, direction, lastMessageTime, messageTimestamp, minutesDiff);
-            return false;
+    /**
+     * 增量读取其他实例（热切换时两个实例同时运行）写入的去重记录
+     */
+    @Scheduled(fixedDelayString = "${parking.dedup.peer-poll-ms:1000}")
+    public void followPeers() {
+        if (journal != null) {
+            journal.readPeers(restoreNotBefore(), this::restore);
         }
     }
 
     /**
-     * 清理过期的缓存记录（超过3分钟的记录）
-     * 建议定期调用此方法以释放内存
+     * 只恢复两个去重窗口内写入的记录（与内存中保留的两代一致）
      */
-    public void cleanupExpiredCache() {
-        LocalDateTime now = LocalDateTime.now();
-        int sizeBefore = messageCache.size();
+    private long restoreNotBefore() {
+        return System.currentTimeMillis() - windowSeconds * 2000;
+    }
 
-        messageCache.entrySet().removeIf(entry -> {
-            long minutesDiff = java.time.Duration.between(entry.getValue(), now).toMinutes();
-            return minutesDiff >= DEDUP_WINDOW_MINUTES;
-        });
+    private Stripe stripe(long key) {
+        return stripes[(int) (key >>> 60)];  // 高4位选分段（STRIPES = 16）
+    }
 
-        int removedCount = sizeBefore - messageCache.size();
-        if (removedCount > 0) {
-            log.info("清理过期缓存 | 删除记录数: {} | 剩余记录数: {}", removedCount, messageCache.size());
+    @PreDestroy
+    public void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 按服务器时间轮换过期的代（记录数很少的分段不会在 isDuplicate 中触发轮换，由这里释放内存）
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void cleanupExpiredCache() {
+        long now = System.currentTimeMillis();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.advance(now);
+            }
         }
     }
 
@@ -116,15 +221,170 @@ public class MqttMessageDeduplicator {
      * 获取当前缓存大小（用于监控）
      */
     public int getCacheSize() {
-        return messageCache.size();
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.current.size() + stripe.previous.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 因记录数达到上限而提前轮换的次数（持续增长说明 max-entries 偏小）
+     */
+    public long getForcedRotations() {
+        return forcedRotations.sum();
     }
 
     /**
      * 清空所有缓存（用于测试或重置）
      */
     public void clearAll() {
-        int size = messageCache.size();
-        messageCache.clear();
+        int size = getCacheSize();
+        long now = System.currentTimeMillis();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.reset(now + windowSeconds * 1000);
+            }
+        }
         log.info("已清空所有缓存 | 清除记录数: {}", size);
     }
+
+    /**
+     * 64位Key：停车场编号、车牌号（跳过连字符，与 PlateUtils.normalize 一致）、方向依次做 FNV-1a，再做一次混合
+     */
+    static long key(String parkingLotCode, String plateNumber, String direction) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, parkingLotCode, false);
+        hash = (hash ^ 0x1F) * 0x100000001b3L;
+        hash = fnv(hash, plateNumber, true);
+        hash = (hash ^ 0x1F) * 0x100000001b3L;
+        hash = fnv(hash, direction, false);
+        // murmur3 fmix64
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fnv(long hash, String value, boolean skipHyphen) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (skipHyphen && c == '-') {
+                continue;
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 解析 yyyy-MM-dd HH:mm:ss 为秒数（只用于计算间隔，不考虑时区）
+     *
+     * @return 格式错误时返回 MISSING
+     */
+    static long parseTimestamp(String text) {
+        if (text.length() != 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+            || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return MISSING;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return MISSING;
+        }
+        // 与 DateTimeFormatter 默认(SMART)解析一致：超出当月天数时取当月最后一天
+        day = Math.min(day, lengthOfMonth(year, month));
+        return epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second;
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * 公历日期 → 1970-01-01 起的天数
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * 一个分段：当前代 + 上一代
+     */
+    private final class Stripe {
+
+        private LongLongHashMap current = new LongLongHashMap(64);
+        private LongLongHashMap previous = new LongLongHashMap(64);
+
+        /**
+         * 下次轮换的服务器时间（毫秒）
+         */
+        private long rotateAt;
+
+        private Stripe(long rotateAt) {
+            this.rotateAt = rotateAt;
+        }
+
+        private long get(long key) {
+            long value = current.get(key, MISSING);
+            return value != MISSING ? value : previous.get(key, MISSING);
+        }
+
+        /**
+         * 到达轮换时间时丢弃上一代；空闲超过两代时两代都丢弃
+         */
+        private void advance(long now) {
+            if (now < rotateAt) {
+                return;
+            }
+            long generationMillis = windowSeconds * 1000;
+            if (now >= rotateAt + generationMillis) {
+                reset(now + generationMillis);
+                return;
+            }
+            rotate();
+            rotateAt += generationMillis;
+        }
+
+        private void rotate() {
+            previous = current;
+            current = new LongLongHashMap(Math.min(previous.size(), generationCapacity));
+        }
+
+        private void reset(long nextRotateAt) {
+            current = new LongLongHashMap(64);
+            previous = new LongLongHashMap(64);
+            rotateAt = nextRotateAt;
+        }
+    }
 }
@@ -1,16 +1,19 @@
 package com.quaer_api.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
+import com.quaer_api.dto.MqttCameraMessage;
 import com.quaer_api.dto.MqttEntryMessage;
 import com.quaer_api.dto.MqttExitMessage;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.TraceContext;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 /**
  * MQTT消息处理器
@@ -33,12 +36,21 @@ public class MqttMessageHandler {
     @Autowired
     private MqttMessageDeduplicator messageDeduplicator;
 
+    @Autowired
+    private ProcessedEventStore processedEventStore;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
     @Autowired
     private com.quaer_api.repository.VehicleRecordRepository vehicleRecordRepository;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /**
+     * 摄像头消息读取器（按 event_type 直接解析为 MqttEntryMessage / MqttExitMessage）
+     */
+    private final ObjectReader cameraMessageReader = objectMapper.readerFor(MqttCameraMessage.class);
 
     /**
      * 处理接收到的消息
@@ -47,139 +59,197 @@ public class MqttMessageHandler {
      */
     public void handleMessage(String topic, MqttMessage message) {
         try {
-            String payload = new String(message.getPayload(), StandardCharsets.UTF_8);
-
-            log.info("========================================");
-            log.info("处理MQTT消息");
-            log.info("  接收时间: {}", getCurrentTime());
-            log.info("  消息主题: {}", topic);
-            log.info("  消息内容: {}", payload);
-            log.info("  消息ID: {}", message.getId());
-            log.info("  QoS级别: {}", message.getQos());
-            log.info("  是否重复: {}", message.isDuplicate());
-            log.info("  是否保留: {}", message.isRetained());
-            log.info("========================================");
+            byte[] payload = message.getPayload();
+
+            // 消息明细只在诊断模式(DEBUG)下输出，平时由处理结果的单行事件日志记录
+            if (log.isDebugEnabled()) {
+                log.debug("处理MQTT消息 | 主题: {} | 消息ID: {} | QoS: {} | 重复: {} | 保留: {} | 内容: {}",
+                    topic, message.getId(), message.getQos(), message.isDuplicate(), message.isRetained(),
+                    new String(payload, StandardCharsets.UTF_8));
+            }
 
             // 根据主题处理不同的消息
             if (topic.contains("/camera")) {
                 // 处理摄像头相关消息（入场/出场）
                 handleCameraMessage(topic, payload);
             } else {
-                handleOtherMessage(topic, payload);
+                handleOtherMessage(topic, new String(payload, StandardCharsets.UTF_8));
             }
 
         } catch (Exception e) {
-            log.error("!!! 处理MQTT消息失败! 主题: {} 时间: {}",
-                    topic, getCurrentTime(), e);
+            EventLog.error("mqtt.failed").with("topic", topic).with("error", e.getMessage()).cause(e).log();
         }
     }
 
     /**
      * 处理停车场摄像头消息
+     * 直接从字节数组按 event_type 一次解析为入场/出场消息
      * @param topic 消息主题
      * @param payload 消息内容
      */
-    private void handleCameraMessage(String topic, String payload) {
-        log.info(">>> 处理停车场摄像头消息");
-        log.info("  消息内容: {}", payload);
+    private void handleCameraMessage(String topic, byte[] payload) {
+        // 从主题中提取停车场编号 (如 parking/0001/camera -> 0001)
+        String parkingLotCode = extractParkingLotCode(topic);
 
         try {
-            // 从主题中提取停车场编号 (如 parking/0001/camera -> 0001)
-            String parkingLotCode = extractParkingLotCode(topic);
-            log.info("  停车场编号: {}", parkingLotCode);
-
-            // 先解析JSON获取event_type、timestamp等字段
-            com.fasterxml.jackson.databind.JsonNode rootNode = objectMapper.readTree(payload);
-            String eventType = rootNode.get("event_type").asText();
-            String action = rootNode.get("action").asText();
-            String timestamp = rootNode.has("timestamp") ? rootNode.get("timestamp").asText() : null;
-
-            if ("entry".equals(eventType)) {
-                // 处理入场消息 - 只看 event_type，不限制 action
-                log.info(">>> 检测到入场消息，action: {}", action);
-                MqttEntryMessage entryMessage = objectMapper.readValue(payload, MqttEntryMessage.class);
-
-                // 🚫 去重检查：3分钟内同一停车场+同一车牌+同一方向的消息将被忽略
-                if (messageDeduplicator.isDuplicate(parkingLotCode, entryMessage.getEntryPlateNumber(), "entry", timestamp)) {
-                    log.warn("🚫 入场消息被去重过滤器拦截，已忽略");
-                    return;
-                }
+            MqttCameraMessage cameraMessage;
+            try {
+                cameraMessage = cameraMessageReader.readValue(payload);
+            } catch (InvalidTypeIdException e) {
+                EventLog.warn("mqtt.unknown").with("lot", parkingLotCode).with("eventType", e.getTypeId()).log();
+                return;
+            }
 
-                // 🔒 将快照文件名加入白名单
-                if (entryMessage.getEntrySnapshot() != null && !entryMessage.getEntrySnapshot().trim().isEmpty()) {
-                    snapshotWhitelistService.addToWhitelist(entryMessage.getEntrySnapshot());
-                }
+            TraceContext.identify(cameraMessage.getMessageId(), cameraMessage.getEventType(), cameraMessage.plateNumber());
+
+            // 🚫 去重检查：3分钟内同一停车场+同一车牌+同一方向的消息将被忽略（内存判断，在写入幂等记录之前）
+            String direction = cameraMessage instanceof MqttEntryMessage ? "entry" : "exit";
+            long dedupStart = pipelineMetrics.start();
+            boolean duplicate = messageDeduplicator.isDuplicate(parkingLotCode, cameraMessage.plateNumber(), direction,
+                cameraMessage.getTimestamp());
+            pipelineMetrics.stop(PipelineMetrics.DEDUP, parkingLotCode, dedupStart);
+            if (duplicate) {
+                pipelineMetrics.count(PipelineMetrics.DUPLICATE, parkingLotCode);
+                EventLog.info("mqtt.duplicate").with("dir", direction).with("lot", parkingLotCode)
+                    .with("plate", cameraMessage.plateNumber()).log();
+                return;
+            }
 
-                boolean success = vehicleRecordService.handleEntryMessage(entryMessage, parkingLotCode);
-                if (success) {
-                    log.info("✅ 入场消息处理成功");
-
-                    // 发送入场LED显示
-                    String ledDeviceCid = entryMessage.getLedScreenConfig();
-                    if (ledDeviceCid != null && !ledDeviceCid.trim().isEmpty()) {
-                        String plateNumber = entryMessage.getEntryPlateNumber();
-                        log.info(">>> 发送入场LED显示 | LED设备: {} | 车牌: {}", ledDeviceCid, plateNumber);
-                        ledDisplayService.sendVehicleEntryToLed(ledDeviceCid, plateNumber, "临时车");
-                        log.info("✅ 入场LED显示发送成功");
-                    } else {
-                        log.warn("⚠️ 入场消息中未找到LED设备配置，跳过LED显示");
-                    }
-                } else {
-                    log.error("❌ 入场消息处理失败");
-                }
-            } else if ("exit".equals(eventType)) {
-                // 处理出场消息 - 只看 event_type，不限制 action
-                log.info(">>> 检测到出场消息，action: {}", action);
-                MqttExitMessage exitMessage = objectMapper.readValue(payload, MqttExitMessage.class);
-
-                // 🚫 去重检查：3分钟内同一停车场+同一车牌+同一方向的消息将被忽略
-                if (messageDeduplicator.isDuplicate(parkingLotCode, exitMessage.getExitPlateNumber(), "exit", timestamp)) {
-                    log.warn("🚫 出场消息被去重过滤器拦截，已忽略");
-                    return;
-                }
+            // 🚫 幂等检查：同一消息（重发/重放）只处理一次，只对通过时间窗口去重的消息写入记录
+            String eventKey = eventKey(cameraMessage);
+            ProcessedEventStore.Claim claim = processedEventStore.claim(ProcessedEventStore.CAMERA, eventKey);
+            if (claim != ProcessedEventStore.Claim.ACQUIRED) {
+                pipelineMetrics.count(PipelineMetrics.DUPLICATE, parkingLotCode);
+                EventLog.info("mqtt.duplicate").with("dir", cameraMessage.getEventType()).with("lot", parkingLotCode)
+                    .with("plate", cameraMessage.plateNumber()).with("event", eventKey)
+                    .with("state", claim == ProcessedEventStore.Claim.IN_PROGRESS ? "in_progress" : "done").log();
+                return;
+            }
 
-                // 🔒 将快照文件名加入白名单
-                if (exitMessage.getExitSnapshot() != null && !exitMessage.getExitSnapshot().trim().isEmpty()) {
-                    snapshotWhitelistService.addToWhitelist(exitMessage.getExitSnapshot());
+            boolean handled = false;
+            try {
+                if (cameraMessage instanceof MqttEntryMessage entryMessage) {
+                    // 处理入场消息 - 只看 event_type，不限制 action
+                    handled = handleEntry(entryMessage, parkingLotCode);
+                } else if (cameraMessage instanceof MqttExitMessage exitMessage) {
+                    // 处理出场消息 - 只看 event_type，不限制 action
+                    handled = handleExit(exitMessage, parkingLotCode);
                 }
-
-                com.quaer_api.entity.VehicleRecord updatedRecord = vehicleRecordService.handleExitMessage(exitMessage, parkingLotCode);
-                if (updatedRecord != null) {
-                    log.info("✅ 出场消息处理成功");
-
-                    // 发送出场LED显示 - 显示停车时长和费用
-                    String ledDeviceCid = updatedRecord.getLedScreenConfig();
-                    if (ledDeviceCid != null && !ledDeviceCid.trim().isEmpty()) {
-                        String plateNumber = updatedRecord.getExitPlateNumber();
-                        Integer durationSeconds = updatedRecord.getDurationSeconds();
-                        Integer parkingFeeCents = updatedRecord.getParkingFeeCents();
-
-                        log.info(">>> 发送出场LED显示 | LED设备: {} | 车牌: {} | 时长: {}秒 | 费用: {}美分",
-                            ledDeviceCid, plateNumber, durationSeconds, parkingFeeCents);
-
-                        ledDisplayService.sendVehicleWelcomeToLed(
-                            ledDeviceCid,
-                            plateNumber,
-                            durationSeconds != null ? durationSeconds : 0,
-                            parkingFeeCents != null ? parkingFeeCents : 0
-                        );
-
-                        log.info("✅ 出场LED显示发送成功");
-                    } else {
-                        log.warn("⚠️ 出场消息中未找到LED设备配置，跳过LED显示");
-                    }
+            } finally {
+                if (handled) {
+                    processedEventStore.complete(ProcessedEventStore.CAMERA, eventKey);
                 } else {
-                    log.error("❌ 出场消息处理失败");
+                    // 处理失败，允许摄像头重发的同一消息再次处理
+                    processedEventStore.release(ProcessedEventStore.CAMERA, eventKey);
                 }
-            } else {
-                log.warn("⚠️ 未知的事件类型: {}", eventType);
             }
 
         } catch (Exception e) {
-            log.error("❌ 解析摄像头消息失败: {}", e.getMessage(), e);
+            EventLog.error("mqtt.camera").with("lot", parkingLotCode).with("error", e.getMessage()).cause(e).log();
+        }
+    }
+
+    /**
+     * 摄像头消息的幂等Key：只使用 message_id
+     * 没有 message_id 时返回null，不做持久化幂等判断（只靠时间窗口去重）：
+     * 摄像头事件ID是每台摄像头自己的计数器，同一停车场多台摄像头或计数器重置后会相同，不能作为Key
+     */
+    private static String eventKey(MqttCameraMessage cameraMessage) {
+        String messageId = cameraMessage.getMessageId();
+        return messageId != null && !messageId.isBlank() ? messageId : null;
+    }
+
+    /**
+     * 处理入场消息
+     *
+     * @return false=处理失败
+     */
+    private boolean handleEntry(MqttEntryMessage entryMessage, String parkingLotCode) {
+        long start = System.nanoTime();
+        String plateNumber = entryMessage.getEntryPlateNumber();
+
+        // 🔒 将快照文件名加入白名单
+        if (entryMessage.getEntrySnapshot() != null && !entryMessage.getEntrySnapshot().trim().isEmpty()) {
+            snapshotWhitelistService.addToWhitelist(entryMessage.getEntrySnapshot());
+        }
+
+        boolean success = vehicleRecordService.handleEntryMessage(entryMessage, parkingLotCode);
+        if (!success) {
+            pipelineMetrics.failure(PipelineMetrics.ENTRY, parkingLotCode);
+            EventLog.error("vehicle.entry").with("lot", parkingLotCode).with("plate", plateNumber)
+                .with("action", entryMessage.getAction()).with("result", "failed").log();
+            return false;
+        }
+
+        // 发送入场LED显示
+        String ledDeviceCid = entryMessage.getLedScreenConfig();
+        boolean led = ledDeviceCid != null && !ledDeviceCid.trim().isEmpty();
+        if (led) {
+            pipelineMetrics.run(PipelineMetrics.LED_PUBLISH, parkingLotCode,
+                () -> ledDisplayService.sendVehicleEntryToLed(ledDeviceCid, plateNumber, "临时车"));
+        }
+        pipelineMetrics.stop(PipelineMetrics.ENTRY, parkingLotCode, start);
+
+        EventLog.info("vehicle.entry")
+            .with("lot", parkingLotCode)
+            .with("plate", plateNumber)
+            .with("action", entryMessage.getAction())
+            .with("led", led ? ledDeviceCid : "none")
+            .with("ms", (System.nanoTime() - start) / 1_000_000)
+            .log();
+        return true;
+    }
+
+    /**
+     * 处理出场消息
+     *
+     * @return false=处理失败
+     */
+    private boolean handleExit(MqttExitMessage exitMessage, String parkingLotCode) {
+        long start = System.nanoTime();
+        String exitPlateNumber = exitMessage.getExitPlateNumber();
+
+        // 🔒 将快照文件名加入白名单
+        if (exitMessage.getExitSnapshot() != null && !exitMessage.getExitSnapshot().trim().isEmpty()) {
+            snapshotWhitelistService.addToWhitelist(exitMessage.getExitSnapshot());
         }
 
-        log.info(">>> 摄像头消息处理完成");
+        com.quaer_api.entity.VehicleRecord updatedRecord = vehicleRecordService.handleExitMessage(exitMessage, parkingLotCode);
+        if (updatedRecord == null) {
+            pipelineMetrics.failure(PipelineMetrics.EXIT, parkingLotCode);
+            EventLog.error("vehicle.exit").with("lot", parkingLotCode).with("plate", exitPlateNumber)
+                .with("action", exitMessage.getAction()).with("result", "failed").log();
+            return false;
+        }
+
+        // 发送出场LED显示 - 显示停车时长和费用
+        String ledDeviceCid = updatedRecord.getLedScreenConfig();
+        Integer durationSeconds = updatedRecord.getDurationSeconds();
+        Integer parkingFeeCents = updatedRecord.getParkingFeeCents();
+        boolean led = ledDeviceCid != null && !ledDeviceCid.trim().isEmpty();
+        if (led) {
+            long ledStart = pipelineMetrics.start();
+            ledDisplayService.sendVehicleWelcomeToLed(
+                ledDeviceCid,
+                updatedRecord.getExitPlateNumber(),
+                durationSeconds != null ? durationSeconds : 0,
+                parkingFeeCents != null ? parkingFeeCents : 0
+            );
+            pipelineMetrics.stop(PipelineMetrics.LED_PUBLISH, parkingLotCode, ledStart);
+        }
+        pipelineMetrics.stop(PipelineMetrics.EXIT, parkingLotCode, start);
+
+        EventLog.info("vehicle.exit")
+            .with("lot", parkingLotCode)
+            .with("plate", exitPlateNumber)
+            .with("record", updatedRecord.getId())
+            .with("status", updatedRecord.getStatus())
+            .with("duration", durationSeconds)
+            .with("fee", parkingFeeCents)
+            .with("led", led ? ledDeviceCid : "none")
+            .with("ms", (System.nanoTime() - start) / 1_000_000)
+            .log();
+        return true;
     }
 
     /**
@@ -188,7 +258,7 @@ public class MqttMessageHandler {
      * @param topic MQTT主题
      * @return 停车场编号
      */
-    private String extractParkingLotCode(String topic) {
+    static String extractParkingLotCode(String topic) {
         try {
             // 主题格式: parking/0001/camera
             String[] parts = topic.split("/");
@@ -207,17 +277,12 @@ public class MqttMessageHandler {
      * @param payload 消息内容
      */
     private void handleOtherMessage(String topic, String payload) {
-        log.info(">>> 处理其他主题消息");
-        log.info("  主题: {}", topic);
-        log.info("  内容: {}", payload);
-
         // 不处理 parking/XXX/LED 主题消息（这是摄像头系统的反馈消息，不需要处理）
-        if (topic.contains("/LED")) {
-            log.info("⚠️ 收到LED反馈消息，忽略处理");
-            return;
-        }
-
-        log.info(">>> 其他消息处理完成");
+        EventLog.info("mqtt.other")
+            .with("topic", topic)
+            .with("ignored", topic.contains("/LED"))
+            .log();
+        log.debug("其他主题消息内容 | 主题: {} | 内容: {}", topic, payload);
     }
 
     /**
@@ -291,11 +356,4 @@ public class MqttMessageHandler {
             log.error("❌ 处理LED显示请求失败: {}", e.getMessage(), e);
         }
     }
-
-    /**
-     * 获取当前时间字符串
-     */
-    private String getCurrentTime() {
-        return LocalDateTime.now().format(DATE_TIME_FORMATTER);
-    }
 }
@@ -0,0 +1,313 @@
+package com.quaer_api.service;
+
+import com.quaer_api.entity.VehicleRecord;
+import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 停车场实时统计计数器
+ * 按停车场维护：在场车辆、今日正常出场、今日异常出口、待支付、今日已支付笔数和收入
+ *
+ * 工作方式：
+ * 1. 写入车辆记录前用 {@link #capture} 记下原来的状态，保存后调用 {@link #onRecordChanged}，
+ *    事务提交后按"新状态的贡献 - 原状态的贡献"更新计数器，所以任何状态变化都不需要单独处理
+ * 2. 定时与数据库对账，修正偏差（本实例之外的写入、跨天清零、提交后回调丢失等）
+ *
+ * 看板查询直接读取计数器，不访问数据库
+ */
+@Slf4j
+@Service
+public class ParkingCounterService {
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    /**
+     * 停车场编号 → 计数器
+     */
+    private final ConcurrentHashMap<String, LotCounters> countersByLot = new ConcurrentHashMap<>();
+
+    /**
+     * "今日"计数器对应的日期
+     */
+    private volatile LocalDate currentDay = LocalDate.now();
+
+    private volatile LocalDateTime lastReconciledAt;
+
+    private volatile long lastReconcileDrift;
+
+    @PostConstruct
+    public void init() {
+        reconcile();
+    }
+
+    /**
+     * 记录保存前的状态（新建记录传 null）
+     */
+    public RecordState capture(VehicleRecord record) {
+        return record == null ? null : new RecordState(record);
+    }
+
+    /**
+     * 车辆记录保存后调用：事务提交后按状态变化更新计数器（事务回滚时不更新）
+     *
+     * @param before 保存前的状态（新建记录为 null）
+     * @param after 保存后的记录
+     */
+    public void onRecordChanged(RecordState before, VehicleRecord after) {
+        RecordState afterState = capture(after);
+        TransactionUtils.afterCommit(() -> apply(before, afterState));
+    }
+
+    private void apply(RecordState before, RecordState after) {
+        advanceDay();
+        LocalDate today = currentDay;
+        if (before != null) {
+            countersFor(before.parkingLotCode).add(before, today, -1);
+        }
+        if (after != null) {
+            countersFor(after.parkingLotCode).add(after, today, 1);
+        }
+    }
+
+    /**
+     * 跨天时清零"今日"计数器并立即对账
+     */
+    @Scheduled(fixedDelay = 30000, initialDelay = 30000)
+    public void checkDayRollover() {
+        if (advanceDay()) {
+            reconcile();
+        }
+    }
+
+    /**
+     * 跨天时清零"今日"计数器
+     *
+     * @return 是否发生了跨天
+     */
+    private boolean advanceDay() {
+        LocalDate today = LocalDate.now();
+        if (today.equals(currentDay)) {
+            return false;
+        }
+        synchronized (this) {
+            if (today.equals(currentDay)) {
+                return false;
+            }
+            currentDay = today;
+            countersByLot.values().forEach(LotCounters::resetDaily);
+            log.info("📅 跨天，今日统计计数器已清零 | 日期: {}", today);
+            return true;
+        }
+    }
+
+    /**
+     * 与数据库对账：计数器 = 数据库中的值
+     * 对账查询和调整之间提交的少量变化可能被算两次或漏算，会在下一次对账时修正
+     */
+    @Scheduled(fixedDelayString = "${parking.counters.reconcile-interval-ms:60000}",
+               initialDelayString = "${parking.counters.reconcile-interval-ms:60000}")
+    public synchronized void reconcile() {
+        long start = System.currentTimeMillis();
+        try {
+            LocalDate today = currentDay;
+            LocalDateTime dayStart = today.atStartOfDay();
+            // 分三次查询，每次都能使用索引（合成一个 OR 条件的查询时只能全表扫描）
+            Map<String, long[]> dbValues = new HashMap<>();
+            mergeCounts(dbValues, vehicleRecordRepository.countEnteredByLot(), 0);
+            mergeCounts(dbValues, vehicleRecordRepository.countExitsSince(dayStart), 1);
+            mergeCounts(dbValues, vehicleRecordRepository.countPaymentsSince(dayStart), 3);
+
+            long drift = 0;
+            for (String lot : dbValues.keySet()) {
+                countersFor(lot);
+            }
+            for (Map.Entry<String, LotCounters> entry : countersByLot.entrySet()) {
+                long[] values = dbValues.getOrDefault(entry.getKey(), new long[LotCounters.FIELD_COUNT]);
+                drift += entry.getValue().adjustTo(values);
+            }
+
+            lastReconciledAt = LocalDateTime.now();
+            lastReconcileDrift = drift;
+            if (drift != 0) {
+                log.info("🔄 实时统计计数器已对账 | 停车场数: {} | 修正量: {} | 耗时: {}ms",
+                    countersByLot.size(), drift, System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            log.error("❌ 实时统计计数器对账失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把对账查询结果（[停车场编号, 值...]）写入计数器数组的对应位置
+     *
+     * @param offset 第一个值在计数器数组中的位置（与 LotCounters.adders() 的顺序一致）
+     */
+    private void mergeCounts(Map<String, long[]> dbValues, List<Object[]> rows, int offset) {
+        for (Object[] row : rows) {
+            long[] values = dbValues.computeIfAbsent(lotKey((String) row[0]), lot -> new long[LotCounters.FIELD_COUNT]);
+            for (int i = 1; i < row.length; i++) {
+                values[offset + i - 1] = row[i] == null ? 0 : ((Number) row[i]).longValue();
+            }
+        }
+    }
+
+    /**
+     * 获取实时统计
+     *
+     * @param parkingLotCode 停车场编号（为空时返回所有停车场和合计）
+     */
+    public Map<String, Object> getLiveStatistics(String parkingLotCode) {
+        advanceDay();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("date", currentDay.toString());
+        if (parkingLotCode != null) {
+            LotCounters counters = countersByLot.get(parkingLotCode);
+            result.put("parkingLotCode", parkingLotCode);
+            result.put("counters", counters != null ? counters.toMap() : new LotCounters().toMap());
+        } else {
+            LotCounters total = new LotCounters();
+            Map<String, Object> byLot = new TreeMap<>();
+            countersByLot.forEach((lot, counters) -> {
+                byLot.put(lot, counters.toMap());
+                total.addAll(counters);
+            });
+            result.put("counters", total.toMap());
+            result.put("byLot", byLot);
+        }
+        result.put("lastReconciledAt", lastReconciledAt);
+        result.put("lastReconcileDrift", lastReconcileDrift);
+        return result;
+    }
+
+    private LotCounters countersFor(String parkingLotCode) {
+        return countersByLot.computeIfAbsent(lotKey(parkingLotCode), k -> new LotCounters());
+    }
+
+    private static String lotKey(String parkingLotCode) {
+        return parkingLotCode == null ? "unknown" : parkingLotCode;
+    }
+
+    /**
+     * 车辆记录中与计数器相关的字段快照（不可变）
+     */
+    public static final class RecordState {
+        private final String parkingLotCode;
+        private final String status;
+        private final String paymentStatus;
+        private final LocalDateTime exitTime;
+        private final LocalDateTime paymentTime;
+        private final int parkingFeeCents;
+
+        private RecordState(VehicleRecord record) {
+            this.parkingLotCode = record.getParkingLotCode();
+            this.status = record.getStatus();
+            this.paymentStatus = record.getPaymentStatus();
+            this.exitTime = record.getExitTime();
+            this.paymentTime = record.getPaymentTime();
+            this.parkingFeeCents = record.getParkingFeeCents() != null ? record.getParkingFeeCents() : 0;
+        }
+
+        private boolean isToday(LocalDateTime time, LocalDate today) {
+            return time != null && time.toLocalDate().equals(today);
+        }
+    }
+
+    /**
+     * 单个停车场的计数器
+     */
+    private static final class LotCounters {
+        static final int FIELD_COUNT = 6;
+
+        private final LongAdder entered = new LongAdder();
+        private final LongAdder exitedToday = new LongAdder();
+        private final LongAdder exitOnlyToday = new LongAdder();
+        private final LongAdder pendingPayments = new LongAdder();
+        private final LongAdder paidToday = new LongAdder();
+        private final LongAdder revenueTodayCents = new LongAdder();
+
+        /**
+         * 加上（sign=1）或减去（sign=-1）一条记录的贡献
+         */
+        void add(RecordState state, LocalDate today, int sign) {
+            if ("entered".equals(state.status)) {
+                entered.add(sign);
+            } else if ("exited".equals(state.status) && state.isToday(state.exitTime, today)) {
+                exitedToday.add(sign);
+            } else if ("exit_only".equals(state.status) && state.isToday(state.exitTime, today)) {
+                exitOnlyToday.add(sign);
+            }
+            if ("pending".equals(state.paymentStatus)) {
+                pendingPayments.add(sign);
+            } else if ("paid".equals(state.paymentStatus) && state.isToday(state.paymentTime, today)) {
+                paidToday.add(sign);
+                revenueTodayCents.add((long) sign * state.parkingFeeCents);
+            }
+        }
+
+        void resetDaily() {
+            exitedToday.reset();
+            exitOnlyToday.reset();
+            paidToday.reset();
+            revenueTodayCents.reset();
+        }
+
+        /**
+         * 调整到数据库中的值，返回修正量（绝对值之和）
+         */
+        long adjustTo(long[] values) {
+            LongAdder[] adders = adders();
+            long drift = 0;
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                long delta = values[i] - adders[i].sum();
+                if (delta != 0) {
+                    adders[i].add(delta);
+                    drift += Math.abs(delta);
+                }
+            }
+            return drift;
+        }
+
+        void addAll(LotCounters other) {
+            LongAdder[] mine = adders();
+            LongAdder[] theirs = other.adders();
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                mine[i].add(theirs[i].sum());
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("entered", entered.sum());
+            map.put("exitedToday", exitedToday.sum());
+            map.put("exitOnlyToday", exitOnlyToday.sum());
+            map.put("pendingPayments", pendingPayments.sum());
+            map.put("paidToday", paidToday.sum());
+            map.put("revenueTodayCents", revenueTodayCents.sum());
+            return map;
+        }
+
+        /**
+         * 对账时按该顺序合并 countEnteredByLot / countExitsSince / countPaymentsSince 的结果
+         */
+        private LongAdder[] adders() {
+            return new LongAdder[]{entered, exitedToday, exitOnlyToday, pendingPayments, paidToday, revenueTodayCents};
+        }
+    }
+}
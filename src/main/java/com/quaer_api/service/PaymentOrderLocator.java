@@ -0,0 +1,180 @@
+package com.quaer_api.service;
+
+import com.quaer_api.entity.PaymentOrder;
+import com.quaer_api.repository.PaymentOrderRepository;
+import com.quaer_api.util.TransactionUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Webhook 支付记录定位
+ * 按 payment_id / checkout_id / order_id 查找已存在的支付记录：
+ * - 一次查询匹配三个ID中的任意一个（均有索引），在内存中按调用方给定的优先级选取，代替按顺序最多三次查询
+ * - 最近的 ID → 支付记录主键 LRU 缓存：Square 对同一笔支付连续推送 created / updated 事件，
+ *   优先级最高的ID命中时只需一次主键查询（缓存主键而不是实体，实体始终在当前事务中加载，不会用到过期数据）
+ */
+@Component
+@RequiredArgsConstructor
+public class PaymentOrderLocator {
+
+    /**
+     * 缓存的 ID 数量（每笔支付最多3个）
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * 关联字段
+     */
+    public enum Key {
+        PAYMENT_ID("PaymentID"),
+        CHECKOUT_ID("CheckoutID"),
+        ORDER_ID("OrderID");
+
+        private final String label;
+
+        Key(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        private String valueOf(PaymentOrder order) {
+            return switch (this) {
+                case PAYMENT_ID -> order.getSquarePaymentId();
+                case CHECKOUT_ID -> order.getCheckoutId();
+                case ORDER_ID -> order.getOrderId();
+            };
+        }
+    }
+
+    /**
+     * 查找结果
+     *
+     * @param order 支付记录
+     * @param key 匹配的关联字段
+     * @param cached 是否命中缓存
+     */
+    public record Match(PaymentOrder order, Key key, boolean cached) {
+    }
+
+    private final PaymentOrderRepository paymentOrderRepository;
+
+    /**
+     * "字段:ID" → 支付记录主键（按访问顺序淘汰）
+     */
+    private final Map<String, Long> recent = new LinkedHashMap<>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 查找已存在的支付记录
+     *
+     * @param priority 关联字段优先级（多条记录分别匹配不同ID时，取优先级高的字段匹配的记录）
+     * @return 没有找到时返回 empty
+     */
+    public Optional<Match> find(String paymentId, String checkoutId, String orderId, Key... priority) {
+        String[] ids = new String[Key.values().length];
+        ids[Key.PAYMENT_ID.ordinal()] = emptyToNull(paymentId);
+        ids[Key.CHECKOUT_ID.ordinal()] = emptyToNull(checkoutId);
+        ids[Key.ORDER_ID.ordinal()] = emptyToNull(orderId);
+
+        // 1. 缓存：只看优先级最高的非空ID，主键查询后确认该字段仍然匹配
+        //    优先级更高的ID未缓存时不能使用低优先级ID的缓存（可能存在另一条按高优先级ID匹配的记录）
+        for (Key key : priority) {
+            String id = ids[key.ordinal()];
+            if (id == null) {
+                continue;
+            }
+            Long cachedId = cachedId(key, id);
+            if (cachedId != null) {
+                Optional<PaymentOrder> order = paymentOrderRepository.findById(cachedId);
+                if (order.isPresent() && id.equals(key.valueOf(order.get()))) {
+                    return Optional.of(new Match(order.get(), key, true));
+                }
+                evict(key, id);
+            }
+            break;
+        }
+
+        // 2. 一次查询匹配任意ID，按优先级选取（同一字段匹配多条时取最新的记录）
+        if (ids[Key.PAYMENT_ID.ordinal()] == null && ids[Key.CHECKOUT_ID.ordinal()] == null
+                && ids[Key.ORDER_ID.ordinal()] == null) {
+            return Optional.empty();
+        }
+        List<PaymentOrder> candidates = new ArrayList<>(paymentOrderRepository.findAllByAnyId(
+            ids[Key.PAYMENT_ID.ordinal()], ids[Key.CHECKOUT_ID.ordinal()], ids[Key.ORDER_ID.ordinal()]));
+        if (candidates.size() > 1) {
+            candidates.sort(Comparator.comparing(PaymentOrder::getId).reversed());
+        }
+        for (Key key : priority) {
+            String id = ids[key.ordinal()];
+            if (id == null) {
+                continue;
+            }
+            for (PaymentOrder candidate : candidates) {
+                if (id.equals(key.valueOf(candidate))) {
+                    return Optional.of(new Match(candidate, key, false));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 记住支付记录的各个ID（事务提交后写入缓存，回滚时不写入）
+     */
+    public void remember(PaymentOrder order) {
+        Long id = order.getId();
+        if (id == null) {
+            return;
+        }
+        String paymentId = emptyToNull(order.getSquarePaymentId());
+        String checkoutId = emptyToNull(order.getCheckoutId());
+        String orderId = emptyToNull(order.getOrderId());
+        TransactionUtils.afterCommit(() -> {
+            synchronized (recent) {
+                if (paymentId != null) {
+                    recent.put(cacheKey(Key.PAYMENT_ID, paymentId), id);
+                }
+                if (checkoutId != null) {
+                    recent.put(cacheKey(Key.CHECKOUT_ID, checkoutId), id);
+                }
+                if (orderId != null) {
+                    recent.put(cacheKey(Key.ORDER_ID, orderId), id);
+                }
+            }
+        });
+    }
+
+    private Long cachedId(Key key, String id) {
+        synchronized (recent) {
+            return recent.get(cacheKey(key, id));
+        }
+    }
+
+    private void evict(Key key, String id) {
+        synchronized (recent) {
+            recent.remove(cacheKey(key, id));
+        }
+    }
+
+    private static String cacheKey(Key key, String id) {
+        return key.ordinal() + ":" + id;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
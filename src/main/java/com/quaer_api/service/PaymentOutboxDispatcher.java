@@ -0,0 +1,291 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.SquareProperties;
+import com.quaer_api.entity.PaymentOutbox;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.TraceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 支付发件箱分发器
+ * 在数据库事务之外调用Square发起终端支付和在线支付，调用结果再用短事务写回
+ *
+ * 触发方式：
+ * 1. 出场事务提交后立即收到事件并发起（正常路径，延迟最低）
+ * 2. 定时轮询：处理重试、启动前遗留的记录，以及其他实例崩溃后超时未完成的记录
+ *
+ * 幂等性：Square幂等性密钥由发件箱ID派生，崩溃后重试不会重复推送到终端或重复创建支付链接；
+ * 终端支付和在线支付分别记录完成状态，重试时只补发未完成的部分
+ */
+@Slf4j
+@Component
+public class PaymentOutboxDispatcher {
+
+    @Autowired
+    private SquareProperties squareProperties;
+
+    @Autowired
+    private PaymentOutboxService paymentOutboxService;
+
+    @Autowired
+    private SquareTerminalService squareTerminalService;
+
+    @Autowired
+    private SquareOnlinePaymentService squareOnlinePaymentService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    /**
+     * 本实例正在处理的发件箱ID，避免事件触发和定时轮询重复提交同一条记录
+     */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        int workers = squareProperties.getOutbox().getWorkers();
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时拒绝提交：记录仍在数据库中，下一次轮询会重新提交
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(1000),
+            r -> {
+                Thread thread = new Thread(r, "payment-outbox-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        log.info("支付发件箱分发器已启动 | 线程数: {} | 轮询间隔: {}毫秒",
+            workers, squareProperties.getOutbox().getPollIntervalMs());
+    }
+
+    /**
+     * 出场事务提交后立即发起支付
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onOutboxCreated(PaymentOutbox outbox) {
+        submit(outbox.getId());
+    }
+
+    /**
+     * 定时轮询可领取的发件箱记录
+     */
+    @Scheduled(fixedDelayString = "${square.outbox.poll-interval-ms:2000}")
+    public void poll() {
+        try {
+            List<Long> ids = paymentOutboxService.findClaimableIds();
+            for (Long id : ids) {
+                submit(id);
+            }
+        } catch (Exception e) {
+            log.error("❌ 轮询支付发件箱失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void submit(Long outboxId) {
+        if (!inFlight.add(outboxId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(outboxId);
+                } finally {
+                    inFlight.remove(outboxId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(outboxId);
+            log.warn("⚠️ 支付发件箱处理队列已满，等待下次轮询 | 发件箱ID: {}", outboxId);
+        }
+    }
+
+    /**
+     * 领取并处理一条发件箱记录
+     */
+    private void process(Long outboxId) {
+        Optional<PaymentOutbox> claimed;
+        try {
+            claimed = paymentOutboxService.claim(outboxId);
+        } catch (Exception e) {
+            log.error("❌ 领取支付发件箱记录失败 | 发件箱ID: {} | 错误: {}", outboxId, e.getMessage(), e);
+            return;
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+        PaymentOutbox outbox = claimed.get();
+
+        // 沿用出场消息的链路ID，Square调用的日志和耗时与出场事件关联
+        TraceContext.begin(outbox.getTraceId(), "payment", outbox.getLocationId(), System.nanoTime());
+        try {
+            send(outbox);
+        } finally {
+            traceRecorder.finish();
+        }
+    }
+
+    /**
+     * 发起支付并更新发件箱状态
+     */
+    private void send(PaymentOutbox outbox) {
+        long start = System.currentTimeMillis();
+        StringBuilder errors = new StringBuilder();
+
+        // 🔥 同时发起两种支付方式
+        // 1️⃣ 终端支付（POS机）
+        if (!Boolean.TRUE.equals(outbox.getTerminalDone())) {
+            String error = sendTerminalCheckout(outbox);
+            if (error != null) {
+                errors.append("终端支付: ").append(error).append("; ");
+            }
+        }
+
+        // 2️⃣ 在线支付（二维码）
+        if (!Boolean.TRUE.equals(outbox.getOnlineDone())) {
+            String error = sendOnlinePaymentLink(outbox);
+            if (error != null) {
+                errors.append("在线支付: ").append(error).append("; ");
+            }
+        }
+
+        try {
+            if (errors.length() == 0) {
+                paymentOutboxService.markDone(outbox.getId());
+            } else {
+                paymentOutboxService.markRetry(outbox.getId(), errors.toString());
+            }
+            (errors.length() == 0 ? EventLog.info("payment.dispatch") : EventLog.warn("payment.dispatch"))
+                .with("outbox", outbox.getId())
+                .with("record", outbox.getVehicleRecordId())
+                .with("amount", outbox.getAmountCents())
+                .with("attempt", outbox.getAttempts())
+                .with("result", errors.length() == 0 ? "done" : "retry")
+                .with("error", errors.length() == 0 ? null : errors)
+                .with("ms", System.currentTimeMillis() - start)
+                .log();
+        } catch (Exception e) {
+            // 状态未能写回时，记录保持PROCESSING，超时后会被重新领取
+            log.error("❌ 更新支付发件箱状态失败 | 发件箱ID: {} | 错误: {}", outbox.getId(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 发起终端支付
+     *
+     * @return 失败原因，成功返回null
+     */
+    private String sendTerminalCheckout(PaymentOutbox outbox) {
+        try {
+            // 获取支付设备ID（优先使用出场消息中的设备ID，如果为空则使用配置文件中的默认值）
+            String paymentDeviceId = outbox.getPaymentDeviceId();
+            if (paymentDeviceId == null || paymentDeviceId.trim().isEmpty()) {
+                // 出场消息中没有设备ID时使用配置文件中的默认值
+                paymentDeviceId = squareProperties.getDeviceId();
+            }
+
+            String deviceId = paymentDeviceId;
+            String paymentResponse = pipelineMetrics.time(PipelineMetrics.SQUARE_TERMINAL, outbox.getLocationId(),
+                () -> squareTerminalService.createTerminalCheckout(
+                    outbox.getAmountCents(), deviceId, idempotencyKey(outbox, "terminal")));
+
+            log.debug("📱 终端支付响应 | 设备: {} | 响应: {}", paymentDeviceId, paymentResponse);
+
+            if (paymentResponse == null || paymentResponse.startsWith("Error:") || paymentResponse.startsWith("Exception:")) {
+                pipelineMetrics.failure(PipelineMetrics.SQUARE_TERMINAL, outbox.getLocationId());
+                return paymentResponse;
+            }
+            paymentOutboxService.recordTerminalCheckout(outbox.getId(), paymentResponse);
+            return null;
+        } catch (Exception e) {
+            log.error("❌ 发起终端支付失败 | 发件箱ID: {} | 错误: {}", outbox.getId(), e.getMessage(), e);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 创建在线支付链接
+     *
+     * @return 失败原因，成功返回null
+     */
+    private String sendOnlinePaymentLink(PaymentOutbox outbox) {
+        try {
+            String paymentDescription = "停车费 - " + outbox.getPlateNumber();
+            String locationId = outbox.getLocationId();
+
+            SquareOnlinePaymentService.SquareOnlinePaymentResponse onlinePaymentResponse =
+                pipelineMetrics.time(PipelineMetrics.SQUARE_LINK, locationId,
+                    () -> squareOnlinePaymentService.createPaymentLink(
+                        outbox.getAmountCents(), paymentDescription, locationId, idempotencyKey(outbox, "online")));
+
+            if (!onlinePaymentResponse.isSuccess()) {
+                pipelineMetrics.failure(PipelineMetrics.SQUARE_LINK, locationId);
+                log.warn("⚠️ 在线支付链接创建失败: {}", onlinePaymentResponse.getErrorMessage());
+                return onlinePaymentResponse.getErrorMessage();
+            }
+
+            log.debug("💳 在线支付链接创建成功 | Location ID: {} | 支付URL: {}", locationId, onlinePaymentResponse.getPaymentUrl());
+
+            paymentOutboxService.recordOnlinePaymentLink(outbox.getId(), onlinePaymentResponse);
+            return null;
+        } catch (Exception e) {
+            log.error("❌ 创建在线支付链接失败 | 发件箱ID: {} | 错误: {}", outbox.getId(), e.getMessage(), e);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 由发件箱ID派生的幂等性密钥，同一条记录重试时保持不变
+     */
+    private static String idempotencyKey(PaymentOutbox outbox, String type) {
+        return "parking-outbox-" + outbox.getId() + "-" + type;
+    }
+
+    /**
+     * 获取发件箱统计（用于监控）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("statusCounts", paymentOutboxService.countByStatus());
+        stats.put("inFlight", inFlight.size());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("--- 正在关闭支付发件箱分发器...");
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("⚠️ 支付发件箱分发器关闭超时，未完成的记录将在下次启动后重新领取");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
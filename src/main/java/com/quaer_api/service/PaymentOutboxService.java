@@ -0,0 +1,268 @@
+package com.quaer_api.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quaer_api.config.SquareProperties;
+import com.quaer_api.entity.PaymentOrder;
+import com.quaer_api.entity.PaymentOutbox;
+import com.quaer_api.entity.VehicleRecord;
+import com.quaer_api.repository.PaymentOrderRepository;
+import com.quaer_api.repository.PaymentOutboxRepository;
+import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.TraceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 支付发件箱服务
+ * 负责发件箱记录的所有数据库操作，每个方法都是一个短事务，不包含任何Square网络调用
+ */
+@Slf4j
+@Service
+public class PaymentOutboxService {
+
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Autowired
+    private PaymentOrderRepository paymentOrderRepository;
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Autowired
+    private SquareProperties squareProperties;
+
+    @Autowired
+    private ParkingCounterService parkingCounterService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 为出场记录写入一条发件箱记录（在出场事务中调用，与出场记录一起提交或回滚）
+     * 事务提交后 PaymentOutboxDispatcher 会立即收到事件并发起支付
+     *
+     * @param record 已保存的出场记录
+     * @return 发件箱记录
+     */
+    @Transactional
+    public PaymentOutbox enqueue(VehicleRecord record) {
+        PaymentOutbox outbox = new PaymentOutbox();
+        outbox.setVehicleRecordId(record.getId());
+        outbox.setAmountCents(record.getParkingFeeCents());
+        outbox.setPaymentDeviceId(record.getPaymentDeviceId());
+        outbox.setLocationId(record.getParkingLotCode());
+        outbox.setPlateNumber(record.getEntryPlateNumber());
+        outbox.setTraceId(TraceContext.currentId());
+
+        PaymentOutbox saved = paymentOutboxRepository.save(outbox);
+        eventPublisher.publishEvent(saved);
+
+        log.info("📮 支付请求已写入发件箱 | 发件箱ID: {} | 记录ID: {} | 金额: {}美分",
+            saved.getId(), record.getId(), record.getParkingFeeCents());
+        return saved;
+    }
+
+    /**
+     * 查询当前可以领取的发件箱记录ID
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findClaimableIds() {
+        SquareProperties.OutboxConfig config = squareProperties.getOutbox();
+        LocalDateTime now = LocalDateTime.now();
+        return paymentOutboxRepository.findClaimableIds(
+            now, now.minusNanos(config.getLockTimeoutMs() * 1_000_000), PageRequest.of(0, config.getBatchSize()));
+    }
+
+    /**
+     * 领取一条发件箱记录，并累加尝试次数
+     *
+     * @return 领取成功返回记录，已被其他实例领取或尚未到期返回空
+     */
+    @Transactional
+    public Optional<PaymentOutbox> claim(Long outboxId) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime staleBefore = now.minusNanos(squareProperties.getOutbox().getLockTimeoutMs() * 1_000_000);
+        if (paymentOutboxRepository.claim(outboxId, now, staleBefore) == 0) {
+            return Optional.empty();
+        }
+        Optional<PaymentOutbox> claimed = paymentOutboxRepository.findById(outboxId);
+        claimed.ifPresent(outbox -> outbox.setAttempts(outbox.getAttempts() + 1));
+        return claimed;
+    }
+
+    /**
+     * 保存终端支付（POS机）结果：创建PaymentOrder记录，并把出场记录的支付状态更新为pending
+     *
+     * @param outboxId 发件箱记录ID
+     * @param paymentResponse Square终端支付响应
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void recordTerminalCheckout(Long outboxId, String paymentResponse) throws Exception {
+        PaymentOutbox outbox = paymentOutboxRepository.findById(outboxId)
+            .orElseThrow(() -> new IllegalStateException("发件箱记录不存在: " + outboxId));
+
+        JsonNode responseJson = objectMapper.readTree(paymentResponse);
+        JsonNode checkoutNode = responseJson.path("checkout");
+
+        if (!checkoutNode.isMissingNode()) {
+            // 创建支付记录
+            PaymentOrder paymentOrder = new PaymentOrder();
+
+            // 关联出场记录ID
+            paymentOrder.setVehicleRecordId(outbox.getVehicleRecordId());
+
+            // 从响应中提取信息
+            String checkoutId = checkoutNode.path("id").asText(null);
+            String orderId = checkoutNode.path("order_id").asText(null);
+            String referenceId = checkoutNode.path("reference_id").asText(null);
+            String deviceId = checkoutNode.path("device_options").path("device_id").asText(null);
+
+            paymentOrder.setCheckoutId(checkoutId);
+            paymentOrder.setOrderId(orderId);
+            paymentOrder.setReferenceId(referenceId);
+            paymentOrder.setDeviceId(deviceId);
+
+            // 设置金额信息
+            paymentOrder.setAmount((long) outbox.getAmountCents());
+            paymentOrder.setCurrency("USD");
+
+            // 设置状态和来源
+            paymentOrder.setStatus("PENDING"); // 初始状态为待处理
+            paymentOrder.setPaymentSource("TERMINAL");
+
+            // 设置备注
+            paymentOrder.setNote("停车费支付 - 车牌: " + outbox.getPlateNumber());
+
+            // 保存支付记录
+            PaymentOrder savedOrder = paymentOrderRepository.save(paymentOrder);
+
+            log.info("💾 支付记录已创建 | 支付记录ID: {} | Checkout ID: {} | 出场记录ID: {}",
+                savedOrder.getId(), checkoutId, outbox.getVehicleRecordId());
+
+            // 更新车辆记录的支付状态（webhook可能已经先一步把它标记为paid，不能覆盖）
+            vehicleRecordRepository.findById(outbox.getVehicleRecordId()).ifPresent(record -> {
+                if (!"paid".equals(record.getPaymentStatus())) {
+                    ParkingCounterService.RecordState before = parkingCounterService.capture(record);
+                    record.setPaymentStatus("pending");
+                    vehicleRecordRepository.save(record);
+                    parkingCounterService.onRecordChanged(before, record);
+                    log.info("✅ 出场记录支付状态已更新为: pending");
+                }
+            });
+        } else {
+            log.warn("⚠️ 终端支付响应中没有checkout信息 | 发件箱ID: {}", outboxId);
+        }
+
+        outbox.setTerminalDone(true);
+    }
+
+    /**
+     * 保存在线支付（二维码）结果：把支付链接写入出场记录，并创建PaymentOrder记录
+     * 这样webhook收到支付完成通知时，能通过order_id找到这个PaymentOrder并自动更新车辆记录的支付状态
+     *
+     * @param outboxId 发件箱记录ID
+     * @param onlinePaymentResponse Square在线支付响应
+     */
+    @Transactional
+    public void recordOnlinePaymentLink(Long outboxId,
+                                        SquareOnlinePaymentService.SquareOnlinePaymentResponse onlinePaymentResponse) {
+        PaymentOutbox outbox = paymentOutboxRepository.findById(outboxId)
+            .orElseThrow(() -> new IllegalStateException("发件箱记录不存在: " + outboxId));
+
+        // 将支付URL保存到车辆记录中，供前端显示二维码
+        vehicleRecordRepository.findById(outbox.getVehicleRecordId()).ifPresent(record -> {
+            record.setOnlinePaymentUrl(onlinePaymentResponse.getPaymentUrl());
+            record.setOnlinePaymentLinkId(onlinePaymentResponse.getPaymentLinkId());
+            vehicleRecordRepository.save(record);
+        });
+
+        PaymentOrder onlinePaymentOrder = new PaymentOrder();
+
+        // 关联车辆记录ID - 关键！
+        onlinePaymentOrder.setVehicleRecordId(outbox.getVehicleRecordId());
+
+        // 设置Order ID（Square自动生成的）
+        onlinePaymentOrder.setOrderId(onlinePaymentResponse.getOrderId());
+
+        // 设置金额信息
+        onlinePaymentOrder.setAmount((long) outbox.getAmountCents());
+        onlinePaymentOrder.setCurrency(squareProperties.getCurrency());
+
+        // 设置状态和来源
+        onlinePaymentOrder.setStatus("PENDING");
+        onlinePaymentOrder.setPaymentSource("ONLINE");
+
+        // 设置备注
+        onlinePaymentOrder.setNote("在线支付 - 车牌: " + outbox.getPlateNumber());
+
+        // 保存支付记录
+        PaymentOrder savedOnlineOrder = paymentOrderRepository.save(onlinePaymentOrder);
+
+        log.info("💾 在线支付记录已创建 | 支付记录ID: {} | Order ID: {} | 车辆记录ID: {}",
+            savedOnlineOrder.getId(), onlinePaymentResponse.getOrderId(), outbox.getVehicleRecordId());
+
+        outbox.setOnlineDone(true);
+    }
+
+    /**
+     * 标记发件箱记录已完成
+     */
+    @Transactional
+    public void markDone(Long outboxId) {
+        paymentOutboxRepository.findById(outboxId).ifPresent(outbox -> {
+            outbox.setStatus(PaymentOutbox.STATUS_DONE);
+            outbox.setLockedAt(null);
+            outbox.setLastError(null);
+        });
+    }
+
+    /**
+     * 记录失败并安排重试（指数退避），超过最大尝试次数后标记为FAILED
+     */
+    @Transactional
+    public void markRetry(Long outboxId, String error) {
+        SquareProperties.OutboxConfig config = squareProperties.getOutbox();
+        paymentOutboxRepository.findById(outboxId).ifPresent(outbox -> {
+            outbox.setLastError(error);
+            outbox.setLockedAt(null);
+            int attempts = outbox.getAttempts();
+            if (attempts >= config.getMaxAttempts()) {
+                outbox.setStatus(PaymentOutbox.STATUS_FAILED);
+                log.error("❌ 发起支付失败次数已达上限，不再重试 | 发件箱ID: {} | 记录ID: {} | 尝试次数: {} | 错误: {}",
+                    outboxId, outbox.getVehicleRecordId(), attempts, error);
+                return;
+            }
+            long backoff = Math.min(config.getRetryBackoffMs() << Math.min(attempts - 1, 20), config.getMaxBackoffMs());
+            outbox.setStatus(PaymentOutbox.STATUS_PENDING);
+            outbox.setNextAttemptAt(LocalDateTime.now().plusNanos(backoff * 1_000_000));
+            log.warn("⚠️ 发起支付失败，{}毫秒后重试 | 发件箱ID: {} | 记录ID: {} | 尝试次数: {} | 错误: {}",
+                backoff, outboxId, outbox.getVehicleRecordId(), attempts, error);
+        });
+    }
+
+    /**
+     * 各状态的发件箱记录数量（用于监控）
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Long> countByStatus() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : paymentOutboxRepository.countByStatus()) {
+            counts.put((String) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+}
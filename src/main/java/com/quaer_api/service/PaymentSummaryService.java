@@ -0,0 +1,192 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.SquareProperties;
+import com.quaer_api.repository.PaymentOrderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 收入汇总服务
+ * 用 PaymentOrderRepository 的 SUM/COUNT 查询按时间范围和Square Location汇总支付金额，结果短时间缓存
+ *
+ * 缓存失效：
+ * - webhook确认支付完成（COMPLETED）后清空所有缓存
+ * - 包含今天的时间范围按 square.summary.current-ttl-ms 过期，已经结束的时间范围按 history-ttl-ms 过期
+ */
+@Slf4j
+@Service
+public class PaymentSummaryService {
+
+    public static final String STATUS_COMPLETED = "COMPLETED";
+
+    @Autowired
+    private PaymentOrderRepository paymentOrderRepository;
+
+    @Autowired
+    private SquareProperties squareProperties;
+
+    private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存代数：清空缓存时加一，清空之前开始的查询结果不再写入缓存
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * 计算时间范围
+     *
+     * @param range today / week / month / custom
+     * @param startDate custom时的开始日期（含）
+     * @param endDate custom时的结束日期（含）
+     * @return [开始时间（含）, 结束时间（不含）]
+     */
+    public OffsetDateTime[] resolveRange(String range, LocalDate startDate, LocalDate endDate) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = LocalDate.now(zone);
+        LocalDate from;
+        LocalDate to;
+        switch (range == null ? "today" : range.toLowerCase()) {
+            case "today" -> {
+                from = today;
+                to = today;
+            }
+            case "week" -> {
+                from = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                to = today;
+            }
+            case "month" -> {
+                from = today.withDayOfMonth(1);
+                to = today;
+            }
+            case "custom" -> {
+                if (startDate == null || endDate == null) {
+                    throw new IllegalArgumentException("custom 范围需要同时提供 startDate 和 endDate");
+                }
+                if (endDate.isBefore(startDate)) {
+                    throw new IllegalArgumentException("endDate 不能早于 startDate");
+                }
+                from = startDate;
+                to = endDate;
+            }
+            default -> throw new IllegalArgumentException("不支持的范围: " + range + "（可选 today/week/month/custom）");
+        }
+        return new OffsetDateTime[]{
+            from.atStartOfDay(zone).toOffsetDateTime(),
+            to.plusDays(1).atStartOfDay(zone).toOffsetDateTime()
+        };
+    }
+
+    /**
+     * 汇总支付金额和笔数
+     *
+     * @param startTime 开始时间（含）
+     * @param endTime 结束时间（不含）
+     * @param locationIds Square Location ID列表（为空时汇总所有停车场）
+     * @param status 支付状态（默认COMPLETED）
+     * @return 合计以及每个Location的明细
+     */
+    public Map<String, Object> summarize(OffsetDateTime startTime, OffsetDateTime endTime,
+                                         List<String> locationIds, String status) {
+        String effectiveStatus = status == null || status.isBlank() ? STATUS_COMPLETED : status;
+        List<String> locations = locationIds == null ? Collections.emptyList() : locationIds;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startTime", startTime);
+        result.put("endTime", endTime);
+        result.put("status", effectiveStatus);
+        result.put("total", cached(startTime, endTime, locations, effectiveStatus));
+        if (locations.size() > 1) {
+            Map<String, Object> byLocation = new LinkedHashMap<>();
+            for (String locationId : locations) {
+                byLocation.put(locationId, cached(startTime, endTime, List.of(locationId), effectiveStatus));
+            }
+            result.put("byLocation", byLocation);
+        }
+        return result;
+    }
+
+    /**
+     * 清空缓存（webhook确认支付完成后调用）
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        cache.clear();
+        log.debug("收入汇总缓存已清空");
+    }
+
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", cache.size());
+        stats.put("generation", generation.get());
+        return stats;
+    }
+
+    private Map<String, Object> cached(OffsetDateTime startTime, OffsetDateTime endTime,
+                                       List<String> locationIds, String status) {
+        String key = status + "|" + startTime.toEpochSecond() + "|" + endTime.toEpochSecond() + "|"
+            + String.join(",", locationIds);
+        long now = System.currentTimeMillis();
+        CacheEntry entry = cache.get(key);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.value;
+        }
+
+        long startGeneration = generation.get();
+        Map<String, Object> value = query(startTime, endTime, locationIds, status);
+
+        SquareProperties.SummaryConfig config = squareProperties.getSummary();
+        boolean finished = !endTime.isAfter(OffsetDateTime.now());
+        long ttl = finished ? config.getHistoryTtlMs() : config.getCurrentTtlMs();
+        if (ttl > 0 && generation.get() == startGeneration) {
+            if (cache.size() >= config.getMaxEntries()) {
+                cache.entrySet().removeIf(e -> e.getValue().expiresAt <= now);
+                if (cache.size() >= config.getMaxEntries()) {
+                    cache.clear();
+                }
+            }
+            cache.put(key, new CacheEntry(value, now + ttl));
+        }
+        return value;
+    }
+
+    private Map<String, Object> query(OffsetDateTime startTime, OffsetDateTime endTime,
+                                      List<String> locationIds, String status) {
+        Long amount;
+        Long count;
+        if (locationIds.isEmpty()) {
+            amount = paymentOrderRepository.sumAmountByStatusAndDateRange(status, startTime, endTime);
+            count = paymentOrderRepository.countByStatusAndDateRange(status, startTime, endTime);
+        } else {
+            amount = paymentOrderRepository.sumAmountByLocationIdsAndStatusAndDateRange(locationIds, status, startTime, endTime);
+            count = paymentOrderRepository.countByLocationIdsAndStatusAndDateRange(locationIds, status, startTime, endTime);
+        }
+
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("amountCents", amount != null ? amount : 0L);
+        value.put("count", count != null ? count : 0L);
+        return Collections.unmodifiableMap(value);
+    }
+
+    private static final class CacheEntry {
+        private final Map<String, Object> value;
+        private final long expiresAt;
+
+        private CacheEntry(Map<String, Object> value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
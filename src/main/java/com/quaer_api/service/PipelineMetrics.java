@@ -0,0 +1,172 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.util.TraceContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 入场/出场流水线监控指标
+ *
+ * 耗时：parking.pipeline.stage{stage, lot}（带直方图桶，按停车场计算P95/P99）
+ *   mqtt.receive → dedup → db.lookup → db.save → gate.publish → led.publish
+ *   → square.terminal → square.link → webhook
+ *   webhook.ack 为 Square Webhook 从接收到返回200（验签 + 落盘）的耗时，webhook 为从接收到处理完成的耗时
+ *   另外 entry / exit 为一条消息从开始处理到完成的总耗时
+ *
+ * 计数：parking.pipeline.events{type, lot}：duplicate / exit_only / fuzzy_match
+ *       parking.pipeline.failures{stage, lot}：各阶段失败数
+ *
+ * 查看：GET /actuator/prometheus 或 GET /actuator/metrics/parking.pipeline.stage?tag=stage:db.save
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String MQTT_RECEIVE = "mqtt.receive";
+    public static final String DEDUP = "dedup";
+    public static final String DB_LOOKUP = "db.lookup";
+    public static final String DB_SAVE = "db.save";
+    public static final String GATE_PUBLISH = "gate.publish";
+    public static final String LED_PUBLISH = "led.publish";
+    public static final String SQUARE_TERMINAL = "square.terminal";
+    public static final String SQUARE_LINK = "square.link";
+    public static final String WEBHOOK = "webhook";
+    public static final String WEBHOOK_ACK = "webhook.ack";
+    public static final String ENTRY = "entry";
+    public static final String EXIT = "exit";
+
+    public static final String DUPLICATE = "duplicate";
+    public static final String EXIT_ONLY = "exit_only";
+    public static final String FUZZY_MATCH = "fuzzy_match";
+
+    /**
+     * 没有停车场信息时使用的标签值（如 Square Webhook）
+     */
+    public static final String NO_LOT = "none";
+
+    private static final String OTHER_LOT = "other";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Set<String> lots = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 开始计时
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 结束计时并记录
+     *
+     * @param stage 阶段
+     * @param lot 停车场编号
+     * @param startNanos start() 的返回值
+     */
+    public void stop(String stage, String lot, long startNanos) {
+        record(stage, lot, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 记录阶段耗时（同时作为 span 加入当前线程的链路）
+     */
+    public void record(String stage, String lot, long nanos) {
+        timer(stage, lot).record(nanos, TimeUnit.NANOSECONDS);
+        TraceContext.span(stage, nanos);
+    }
+
+    /**
+     * 执行并记录耗时（异常时同样记录）
+     */
+    public <T> T time(String stage, String lot, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            stop(stage, lot, start);
+        }
+    }
+
+    /**
+     * 执行并记录耗时（无返回值）
+     */
+    public void run(String stage, String lot, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            stop(stage, lot, start);
+        }
+    }
+
+    /**
+     * 计数（duplicate / exit_only / fuzzy_match）
+     */
+    public void count(String type, String lot) {
+        String lotTag = lotTag(lot);
+        counters.computeIfAbsent(type + '|' + lotTag, key -> Counter.builder("parking.pipeline.events")
+            .description("入场/出场流水线异常事件数")
+            .tag("type", type)
+            .tag("lot", lotTag)
+            .register(meterRegistry)
+        ).increment();
+    }
+
+    /**
+     * 失败计数（按阶段）
+     */
+    public void failure(String stage, String lot) {
+        String lotTag = lotTag(lot);
+        counters.computeIfAbsent("failure|" + stage + '|' + lotTag, key -> Counter.builder("parking.pipeline.failures")
+            .description("入场/出场流水线各阶段失败数")
+            .tag("stage", stage)
+            .tag("lot", lotTag)
+            .register(meterRegistry)
+        ).increment();
+    }
+
+    private Timer timer(String stage, String lot) {
+        String lotTag = lotTag(lot);
+        return timers.computeIfAbsent(stage + '|' + lotTag, key -> Timer.builder("parking.pipeline.stage")
+            .description("入场/出场流水线各阶段耗时")
+            .tag("stage", stage)
+            .tag("lot", lotTag)
+            .publishPercentileHistogram(parkingProperties.getMetrics().isPercentileHistogram())
+            .minimumExpectedValue(Duration.ofMillis(1))
+            .maximumExpectedValue(Duration.ofSeconds(30))
+            .register(meterRegistry));
+    }
+
+    /**
+     * 停车场标签（数量超过上限后归为 other）
+     */
+    String lotTag(String lot) {
+        if (lot == null || lot.isEmpty()) {
+            return NO_LOT;
+        }
+        if (lots.contains(lot)) {
+            return lot;
+        }
+        if (lots.size() >= parkingProperties.getMetrics().getMaxLots()) {
+            return OTHER_LOT;
+        }
+        lots.add(lot);
+        return lot;
+    }
+}
@@ -0,0 +1,360 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.RollupWatermark;
+import com.quaer_api.entity.VehiclePlateNgram;
+import com.quaer_api.entity.VehicleRecord;
+import com.quaer_api.repository.RollupWatermarkRepository;
+import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.PlateUtils;
+import com.quaer_api.util.TransactionUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 车牌搜索索引服务（vehicle_plate_ngrams）
+ *
+ * 后台车牌搜索原来是 entry_plate_number LIKE '%xxx%' OR exit_plate_number LIKE '%xxx%'，每次全表扫描。
+ * 现在把车牌拆成n-gram存入索引表：
+ * - 3个字符及以上：要求搜索词的所有三元组都命中，再用标准化车牌 LIKE 确认是连续子串
+ * - 1~2个字符：三元组无法覆盖，仍使用原来的 LIKE 子串搜索（保持"包含"语义）
+ *
+ * 索引维护：
+ * - 入场/出场保存记录后（事务提交后）实时写入
+ * - 定时补建任务按 updated_at 水位线处理历史数据、写入失败的记录以及其他实例（旧版本）写入的记录
+ * - 第一次补建完成之前搜索仍使用 LIKE 扫描
+ * - 多个实例、定时任务和手动触发之间通过 {@link JobLeaseService} 互斥
+ */
+@Slf4j
+@Service
+public class PlateSearchIndexService {
+
+    public static final String JOB_NAME = "plate_ngrams";
+
+    /**
+     * n-gram长度
+     */
+    static final int GRAM = 3;
+
+    /**
+     * 每条SQL处理的记录数（控制参数个数）
+     */
+    private static final int RECORDS_PER_STATEMENT = 200;
+
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Autowired
+    private RollupWatermarkRepository rollupWatermarkRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JobLeaseService jobLeaseService;
+
+    /**
+     * 索引是否已经完整建立（第一次补建完成后为true）
+     */
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    public void init() {
+        try {
+            refreshReady();
+            log.info("✅ 车牌搜索索引状态: {}", ready ? "可用" : "等待补建完成（期间使用LIKE搜索）");
+        } catch (Exception e) {
+            log.warn("⚠️ 读取车牌搜索索引状态失败: {}", e.getMessage());
+        }
+    }
+
+    // ==================== 搜索 ====================
+
+    /**
+     * 车牌搜索条件（入场或出场车牌匹配）
+     *
+     * @param plateNumber 搜索词（非空）
+     */
+    public Predicate plateMatches(String plateNumber, Root<VehicleRecord> root, CriteriaQuery<?> query, CriteriaBuilder cb) {
+        String plate = plateNumber.trim();
+        String normalized = normalize(plate);
+        List<String> grams = queryGrams(normalized);
+
+        if (!parkingProperties.getPlateSearch().isEnabled() || !ready || grams.isEmpty()) {
+            String pattern = "%" + plate + "%";
+            return cb.or(cb.like(root.get("entryPlateNumber"), pattern), cb.like(root.get("exitPlateNumber"), pattern));
+        }
+
+        Subquery<Long> matching = query.subquery(Long.class);
+        Root<VehiclePlateNgram> gram = matching.from(VehiclePlateNgram.class);
+        matching.select(gram.get("vehicleRecordId"))
+            .where(gram.get("ngram").in(grams))
+            .groupBy(gram.get("vehicleRecordId"))
+            .having(cb.equal(cb.countDistinct(gram.get("ngram")), (long) grams.size()));
+
+        // 三元组全部命中不代表是连续子串，再用标准化车牌确认
+        String pattern = "%" + normalized + "%";
+        return cb.and(
+            root.get("id").in(matching),
+            cb.or(cb.like(root.get("entryPlateNormalized"), pattern), cb.like(root.get("exitPlateNormalized"), pattern)));
+    }
+
+    // ==================== 索引维护 ====================
+
+    /**
+     * 当前事务提交后写入记录的车牌索引
+     * 写入失败不影响入场/出场流程，由补建任务处理
+     */
+    public void indexAfterCommit(VehicleRecord record) {
+        Long id = record.getId();
+        if (id == null) {
+            return;
+        }
+        Set<String> grams = ngrams(record.getEntryPlateNumber(), record.getExitPlateNumber());
+        TransactionUtils.afterCommit(() -> {
+            try {
+                Map<Long, Set<String>> batch = new LinkedHashMap<>();
+                batch.put(id, grams);
+                reindex(batch);
+            } catch (Exception e) {
+                log.warn("⚠️ 写入车牌搜索索引失败，等待补建任务处理 | 记录ID: {} | {}", id, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 定时补建索引
+     */
+    @Scheduled(fixedDelayString = "${parking.plate-search.catch-up-interval-ms:60000}", initialDelay = 15000)
+    public void scheduledCatchUp() {
+        if (!parkingProperties.getPlateSearch().isEnabled()) {
+            return;
+        }
+        catchUp();
+    }
+
+    /**
+     * 从水位线开始按 (updated_at, id) 顺序补建索引，直到处理完所有记录
+     *
+     * @return 执行结果
+     */
+    public Map<String, Object> catchUp() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        ParkingProperties.PlateSearchConfig config = parkingProperties.getPlateSearch();
+        JobLeaseService.Lease lease = jobLeaseService.acquire(JOB_NAME, config.getLockTimeoutMs());
+        if (lease == null) {
+            refreshReady();
+            result.put("success", false);
+            result.put("message", "车牌索引补建任务正在运行");
+            return result;
+        }
+
+        long start = System.currentTimeMillis();
+        int processed = 0;
+        try {
+            RollupWatermark watermark = rollupWatermarkRepository.findById(JOB_NAME).orElseThrow();
+            LocalDateTime last = watermark.getVehicleWatermark();
+            LocalDateTime since = last != null ? last.minusNanos(config.getOverlapMs() * 1_000_000L) : BEGINNING;
+            long afterId = 0;
+
+            while (true) {
+                List<Object[]> rows = vehicleRecordRepository.findPlatesUpdatedAfter(
+                    since, afterId, PageRequest.of(0, config.getBatchSize()));
+                if (rows.isEmpty()) {
+                    break;
+                }
+                Map<Long, Set<String>> batch = new LinkedHashMap<>();
+                for (Object[] row : rows) {
+                    batch.put((Long) row[0], ngrams((String) row[1], (String) row[2]));
+                }
+                reindex(batch);
+                processed += rows.size();
+
+                Object[] tail = rows.get(rows.size() - 1);
+                afterId = (Long) tail[0];
+                since = (LocalDateTime) tail[3];
+                last = since;
+                saveWatermark(last, null, processed, start);
+
+                if (rows.size() < config.getBatchSize()) {
+                    break;
+                }
+                // 处理时间较长时续期任务锁
+                if (!lease.renew()) {
+                    throw new IllegalStateException("车牌索引任务锁已被其他实例获取");
+                }
+            }
+
+            saveWatermark(last, LocalDateTime.now(), processed, start);
+            ready = true;
+            if (processed > 0) {
+                log.info("🔍 车牌搜索索引补建完成 | 记录数: {} | 水位线: {} | 耗时: {}ms",
+                    processed, last, System.currentTimeMillis() - start);
+            }
+            result.put("success", true);
+            result.put("processed", processed);
+            result.put("watermark", last);
+            result.put("elapsedMs", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("❌ 车牌搜索索引补建失败 | 已处理: {} | {}", processed, e.getMessage(), e);
+            result.put("success", false);
+            result.put("processed", processed);
+            result.put("message", e.getMessage());
+        } finally {
+            lease.release();
+        }
+        return result;
+    }
+
+    /**
+     * 索引状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", parkingProperties.getPlateSearch().isEnabled());
+        status.put("ready", ready);
+        rollupWatermarkRepository.findById(JOB_NAME).ifPresent(watermark -> {
+            status.put("watermark", watermark.getVehicleWatermark());
+            status.put("completedAt", watermark.getLastRunAt());
+            status.put("lastRunRecords", watermark.getLastRunKeys());
+            status.put("lastRunMillis", watermark.getLastRunMillis());
+            status.put("lockedBy", watermark.getLockedBy());
+        });
+        return status;
+    }
+
+    /**
+     * 重写一批记录的索引：删除不再需要的n-gram，插入缺少的n-gram
+     * 两条语句都是幂等的，多个实例同时写入同一条记录也没有问题
+     *
+     * @param batch 记录ID -> 该记录应有的n-gram
+     */
+    private void reindex(Map<Long, Set<String>> batch) {
+        List<Long> ids = new ArrayList<>(batch.keySet());
+        for (int from = 0; from < ids.size(); from += RECORDS_PER_STATEMENT) {
+            List<Long> chunk = ids.subList(from, Math.min(from + RECORDS_PER_STATEMENT, ids.size()));
+
+            List<Object> deleteArgs = new ArrayList<>(chunk);
+            List<Object> insertArgs = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            for (Long id : chunk) {
+                for (String gram : batch.get(id)) {
+                    keys.add(id + ":" + gram);
+                    insertArgs.add(id);
+                    insertArgs.add(gram);
+                }
+            }
+            deleteArgs.addAll(keys);
+
+            String sql = "DELETE FROM vehicle_plate_ngrams WHERE vehicle_record_id IN (" + placeholders(chunk.size(), "?") + ")";
+            if (!keys.isEmpty()) {
+                sql += " AND CONCAT(vehicle_record_id, ':', ngram) NOT IN (" + placeholders(keys.size(), "?") + ")";
+            }
+            jdbcTemplate.update(sql, deleteArgs.toArray());
+
+            if (!keys.isEmpty()) {
+                jdbcTemplate.update("INSERT IGNORE INTO vehicle_plate_ngrams (vehicle_record_id, ngram) VALUES "
+                    + placeholders(keys.size(), "(?, ?)"), insertArgs.toArray());
+            }
+        }
+    }
+
+    private static String placeholders(int count, String placeholder) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(placeholder);
+        }
+        return sb.toString();
+    }
+
+    // ==================== n-gram ====================
+
+    /**
+     * 标准化搜索词/车牌：去除连字符、首尾空格，转大写
+     */
+    static String normalize(String plate) {
+        return plate == null ? null : PlateUtils.normalize(plate.trim()).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * 车牌的所有n-gram（三元组）
+     */
+    static Set<String> ngrams(String... plates) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (String plate : plates) {
+            String normalized = normalize(plate);
+            if (normalized == null || normalized.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i + GRAM <= normalized.length(); i++) {
+                grams.add(normalized.substring(i, i + GRAM));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 搜索词需要命中的n-gram（少于3个字符时为空，使用 LIKE 搜索）
+     */
+    static List<String> queryGrams(String normalized) {
+        if (normalized == null || normalized.length() < GRAM) {
+            return List.of();
+        }
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + GRAM));
+        }
+        return new ArrayList<>(grams);
+    }
+
+    // ==================== 水位线 ====================
+
+    private void refreshReady() {
+        ready = rollupWatermarkRepository.findById(JOB_NAME)
+            .map(watermark -> watermark.getLastRunAt() != null)
+            .orElse(false);
+    }
+
+    /**
+     * 保存补建进度
+     *
+     * @param completedAt 全部处理完成的时间（处理中为null，保留上次的完成时间）
+     */
+    private void saveWatermark(LocalDateTime watermarkTime, LocalDateTime completedAt, int processed, long start) {
+        RollupWatermark watermark = rollupWatermarkRepository.findById(JOB_NAME).orElseThrow();
+        watermark.setVehicleWatermark(watermarkTime);
+        if (completedAt != null) {
+            watermark.setLastRunAt(completedAt);
+            watermark.setLastRunKeys(processed);
+            watermark.setLastRunMillis(System.currentTimeMillis() - start);
+        }
+        rollupWatermarkRepository.save(watermark);
+    }
+}
@@ -0,0 +1,298 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.ProcessedEvent;
+import com.quaer_api.repository.ProcessedEventRepository;
+import com.quaer_api.util.BloomFilter;
+import com.quaer_api.util.EventLog;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已处理事件存储（幂等）
+ * 摄像头消息按 message_id、Square Webhook 按 event_id 记录，重发/重放的事件在查询任何业务数据之前被拒绝
+ *
+ * - 数据库 processed_events 表 (source, event_key) 唯一约束是最终判断，8086 / 8087 共用
+ * - 内存布隆过滤器在前：判断"一定没有处理过"时直接插入，不先查询；
+ *   判断"可能处理过"时再按唯一索引查询一次确认（误判时照常插入）
+ * - 布隆过滤器分两代（当前代 + 上一代），写满预计容量或超过最长保留时间时轮换，内存有上限
+ * - 记录按来源设置过期时间，定时清理
+ * - 处理失败时调用 release 删除记录，允许重发的事件再次处理
+ * - 记录在业务处理前写入为 processing，成功后调用 complete 改为 done；
+ *   进程在两者之间退出时记录停留在 processing，超过 processingTimeoutMs 后重发的事件接管处理，
+ *   不会被当作重复丢弃（宁可重复处理，由业务状态检查兜底）
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProcessedEventStore {
+
+    public static final String CAMERA = "camera";
+    public static final String SQUARE = "square";
+
+    private static final int MAX_KEY_LENGTH = 128;
+
+    private static final String PROCESSING = "processing";
+
+    /**
+     * 开始处理的结果
+     */
+    public enum Claim {
+        /**
+         * 首次处理（或接管中断的处理）
+         */
+        ACQUIRED,
+        /**
+         * 已处理完成
+         */
+        DUPLICATE,
+        /**
+         * 正在由其他线程或实例处理
+         */
+        IN_PROGRESS
+    }
+
+    private final ProcessedEventRepository processedEventRepository;
+    private final ParkingProperties parkingProperties;
+
+    private BloomFilter current;
+    private BloomFilter previous;
+    private long rotateAt;
+
+    private final LongAdder bloomMisses = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder inProgress = new LongAdder();
+    private final LongAdder takeOvers = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        ParkingProperties.ProcessedEventsConfig config = parkingProperties.getProcessedEvents();
+        current = newFilter();
+        previous = newFilter();
+        rotateAt = System.currentTimeMillis() + maxTtlMillis();
+        log.info("已处理事件存储已初始化 | 布隆过滤器: {}位 x {}个哈希 x 2代 | 摄像头保留: {}小时 | Square保留: {}小时",
+            current.bitCount(), current.hashCount(), config.getCameraTtlHours(), config.getSquareTtlHours());
+    }
+
+    /**
+     * 开始处理一个事件
+     *
+     * @param source 事件来源（CAMERA / SQUARE）
+     * @param eventKey 事件ID，为空时不做幂等判断
+     * @return ACQUIRED=首次处理（处理成功后调用 complete，失败时调用 release）；
+     *         DUPLICATE=已处理完成（应该忽略）；IN_PROGRESS=正在由其他线程或实例处理（稍后重试或忽略）
+     */
+    public Claim claim(String source, String eventKey) {
+        if (!parkingProperties.getProcessedEvents().isEnabled() || eventKey == null || eventKey.isBlank()) {
+            return Claim.ACQUIRED;
+        }
+        String key = normalize(eventKey);
+        long hash = hash(source, key);
+
+        try {
+            if (mightContain(hash)) {
+                Claim existing = existing(source, key);
+                if (existing != null) {
+                    return existing;
+                }
+                falsePositives.increment();
+            } else {
+                bloomMisses.increment();
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            ProcessedEvent event = new ProcessedEvent();
+            event.setSource(source);
+            event.setEventKey(key);
+            event.setStatus(PROCESSING);
+            event.setProcessedAt(now);
+            event.setExpiresAt(now.plusHours(ttlHours(source)));
+            processedEventRepository.saveAndFlush(event);
+            return Claim.ACQUIRED;
+        } catch (DataIntegrityViolationException e) {
+            // 另一个实例（或布隆过滤器重建前）已写入
+            Claim existing = existing(source, key);
+            return existing != null ? existing : Claim.IN_PROGRESS;
+        } catch (Exception e) {
+            // 数据库不可用时不阻塞处理，由原有的去重/状态检查兜底
+            log.warn("⚠️ 记录已处理事件失败，按新事件处理 | 来源: {} | 事件: {} | 错误: {}", source, key, e.getMessage());
+            return Claim.ACQUIRED;
+        } finally {
+            put(hash);
+        }
+    }
+
+    /**
+     * 业务处理成功（标记为 done，之后重发的事件都视为重复）
+     */
+    public void complete(String source, String eventKey) {
+        if (!parkingProperties.getProcessedEvents().isEnabled() || eventKey == null || eventKey.isBlank()) {
+            return;
+        }
+        try {
+            processedEventRepository.markDone(source, normalize(eventKey), LocalDateTime.now());
+        } catch (Exception e) {
+            // 记录停留在 processing，超时后重发的事件会再处理一次，由业务状态检查兜底
+            log.warn("⚠️ 标记事件处理完成失败 | 来源: {} | 事件: {} | 错误: {}", source, eventKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 释放事件（处理失败时调用，允许重发的事件再次处理）
+     * 布隆过滤器中的位不清除，重发时多查询一次数据库
+     */
+    public void release(String source, String eventKey) {
+        if (!parkingProperties.getProcessedEvents().isEnabled() || eventKey == null || eventKey.isBlank()) {
+            return;
+        }
+        try {
+            processedEventRepository.deleteBySourceAndEventKey(source, normalize(eventKey));
+        } catch (Exception e) {
+            log.warn("⚠️ 释放已处理事件失败 | 来源: {} | 事件: {} | 错误: {}", source, eventKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 判断已存在的记录：done → DUPLICATE；processing 未超时 → IN_PROGRESS；processing 已超时 → 接管（ACQUIRED）
+     *
+     * @return 记录不存在时返回null
+     */
+    private Claim existing(String source, String key) {
+        Optional<ProcessedEvent> existing = processedEventRepository.findBySourceAndEventKey(source, key);
+        if (existing.isEmpty()) {
+            return null;
+        }
+        if (!PROCESSING.equals(existing.get().getStatus())) {
+            duplicates.increment();
+            return Claim.DUPLICATE;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime staleBefore = now.minusNanos(parkingProperties.getProcessedEvents().getProcessingTimeoutMs() * 1_000_000L);
+        if (processedEventRepository.takeOver(source, key, now, staleBefore) == 1) {
+            takeOvers.increment();
+            log.warn("⚠️ 事件处理中断后重新处理 | 来源: {} | 事件: {} | 开始处理时间: {}",
+                source, key, existing.get().getProcessedAt());
+            return Claim.ACQUIRED;
+        }
+        inProgress.increment();
+        return Claim.IN_PROGRESS;
+    }
+
+    /**
+     * 定时清理过期记录
+     */
+    @Scheduled(fixedDelayString = "${parking.processed-events.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        if (!parkingProperties.getProcessedEvents().isEnabled()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            int deleted = processedEventRepository.deleteExpired(LocalDateTime.now());
+            if (deleted > 0) {
+                EventLog.info("processed_events.purge")
+                    .with("deleted", deleted)
+                    .with("ms", (System.nanoTime() - start) / 1_000_000)
+                    .log();
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 清理已处理事件失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("bloomMisses", bloomMisses.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("falsePositives", falsePositives.sum());
+        stats.put("inProgress", inProgress.sum());
+        stats.put("takeOvers", takeOvers.sum());
+        synchronized (this) {
+            stats.put("bloomSize", current.size() + previous.size());
+        }
+        return stats;
+    }
+
+    private synchronized boolean mightContain(long hash) {
+        advance();
+        return current.mightContain(hash) || previous.mightContain(hash);
+    }
+
+    private synchronized void put(long hash) {
+        advance();
+        current.put(hash);
+    }
+
+    /**
+     * 当前代写满预计容量或超过最长保留时间时轮换
+     */
+    private void advance() {
+        long now = System.currentTimeMillis();
+        if (current.size() < parkingProperties.getProcessedEvents().getBloomExpectedInsertions() && now < rotateAt) {
+            return;
+        }
+        previous = current;
+        current = newFilter();
+        rotateAt = now + maxTtlMillis();
+    }
+
+    private BloomFilter newFilter() {
+        ParkingProperties.ProcessedEventsConfig config = parkingProperties.getProcessedEvents();
+        return new BloomFilter(config.getBloomExpectedInsertions(), config.getBloomFalsePositiveRate());
+    }
+
+    private long ttlHours(String source) {
+        ParkingProperties.ProcessedEventsConfig config = parkingProperties.getProcessedEvents();
+        return SQUARE.equals(source) ? config.getSquareTtlHours() : config.getCameraTtlHours();
+    }
+
+    private long maxTtlMillis() {
+        ParkingProperties.ProcessedEventsConfig config = parkingProperties.getProcessedEvents();
+        return Math.max(config.getCameraTtlHours(), config.getSquareTtlHours()) * 3_600_000L;
+    }
+
+    /**
+     * 超长的事件ID截断并附加完整ID的哈希，保证不超过列长度
+     */
+    private static String normalize(String eventKey) {
+        String key = eventKey.trim();
+        if (key.length() <= MAX_KEY_LENGTH) {
+            return key;
+        }
+        return key.substring(0, MAX_KEY_LENGTH - 17) + "#" + String.format("%016x", hash("", key));
+    }
+
+    /**
+     * 来源 + 事件ID 的64位哈希（FNV-1a + murmur3 fmix64）
+     */
+    private static long hash(String source, String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < source.length(); i++) {
+            hash = (hash ^ source.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ ':') * 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -28,7 +28,7 @@ public class SnapshotWhitelistService {
     public void addToWhitelist(String filename) {
         if (filename != null && !filename.trim().isEmpty()) {
             whitelist.put(filename, LocalDateTime.now());
-            log.info("✅ 文件名已加入白名单: {}", filename);
+            log.debug("✅ 文件名已加入白名单: {}", filename);
 
             // 清理过期的白名单条目
             cleanExpiredEntries();
@@ -69,7 +69,7 @@ public class SnapshotWhitelistService {
     public void removeFromWhitelist(String filename) {
         if (filename != null) {
             whitelist.remove(filename);
-            log.info("🗑️ 文件名已从白名单移除: {}", filename);
+            log.debug("🗑️ 文件名已从白名单移除: {}", filename);
         }
     }
 
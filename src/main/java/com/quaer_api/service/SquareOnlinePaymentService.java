@@ -5,14 +5,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.quaer_api.config.SquareProperties;
+import com.quaer_api.util.EventLog;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
 /**
@@ -28,8 +27,6 @@ public class SquareOnlinePaymentService {
     private final RestTemplate restTemplate = new RestTemplate();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
     /**
      * 创建在线支付链接
      *
@@ -39,17 +36,26 @@ public class SquareOnlinePaymentService {
      * @return 包含支付链接和订单ID的响应
      */
     public SquareOnlinePaymentResponse createPaymentLink(long amountInCents, String description, String locationId) {
-        try {
-            log.info("=".repeat(80));
-            log.info("准备创建 Square 在线支付链接 - 时间: {}", getCurrentTime());
-            log.info("=".repeat(80));
+        return createPaymentLink(amountInCents, description, locationId, UUID.randomUUID().toString());
+    }
 
+    /**
+     * 创建在线支付链接（指定幂等性密钥）
+     * 使用相同的幂等性密钥重试时，Square会返回同一个支付链接而不会重复创建订单
+     *
+     * @param amountInCents 支付金额（分）
+     * @param description 支付描述（例如：车牌号）
+     * @param locationId 商户位置ID（如果为null则使用配置文件默认值）
+     * @param idempotencyKey 幂等性密钥
+     * @return 包含支付链接和订单ID的响应
+     */
+    public SquareOnlinePaymentResponse createPaymentLink(long amountInCents, String description,
+                                                         String locationId, String idempotencyKey) {
+        long start = System.currentTimeMillis();
+        try {
             // 构建请求URL
             String url = squareProperties.getBaseUrl() + "/v2/online-checkout/payment-links";
 
-            // 生成幂等性密钥
-            String idempotencyKey = UUID.randomUUID().toString();
-
             // 生成订单ID
             String orderId = "ORDER-" + System.currentTimeMillis();
 
@@ -76,32 +82,18 @@ public class SquareOnlinePaymentService {
             request.set("quick_pay", quickPay);
             request.put("idempotency_key", idempotencyKey);
 
-            log.info("请求信息:");
-            log.info("  API URL: {}", url);
-            log.info("  API Version: {}", squareProperties.getApiVersion());
-            log.info("  Location ID: {}", useLocationId);
-            log.info("  支付金额: {} {}", formatAmount(amountInCents), squareProperties.getCurrency());
-            log.info("  支付描述: {}", description);
-            log.info("  订单ID: {}", orderId);
-            log.info("  幂等性密钥: {}", idempotencyKey);
-
             // 设置请求头
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             headers.set("Square-Version", squareProperties.getApiVersion());
             headers.set("Authorization", "Bearer " + squareProperties.getAccessToken());
 
-            // 创建HTTP请求实体
-            HttpEntity<String> requestEntity = new HttpEntity<>(
-                    objectMapper.writeValueAsString(request),
-                    headers
-            );
+            String requestBody = objectMapper.writeValueAsString(request);
+            log.debug("发送 Square 在线支付链接请求 | API URL: {} | API Version: {} | 订单ID: {} | 请求体: {}",
+                    url, squareProperties.getApiVersion(), orderId, requestBody);
 
-            log.info("-".repeat(80));
-            log.info("发送请求到 Square API...");
-            log.info("请求体:");
-            log.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(request));
-            log.info("-".repeat(80));
+            // 创建HTTP请求实体
+            HttpEntity<String> requestEntity = new HttpEntity<>(requestBody, headers);
 
             // 发送POST请求
             ResponseEntity<String> response = restTemplate.exchange(
@@ -111,20 +103,13 @@ public class SquareOnlinePaymentService {
                     String.class
             );
 
-            log.info("=".repeat(80));
-            log.info("Square API 响应:");
-            log.info("  HTTP Status: {}", response.getStatusCode());
-            log.info("  响应时间: {}", getCurrentTime());
-            log.info("-".repeat(80));
-
             // 解析响应
             if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.CREATED) {
                 String responseBody = response.getBody();
-                log.info("响应内容:");
+                log.debug("Square 在线支付链接响应 | HTTP Status: {} | 响应内容: {}", response.getStatusCode(), responseBody);
 
                 if (responseBody != null) {
                     JsonNode jsonResponse = objectMapper.readTree(responseBody);
-                    log.info(jsonResponse.toPrettyString());
 
                     // 提取关键信息
                     JsonNode paymentLinkNode = jsonResponse.path("payment_link");
@@ -136,13 +121,6 @@ public class SquareOnlinePaymentService {
                         // 提取Square自动生成的order_id（如果有）
                         String squareOrderId = paymentLinkNode.path("order_id").asText(null);
 
-                        log.info("-".repeat(80));
-                        log.info("✅ 在线支付链接创建成功!");
-                        log.info("  Payment Link ID: {}", paymentLinkId);
-                        log.info("  Square Order ID: {}", squareOrderId);
-                        log.info("  支付URL (短): {}", paymentUrl);
-                        log.info("  支付URL (长): {}", longUrl);
-                        log.info("-".repeat(80));
 
                         // 返回响应对象
                         SquareOnlinePaymentResponse result = new SquareOnlinePaymentResponse();
@@ -154,18 +132,26 @@ public class SquareOnlinePaymentService {
                         result.setAmountInCents(amountInCents);
                         result.setDescription(description);
 
-                        log.info("=".repeat(80));
+                        EventLog.info("square.link")
+                                .with("location", useLocationId)
+                                .with("amount", amountInCents)
+                                .with("http", response.getStatusCode().value())
+                                .with("link", paymentLinkId)
+                                .with("order", result.getOrderId())
+                                .with("ms", System.currentTimeMillis() - start)
+                                .log();
                         return result;
                     }
-                } else {
-                    log.info("响应体为空");
                 }
-            } else {
-                log.error("❌ Square API 返回错误状态: {}", response.getStatusCode());
-                log.error("响应内容: {}", response.getBody());
             }
 
-            log.info("=".repeat(80));
+            EventLog.error("square.link")
+                    .with("location", useLocationId)
+                    .with("amount", amountInCents)
+                    .with("http", response.getStatusCode().value())
+                    .with("body", response.getBody())
+                    .with("ms", System.currentTimeMillis() - start)
+                    .log();
 
             // 返回失败响应
             SquareOnlinePaymentResponse result = new SquareOnlinePaymentResponse();
@@ -173,10 +159,13 @@ public class SquareOnlinePaymentService {
             return result;
 
         } catch (Exception e) {
-            log.error("=".repeat(80));
-            log.error("❌ 创建在线支付链接失败!", e);
-            log.error("错误信息: {}", e.getMessage());
-            log.error("=".repeat(80));
+            EventLog.error("square.link")
+                    .with("location", locationId)
+                    .with("amount", amountInCents)
+                    .with("error", e.getMessage())
+                    .with("ms", System.currentTimeMillis() - start)
+                    .cause(e)
+                    .log();
 
             // 返回失败响应
             SquareOnlinePaymentResponse result = new SquareOnlinePaymentResponse();
@@ -186,20 +175,6 @@ public class SquareOnlinePaymentService {
         }
     }
 
-    /**
-     * 格式化金额（分转元）
-     */
-    private String formatAmount(long amountInCents) {
-        return String.format("$%.2f", amountInCents / 100.0);
-    }
-
-    /**
-     * 获取当前时间字符串
-     */
-    private String getCurrentTime() {
-        return LocalDateTime.now().format(DATE_TIME_FORMATTER);
-    }
-
     /**
      * Square在线支付响应类
      */
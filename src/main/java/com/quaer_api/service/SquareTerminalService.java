@@ -4,14 +4,13 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.quaer_api.config.SquareProperties;
+import com.quaer_api.util.EventLog;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
 /**
@@ -27,8 +26,6 @@ public class SquareTerminalService {
     private final RestTemplate restTemplate = new RestTemplate();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
     /**
      * 发起终端支付
      *
@@ -48,17 +45,24 @@ public class SquareTerminalService {
      * @return 支付响应
      */
     public String createTerminalCheckout(long amountInCents, String deviceId) {
-        try {
-            log.info("=".repeat(80));
-            log.info("准备发起 Square 终端支付 - 时间: {}", getCurrentTime());
-            log.info("=".repeat(80));
+        return createTerminalCheckout(amountInCents, deviceId, UUID.randomUUID().toString());
+    }
 
+    /**
+     * 发起终端支付（指定设备ID和幂等性密钥）
+     * 使用相同的幂等性密钥重试时，Square会返回同一个Checkout而不会重复推送到终端
+     *
+     * @param amountInCents 支付金额（分）
+     * @param deviceId 支付设备ID
+     * @param idempotencyKey 幂等性密钥
+     * @return 支付响应
+     */
+    public String createTerminalCheckout(long amountInCents, String deviceId, String idempotencyKey) {
+        long start = System.currentTimeMillis();
+        try {
             // 构建请求URL
             String url = squareProperties.getBaseUrl() + "/v2/terminals/checkouts";
 
-            // 生成幂等性密钥
-            String idempotencyKey = UUID.randomUUID().toString();
-
             // 构建请求体
             ObjectNode request = objectMapper.createObjectNode();
             ObjectNode checkout = objectMapper.createObjectNode();
@@ -80,30 +84,18 @@ public class SquareTerminalService {
             request.set("checkout", checkout);
             request.put("idempotency_key", idempotencyKey);
 
-            log.info("请求信息:");
-            log.info("  API URL: {}", url);
-            log.info("  API Version: {}", squareProperties.getApiVersion());
-            log.info("  设备ID: {}", deviceId);
-            log.info("  支付金额: {} {}", formatAmount(amountInCents), squareProperties.getCurrency());
-            log.info("  幂等性密钥: {}", idempotencyKey);
-
             // 设置请求头
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             headers.set("Square-Version", squareProperties.getApiVersion());
             headers.set("Authorization", "Bearer " + squareProperties.getAccessToken());
 
-            // 创建HTTP请求实体
-            HttpEntity<String> requestEntity = new HttpEntity<>(
-                    objectMapper.writeValueAsString(request),
-                    headers
-            );
+            String requestBody = objectMapper.writeValueAsString(request);
+            log.debug("发送 Square 终端支付请求 | API URL: {} | API Version: {} | 请求体: {}",
+                    url, squareProperties.getApiVersion(), requestBody);
 
-            log.info("-".repeat(80));
-            log.info("发送请求到 Square API...");
-            log.info("请求体:");
-            log.info(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(request));
-            log.info("-".repeat(80));
+            // 创建HTTP请求实体
+            HttpEntity<String> requestEntity = new HttpEntity<>(requestBody, headers);
 
             // 发送POST请求
             ResponseEntity<String> response = restTemplate.exchange(
@@ -113,67 +105,52 @@ public class SquareTerminalService {
                     String.class
             );
 
-            log.info("=".repeat(80));
-            log.info("Square API 响应:");
-            log.info("  HTTP Status: {}", response.getStatusCode());
-            log.info("  响应时间: {}", getCurrentTime());
-            log.info("-".repeat(80));
-
             // 解析响应
             if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.CREATED) {
                 String responseBody = response.getBody();
-                log.info("响应内容:");
+                log.debug("Square 终端支付响应 | HTTP Status: {} | 响应内容: {}", response.getStatusCode(), responseBody);
 
+                // 提取关键信息
+                String checkoutId = null;
+                String status = null;
                 if (responseBody != null) {
-                    JsonNode jsonResponse = objectMapper.readTree(responseBody);
-                    log.info(jsonResponse.toPrettyString());
-
-                    // 提取关键信息
-                    JsonNode checkoutNode = jsonResponse.path("checkout");
+                    JsonNode checkoutNode = objectMapper.readTree(responseBody).path("checkout");
                     if (!checkoutNode.isMissingNode()) {
-                        String checkoutId = checkoutNode.path("id").asText();
-                        String status = checkoutNode.path("status").asText();
-
-                        log.info("-".repeat(80));
-                        log.info("✅ 终端支付请求成功!");
-                        log.info("  Checkout ID: {}", checkoutId);
-                        log.info("  状态: {}", status);
-                        log.info("  设备将显示支付界面,等待顾客操作...");
+                        checkoutId = checkoutNode.path("id").asText();
+                        status = checkoutNode.path("status").asText();
                     }
-                } else {
-                    log.info("响应体为空");
                 }
 
-                log.info("=".repeat(80));
+                EventLog.info("square.terminal")
+                        .with("device", deviceId)
+                        .with("amount", amountInCents)
+                        .with("http", response.getStatusCode().value())
+                        .with("checkout", checkoutId)
+                        .with("status", status)
+                        .with("ms", System.currentTimeMillis() - start)
+                        .log();
                 return responseBody;
 
             } else {
-                log.error("❌ Square API 返回错误状态: {}", response.getStatusCode());
-                log.error("响应内容: {}", response.getBody());
-                log.info("=".repeat(80));
+                EventLog.error("square.terminal")
+                        .with("device", deviceId)
+                        .with("amount", amountInCents)
+                        .with("http", response.getStatusCode().value())
+                        .with("body", response.getBody())
+                        .with("ms", System.currentTimeMillis() - start)
+                        .log();
                 return "Error: " + response.getStatusCode();
             }
 
         } catch (Exception e) {
-            log.error("=".repeat(80));
-            log.error("❌ 发起终端支付失败!", e);
-            log.error("错误信息: {}", e.getMessage());
-            log.error("=".repeat(80));
+            EventLog.error("square.terminal")
+                    .with("device", deviceId)
+                    .with("amount", amountInCents)
+                    .with("error", e.getMessage())
+                    .with("ms", System.currentTimeMillis() - start)
+                    .cause(e)
+                    .log();
             return "Exception: " + e.getMessage();
         }
     }
-
-    /**
-     * 格式化金额（分转元）
-     */
-    private String formatAmount(long amountInCents) {
-        return String.format("$%.2f", amountInCents / 100.0);
-    }
-
-    /**
-     * 获取当前时间字符串
-     */
-    private String getCurrentTime() {
-        return LocalDateTime.now().format(DATE_TIME_FORMATTER);
-    }
 }
@@ -5,6 +5,7 @@ import com.quaer_api.entity.PaymentOrder;
 import com.quaer_api.entity.VehicleRecord;
 import com.quaer_api.repository.PaymentOrderRepository;
 import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.TransactionUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -21,9 +22,13 @@ import java.util.Optional;
 public class SquareWebhookService {
 
     private final PaymentOrderRepository paymentOrderRepository;
+    private final PaymentOrderLocator paymentOrderLocator;
     private final VehicleRecordRepository vehicleRecordRepository;
     private final LedDisplayService ledDisplayService;
-    private final MqttClientService mqttClientService;
+    private final GateCommandService gateCommandService;
+    private final ParkingCounterService parkingCounterService;
+    private final PaymentSummaryService paymentSummaryService;
+    private final PipelineMetrics pipelineMetrics;
 
     /**
      * 处理 payment.created 事件
@@ -42,39 +47,11 @@ public class SquareWebhookService {
 
             log.info("处理 payment.created 事件 | PaymentID: {} | OrderID: {} | CheckoutID: {}", paymentId, orderId, checkoutId);
 
-            PaymentOrder order = null;
+            // 按 checkout_id（终端支付的主要关联字段）→ order_id → payment_id 的优先级查找已存在的记录（一次查询）
+            PaymentOrder order = findExistingOrder(paymentId, checkoutId, orderId,
+                PaymentOrderLocator.Key.CHECKOUT_ID, PaymentOrderLocator.Key.ORDER_ID, PaymentOrderLocator.Key.PAYMENT_ID);
 
-            // 1. 首先尝试通过 checkout_id 查找已存在的记录（终端支付的主要关联字段）
-            if (checkoutId != null && !checkoutId.isEmpty()) {
-                Optional<PaymentOrder> existingByCheckoutId = paymentOrderRepository.findByCheckoutId(checkoutId);
-                if (existingByCheckoutId.isPresent()) {
-                    order = existingByCheckoutId.get();
-                    log.info("✅ 找到已存在的支付记录（通过CheckoutID）| 记录ID: {} | VehicleRecordID: {}",
-                        order.getId(), order.getVehicleRecordId());
-                }
-            }
-
-            // 2. 如果没找到，尝试通过 order_id 查找
-            if (order == null && orderId != null && !orderId.isEmpty()) {
-                Optional<PaymentOrder> existingByOrderId = paymentOrderRepository.findByOrderId(orderId);
-                if (existingByOrderId.isPresent()) {
-                    order = existingByOrderId.get();
-                    log.info("✅ 找到已存在的支付记录（通过OrderID）| 记录ID: {} | VehicleRecordID: {}",
-                        order.getId(), order.getVehicleRecordId());
-                }
-            }
-
-            // 3. 如果没找到，尝试通过 payment_id 查找
-            if (order == null) {
-                Optional<PaymentOrder> existingByPaymentId = paymentOrderRepository.findBySquarePaymentId(paymentId);
-                if (existingByPaymentId.isPresent()) {
-                    order = existingByPaymentId.get();
-                    log.info("✅ 找到已存在的支付记录（通过PaymentID）| 记录ID: {} | VehicleRecordID: {}",
-                        order.getId(), order.getVehicleRecordId());
-                }
-            }
-
-            // 4. 如果还是没找到，创建新记录（兼容旧流程，但记录警告）
+            // 如果没找到，创建新记录（兼容旧流程，但记录警告）
             if (order == null) {
                 order = new PaymentOrder();
                 log.warn("⚠️ payment.created 未找到已存在订单，创建新记录 | PaymentID: {} | OrderID: {} | CheckoutID: {}",
@@ -85,6 +62,8 @@ public class SquareWebhookService {
             updatePaymentInfo(order, payment);
 
             PaymentOrder saved = paymentOrderRepository.save(order);
+            paymentOrderLocator.remember(saved);
+            invalidateSummaryIfCompleted(saved);
             log.info("✅ 支付记录已保存: ID={}, PaymentID={}, VehicleRecordID={}, Amount={} {}",
                     saved.getId(),
                     saved.getSquarePaymentId(),
@@ -118,30 +97,11 @@ public class SquareWebhookService {
             log.info("处理 payment.updated 事件 | PaymentID: {} | OrderID: {} | CheckoutID: {} | Status: {}",
                 paymentId, orderId, checkoutId, paymentStatus);
 
-            PaymentOrder order = null;
-
-            // 1. 首先尝试通过 payment_id 查找
-            order = paymentOrderRepository.findBySquarePaymentId(paymentId).orElse(null);
+            // 按 payment_id → checkout_id（终端支付的主要关联字段）→ order_id 的优先级查找（一次查询）
+            PaymentOrder order = findExistingOrder(paymentId, checkoutId, orderId,
+                PaymentOrderLocator.Key.PAYMENT_ID, PaymentOrderLocator.Key.CHECKOUT_ID, PaymentOrderLocator.Key.ORDER_ID);
 
-            // 2. 如果没找到，尝试通过 checkout_id 查找（终端支付的主要关联字段）
-            if (order == null && checkoutId != null && !checkoutId.isEmpty()) {
-                order = paymentOrderRepository.findByCheckoutId(checkoutId).orElse(null);
-                if (order != null) {
-                    log.info("✅ 通过CheckoutID找到支付记录 | 记录ID: {} | VehicleRecordID: {}",
-                        order.getId(), order.getVehicleRecordId());
-                }
-            }
-
-            // 3. 如果没找到，尝试通过 order_id 查找
-            if (order == null && orderId != null && !orderId.isEmpty()) {
-                order = paymentOrderRepository.findByOrderId(orderId).orElse(null);
-                if (order != null) {
-                    log.info("✅ 通过OrderID找到支付记录 | 记录ID: {} | VehicleRecordID: {}",
-                        order.getId(), order.getVehicleRecordId());
-                }
-            }
-
-            // 4. 如果还是没找到，创建新记录（兼容旧流程，但记录警告）
+            // 如果没找到，创建新记录（兼容旧流程，但记录警告）
             if (order == null) {
                 order = new PaymentOrder();
                 log.warn("⚠️ payment.updated 未找到已存在订单，创建新记录 | PaymentID: {} | OrderID: {} | CheckoutID: {}",
@@ -157,6 +117,8 @@ public class SquareWebhookService {
             order.setCapturedAt(parseDateTime(payment.path("captured_at").asText(null)));
 
             PaymentOrder saved = paymentOrderRepository.save(order);
+            paymentOrderLocator.remember(saved);
+            invalidateSummaryIfCompleted(saved);
             log.info("✅ 支付记录已更新: ID={}, PaymentID={}, VehicleRecordID={}, Status={}",
                     saved.getId(),
                     saved.getSquarePaymentId(),
@@ -172,7 +134,8 @@ public class SquareWebhookService {
                             VehicleRecord vehicleRecord = vehicleRecordOpt.get();
 
                             // 🔒 幂等性检查：如果车辆记录已经是paid状态，且squarePaymentId匹配，则跳过后续处理
-                            // 这样可以避免Square的webhook重复推送导致反复发送LED显示和开闸指令
+                            // 同一事件的重发已由 ProcessedEventStore 按 event_id 拒绝；这里处理同一笔支付的不同事件
+                            // （Square 对一笔支付会推送多个 payment.updated），避免反复发送LED显示和开闸指令
                             boolean alreadyProcessed = "paid".equals(vehicleRecord.getPaymentStatus()) &&
                                                       paymentId.equals(vehicleRecord.getSquarePaymentId());
 
@@ -182,10 +145,12 @@ public class SquareWebhookService {
                                 return saved;  // 直接返回，不再处理
                             }
 
+                            ParkingCounterService.RecordState before = parkingCounterService.capture(vehicleRecord);
                             vehicleRecord.setPaymentStatus("paid");
                             vehicleRecord.setSquarePaymentId(paymentId);
                             vehicleRecord.setPaymentTime(LocalDateTime.now());
                             vehicleRecordRepository.save(vehicleRecord);
+                            parkingCounterService.onRecordChanged(before, vehicleRecord);
 
                             log.info("✅ 车辆记录支付状态已更新 | 记录ID: {} | 支付ID: {} | 状态: paid",
                                 saved.getVehicleRecordId(), paymentId);
@@ -199,7 +164,8 @@ public class SquareWebhookService {
                                 licensePlate != null && !licensePlate.trim().isEmpty()) {
                                 try {
                                     log.info(">>> 发送支付成功LED显示 | LED设备: {} | 车牌: {}", ledDeviceCid, licensePlate);
-                                    ledDisplayService.sendVehiclePaymentSuccessToLed(ledDeviceCid, licensePlate);
+                                    pipelineMetrics.run(PipelineMetrics.LED_PUBLISH, vehicleRecord.getParkingLotCode(),
+                                        () -> ledDisplayService.sendVehiclePaymentSuccessToLed(ledDeviceCid, licensePlate));
                                     log.info("✅ 支付成功LED显示发送成功");
                                 } catch (Exception ledEx) {
                                     log.error("❌ 发送支付成功LED显示失败 | LED设备: {} | 车牌: {} | 错误: {}",
@@ -234,6 +200,35 @@ public class SquareWebhookService {
         }
     }
 
+    /**
+     * 查找已存在的支付记录
+     *
+     * @param priority 关联字段优先级
+     * @return 没有找到时返回null
+     */
+    private PaymentOrder findExistingOrder(String paymentId, String checkoutId, String orderId,
+                                           PaymentOrderLocator.Key... priority) {
+        long lookupStart = pipelineMetrics.start();
+        Optional<PaymentOrderLocator.Match> match = paymentOrderLocator.find(paymentId, checkoutId, orderId, priority);
+        pipelineMetrics.stop(PipelineMetrics.DB_LOOKUP, PipelineMetrics.NO_LOT, lookupStart);
+        if (match.isEmpty()) {
+            return null;
+        }
+        PaymentOrder order = match.get().order();
+        log.info("✅ 找到已存在的支付记录（通过{}{}）| 记录ID: {} | VehicleRecordID: {}",
+            match.get().key().getLabel(), match.get().cached() ? "，缓存" : "", order.getId(), order.getVehicleRecordId());
+        return order;
+    }
+
+    /**
+     * 支付完成后，事务提交时清空收入汇总缓存
+     */
+    private void invalidateSummaryIfCompleted(PaymentOrder order) {
+        if ("COMPLETED".equals(order.getStatus())) {
+            TransactionUtils.afterCommit(paymentSummaryService::invalidate);
+        }
+    }
+
     /**
      * 统一的支付信息更新方法
      * Square webhook返回的数据优先，直接覆盖
@@ -413,66 +408,20 @@ public class SquareWebhookService {
      */
     private void autoOpenGate(VehicleRecord vehicleRecord) {
         try {
-            log.info("========================================");
-            log.info("🚀 支付成功，开始自动开闸 | 记录ID: {}", vehicleRecord.getId());
-
-            // 验证必需字段
-            if (vehicleRecord.getParkingLotCode() == null || vehicleRecord.getParkingLotCode().trim().isEmpty()) {
-                log.warn("⚠️ 自动开闸失败：该记录没有停车场编号(parking_lot_code) | 记录ID: {}", vehicleRecord.getId());
-                return;
-            }
-
-            if (vehicleRecord.getBarrierGateId() == null || vehicleRecord.getBarrierGateId().trim().isEmpty()) {
-                log.warn("⚠️ 自动开闸失败：该记录没有闸机ID(barrier_gate_id) | 记录ID: {}", vehicleRecord.getId());
+            GateCommandService.GateCommand command = gateCommandService.build("payment",
+                vehicleRecord.getParkingLotCode(), vehicleRecord.getBarrierGateId(),
+                vehicleRecord.getBackupChannelId(), vehicleRecord.getExitPlateNumber());
+            if (command == null) {
                 return;
             }
 
-            // 转换端口号，失败时使用默认值1
-            int channel = 1;  // 默认值
-            if (vehicleRecord.getBackupChannelId() != null && !vehicleRecord.getBackupChannelId().trim().isEmpty()) {
-                try {
-                    channel = Integer.parseInt(vehicleRecord.getBackupChannelId().trim());
-                    log.info("📟 使用记录中的端口号: {}", channel);
-                } catch (NumberFormatException e) {
-                    log.warn("⚠️ 端口号转换失败，使用默认值1: {}", vehicleRecord.getBackupChannelId());
-                    channel = 1;
-                }
-            } else {
-                log.warn("⚠️ 记录中没有端口号，使用默认值1");
+            if (gateCommandService.open(command)) {
+                log.debug("支付成功开闸指令已发出 | 记录ID: {} | 主题: {} | 消息ID: {}",
+                    vehicleRecord.getId(), command.getTopic(), command.getMessageId());
             }
 
-            // 构建MQTT主题: /gate/{parking_lot_code}/{barrier_gate_id}/get
-            String topic = String.format("/gate/%s/%s/get",
-                    vehicleRecord.getParkingLotCode(),
-                    vehicleRecord.getBarrierGateId());
-
-            log.info("📡 MQTT主题: {}", topic);
-
-            // 生成唯一ID
-            String messageId = java.util.UUID.randomUUID().toString();
-
-            // 构建MQTT消息：常开端口，闭合2秒后自动断开
-            // closetime: 关闭继电器，2秒后自动打开（常开端口闭合2秒）
-            String mqttMessage = String.format(
-                    "{\"id\":\"%s\",\"type\":\"modbus\",\"msg\":{\"cmd\":\"opentime\",\"addr\":255,\"channel\":%d,\"time\":10}}",
-                    messageId,
-                    channel
-            );
-
-            log.info("📨 MQTT消息: {}", mqttMessage);
-            log.info("  命令: opentime (常开端口打开1秒)");
-            log.info("  端口: {}", channel);
-            log.info("  时长: 10 (1秒)");
-
-            // 发送MQTT消息
-            mqttClientService.publish(topic, mqttMessage);
-
-            log.info("✅ 自动开闸指令已发送到MQTT");
-            log.info("========================================");
-
         } catch (Exception e) {
             log.error("❌ 自动开闸失败 | 记录ID: {} | 错误: {}", vehicleRecord.getId(), e.getMessage(), e);
         }
     }
 }
-
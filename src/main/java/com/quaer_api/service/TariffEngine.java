@@ -0,0 +1,210 @@
+package com.quaer_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quaer_api.config.TariffProperties;
+import com.quaer_api.entity.TariffPlan;
+import com.quaer_api.repository.TariffPlanRepository;
+import com.quaer_api.tariff.CompiledTariff;
+import com.quaer_api.tariff.TariffCompiler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 停车收费引擎
+ * 启动时以及每隔 tariff.reload-interval-ms 从 application.yml 和数据库 tariff_plans 表加载收费方案，
+ * 编译成不可变的 {@link CompiledTariff} 后整体替换；计费时只读取当前快照，无锁
+ *
+ * 方案优先级：数据库中该停车场的方案 > tariff.lots 中指定的方案 > tariff.default-plan
+ */
+@Slf4j
+@Service
+public class TariffEngine {
+
+    @Autowired
+    private TariffProperties tariffProperties;
+
+    @Autowired
+    private TariffPlanRepository tariffPlanRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile Snapshot snapshot = new Snapshot(builtinDefault(), Collections.emptyMap());
+
+    /**
+     * 是否已成功加载过包含数据库方案的快照
+     */
+    private boolean dbPlansLoaded = false;
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${tariff.reload-interval-ms:60000}",
+               initialDelayString = "${tariff.reload-interval-ms:60000}")
+    public void scheduledReload() {
+        reload();
+    }
+
+    /**
+     * 重新加载并编译所有收费方案
+     * 配置文件中的方案编译失败、或读取数据库方案失败时保留上一次的快照；数据库中单个方案编译失败时该停车场回退到配置文件方案
+     *
+     * @return 加载结果（用于接口返回）
+     */
+    public synchronized Map<String, Object> reload() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            Map<String, CompiledTariff> plans = new HashMap<>();
+            tariffProperties.getPlans().forEach((name, plan) -> plans.put(name, TariffCompiler.compile(name, plan)));
+
+            CompiledTariff defaultTariff = plans.get(tariffProperties.getDefaultPlan());
+            if (defaultTariff == null) {
+                log.warn("⚠️ 未找到默认收费方案[{}]，使用内置方案：1分钟1美分，最高9美分", tariffProperties.getDefaultPlan());
+                defaultTariff = builtinDefault();
+            }
+
+            Map<String, CompiledTariff> byLot = new HashMap<>();
+            for (Map.Entry<String, String> entry : tariffProperties.getLots().entrySet()) {
+                CompiledTariff tariff = plans.get(entry.getValue());
+                if (tariff == null) {
+                    throw new IllegalArgumentException("停车场[" + entry.getKey() + "]引用了不存在的收费方案: " + entry.getValue());
+                }
+                byLot.put(entry.getKey(), tariff);
+            }
+
+            List<TariffPlan> dbPlanRows;
+            boolean dbRead = false;
+            try {
+                dbPlanRows = tariffPlanRepository.findByEnabledTrue();
+                dbRead = true;
+            } catch (Exception e) {
+                if (dbPlansLoaded) {
+                    // 数据库暂时不可用：不能安装只有配置文件方案的快照，否则所有停车场会临时按默认价格收费
+                    throw new IllegalStateException("读取数据库收费方案失败: " + e.getMessage(), e);
+                }
+                // 启动时还没有数据库方案可保留，先使用配置文件方案，下次加载时重试
+                log.error("❌ 读取数据库收费方案失败，暂时使用配置文件方案: {}", e.getMessage());
+                dbPlanRows = Collections.emptyList();
+            }
+
+            List<String> dbErrors = new ArrayList<>();
+            int dbPlans = 0;
+            for (TariffPlan dbPlan : dbPlanRows) {
+                try {
+                    TariffProperties.PlanConfig config =
+                        objectMapper.readValue(dbPlan.getDefinition(), TariffProperties.PlanConfig.class);
+                    byLot.put(dbPlan.getParkingLotCode(),
+                        TariffCompiler.compile("db:" + dbPlan.getParkingLotCode(), config));
+                    dbPlans++;
+                } catch (Exception e) {
+                    dbErrors.add(dbPlan.getParkingLotCode() + ": " + e.getMessage());
+                    log.error("❌ 数据库收费方案无效，停车场[{}]使用配置文件方案: {}", dbPlan.getParkingLotCode(), e.getMessage());
+                }
+            }
+
+            snapshot = new Snapshot(defaultTariff, byLot);
+            if (dbRead) {
+                dbPlansLoaded = true;
+            }
+            log.debug("收费方案已加载 | 默认方案: {} | 单独配置的停车场: {} | 数据库方案: {}",
+                defaultTariff.getName(), byLot.size(), dbPlans);
+
+            result.put("success", dbErrors.isEmpty());
+            result.put("defaultPlan", defaultTariff.getName());
+            result.put("lotPlans", byLot.size());
+            result.put("dbPlans", dbPlans);
+            if (!dbErrors.isEmpty()) {
+                result.put("errors", dbErrors);
+            }
+        } catch (Exception e) {
+            log.error("❌ 加载收费方案失败，继续使用上一次的方案: {}", e.getMessage(), e);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 获取停车场当前使用的收费规则
+     */
+    public CompiledTariff tariffFor(String parkingLotCode) {
+        Snapshot current = snapshot;
+        CompiledTariff tariff = parkingLotCode == null ? null : current.byLot.get(parkingLotCode);
+        return tariff != null ? tariff : current.defaultTariff;
+    }
+
+    /**
+     * 计算停车费用
+     *
+     * @param parkingLotCode 停车场编号
+     * @param entryTime 入场时间
+     * @param exitTime 出场时间（或当前时间）
+     * @return 费用（分）
+     */
+    public int quote(String parkingLotCode, LocalDateTime entryTime, LocalDateTime exitTime) {
+        return tariffFor(parkingLotCode).priceCents(
+            entryTime.toEpochSecond(ZoneOffset.UTC), exitTime.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * 当前加载的收费方案概要（用于监控）
+     */
+    public Map<String, Object> describe() {
+        Snapshot current = snapshot;
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("default", describe(current.defaultTariff));
+        Map<String, Object> lots = new LinkedHashMap<>();
+        current.byLot.forEach((lot, tariff) -> lots.put(lot, describe(tariff)));
+        info.put("lots", lots);
+        return info;
+    }
+
+    private Map<String, Object> describe(CompiledTariff tariff) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", tariff.getName());
+        info.put("unitMinutes", tariff.getUnitMinutes());
+        info.put("graceMinutes", tariff.getGraceMinutes());
+        info.put("dailyCapCents", tariff.getDailyCapCents());
+        info.put("maxChargeCents", tariff.getMaxChargeCents());
+        return info;
+    }
+
+    /**
+     * 内置默认方案：1分钟 = 1美分，最高9美分（与原有的计费规则一致）
+     */
+    private static CompiledTariff builtinDefault() {
+        TariffProperties.BandConfig allDay = new TariffProperties.BandConfig();
+        allDay.setCentsPerUnit(1);
+        TariffProperties.PlanConfig plan = new TariffProperties.PlanConfig();
+        plan.setUnitMinutes(1);
+        plan.setMaxChargeCents(9);
+        plan.getWeekday().add(allDay);
+        return TariffCompiler.compile("builtin", plan);
+    }
+
+    /**
+     * 不可变的收费规则快照
+     */
+    private static final class Snapshot {
+        private final CompiledTariff defaultTariff;
+        private final Map<String, CompiledTariff> byLot;
+
+        private Snapshot(CompiledTariff defaultTariff, Map<String, CompiledTariff> byLot) {
+            this.defaultTariff = defaultTariff;
+            this.byLot = byLot;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.TraceContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 链路记录器
+ * - 保留最近的链路（parking.tracing.recent-capacity 条），按耗时查询最慢的链路
+ * - 开闸耗时（从收到摄像头消息 / Webhook 到开闸指令发出）记录到 parking.gate.latency{lot, kind}，
+ *   同时发布直方图桶和 P50/P95/P99
+ * - 超过阈值的慢链路输出一行 trace.slow 事件日志
+ */
+@Component
+public class TraceRecorder {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    private final ArrayDeque<TraceContext.Trace> recent = new ArrayDeque<>();
+
+    private final ConcurrentHashMap<String, Timer> gateTimers = new ConcurrentHashMap<>();
+
+    /**
+     * 结束当前线程的链路并记录
+     */
+    public void finish() {
+        TraceContext.Trace trace = TraceContext.end();
+        if (trace == null) {
+            return;
+        }
+
+        long gateNanos = trace.getMarkNanos(TraceContext.GATE);
+        if (gateNanos >= 0) {
+            gateTimer(trace.getLot(), trace.getKind()).record(gateNanos, TimeUnit.NANOSECONDS);
+        }
+
+        ParkingProperties.TracingConfig config = parkingProperties.getTracing();
+        synchronized (recent) {
+            recent.addLast(trace);
+            while (recent.size() > config.getRecentCapacity()) {
+                recent.removeFirst();
+            }
+        }
+
+        if (trace.getTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(config.getSlowThresholdMs())) {
+            EventLog.Event event = EventLog.warn("trace.slow")
+                .with("trace", trace.getTraceId())
+                .with("kind", trace.getKind())
+                .with("lot", trace.getLot())
+                .with("plate", trace.getPlate())
+                .with("ms", TimeUnit.NANOSECONDS.toMillis(trace.getTotalNanos()))
+                .with("gateMs", gateNanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(gateNanos) : null);
+            for (TraceContext.Span span : trace.getSpans()) {
+                event.with(span.name(), TimeUnit.NANOSECONDS.toMillis(span.durationNanos()));
+            }
+            event.log();
+        }
+    }
+
+    /**
+     * 最近链路中耗时最长的若干条
+     *
+     * @param limit 返回条数
+     * @param minMs 最小耗时(毫秒)
+     * @param kind 链路类型（为空时不过滤）
+     */
+    public List<Map<String, Object>> getSlowest(int limit, long minMs, String kind) {
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(minMs);
+        List<TraceContext.Trace> candidates = new ArrayList<>();
+        synchronized (recent) {
+            for (TraceContext.Trace trace : recent) {
+                if (trace.getTotalNanos() >= minNanos && (kind == null || kind.equals(trace.getKind()))) {
+                    candidates.add(trace);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong(TraceContext.Trace::getTotalNanos).reversed());
+
+        List<Map<String, Object>> result = new ArrayList<>(Math.min(limit, candidates.size()));
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            result.add(candidates.get(i).toMap());
+        }
+        return result;
+    }
+
+    /**
+     * 开闸耗时统计（按停车场、链路类型）
+     */
+    public List<Map<String, Object>> getGateLatency() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        gateTimers.values().forEach(timer -> {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("lot", timer.getId().getTag("lot"));
+            item.put("kind", timer.getId().getTag("kind"));
+            item.put("count", snapshot.count());
+            item.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+            item.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                item.put("p" + Math.round(percentile.percentile() * 100) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+            }
+            result.add(item);
+        });
+        return result;
+    }
+
+    public int getRecentCount() {
+        synchronized (recent) {
+            return recent.size();
+        }
+    }
+
+    private Timer gateTimer(String lot, String kind) {
+        String lotTag = pipelineMetrics.lotTag(lot);
+        return gateTimers.computeIfAbsent(lotTag + '|' + kind, key -> Timer.builder("parking.gate.latency")
+            .description("从收到事件到开闸指令发出的耗时")
+            .tag("lot", lotTag)
+            .tag("kind", kind)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram(parkingProperties.getMetrics().isPercentileHistogram())
+            .minimumExpectedValue(Duration.ofMillis(1))
+            .maximumExpectedValue(Duration.ofSeconds(30))
+            .register(meterRegistry));
+    }
+}
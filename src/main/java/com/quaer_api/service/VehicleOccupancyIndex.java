@@ -0,0 +1,305 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.VehicleRecord;
+import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.PlateSimilarity;
+import com.quaer_api.util.PlateUtils;
+import com.quaer_api.util.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在场车辆内存索引
+ * (停车场编号, 标准化车牌号) → 未关闭的车辆记录ID，分别维护在场记录(entered)和异常出口记录(exit_only)
+ *
+ * 一致性：
+ * - 启动时从数据库重建（在标准化车牌号回填之后、MQTT连接之前完成）
+ * - VehicleRecordService 每次插入/更新后，在事务提交后同步更新索引（事务回滚不影响索引）
+ * - 数据库始终是权威数据：命中后会按ID加载记录并校验状态/停车场/车牌，不一致时清除该项并回查数据库
+ * - 出场车牌精确查询未命中时，可以在在场车牌中做模糊匹配（{@link #findEnteredFuzzy}）
+ */
+@Slf4j
+@Component
+@DependsOn("vehiclePlateBackfill")
+public class VehicleOccupancyIndex {
+
+    private static final String STATUS_ENTERED = "entered";
+    private static final String STATUS_EXIT_ONLY = "exit_only";
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    /**
+     * 停车场编号 → (标准化车牌号 → 在场记录ID)
+     */
+    private final Map<String, Map<String, Long>> enteredByLot = new ConcurrentHashMap<>();
+
+    /**
+     * 停车场编号 → (标准化车牌号 → 异常出口记录ID)
+     */
+    private final Map<String, Map<String, Long>> exitOnlyByLot = new ConcurrentHashMap<>();
+
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    /**
+     * 从数据库重建索引
+     * 先在局部Map中构建快照（同一车牌有多条记录时取ID最大的），再合并到现有索引：
+     * 重建期间的并发更新直接写入现有Map，快照只补充缺失的项（putIfAbsent），不会覆盖更新的数据；
+     * 快照中已经过期的项会在查询校验时被清除
+     */
+    public void rebuild() {
+        if (!parkingProperties.getOccupancyIndex().isEnabled()) {
+            log.info("在场车辆内存索引已关闭，所有查询直接走数据库");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            List<Object[]> rows = vehicleRecordRepository.findOpenRecordKeys();
+            Map<String, Map<String, Long>> entered = new HashMap<>();
+            Map<String, Map<String, Long>> exitOnly = new HashMap<>();
+            for (Object[] row : rows) {
+                Long id = (Long) row[0];
+                String lot = (String) row[1];
+                String status = (String) row[2];
+                if (lot == null) {
+                    continue;
+                }
+                if (STATUS_ENTERED.equals(status) && row[3] != null) {
+                    entered.computeIfAbsent(lot, k -> new HashMap<>())
+                        .put(PlateUtils.normalize((String) row[3]), id);
+                } else if (STATUS_EXIT_ONLY.equals(status) && row[4] != null) {
+                    exitOnly.computeIfAbsent(lot, k -> new HashMap<>())
+                        .put(PlateUtils.normalize((String) row[4]), id);
+                }
+            }
+            entered.forEach((lot, plates) -> plates.forEach(lotMap(enteredByLot, lot)::putIfAbsent));
+            exitOnly.forEach((lot, plates) -> plates.forEach(lotMap(exitOnlyByLot, lot)::putIfAbsent));
+            ready = true;
+            log.info("✅ 在场车辆内存索引已重建 | 在场记录: {} | 异常出口记录: {} | 停车场数: {} | 耗时: {}ms",
+                count(enteredByLot), count(exitOnlyByLot), enteredByLot.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            ready = false;
+            log.error("❌ 重建在场车辆内存索引失败，查询将直接走数据库: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 查询停车场中该车牌的在场记录（status = entered）
+     *
+     * @param parkingLotCode 停车场编号
+     * @param normalizedPlate 标准化车牌号
+     * @return 在场记录
+     */
+    public Optional<VehicleRecord> findEntered(String parkingLotCode, String normalizedPlate) {
+        if (!ready) {
+            return vehicleRecordRepository.findUnexitedRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+        }
+        Optional<VehicleRecord> hit = resolve(enteredByLot, parkingLotCode, normalizedPlate, STATUS_ENTERED);
+        if (hit.isPresent() || parkingProperties.getOccupancyIndex().isTrustMisses()) {
+            return hit;
+        }
+        Optional<VehicleRecord> fromDb =
+            vehicleRecordRepository.findUnexitedRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+        fromDb.ifPresent(record -> lotMap(enteredByLot, parkingLotCode).put(normalizedPlate, record.getId()));
+        return fromDb;
+    }
+
+    /**
+     * 模糊查询停车场中的在场记录（精确查询未命中时使用）
+     * 在本停车场的在场车牌中查找加权编辑距离最小的车牌（OCR易混淆字符代价较低），
+     * 距离超过上限、或者有多个同样相似的车牌（歧义）时不匹配
+     *
+     * 只查询本实例的内存索引，不回查数据库；索引未就绪时直接返回空
+     *
+     * @param parkingLotCode 停车场编号
+     * @param normalizedPlate 出场识别的标准化车牌号
+     * @return 匹配到的在场记录
+     */
+    public Optional<VehicleRecord> findEnteredFuzzy(String parkingLotCode, String normalizedPlate) {
+        ParkingProperties.FuzzyMatchConfig config = parkingProperties.getFuzzyMatch();
+        if (!ready || !config.isEnabled() || normalizedPlate == null
+                || normalizedPlate.length() < config.getMinPlateLength()) {
+            return Optional.empty();
+        }
+        Map<String, Long> plates = enteredByLot.get(parkingLotCode);
+        if (plates == null || plates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String bestPlate = null;
+        double best = Double.POSITIVE_INFINITY;
+        double second = Double.POSITIVE_INFINITY;
+        for (String plate : plates.keySet()) {
+            double distance = PlateSimilarity.distance(normalizedPlate, plate, config.getConfusionCost(), config.getMaxDistance());
+            if (distance < best) {
+                second = best;
+                best = distance;
+                bestPlate = plate;
+            } else if (distance < second) {
+                second = distance;
+            }
+        }
+        if (bestPlate == null) {
+            return Optional.empty();
+        }
+        if (second - best < config.getAmbiguityMargin()) {
+            log.warn("⚠️ 车牌模糊匹配存在歧义，不匹配 | 停车场: {} | 车牌: {} | 最相似: {}({}) | 次相似距离: {}",
+                parkingLotCode, normalizedPlate, bestPlate, best, second);
+            return Optional.empty();
+        }
+        log.debug("车牌模糊匹配 | 停车场: {} | 车牌: {} → {} | 距离: {}", parkingLotCode, normalizedPlate, bestPlate, best);
+        return resolve(enteredByLot, parkingLotCode, bestPlate, STATUS_ENTERED);
+    }
+
+    /**
+     * 查询停车场中该车牌的异常出口记录（status = exit_only）
+     *
+     * @param parkingLotCode 停车场编号
+     * @param normalizedPlate 标准化车牌号
+     * @return 异常出口记录
+     */
+    public Optional<VehicleRecord> findExitOnly(String parkingLotCode, String normalizedPlate) {
+        if (!ready) {
+            return vehicleRecordRepository.findExitOnlyRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+        }
+        Optional<VehicleRecord> hit = resolve(exitOnlyByLot, parkingLotCode, normalizedPlate, STATUS_EXIT_ONLY);
+        if (hit.isPresent() || parkingProperties.getOccupancyIndex().isTrustMisses()) {
+            return hit;
+        }
+        Optional<VehicleRecord> fromDb =
+            vehicleRecordRepository.findExitOnlyRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+        fromDb.ifPresent(record -> lotMap(exitOnlyByLot, parkingLotCode).put(normalizedPlate, record.getId()));
+        return fromDb;
+    }
+
+    /**
+     * 记录已保存后更新索引（在事务提交后执行）
+     * 根据记录的最新状态放入对应的索引，或从在场索引中移除
+     *
+     * @param record 已保存的车辆记录
+     */
+    public void onRecordSaved(VehicleRecord record) {
+        if (!parkingProperties.getOccupancyIndex().isEnabled() || record.getParkingLotCode() == null) {
+            return;
+        }
+        Long id = record.getId();
+        String lot = record.getParkingLotCode();
+        String status = record.getStatus();
+        String entryPlate = PlateUtils.normalize(record.getEntryPlateNumber());
+        String exitPlate = PlateUtils.normalize(record.getExitPlateNumber());
+
+        TransactionUtils.afterCommit(() -> {
+            if (STATUS_ENTERED.equals(status)) {
+                if (entryPlate != null) {
+                    lotMap(enteredByLot, lot).put(entryPlate, id);
+                }
+            } else if (STATUS_EXIT_ONLY.equals(status)) {
+                if (exitPlate != null) {
+                    lotMap(exitOnlyByLot, lot).put(exitPlate, id);
+                }
+            } else {
+                // 已出场：从在场索引中移除（只移除指向该记录的项）
+                if (entryPlate != null) {
+                    lotMap(enteredByLot, lot).remove(entryPlate, id);
+                }
+                if (exitPlate != null) {
+                    lotMap(exitOnlyByLot, lot).remove(exitPlate, id);
+                }
+            }
+        });
+    }
+
+    /**
+     * 停车场当前的在场车辆数（索引中的数量）
+     */
+    public int getEnteredCount(String parkingLotCode) {
+        Map<String, Long> plates = enteredByLot.get(parkingLotCode);
+        return plates == null ? 0 : plates.size();
+    }
+
+    /**
+     * 停车场当前在场车辆的标准化车牌号（只读视图）
+     */
+    public Map<String, Long> getEnteredPlates(String parkingLotCode) {
+        Map<String, Long> plates = enteredByLot.get(parkingLotCode);
+        return plates == null ? Collections.emptyMap() : Collections.unmodifiableMap(plates);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 获取索引统计（用于监控）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", parkingProperties.getOccupancyIndex().isEnabled());
+        stats.put("ready", ready);
+        Map<String, Integer> enteredCounts = new LinkedHashMap<>();
+        enteredByLot.forEach((lot, plates) -> enteredCounts.put(lot, plates.size()));
+        Map<String, Integer> exitOnlyCounts = new LinkedHashMap<>();
+        exitOnlyByLot.forEach((lot, plates) -> exitOnlyCounts.put(lot, plates.size()));
+        stats.put("entered", enteredCounts);
+        stats.put("exitOnly", exitOnlyCounts);
+        return stats;
+    }
+
+    /**
+     * 按索引中的ID加载记录，并校验记录仍然与索引项一致
+     */
+    private Optional<VehicleRecord> resolve(Map<String, Map<String, Long>> index, String parkingLotCode,
+                                            String normalizedPlate, String expectedStatus) {
+        Map<String, Long> plates = index.get(parkingLotCode);
+        Long id = plates == null ? null : plates.get(normalizedPlate);
+        if (id == null) {
+            return Optional.empty();
+        }
+        Optional<VehicleRecord> record = vehicleRecordRepository.findById(id);
+        if (record.isPresent()) {
+            VehicleRecord r = record.get();
+            String plate = STATUS_ENTERED.equals(expectedStatus) ? r.getEntryPlateNumber() : r.getExitPlateNumber();
+            if (expectedStatus.equals(r.getStatus())
+                    && parkingLotCode.equals(r.getParkingLotCode())
+                    && normalizedPlate.equals(PlateUtils.normalize(plate))) {
+                return record;
+            }
+        }
+        // 索引项已过期（其他实例修改了记录、手动修改数据库等），清除后由调用方回查数据库
+        plates.remove(normalizedPlate, id);
+        log.debug("在场车辆索引项已过期 | 停车场: {} | 车牌: {} | 记录ID: {}", parkingLotCode, normalizedPlate, id);
+        return Optional.empty();
+    }
+
+    private static int count(Map<String, Map<String, Long>> index) {
+        int total = 0;
+        for (Map<String, Long> plates : index.values()) {
+            total += plates.size();
+        }
+        return total;
+    }
+
+    private static Map<String, Long> lotMap(Map<String, Map<String, Long>> index, String parkingLotCode) {
+        return index.computeIfAbsent(parkingLotCode, k -> new ConcurrentHashMap<>());
+    }
+}
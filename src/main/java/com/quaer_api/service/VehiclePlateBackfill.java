@@ -0,0 +1,101 @@
+package com.quaer_api.service;
+
+import com.quaer_api.repository.VehicleRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+
+/**
+ * 标准化车牌号回填
+ * 1. 启动时（MQTT连接之前）把历史记录的 entry/exit_plate_normalized 分批回填完成
+ * 2. 启动后30分钟内定时补填上次检查之后新增或修改的记录：8086/8087热切换期间，旧版本实例写入的记录没有标准化车牌号，
+ *    包括它之后修改的已回填记录（如出场时写入出场车牌），因此按 updated_at 而不是按ID检查
+ */
+@Slf4j
+@Component("vehiclePlateBackfill")
+public class VehiclePlateBackfill {
+
+    private static final int BATCH_SIZE = 5000;
+
+    /**
+     * 启动后定时补填的持续时间（覆盖热切换期间新旧实例同时运行的窗口）
+     */
+    private static final long CATCH_UP_WINDOW_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * 按 updated_at 检查时向前重叠的时间（updated_at 在事务提交前写入，提交较晚的记录不会漏掉）
+     */
+    private static final long CATCH_UP_OVERLAP_SECONDS = 120;
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    /**
+     * 上次回填开始的时间，之后的定时补填检查该时间之后新增或修改的记录
+     */
+    private volatile LocalDateTime lastPassAt;
+
+    private final long startedAt = System.currentTimeMillis();
+
+    @PostConstruct
+    public void init() {
+        long start = System.currentTimeMillis();
+        try {
+            LocalDateTime passStartedAt = LocalDateTime.now();
+            long maxId = vehicleRecordRepository.findMaxId();
+            int updated = backfill(0, maxId);
+            lastPassAt = passStartedAt;
+            log.info("✅ 标准化车牌号回填完成 | 更新记录数: {} | 最大记录ID: {} | 耗时: {}ms",
+                updated, maxId, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("❌ 标准化车牌号回填失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定时补填上次检查之后新增或修改、缺少标准化车牌号的记录
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void catchUp() {
+        if (System.currentTimeMillis() - startedAt > CATCH_UP_WINDOW_MILLIS) {
+            return;
+        }
+        try {
+            LocalDateTime passStartedAt = LocalDateTime.now();
+            if (lastPassAt == null) {
+                // 启动回填失败，重新全量回填
+                int updated = backfill(0, vehicleRecordRepository.findMaxId());
+                lastPassAt = passStartedAt;
+                log.info("🔄 补填标准化车牌号（全量）| 更新记录数: {}", updated);
+                return;
+            }
+            LocalDateTime since = lastPassAt.minusSeconds(CATCH_UP_OVERLAP_SECONDS);
+            int updated = vehicleRecordRepository.backfillNormalizedPlatesUpdatedSince(since);
+            lastPassAt = passStartedAt;
+            if (updated > 0) {
+                log.info("🔄 补填标准化车牌号 | 更新记录数: {} | 修改时间晚于: {}", updated, since);
+            }
+        } catch (Exception e) {
+            log.error("❌ 补填标准化车牌号失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按主键范围分批回填
+     *
+     * @param fromId 起始ID（不含）
+     * @param toId 结束ID（含）
+     * @return 更新的行数
+     */
+    private int backfill(long fromId, long toId) {
+        int total = 0;
+        for (long batchStart = fromId; batchStart < toId; batchStart += BATCH_SIZE) {
+            total += vehicleRecordRepository.backfillNormalizedPlates(batchStart, Math.min(batchStart + BATCH_SIZE, toId));
+        }
+        return total;
+    }
+}
@@ -1,21 +1,22 @@
 package com.quaer_api.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.quaer_api.config.SquareProperties;
+import com.quaer_api.config.ParkingProperties;
 import com.quaer_api.dto.MqttEntryMessage;
 import com.quaer_api.dto.MqttExitMessage;
-import com.quaer_api.entity.PaymentOrder;
 import com.quaer_api.entity.VehicleRecord;
-import com.quaer_api.repository.PaymentOrderRepository;
 import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.tariff.CompiledTariff;
+import com.quaer_api.util.PlateUtils;
+import com.quaer_api.util.TransactionUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
@@ -31,22 +32,28 @@ public class VehicleRecordService {
     private VehicleRecordRepository vehicleRecordRepository;
 
     @Autowired
-    private SquareTerminalService squareTerminalService;
+    private VehicleOccupancyIndex occupancyIndex;
 
     @Autowired
-    private SquareOnlinePaymentService squareOnlinePaymentService;
+    private PaymentOutboxService paymentOutboxService;
 
     @Autowired
-    private PaymentOrderRepository paymentOrderRepository;
+    private TariffEngine tariffEngine;
 
     @Autowired
-    private SquareProperties squareProperties;
+    private ParkingCounterService parkingCounterService;
 
     @Autowired
-    @org.springframework.context.annotation.Lazy
-    private MqttClientService mqttClientService;
+    private PlateSearchIndexService plateSearchIndexService;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Autowired
+    private ParkingProperties parkingProperties;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private GateCommandService gateCommandService;
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER =
         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -65,28 +72,33 @@ public class VehicleRecordService {
     @Transactional
     public boolean handleEntryMessage(MqttEntryMessage message, String parkingLotCode) {
         try {
-            log.info("========================================");
-            log.info("处理入场消息");
-            log.info("  停车场编号: {}", parkingLotCode);
-            log.info("  车牌号: {}", message.getEntryPlateNumber());
-            log.info("  摄像头: {}({})", message.getEntryCameraName(), message.getEntryCameraIp());
-            log.info("  识别权重: {}", message.getEntryWeight());
-            log.info("  动作类型: {}", message.getAction());
-            log.info("========================================");
+            log.debug("处理入场消息 | 停车场: {} | 车牌: {} | 摄像头: {}({}) | 权重: {} | 动作: {}",
+                parkingLotCode, message.getEntryPlateNumber(), message.getEntryCameraName(), message.getEntryCameraIp(),
+                message.getEntryWeight(), message.getAction());
 
             // 标准化车牌号（去除连字符）
-            String normalizedPlate = message.getEntryPlateNumber().replace("-", "");
+            String normalizedPlate = PlateUtils.normalize(message.getEntryPlateNumber());
+
+            // 🚀 入场校验通过后立即发出开闸指令，与保存入场记录并行
+            GateCommandService.GateCommand gate = null;
+            if (parkingProperties.getGate().isEarlyEntryOpen()) {
+                gate = gateCommandService.build("entry", parkingLotCode, message.getBarrierGateId(),
+                    message.getBackupChannelId(), message.getEntryPlateNumber());
+                if (gate != null) {
+                    gateCommandService.submit(gate);
+                }
+            }
 
-            // 查询该停车场中是否已有该车牌的未出场记录（停车场编号+车牌号）
-            Optional<VehicleRecord> existingRecord =
-                vehicleRecordRepository.findUnexitedRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+            // 查询该停车场中是否已有该车牌的未出场记录（停车场编号+车牌号，优先走内存索引）
+            Optional<VehicleRecord> existingRecord = pipelineMetrics.time(PipelineMetrics.DB_LOOKUP, parkingLotCode,
+                () -> occupancyIndex.findEntered(parkingLotCode, normalizedPlate));
 
             if (existingRecord.isPresent()) {
                 // 场景B：重复入场 - 更新已有记录
-                return updateExistingEntry(existingRecord.get(), message, parkingLotCode);
+                return updateExistingEntry(existingRecord.get(), message, parkingLotCode, gate);
             } else {
                 // 场景A：新车入场 - 插入新记录
-                return insertNewEntry(message, parkingLotCode);
+                return insertNewEntry(message, parkingLotCode, gate);
             }
 
         } catch (Exception e) {
@@ -98,8 +110,11 @@ public class VehicleRecordService {
 
     /**
      * 插入新的入场记录
+     *
+     * @param gate 已提前提交的开闸指令（未提前开闸时为null）
      */
-    private boolean insertNewEntry(MqttEntryMessage message, String parkingLotCode) {
+    private boolean insertNewEntry(MqttEntryMessage message, String parkingLotCode,
+                                   GateCommandService.GateCommand gate) {
         try {
             VehicleRecord record = new VehicleRecord();
 
@@ -127,7 +142,10 @@ public class VehicleRecordService {
             record.setBackupChannelId(message.getBackupChannelId());
 
             // 保存到数据库
-            VehicleRecord saved = vehicleRecordRepository.save(record);
+            VehicleRecord saved = saveRecord(record, parkingLotCode);
+            occupancyIndex.onRecordSaved(saved);
+            parkingCounterService.onRecordChanged(null, saved);
+            plateSearchIndexService.indexAfterCommit(saved);
 
             log.info("✅ 入场记录已保存 | ID: {} | 车牌: {} | 权重: {} | 摄像头: {}({})",
                 saved.getId(),
@@ -137,7 +155,7 @@ public class VehicleRecordService {
                 message.getEntryCameraIp());
 
             // 🚀 入场成功后自动开闸
-            autoOpenGateForEntry(saved);
+            autoOpenGateForEntry(saved, gate);
 
             return true;
 
@@ -149,9 +167,13 @@ public class VehicleRecordService {
 
     /**
      * 更新已有的入场记录（重复入场）
+     *
+     * @param gate 已提前提交的开闸指令（未提前开闸时为null）
      */
-    private boolean updateExistingEntry(VehicleRecord record, MqttEntryMessage message, String parkingLotCode) {
+    private boolean updateExistingEntry(VehicleRecord record, MqttEntryMessage message, String parkingLotCode,
+                                        GateCommandService.GateCommand gate) {
         try {
+            ParkingCounterService.RecordState before = parkingCounterService.capture(record);
             String oldPlate = record.getEntryPlateNumber();
 
             // 更新停车场编号
@@ -178,7 +200,10 @@ public class VehicleRecordService {
             record.setStatus("entered");
 
             // 保存更新
-            VehicleRecord updated = vehicleRecordRepository.save(record);
+            VehicleRecord updated = saveRecord(record, parkingLotCode);
+            occupancyIndex.onRecordSaved(updated);
+            parkingCounterService.onRecordChanged(before, updated);
+            plateSearchIndexService.indexAfterCommit(updated);
 
             log.info("🔄 入场记录已更新 | ID: {} | 停车场: {} | 车牌: {} → {} | 权重: {} | 摄像头: {}({}) | 原因: 重复入场",
                 updated.getId(),
@@ -190,7 +215,7 @@ public class VehicleRecordService {
                 message.getEntryCameraIp());
 
             // 🚀 入场更新成功后自动开闸
-            autoOpenGateForEntry(updated);
+            autoOpenGateForEntry(updated, gate);
 
             return true;
 
@@ -204,7 +229,7 @@ public class VehicleRecordService {
      * 处理出口消息并保存到数据库
      *
      * 三种场景：
-     * 1. 正常出场 (exit_normal): 找到入场记录，更新为已出场
+     * 1. 正常出场 (exit_normal): 找到入场记录（精确匹配；车牌识别错误时在在场车辆中模糊匹配），更新为已出场
      * 2. 异常出口-新建 (exit_only_new): 无入场记录，无异常出口记录，插入新记录
      * 3. 异常出口-更新 (exit_only_update): 无入场记录，但有异常出口记录，更新记录
      *
@@ -215,37 +240,44 @@ public class VehicleRecordService {
     @Transactional
     public VehicleRecord handleExitMessage(MqttExitMessage message, String parkingLotCode) {
         try {
-            log.info("========================================");
-            log.info("处理出口消息");
-            log.info("  停车场编号: {}", parkingLotCode);
-            log.info("  车牌号: {}", message.getExitPlateNumber());
-            log.info("  摄像头: {}({})", message.getExitCameraName(), message.getExitCameraIp());
-            log.info("  识别权重: {}", message.getExitWeight());
-            log.info("  动作类型: {}", message.getAction());
-            log.info("========================================");
+            log.debug("处理出口消息 | 停车场: {} | 车牌: {} | 摄像头: {}({}) | 权重: {} | 动作: {}",
+                parkingLotCode, message.getExitPlateNumber(), message.getExitCameraName(), message.getExitCameraIp(),
+                message.getExitWeight(), message.getAction());
 
             // 标准化车牌号（去除连字符）
-            String normalizedPlate = message.getExitPlateNumber().replace("-", "");
+            String normalizedPlate = PlateUtils.normalize(message.getExitPlateNumber());
 
-            // 查询该停车场中是否有该车牌的未出场记录（停车场编号+车牌号）
-            Optional<VehicleRecord> entryRecord =
-                vehicleRecordRepository.findUnexitedRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+            // 查询该停车场中是否有该车牌的未出场记录（停车场编号+车牌号，优先走内存索引）
+            long lookupStart = pipelineMetrics.start();
+            Optional<VehicleRecord> entryRecord = occupancyIndex.findEntered(parkingLotCode, normalizedPlate);
 
             if (entryRecord.isPresent()) {
+                pipelineMetrics.stop(PipelineMetrics.DB_LOOKUP, parkingLotCode, lookupStart);
                 // 场景1：正常出场 - 更新入场记录
                 return handleNormalExit(entryRecord.get(), message, parkingLotCode);
             } else {
                 // 未找到入场记录，查询是否有异常出口记录
-                Optional<VehicleRecord> exitOnlyRecord =
-                    vehicleRecordRepository.findExitOnlyRecordByParkingLotAndPlate(parkingLotCode, normalizedPlate);
+                Optional<VehicleRecord> exitOnlyRecord = occupancyIndex.findExitOnly(parkingLotCode, normalizedPlate);
 
                 if (exitOnlyRecord.isPresent()) {
+                    pipelineMetrics.stop(PipelineMetrics.DB_LOOKUP, parkingLotCode, lookupStart);
                     // 场景3：异常出口-更新
+                    pipelineMetrics.count(PipelineMetrics.EXIT_ONLY, parkingLotCode);
                     return handleExitOnlyUpdate(exitOnlyRecord.get(), message, parkingLotCode);
-                } else {
-                    // 场景2：异常出口-新建
-                    return handleExitOnlyNew(message, parkingLotCode);
                 }
+
+                // 车牌可能被识别错（O/0、I/1、B/8等），在在场车辆中模糊匹配
+                Optional<VehicleRecord> fuzzyRecord = findEnteredFuzzy(message, parkingLotCode, normalizedPlate);
+                pipelineMetrics.stop(PipelineMetrics.DB_LOOKUP, parkingLotCode, lookupStart);
+                if (fuzzyRecord.isPresent()) {
+                    // 场景1：正常出场（模糊匹配）
+                    pipelineMetrics.count(PipelineMetrics.FUZZY_MATCH, parkingLotCode);
+                    return handleNormalExit(fuzzyRecord.get(), message, parkingLotCode);
+                }
+
+                // 场景2：异常出口-新建
+                pipelineMetrics.count(PipelineMetrics.EXIT_ONLY, parkingLotCode);
+                return handleExitOnlyNew(message, parkingLotCode);
             }
 
         } catch (Exception e) {
@@ -255,11 +287,39 @@ public class VehicleRecordService {
         }
     }
 
+    /**
+     * 模糊匹配在场记录
+     * 出场识别权重或入场记录的识别权重低于 parking.fuzzy-match.min-weight 时不匹配
+     */
+    private Optional<VehicleRecord> findEnteredFuzzy(MqttExitMessage message, String parkingLotCode, String normalizedPlate) {
+        double minWeight = parkingProperties.getFuzzyMatch().getMinWeight();
+        if (!isConfident(message.getExitWeight(), minWeight)) {
+            return Optional.empty();
+        }
+        Optional<VehicleRecord> record = occupancyIndex.findEnteredFuzzy(parkingLotCode, normalizedPlate);
+        if (record.isEmpty() || !isConfident(record.get().getEntryWeight(), minWeight)) {
+            return Optional.empty();
+        }
+        log.warn("🔍 出场车牌模糊匹配到入场记录 | 记录ID: {} | 停车场: {} | 入场车牌: {}(权重 {}) | 出场车牌: {}(权重 {})",
+            record.get().getId(),
+            parkingLotCode,
+            record.get().getEntryPlateNumber(),
+            record.get().getEntryWeight(),
+            message.getExitPlateNumber(),
+            message.getExitWeight());
+        return record;
+    }
+
+    private static boolean isConfident(BigDecimal weight, double minWeight) {
+        return minWeight <= 0 || (weight != null && weight.doubleValue() >= minWeight);
+    }
+
     /**
      * 场景1：正常出场 - 更新入场记录
      */
     private VehicleRecord handleNormalExit(VehicleRecord record, MqttExitMessage message, String parkingLotCode) {
         try {
+            ParkingCounterService.RecordState before = parkingCounterService.capture(record);
             String entryPlate = record.getEntryPlateNumber();
             LocalDateTime entryTime = record.getEntryTime();
             LocalDateTime exitTime = LocalDateTime.now();  // 使用服务器当前时间
@@ -316,18 +376,23 @@ public class VehicleRecordService {
                     durationMinutes = 1;
                 }
 
-                // 计算停车费用：1分钟 = 1美分，最高9美分
-                int parkingFeeCents = (int) Math.min(durationMinutes, 9);
+                // 按停车场的收费方案计算停车费用
+                CompiledTariff tariff = tariffEngine.tariffFor(record.getParkingLotCode());
+                int parkingFeeCents = tariff.priceCents(
+                    entryTime.toEpochSecond(ZoneOffset.UTC), exitTime.toEpochSecond(ZoneOffset.UTC));
 
                 record.setParkingDurationMinutes((int) durationMinutes);
                 record.setParkingFeeCents(parkingFeeCents);
 
-                log.info("💰 停车费用计算 | 记录ID: {} | 时长: {}分钟 | 费用: {}美分",
-                    record.getId(), durationMinutes, parkingFeeCents);
+                log.info("💰 停车费用计算 | 记录ID: {} | 时长: {}分钟 | 费用: {}美分 | 收费方案: {}",
+                    record.getId(), durationMinutes, parkingFeeCents, tariff.getName());
             }
 
             // 保存更新
-            VehicleRecord updated = vehicleRecordRepository.save(record);
+            VehicleRecord updated = saveRecord(record, parkingLotCode);
+            occupancyIndex.onRecordSaved(updated);
+            parkingCounterService.onRecordChanged(before, updated);
+            plateSearchIndexService.indexAfterCommit(updated);
 
             log.info("✅ 正常出场记录已更新 | ID: {} | 停车场: {} | 入场车牌: {} | 出场车牌: {} | 停留时长: {} | 权重: {} | 摄像头: {}({})",
                 updated.getId(),
@@ -339,146 +404,10 @@ public class VehicleRecordService {
                 message.getExitCameraName(),
                 message.getExitCameraIp());
 
-            // 针对所有有金额的记录，保存成功后发起支付
+            // 针对所有有金额的记录，写入支付发件箱
+            // Square调用由 PaymentOutboxDispatcher 在事务提交后异步发起，出场事务不再等待网络往返
             if (updated.getParkingFeeCents() != null && updated.getParkingFeeCents() > 0) {
-                try {
-                    log.info("=".repeat(80));
-                    log.info("🔔 触发支付流程 | 记录ID: {} | 金额: {}美分", updated.getId(), updated.getParkingFeeCents());
-
-                    // 获取支付设备ID（优先使用出场消息中的设备ID，如果为空则使用配置文件中的默认值）
-                    String paymentDeviceId = updated.getPaymentDeviceId();
-                    if (paymentDeviceId != null && !paymentDeviceId.trim().isEmpty()) {
-                        log.info("📟 使用出场消息中的支付设备ID: {}", paymentDeviceId);
-                    } else {
-                        log.info("📟 使用默认支付设备ID（配置文件）");
-                    }
-                    log.info("=".repeat(80));
-
-                    // 🔥 同时发起两种支付方式
-                    // 1️⃣ 终端支付（POS机）
-                    String paymentResponse;
-                    if (paymentDeviceId != null && !paymentDeviceId.trim().isEmpty()) {
-                        paymentResponse = squareTerminalService.createTerminalCheckout(updated.getParkingFeeCents(), paymentDeviceId);
-                    } else {
-                        paymentResponse = squareTerminalService.createTerminalCheckout(updated.getParkingFeeCents());
-                    }
-
-                    log.info("📱 终端支付请求已发送到设备");
-                    log.info("终端支付响应: {}", paymentResponse);
-
-                    // 2️⃣ 在线支付（二维码）
-                    String paymentDescription = "停车费 - " + updated.getEntryPlateNumber();
-                    String locationId = updated.getParkingLotCode();
-                    log.info("📍 使用记录中的停车场编号作为Location ID: {}", locationId);
-
-                    SquareOnlinePaymentService.SquareOnlinePaymentResponse onlinePaymentResponse =
-                        squareOnlinePaymentService.createPaymentLink(updated.getParkingFeeCents(), paymentDescription, locationId);
-
-                    if (onlinePaymentResponse.isSuccess()) {
-                        log.info("💳 在线支付链接创建成功");
-                        log.info("支付URL: {}", onlinePaymentResponse.getPaymentUrl());
-
-                        // 将支付URL保存到车辆记录中，供前端显示二维码
-                        updated.setOnlinePaymentUrl(onlinePaymentResponse.getPaymentUrl());
-                        updated.setOnlinePaymentLinkId(onlinePaymentResponse.getPaymentLinkId());
-                        vehicleRecordRepository.save(updated);
-
-                        // 立即创建PaymentOrder记录，关联到车辆记录
-                        // 这样webhook收到支付完成通知时，能通过order_id找到这个PaymentOrder
-                        // 并自动更新车辆记录的支付状态
-                        try {
-                            PaymentOrder onlinePaymentOrder = new PaymentOrder();
-
-                            // 关联车辆记录ID - 关键！
-                            onlinePaymentOrder.setVehicleRecordId(updated.getId());
-
-                            // 设置Order ID（Square自动生成的）
-                            onlinePaymentOrder.setOrderId(onlinePaymentResponse.getOrderId());
-
-                            // 设置金额信息
-                            onlinePaymentOrder.setAmount((long) updated.getParkingFeeCents());
-                            onlinePaymentOrder.setCurrency(squareProperties.getCurrency());
-
-                            // 设置状态和来源
-                            onlinePaymentOrder.setStatus("PENDING");
-                            onlinePaymentOrder.setPaymentSource("ONLINE");
-
-                            // 设置备注
-                            onlinePaymentOrder.setNote("在线支付 - 车牌: " + updated.getEntryPlateNumber());
-
-                            // 保存支付记录
-                            PaymentOrder savedOnlineOrder = paymentOrderRepository.save(onlinePaymentOrder);
-
-                            log.info("💾 在线支付记录已创建 | 支付记录ID: {} | Order ID: {} | 车辆记录ID: {}",
-                                savedOnlineOrder.getId(), onlinePaymentResponse.getOrderId(), updated.getId());
-
-                        } catch (Exception e) {
-                            log.error("❌ 创建在线支付记录失败 | 车辆记录ID: {} | 错误: {}",
-                                updated.getId(), e.getMessage(), e);
-                        }
-                    } else {
-                        log.warn("⚠️ 在线支付链接创建失败: {}", onlinePaymentResponse.getErrorMessage());
-                    }
-
-                    // 解析响应并创建支付记录
-                    if (paymentResponse != null && !paymentResponse.startsWith("Error:") && !paymentResponse.startsWith("Exception:")) {
-                        try {
-                            JsonNode responseJson = objectMapper.readTree(paymentResponse);
-                            JsonNode checkoutNode = responseJson.path("checkout");
-
-                            if (!checkoutNode.isMissingNode()) {
-                                // 创建支付记录
-                                PaymentOrder paymentOrder = new PaymentOrder();
-
-                                // 关联出场记录ID
-                                paymentOrder.setVehicleRecordId(updated.getId());
-
-                                // 从响应中提取信息
-                                String checkoutId = checkoutNode.path("id").asText(null);
-                                String orderId = checkoutNode.path("order_id").asText(null);
-                                String referenceId = checkoutNode.path("reference_id").asText(null);
-                                String deviceId = checkoutNode.path("device_options").path("device_id").asText(null);
-
-                                paymentOrder.setCheckoutId(checkoutId);
-                                paymentOrder.setOrderId(orderId);
-                                paymentOrder.setReferenceId(referenceId);
-                                paymentOrder.setDeviceId(deviceId);
-
-                                // 设置金额信息
-                                paymentOrder.setAmount((long) updated.getParkingFeeCents());
-                                paymentOrder.setCurrency("USD");
-
-                                // 设置状态和来源
-                                paymentOrder.setStatus("PENDING"); // 初始状态为待处理
-                                paymentOrder.setPaymentSource("TERMINAL");
-
-                                // 设置备注
-                                paymentOrder.setNote("停车费支付 - 车牌: " + updated.getEntryPlateNumber());
-
-                                // 保存支付记录
-                                PaymentOrder savedOrder = paymentOrderRepository.save(paymentOrder);
-
-                                log.info("💾 支付记录已创建 | 支付记录ID: {} | Checkout ID: {} | 出场记录ID: {}",
-                                    savedOrder.getId(), checkoutId, updated.getId());
-
-                                // 更新车辆记录的支付状态
-                                updated.setPaymentStatus("pending");
-                                vehicleRecordRepository.save(updated);
-
-                                log.info("✅ 出场记录支付状态已更新为: pending");
-                            }
-
-                        } catch (Exception e) {
-                            log.error("❌ 创建支付记录失败 | 出场记录ID: {} | 错误: {}",
-                                updated.getId(), e.getMessage(), e);
-                        }
-                    }
-
-                } catch (Exception e) {
-                    log.error("❌ 发起支付失败，但出场记录已保存 | 记录ID: {} | 错误: {}",
-                        updated.getId(), e.getMessage(), e);
-                    // 注意：支付失败不影响出场记录的保存，继续返回 true
-                }
+                paymentOutboxService.enqueue(updated);
             }
 
             return updated;
@@ -517,7 +446,10 @@ public class VehicleRecordService {
             record.setExitSnapshot(message.getExitSnapshot());
 
             // 保存到数据库
-            VehicleRecord saved = vehicleRecordRepository.save(record);
+            VehicleRecord saved = saveRecord(record, parkingLotCode);
+            occupancyIndex.onRecordSaved(saved);
+            parkingCounterService.onRecordChanged(null, saved);
+            plateSearchIndexService.indexAfterCommit(saved);
 
             log.warn("⚠️ 异常出口记录已保存 | ID: {} | 停车场: {} | 车牌: {} | 权重: {} | 摄像头: {}({}) | 原因: 无入场记录",
                 saved.getId(),
@@ -540,6 +472,7 @@ public class VehicleRecordService {
      */
     private VehicleRecord handleExitOnlyUpdate(VehicleRecord record, MqttExitMessage message, String parkingLotCode) {
         try {
+            ParkingCounterService.RecordState before = parkingCounterService.capture(record);
             String oldPlate = record.getExitPlateNumber();
 
             // 更新出场信息（使用服务器当前时间）
@@ -560,7 +493,10 @@ public class VehicleRecordService {
             record.setStatus("exit_only");
 
             // 保存更新
-            VehicleRecord updated = vehicleRecordRepository.save(record);
+            VehicleRecord updated = saveRecord(record, parkingLotCode);
+            occupancyIndex.onRecordSaved(updated);
+            parkingCounterService.onRecordChanged(before, updated);
+            plateSearchIndexService.indexAfterCommit(updated);
 
             log.warn("🔄 异常出口记录已更新 | ID: {} | 停车场: {} | 车牌: {} → {} | 权重: {} | 摄像头: {}({}) | 原因: 重复异常出口",
                 updated.getId(),
@@ -592,72 +528,41 @@ public class VehicleRecordService {
     }
 
     /**
-     * 入场成功后自动开闸
+     * 保存车辆记录（记录 db.save 阶段耗时）
+     * 已加载的记录 save 只是合并到持久化上下文，UPDATE 要到提交时才执行，
+     * 所以从 save 开始计时到事务提交完成为止（回滚时不记录）
+     */
+    private VehicleRecord saveRecord(VehicleRecord record, String parkingLotCode) {
+        long start = pipelineMetrics.start();
+        VehicleRecord saved = vehicleRecordRepository.save(record);
+        TransactionUtils.afterCommit(() -> pipelineMetrics.stop(PipelineMetrics.DB_SAVE, parkingLotCode, start));
+        return saved;
+    }
+
+    /**
+     * 入场成功后自动开闸（已提前提交时只等待开闸指令发出）
      * @param vehicleRecord 车辆记录
+     * @param gate 已提前提交的开闸指令（未提前开闸时为null）
      */
-    private void autoOpenGateForEntry(VehicleRecord vehicleRecord) {
+    private void autoOpenGateForEntry(VehicleRecord vehicleRecord, GateCommandService.GateCommand gate) {
         try {
-            log.info("========================================");
-            log.info("🚀 入场成功，开始自动开闸 | 记录ID: {} | 车牌: {}",
-                vehicleRecord.getId(), vehicleRecord.getEntryPlateNumber());
-
-            // 验证必需字段
-            if (vehicleRecord.getParkingLotCode() == null || vehicleRecord.getParkingLotCode().trim().isEmpty()) {
-                log.warn("⚠️ 自动开闸失败：该记录没有停车场编号(parking_lot_code) | 记录ID: {}", vehicleRecord.getId());
-                return;
+            GateCommandService.GateCommand command = gate;
+            if (command == null && !parkingProperties.getGate().isEarlyEntryOpen()) {
+                command = gateCommandService.build("entry", vehicleRecord.getParkingLotCode(),
+                    vehicleRecord.getBarrierGateId(), vehicleRecord.getBackupChannelId(),
+                    vehicleRecord.getEntryPlateNumber());
             }
-
-            if (vehicleRecord.getBarrierGateId() == null || vehicleRecord.getBarrierGateId().trim().isEmpty()) {
-                log.warn("⚠️ 自动开闸失败：该记录没有闸机ID(barrier_gate_id) | 记录ID: {}", vehicleRecord.getId());
+            if (command == null) {
                 return;
             }
 
-            // 转换端口号，失败时使用默认值1
-            int channel = 1;  // 默认值
-            if (vehicleRecord.getBackupChannelId() != null && !vehicleRecord.getBackupChannelId().trim().isEmpty()) {
-                try {
-                    channel = Integer.parseInt(vehicleRecord.getBackupChannelId().trim());
-                    log.info("📟 使用记录中的端口号: {}", channel);
-                } catch (NumberFormatException e) {
-                    log.warn("⚠️ 端口号转换失败，使用默认值1: {}", vehicleRecord.getBackupChannelId());
-                    channel = 1;
-                }
-            } else {
-                log.warn("⚠️ 记录中没有端口号，使用默认值1");
+            if (gateCommandService.await(command)) {
+                log.debug("入场开闸指令已发出 | 记录ID: {} | 主题: {} | 消息ID: {}",
+                    vehicleRecord.getId(), command.getTopic(), command.getMessageId());
             }
 
-            // 构建MQTT主题: /gate/{parking_lot_code}/{barrier_gate_id}/get
-            String topic = String.format("/gate/%s/%s/get",
-                    vehicleRecord.getParkingLotCode(),
-                    vehicleRecord.getBarrierGateId());
-
-            log.info("📡 MQTT主题: {}", topic);
-
-            // 生成唯一ID
-            String messageId = java.util.UUID.randomUUID().toString();
-
-            // 构建MQTT消息：常开端口，闭合2秒后自动断开
-            // closetime: 关闭继电器，2秒后自动打开（常开端口闭合2秒）
-            String mqttMessage = String.format(
-                    "{\"id\":\"%s\",\"type\":\"modbus\",\"msg\":{\"cmd\":\"opentime\",\"addr\":255,\"channel\":%d,\"time\":10}}",
-                    messageId,
-                    channel
-            );
-
-            log.info("📨 MQTT消息: {}", mqttMessage);
-            log.info("  命令: opentime (常开端口打开1秒)");
-            log.info("  端口: {}", channel);
-            log.info("  时长: 10 (1秒)");
-
-            // 发送MQTT消息
-            mqttClientService.publish(topic, mqttMessage);
-
-            log.info("✅ 入场自动开闸指令已发送到MQTT");
-            log.info("========================================");
-
         } catch (Exception e) {
             log.error("❌ 入场自动开闸失败 | 记录ID: {} | 错误: {}", vehicleRecord.getId(), e.getMessage(), e);
         }
     }
 }
-
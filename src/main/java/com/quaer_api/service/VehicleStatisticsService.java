@@ -0,0 +1,152 @@
+package com.quaer_api.service;
+
+import com.quaer_api.repository.VehicleRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 车辆记录统计服务
+ * 所有统计都在数据库中聚合（GROUP BY），不把记录加载到内存
+ */
+@Slf4j
+@Service
+public class VehicleStatisticsService {
+
+    /**
+     * 小时统计最多返回的小时数（31天）
+     */
+    private static final long MAX_HOURS = 31 * 24;
+
+    @Autowired
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    /**
+     * 按状态统计记录数
+     *
+     * @param parkingLotCode 停车场编号（为空时统计所有停车场）
+     * @param startTime 开始时间（为空时不限）
+     * @param endTime 结束时间（为空时不限）
+     * @return total/entered/exited/exitOnly
+     */
+    public Map<String, Object> countByStatus(String parkingLotCode, LocalDateTime startTime, LocalDateTime endTime) {
+        long entered = 0;
+        long exited = 0;
+        long exitOnly = 0;
+        long total = 0;
+        for (Object[] row : vehicleRecordRepository.countGroupByStatus(parkingLotCode, startTime, endTime)) {
+            String status = (String) row[0];
+            long count = toLong(row[1]);
+            total += count;
+            if ("entered".equals(status)) {
+                entered = count;
+            } else if ("exited".equals(status)) {
+                exited = count;
+            } else if ("exit_only".equals(status)) {
+                exitOnly = count;
+            }
+        }
+
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("total", total);
+        statistics.put("entered", entered);
+        statistics.put("exited", exited);
+        statistics.put("exitOnly", exitOnly);
+        return statistics;
+    }
+
+    /**
+     * 扩展统计：当前在场车辆、每小时入场/出场车辆数、平均停留时长
+     *
+     * @param parkingLotCode 停车场编号（为空时统计所有停车场）
+     * @param startTime 开始时间（含）
+     * @param endTime 结束时间（不含）
+     */
+    public Map<String, Object> extendedStatistics(String parkingLotCode, LocalDateTime startTime, LocalDateTime endTime) {
+        if (ChronoUnit.HOURS.between(startTime, endTime) > MAX_HOURS) {
+            throw new IllegalArgumentException("统计时间范围不能超过31天");
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startTime", startTime);
+        result.put("endTime", endTime);
+        result.put("occupancy", occupancy(parkingLotCode));
+        result.put("hourly", hourly(parkingLotCode, startTime, endTime));
+        result.put("dwell", dwell(parkingLotCode, startTime, endTime));
+        return result;
+    }
+
+    /**
+     * 当前在场车辆数（按停车场）和平均已停留时长
+     */
+    private Map<String, Object> occupancy(String parkingLotCode) {
+        long total = 0;
+        double weightedDwell = 0;
+        Map<String, Object> byLot = new LinkedHashMap<>();
+        for (Object[] row : vehicleRecordRepository.countOccupancyByLot(parkingLotCode)) {
+            long count = toLong(row[1]);
+            double avgDwell = row[2] == null ? 0 : ((Number) row[2]).doubleValue();
+            total += count;
+            weightedDwell += avgDwell * count;
+
+            Map<String, Object> lot = new LinkedHashMap<>();
+            lot.put("entered", count);
+            lot.put("avgDwellSeconds", Math.round(avgDwell));
+            byLot.put(row[0] == null ? "unknown" : (String) row[0], lot);
+        }
+
+        Map<String, Object> occupancy = new LinkedHashMap<>();
+        occupancy.put("entered", total);
+        occupancy.put("avgDwellSeconds", total == 0 ? 0 : Math.round(weightedDwell / total));
+        occupancy.put("byLot", byLot);
+        return occupancy;
+    }
+
+    /**
+     * 每小时入场/出场车辆数，没有记录的小时不返回
+     */
+    private List<Map<String, Object>> hourly(String parkingLotCode, LocalDateTime startTime, LocalDateTime endTime) {
+        Map<String, long[]> buckets = new TreeMap<>();
+        for (Object[] row : vehicleRecordRepository.countEntriesPerHour(parkingLotCode, startTime, endTime)) {
+            buckets.computeIfAbsent((String) row[0], k -> new long[2])[0] = toLong(row[1]);
+        }
+        for (Object[] row : vehicleRecordRepository.countExitsPerHour(parkingLotCode, startTime, endTime)) {
+            buckets.computeIfAbsent((String) row[0], k -> new long[2])[1] = toLong(row[1]);
+        }
+
+        List<Map<String, Object>> hourly = new ArrayList<>(buckets.size());
+        buckets.forEach((hour, counts) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("hour", hour);
+            item.put("entries", counts[0]);
+            item.put("exits", counts[1]);
+            hourly.add(item);
+        });
+        return hourly;
+    }
+
+    /**
+     * 时间范围内正常出场车辆的停留时长
+     */
+    private Map<String, Object> dwell(String parkingLotCode, LocalDateTime startTime, LocalDateTime endTime) {
+        Map<String, Object> dwell = new LinkedHashMap<>();
+        List<Object[]> rows = vehicleRecordRepository.dwellStatistics(parkingLotCode, startTime, endTime);
+        Object[] row = rows.isEmpty() ? new Object[3] : rows.get(0);
+        dwell.put("exited", row[0] == null ? 0L : toLong(row[0]));
+        dwell.put("avgDurationSeconds", row[1] == null ? 0L : Math.round(((Number) row[1]).doubleValue()));
+        dwell.put("maxDurationSeconds", row[2] == null ? 0L : toLong(row[2]));
+        return dwell;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+}
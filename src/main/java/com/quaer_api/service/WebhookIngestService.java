@@ -0,0 +1,389 @@
+package com.quaer_api.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.PaymentOrder;
+import com.quaer_api.util.EventLog;
+import com.quaer_api.util.LanePartitionedExecutor;
+import com.quaer_api.util.PartitionedExecutor;
+import com.quaer_api.util.TraceContext;
+import com.quaer_api.util.WebhookSpool;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Square Webhook 异步接入
+ * 控制器验证签名后只把请求体落盘（WebhookSpool）并立即返回200，Square 的投递延迟只包含验签 + 一次 fsync；
+ * 支付记录更新、LED显示、开闸等由工作线程处理，处理慢不会导致 Square 超时重发
+ *
+ * - 分区Key = Square 支付ID：同一笔支付的 created / updated 事件按接收顺序处理，不同支付并行处理
+ * - 处理成功后删除落盘文件；处理失败的文件保留，定时重新扫描重试，超过最大次数移动到 failed 目录
+ * - 同一笔支付有文件等待重试时，之后收到的事件先不处理（文件保留），等前一个重试成功或移动到 failed 目录后
+ *   由定时扫描按接收顺序提交；前一个最终失败时后面的事件照常处理
+ * - 队列满时不阻塞 HTTP 线程：任务被丢弃但文件仍在，由定时扫描补上
+ * - 进程重启后重新扫描未处理的文件；另一个实例已关闭（心跳超时）时立即接管它的文件，仍在运行时只接管长时间未处理的文件
+ * - 未启用或落盘失败时在请求线程中直接处理（原来的方式）
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WebhookIngestService {
+
+    private final ParkingProperties parkingProperties;
+    private final SquareWebhookService webhookService;
+    private final ProcessedEventStore processedEventStore;
+    private final PipelineMetrics pipelineMetrics;
+    private final TraceRecorder traceRecorder;
+    private final ObjectMapper objectMapper;
+
+    @Value("${server.port:8086}")
+    private String serverPort;
+
+    /**
+     * 落盘队列（未启用或打开失败时为null）
+     */
+    private WebhookSpool spool;
+
+    private PartitionedExecutor executor;
+
+    /**
+     * 已提交给工作线程、尚未处理完成的文件（定时扫描时跳过）
+     */
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 文件处理失败次数
+     */
+    private final Map<Path, Integer> failures = new ConcurrentHashMap<>();
+
+    /**
+     * 分区Key → 最早的等待重试文件（该文件处理完成之前，同一分区之后收到的文件不提交）
+     */
+    private final Map<String, Path> retrying = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        ParkingProperties.WebhookIngestConfig config = parkingProperties.getWebhookIngest();
+        if (!config.isEnabled()) {
+            log.info("Webhook异步接入未启用，在请求线程中直接处理");
+            return;
+        }
+        try {
+            spool = new WebhookSpool(Paths.get(config.getSpoolDirectory()), serverPort);
+        } catch (IOException e) {
+            log.warn("⚠️ 打开Webhook落盘目录失败，在请求线程中直接处理: {}", e.getMessage(), e);
+            return;
+        }
+        spool.heartbeat();
+        executor = new LanePartitionedExecutor(
+            "webhook-ingest",
+            config.getWorkers(),
+            config.getQueueCapacity(),
+            PartitionedExecutor.BackpressurePolicy.DROP,
+            0
+        );
+        log.info("Webhook异步接入已启动 | 落盘目录: {} | 待处理文件: {}", spool.getDirectory(), spool.pending().size());
+    }
+
+    /**
+     * 接收一个已验签的 Webhook 事件
+     *
+     * @param payload 原始请求体
+     * @param json 解析后的请求体
+     * @param receivedAt 接收时间（System.nanoTime）
+     * @return true=已落盘，稍后异步处理；false=已在当前线程处理完成
+     */
+    public boolean accept(byte[] payload, JsonNode json, long receivedAt) {
+        if (spool != null) {
+            try {
+                Path file = spool.append(json.path("event_id").asText(null), payload);
+                submit(file, json, receivedAt);
+                return true;
+            } catch (IOException e) {
+                log.warn("⚠️ Webhook落盘失败，在请求线程中直接处理: {}", e.getMessage());
+            }
+        }
+        process(null, json, receivedAt);
+        return false;
+    }
+
+    /**
+     * 保留一个验签通过但无法解析的请求体：写入 failed 目录等待人工处理（未启用落盘时只记录日志）
+     *
+     * @param payload 原始请求体
+     * @param cause 解析错误
+     */
+    public void reject(byte[] payload, Exception cause) {
+        EventLog.Event event = EventLog.error("square.webhook")
+            .with("result", "unparseable")
+            .with("error", cause.getMessage());
+        if (spool != null) {
+            try {
+                event.with("file", spool.appendFailed(payload).getFileName()).cause(cause).log();
+                return;
+            } catch (IOException e) {
+                log.warn("⚠️ Webhook请求体写入failed目录失败: {}", e.getMessage());
+            }
+        }
+        event.with("payload", new String(payload, StandardCharsets.UTF_8)).cause(cause).log();
+    }
+
+    /**
+     * 定时扫描落盘目录：重启前未处理的文件、处理失败待重试的文件、队列满时被丢弃的文件、另一个实例遗留的文件
+     */
+    @Scheduled(fixedDelayString = "${parking.webhook-ingest.rescan-interval-ms:10000}")
+    public void rescan() {
+        if (spool == null) {
+            return;
+        }
+        ParkingProperties.WebhookIngestConfig config = parkingProperties.getWebhookIngest();
+        long now = System.currentTimeMillis();
+        spool.heartbeat();
+        int claimed = spool.claimStale(now - config.getClaimAfterMs(), now - config.getPeerTimeoutMs());
+        if (claimed > 0) {
+            log.warn("⚠️ 接管另一个实例未处理的Webhook事件: {}个", claimed);
+        }
+
+        // 刚落盘的文件可能正在提交给工作线程，跳过
+        long youngest = now - config.getRescanMinAgeMs();
+        for (Path file : spool.pending()) {
+            if (WebhookSpool.receivedAt(file) > youngest || inFlight.contains(file)) {
+                continue;
+            }
+            JsonNode json;
+            try {
+                json = objectMapper.readTree(spool.read(file));
+            } catch (IOException e) {
+                EventLog.error("square.webhook").with("result", "unreadable_spool").with("file", file).cause(e).log();
+                spool.moveToFailed(file);
+                continue;
+            }
+            submit(file, json, pipelineMetrics.start());
+        }
+    }
+
+    private void submit(Path file, JsonNode json, long receivedAt) {
+        String partitionKey = partitionKey(json, file);
+        if (waitsForRetry(partitionKey, file) || !inFlight.add(file)) {
+            return;
+        }
+        boolean accepted = executor.submit(partitionKey, () -> process(file, json, receivedAt));
+        if (!accepted) {
+            // 文件仍在，由定时扫描重新提交
+            inFlight.remove(file);
+        }
+    }
+
+    /**
+     * 同一分区有更早收到的文件等待重试时，当前文件先不提交（保留在落盘目录，由定时扫描重新提交）
+     */
+    private boolean waitsForRetry(String partitionKey, Path file) {
+        Path earlier = retrying.get(partitionKey);
+        if (earlier == null || earlier.equals(file)) {
+            return false;
+        }
+        if (!Files.exists(earlier)) {
+            // 已被另一个实例接管或已删除
+            retrying.remove(partitionKey, earlier);
+            return false;
+        }
+        if (earlier.getFileName().toString().compareTo(file.getFileName().toString()) > 0) {
+            return false;
+        }
+        log.debug("同一支付有更早的事件等待重试，暂不处理 | 文件: {} | 等待: {}", file.getFileName(), earlier.getFileName());
+        return true;
+    }
+
+    /**
+     * 文件保留等待重试，同一分区之后收到的文件等它处理完成
+     */
+    private void retryLater(Path file, JsonNode json) {
+        if (file != null) {
+            retrying.merge(partitionKey(json, file), file,
+                (current, next) -> current.getFileName().toString().compareTo(next.getFileName().toString()) <= 0 ? current : next);
+        }
+    }
+
+    /**
+     * 分区Key：Square 支付ID，没有时使用事件ID
+     */
+    private static String partitionKey(JsonNode json, Path file) {
+        String paymentId = json.path("data").path("object").path("payment").path("id").asText(null);
+        if (paymentId != null && !paymentId.isEmpty()) {
+            return paymentId;
+        }
+        String eventId = json.path("event_id").asText(null);
+        return eventId != null && !eventId.isEmpty() ? eventId : file.getFileName().toString();
+    }
+
+    /**
+     * 处理一个事件
+     *
+     * @param file 落盘文件（直接处理时为null）
+     */
+    private void process(Path file, JsonNode json, long receivedAt) {
+        TraceContext.begin(null, "webhook", null, receivedAt);
+        try {
+            String merchantId = json.path("merchant_id").asText();
+            String type = json.path("type").asText();
+            String eventId = json.path("event_id").asText();
+            String createdAt = json.path("created_at").asText();
+            JsonNode payment = json.path("data").path("object").path("payment");
+            TraceContext.identify(eventId, type, null);
+
+            // 🚫 幂等检查：Square 重发的同一事件只处理一次，在查询支付记录之前拒绝
+            ProcessedEventStore.Claim claim = processedEventStore.claim(ProcessedEventStore.SQUARE, eventId);
+            if (claim == ProcessedEventStore.Claim.DUPLICATE) {
+                pipelineMetrics.count(PipelineMetrics.DUPLICATE, PipelineMetrics.NO_LOT);
+                EventLog.info("square.webhook")
+                    .with("type", type)
+                    .with("event", eventId)
+                    .with("result", "duplicate")
+                    .log();
+                done(file);
+                return;
+            }
+            if (claim == ProcessedEventStore.Claim.IN_PROGRESS) {
+                // 同一事件正在由其他线程或实例处理：保留文件，下次扫描时再判断（对方失败时由本实例处理）
+                EventLog.info("square.webhook")
+                    .with("type", type)
+                    .with("event", eventId)
+                    .with("result", "in_progress")
+                    .log();
+                retryLater(file, json);
+                return;
+            }
+
+            // 根据事件类型处理并保存到数据库
+            PaymentOrder savedOrder = null;
+            try {
+                switch (type) {
+                    case "payment.created":
+                        savedOrder = webhookService.handlePaymentCreated(json);
+                        break;
+
+                    case "payment.updated":
+                        savedOrder = webhookService.handlePaymentUpdated(json);
+                        break;
+
+                    default:
+                        log.warn("⚠️ 未处理的事件类型: {}", type);
+                }
+            } catch (Exception e) {
+                // 处理失败，允许重试或 Square 重发的同一事件再次处理
+                processedEventStore.release(ProcessedEventStore.SQUARE, eventId);
+                pipelineMetrics.failure(PipelineMetrics.WEBHOOK, PipelineMetrics.NO_LOT);
+                failed(file, json, type, eventId, e);
+                return;
+            }
+
+            EventLog.info("square.webhook")
+                .with("type", type)
+                .with("event", eventId)
+                .with("merchant", merchantId)
+                .with("createdAt", createdAt)
+                .with("payment", payment.path("id").asText(null))
+                .with("status", payment.path("status").asText(null))
+                .with("amount", payment.path("amount_money").path("amount").asText(null))
+                .with("source", payment.path("source_type").asText(null))
+                .with("order", savedOrder != null ? savedOrder.getId() : null)
+                .with("ms", (System.nanoTime() - receivedAt) / 1_000_000)
+                .log();
+
+            processedEventStore.complete(ProcessedEventStore.SQUARE, eventId);
+            pipelineMetrics.stop(PipelineMetrics.WEBHOOK, PipelineMetrics.NO_LOT, receivedAt);
+            done(file);
+        } finally {
+            if (file != null) {
+                inFlight.remove(file);
+            }
+            traceRecorder.finish();
+        }
+    }
+
+    private void done(Path file) {
+        if (file != null) {
+            spool.delete(file);
+            failures.remove(file);
+            retrying.values().remove(file);
+        }
+    }
+
+    /**
+     * 处理失败：保留文件等待重试，超过最大次数移动到 failed 目录
+     */
+    private void failed(Path file, JsonNode json, String type, String eventId, Exception e) {
+        EventLog.Event event = EventLog.error("square.webhook")
+            .with("type", type)
+            .with("event", eventId)
+            .with("error", e.getMessage());
+        if (file == null) {
+            event.with("result", "failed").cause(e).log();
+            return;
+        }
+        int attempts = failures.merge(file, 1, Integer::sum);
+        if (attempts >= parkingProperties.getWebhookIngest().getMaxAttempts()) {
+            failures.remove(file);
+            retrying.values().remove(file);
+            spool.moveToFailed(file);
+            event.with("result", "gave_up").with("attempts", attempts).with("file", file.getFileName()).cause(e).log();
+        } else {
+            retryLater(file, json);
+            event.with("result", "retry").with("attempts", attempts).cause(e).log();
+        }
+    }
+
+    /**
+     * 获取接入队列统计（用于监控）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", spool != null);
+        if (spool == null) {
+            return stats;
+        }
+        stats.put("directory", spool.getDirectory().toString());
+        stats.put("pendingFiles", spool.pending().size());
+        stats.put("inFlight", inFlight.size());
+        stats.put("retrying", failures.size());
+        stats.put("heldPartitions", retrying.size());
+        stats.put("queued", executor.getQueuedTaskCount());
+        stats.put("completed", executor.getCompletedCount());
+        stats.put("dropped", executor.getDroppedCount());
+        stats.put("avgQueueWaitMs", executor.getAverageQueueWaitMillis());
+        stats.put("maxQueueWaitMs", executor.getMaxQueueWaitMillis());
+        return stats;
+    }
+
+    /**
+     * 先在 shutdownTimeoutMs 内尽量处理完队列，再标记本实例已关闭，另一个实例下次扫描时立即接管剩下的文件
+     * 队列处理完之前不标记：否则对方会接管正在处理的文件；超时后仍在处理的事件是 processing 状态，
+     * 对方判断为 IN_PROGRESS 并保留文件，不会当作重复删除
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            log.info("--- 正在关闭Webhook接入队列...");
+            executor.shutdown(parkingProperties.getWebhookIngest().getShutdownTimeoutMs());
+        }
+        if (spool != null) {
+            spool.markStopped();
+        }
+    }
+}
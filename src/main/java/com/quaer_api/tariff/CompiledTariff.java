@@ -0,0 +1,123 @@
+package com.quaer_api.tariff;
+
+/**
+ * 编译后的收费规则（不可变、线程安全、计费过程不分配对象）
+ *
+ * 计费模型：
+ * - 停车时长按计费单位(unitMinutes)向上取整，每个单位的价格由该单位开始时刻所在的时段和星期决定
+ * - 停车时长不超过免费时长(graceMinutes)时不收费，超过后按完整时长收费
+ * - 每个自然日的费用不超过日封顶(dailyCapCents)，整次停车的费用不超过总封顶(maxChargeCents)
+ *
+ * 编译结果：每种日期类型一个长度为1440的"步长前缀和"数组
+ *   stride[m] = rate[m] + stride[m - unitMinutes]
+ * 同一天内从分钟a开始、每隔unitMinutes一个单位、到分钟b为止的所有单位价格之和 = stride[b] - stride[a - unitMinutes]，
+ * 所以计费耗时只与跨越的天数有关，与停车分钟数无关
+ */
+public final class CompiledTariff {
+
+    static final int MINUTES_PER_DAY = 1440;
+
+    private final String name;
+    private final int unitMinutes;
+    private final long unitSeconds;
+    private final long graceSeconds;
+    private final long dailyCapCents;
+    private final long maxChargeCents;
+
+    /**
+     * 星期一(0) ~ 星期日(6) 对应的步长前缀和数组（工作日共用同一个数组，周末共用同一个数组）
+     */
+    private final long[][] strideByDayOfWeek;
+
+    CompiledTariff(String name, int unitMinutes, int graceMinutes, long dailyCapCents, long maxChargeCents,
+                   long[][] strideByDayOfWeek) {
+        this.name = name;
+        this.unitMinutes = unitMinutes;
+        this.unitSeconds = unitMinutes * 60L;
+        this.graceSeconds = graceMinutes * 60L;
+        this.dailyCapCents = dailyCapCents;
+        this.maxChargeCents = maxChargeCents;
+        this.strideByDayOfWeek = strideByDayOfWeek;
+    }
+
+    /**
+     * 计算停车费用
+     *
+     * @param entryEpochSecond 入场时间（本地时间按UTC换算的秒数，即 LocalDateTime.toEpochSecond(ZoneOffset.UTC)）
+     * @param exitEpochSecond 出场时间（同上）
+     * @return 费用（分）
+     */
+    public int priceCents(long entryEpochSecond, long exitEpochSecond) {
+        long durationSeconds = exitEpochSecond - entryEpochSecond;
+        if (durationSeconds < 0) {
+            return 0;
+        }
+        if (graceSeconds > 0 && durationSeconds <= graceSeconds) {
+            return 0;
+        }
+        // 不足一个单位按一个单位计算，且至少一个单位
+        long units = Math.max(1, (durationSeconds + unitSeconds - 1) / unitSeconds);
+
+        // 单位起点按入场时间的整分钟对齐
+        long startMinute = Math.floorDiv(entryEpochSecond, 60L);
+        long day = Math.floorDiv(startMinute, MINUTES_PER_DAY);
+        int minuteOfDay = (int) (startMinute - day * MINUTES_PER_DAY);
+
+        long total = 0;
+        long remaining = units;
+        while (remaining > 0) {
+            // 当天还能开始的单位数：minuteOfDay, minuteOfDay + unit, ... < 1440
+            long unitsToday = (MINUTES_PER_DAY - 1 - minuteOfDay) / unitMinutes + 1;
+            long count = Math.min(unitsToday, remaining);
+            int lastMinute = (int) (minuteOfDay + (count - 1) * unitMinutes);
+
+            long[] stride = strideByDayOfWeek[(int) Math.floorMod(day + 3, 7L)];
+            long dayTotal = stride[lastMinute] - (minuteOfDay >= unitMinutes ? stride[minuteOfDay - unitMinutes] : 0);
+            if (dailyCapCents > 0 && dayTotal > dailyCapCents) {
+                dayTotal = dailyCapCents;
+            }
+            total += dayTotal;
+            if (maxChargeCents > 0 && total >= maxChargeCents) {
+                return (int) maxChargeCents;
+            }
+
+            remaining -= count;
+            // 下一个单位的开始时刻落在后面某一天
+            long nextMinute = minuteOfDay + count * unitMinutes;
+            day += nextMinute / MINUTES_PER_DAY;
+            minuteOfDay = (int) (nextMinute % MINUTES_PER_DAY);
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 计费单位数（与 priceCents 使用相同的取整规则，免费时长内返回0）
+     */
+    public long billableUnits(long entryEpochSecond, long exitEpochSecond) {
+        long durationSeconds = exitEpochSecond - entryEpochSecond;
+        if (durationSeconds < 0 || (graceSeconds > 0 && durationSeconds <= graceSeconds)) {
+            return 0;
+        }
+        return Math.max(1, (durationSeconds + unitSeconds - 1) / unitSeconds);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getUnitMinutes() {
+        return unitMinutes;
+    }
+
+    public long getGraceMinutes() {
+        return graceSeconds / 60;
+    }
+
+    public long getDailyCapCents() {
+        return dailyCapCents;
+    }
+
+    public long getMaxChargeCents() {
+        return maxChargeCents;
+    }
+}
@@ -0,0 +1,113 @@
+package com.quaer_api.tariff;
+
+import com.quaer_api.config.TariffProperties;
+
+import java.util.List;
+
+/**
+ * 收费规则编译器
+ * 把配置（YAML或数据库中的JSON）校验并编译成 {@link CompiledTariff}
+ */
+public final class TariffCompiler {
+
+    private static final int MINUTES_PER_DAY = CompiledTariff.MINUTES_PER_DAY;
+
+    private TariffCompiler() {
+    }
+
+    /**
+     * 编译收费方案
+     *
+     * @param name 方案名称
+     * @param plan 方案配置
+     * @return 编译后的收费规则
+     * @throws IllegalArgumentException 配置不合法
+     */
+    public static CompiledTariff compile(String name, TariffProperties.PlanConfig plan) {
+        if (plan == null) {
+            throw new IllegalArgumentException("收费方案[" + name + "]为空");
+        }
+        int unit = plan.getUnitMinutes();
+        if (unit < 1 || unit > MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("收费方案[" + name + "]的计费单位必须在1~1440分钟之间: " + unit);
+        }
+        if (plan.getGraceMinutes() < 0 || plan.getDailyCapCents() < 0 || plan.getMaxChargeCents() < 0) {
+            throw new IllegalArgumentException("收费方案[" + name + "]的免费时长/封顶费用不能为负数");
+        }
+        if (plan.getWeekday() == null || plan.getWeekday().isEmpty()) {
+            throw new IllegalArgumentException("收费方案[" + name + "]没有配置工作日价格(weekday)");
+        }
+
+        long[] weekdayStride = strideSums(name, "weekday", plan.getWeekday(), unit);
+        long[] weekendStride = plan.getWeekend() == null || plan.getWeekend().isEmpty()
+            ? weekdayStride
+            : strideSums(name, "weekend", plan.getWeekend(), unit);
+
+        // 星期一(0) ~ 星期日(6)
+        long[][] byDayOfWeek = new long[7][];
+        for (int dow = 0; dow < 7; dow++) {
+            byDayOfWeek[dow] = dow >= 5 ? weekendStride : weekdayStride;
+        }
+
+        return new CompiledTariff(name, unit, plan.getGraceMinutes(),
+            plan.getDailyCapCents(), plan.getMaxChargeCents(), byDayOfWeek);
+    }
+
+    /**
+     * 把分时段价格展开成每分钟的单位价格，再计算步长前缀和
+     * 时段重叠时后配置的时段覆盖先配置的，没有覆盖到的时间免费
+     */
+    private static long[] strideSums(String name, String dayType, List<TariffProperties.BandConfig> bands, int unit) {
+        long[] rate = new long[MINUTES_PER_DAY];
+        for (TariffProperties.BandConfig band : bands) {
+            int from = parseMinuteOfDay(name, band.getFrom());
+            int to = parseMinuteOfDay(name, band.getTo());
+            if (band.getCentsPerUnit() < 0) {
+                throw new IllegalArgumentException("收费方案[" + name + "]的" + dayType + "价格不能为负数");
+            }
+            if (from == to) {
+                continue;
+            }
+            if (from < to) {
+                fill(rate, from, to, band.getCentsPerUnit());
+            } else {
+                // 跨午夜的时段，例如 22:00 ~ 06:00
+                fill(rate, from, MINUTES_PER_DAY, band.getCentsPerUnit());
+                fill(rate, 0, to, band.getCentsPerUnit());
+            }
+        }
+
+        long[] stride = new long[MINUTES_PER_DAY];
+        for (int m = 0; m < MINUTES_PER_DAY; m++) {
+            stride[m] = rate[m] + (m >= unit ? stride[m - unit] : 0);
+        }
+        return stride;
+    }
+
+    private static void fill(long[] rate, int from, int to, long cents) {
+        for (int m = from; m < to; m++) {
+            rate[m] = cents;
+        }
+    }
+
+    /**
+     * 解析 HH:mm 为当天的分钟数（0~1440）
+     */
+    private static int parseMinuteOfDay(String name, String time) {
+        if (time == null) {
+            throw new IllegalArgumentException("收费方案[" + name + "]的时段时间为空");
+        }
+        String[] parts = time.trim().split(":");
+        try {
+            int hour = Integer.parseInt(parts[0]);
+            int minute = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            int minuteOfDay = hour * 60 + minute;
+            if (hour < 0 || minute < 0 || minute >= 60 || minuteOfDay > MINUTES_PER_DAY) {
+                throw new IllegalArgumentException("收费方案[" + name + "]的时段时间不合法: " + time);
+            }
+            return minuteOfDay;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("收费方案[" + name + "]的时段时间不合法: " + time);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.quaer_api.util;
+
+/**
+ * 布隆过滤器（按64位哈希值操作，调用方负责计算哈希）
+ *
+ * mightContain 返回 false 时一定不存在；返回 true 时可能存在（误判率由构造参数决定）
+ * 第 i 个位置 = h1 + i * h2（h1、h2 取哈希值的低/高32位），只需要计算一次哈希
+ * 非线程安全，由调用方加锁
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private int size;
+
+    /**
+     * @param expectedInsertions 预计写入数量
+     * @param falsePositiveRate 期望误判率（如 0.01）
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        int n = Math.max(expectedInsertions, 1);
+        double p = Math.min(Math.max(falsePositiveRate, 1e-9), 0.5);
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) & ~63L);
+        this.bits = new long[(int) (m >>> 6)];
+        this.bitCount = m;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    public boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1 + i * h2);
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+        size++;
+    }
+
+    /**
+     * 写入次数（重复写入也计数），用于判断是否达到预计容量
+     */
+    public int size() {
+        return size;
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    private long index(int combined) {
+        return (combined & 0xFFFFFFFFL) % bitCount;
+    }
+}
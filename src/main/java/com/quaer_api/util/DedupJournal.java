@@ -0,0 +1,287 @@
+package com.quaer_api.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 去重状态日志（内存映射文件，环形写入）
+ *
+ * 8086 / 8087 热切换时，新启动的实例读取本机所有实例的日志文件恢复去重窗口，
+ * 避免摄像头在3分钟内重发的消息被当作新消息（重复入场记录、重复开闸）
+ *
+ * 文件：{目录}/dedup-{端口}.journal，每个实例只写自己的文件，读取所有文件
+ *   头部(32字节)：magic(4) version(4) capacity(4) 保留(4) 已写入记录数(8) 保留(8)
+ *   记录(32字节)：key(8) 消息时间戳秒(8) 写入时间毫秒(8) 校验(8)
+ *
+ * - 每次写入只修改映射内存中的一条记录（没有系统调用），写满后从头覆盖最老的记录
+ * - 进程退出后数据仍在系统页缓存中，另一个实例可以立即读到（不需要 fsync）
+ * - 读取时逐条校验，正在被覆盖的记录校验失败直接跳过
+ * - 另一个实例仍在运行时（两个实例共享订阅）按已写入记录数增量读取它的新记录
+ */
+@Slf4j
+public class DedupJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x44445550;  // "DDUP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final long CHECK_SALT = 0x5DEECE66DL;
+
+    private static final String PREFIX = "dedup-";
+    private static final String SUFFIX = ".journal";
+
+    /**
+     * 读取到的一条记录
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long key, long messageSeconds, long writtenAtMillis);
+    }
+
+    private final Path directory;
+    private final Path ownFile;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private long sequence;
+
+    /**
+     * 其他实例的日志文件（保持映射，增量读取）
+     */
+    private final Map<Path, Peer> peers = new HashMap<>();
+
+    private DedupJournal(Path directory, Path ownFile, int capacity, FileChannel channel,
+                         MappedByteBuffer buffer, long sequence) {
+        this.directory = directory;
+        this.ownFile = ownFile;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.sequence = sequence;
+    }
+
+    /**
+     * 打开（或创建）本实例的日志文件；容量不一致时重新创建
+     *
+     * @param directory 日志目录
+     * @param instanceId 实例标识（端口号）
+     * @param capacity 记录数
+     */
+    public static DedupJournal open(Path directory, String instanceId, int capacity) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(PREFIX + instanceId + SUFFIX);
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+
+        FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean reuse = channel.size() == size;
+        if (!reuse) {
+            channel.truncate(0);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        long sequence = 0;
+        if (reuse && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == capacity) {
+            sequence = buffer.getLong(SEQUENCE_OFFSET);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putLong(SEQUENCE_OFFSET, 0);
+        }
+        return new DedupJournal(directory, file, capacity, channel, buffer, sequence);
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public synchronized void append(long key, long messageSeconds, long writtenAtMillis) {
+        int offset = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+        buffer.putLong(offset, key);
+        buffer.putLong(offset + 8, messageSeconds);
+        buffer.putLong(offset + 16, writtenAtMillis);
+        buffer.putLong(offset + 24, check(key, messageSeconds, writtenAtMillis));
+        sequence++;
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * 读取目录下所有日志文件（本实例 + 其他实例），用于启动时恢复
+     *
+     * @param notBeforeMillis 只读取该时间之后写入的记录
+     * @return 读取的有效记录数
+     */
+    public int restore(long notBeforeMillis, RecordConsumer consumer) {
+        int count = readFile(buffer, sequence, 0, notBeforeMillis, consumer);
+        count += readPeers(notBeforeMillis, consumer);
+        return count;
+    }
+
+    /**
+     * 增量读取其他实例日志文件中的新记录
+     *
+     * @param notBeforeMillis 只读取该时间之后写入的记录
+     * @return 读取的有效记录数
+     */
+    public int readPeers(long notBeforeMillis, RecordConsumer consumer) {
+        synchronized (peers) {
+            int count = 0;
+            Set<Path> seen = new HashSet<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path file : files) {
+                    if (file.equals(ownFile)) {
+                        continue;
+                    }
+                    seen.add(file);
+                    count += readPeer(file, notBeforeMillis, consumer);
+                }
+            } catch (IOException e) {
+                log.warn("⚠️ 读取去重日志目录失败: {} | 错误: {}", directory, e.getMessage());
+            }
+            // 已删除的文件
+            peers.keySet().removeIf(file -> {
+                if (seen.contains(file)) {
+                    return false;
+                }
+                peers.get(file).close();
+                return true;
+            });
+            return count;
+        }
+    }
+
+    private int readPeer(Path file, long notBeforeMillis, RecordConsumer consumer) {
+        try {
+            Peer peer = peers.get(file);
+            long size = Files.size(file);
+            if (peer == null || peer.size != size) {
+                if (peer != null) {
+                    peer.close();
+                    peers.remove(file);
+                }
+                peer = Peer.open(file, size);
+                if (peer == null) {
+                    return 0;
+                }
+                peers.put(file, peer);
+            }
+
+            long peerSequence = peer.buffer.getLong(SEQUENCE_OFFSET);
+            long from = peer.position;
+            if (from > peerSequence) {
+                // 对方重建了日志文件
+                from = 0;
+            }
+            peer.position = peerSequence;
+            return readFile(peer.buffer, peerSequence, from, notBeforeMillis, consumer);
+        } catch (IOException e) {
+            log.warn("⚠️ 读取去重日志失败: {} | 错误: {}", file, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 按写入顺序读取 [from, sequence) 范围内仍未被覆盖的记录
+     */
+    private static int readFile(MappedByteBuffer source, long sequence, long from, long notBeforeMillis,
+                                RecordConsumer consumer) {
+        int fileCapacity = source.getInt(8);
+        long start = Math.max(from, sequence - fileCapacity);
+        int count = 0;
+        for (long seq = start; seq < sequence; seq++) {
+            int offset = HEADER_SIZE + (int) (seq % fileCapacity) * RECORD_SIZE;
+            long key = source.getLong(offset);
+            long messageSeconds = source.getLong(offset + 8);
+            long writtenAtMillis = source.getLong(offset + 16);
+            if (source.getLong(offset + 24) != check(key, messageSeconds, writtenAtMillis)
+                || writtenAtMillis < notBeforeMillis) {
+                continue;
+            }
+            consumer.accept(key, messageSeconds, writtenAtMillis);
+            count++;
+        }
+        return count;
+    }
+
+    private static long check(long key, long messageSeconds, long writtenAtMillis) {
+        return (key * 31 + messageSeconds) * 31 + writtenAtMillis ^ CHECK_SALT;
+    }
+
+    public Path getFile() {
+        return ownFile;
+    }
+
+    @Override
+    public void close() {
+        synchronized (peers) {
+            peers.values().forEach(Peer::close);
+            peers.clear();
+        }
+        synchronized (this) {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                log.warn("⚠️ 关闭去重日志失败: {} | 错误: {}", ownFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 其他实例的日志文件（只读映射）
+     */
+    private static final class Peer {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final long size;
+
+        /**
+         * 已读取到的记录数
+         */
+        private long position;
+
+        private Peer(FileChannel channel, MappedByteBuffer buffer, long size) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        /**
+         * @return 不是有效的日志文件（如对方正在创建）时返回null
+         */
+        private static Peer open(Path file, long size) throws IOException {
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || size != HEADER_SIZE + (long) buffer.getInt(8) * RECORD_SIZE) {
+                channel.close();
+                return null;
+            }
+            return new Peer(channel, buffer, size);
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 只读文件，关闭失败不影响
+            }
+        }
+    }
+}
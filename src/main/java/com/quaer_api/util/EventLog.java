@@ -0,0 +1,187 @@
+package com.quaer_api.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 结构化事件日志（每个事件一行 key=value，写入 "event" 日志器）
+ *
+ * 用法：
+ *   EventLog.info("vehicle.exit").with("lot", lot).with("plate", plate).with("ms", ms).log();
+ *   EventLog.warn("mqtt.decode").with("topic", topic).with("error", e.getMessage()).log();
+ *
+ * - INFO 事件按分类采样（parking.event-log.sample-rates），未采中的事件不拼接字符串、不分配对象
+ * - WARN / ERROR 事件不采样，全部输出
+ * - 诊断模式（verbose）下不采样，所有事件全部输出
+ */
+public final class EventLog {
+
+    private static final Logger log = LoggerFactory.getLogger("event");
+
+    /**
+     * 采样率（分类 → 0~1），未配置的分类使用默认采样率
+     */
+    private static volatile Map<String, Double> sampleRates = Map.of();
+
+    private static volatile double defaultSampleRate = 1.0;
+
+    /**
+     * 诊断模式：不采样
+     */
+    private static volatile boolean verbose = false;
+
+    /**
+     * 统计：分类 → {已输出, 被采样丢弃}
+     */
+    private static final ConcurrentHashMap<String, LongAdder[]> COUNTERS = new ConcurrentHashMap<>();
+
+    private static final Event DROPPED = new Event(null, null);
+
+    private EventLog() {
+    }
+
+    /**
+     * 更新采样配置
+     */
+    public static void configure(double defaultRate, Map<String, Double> rates) {
+        defaultSampleRate = defaultRate;
+        sampleRates = rates != null ? Map.copyOf(rates) : Map.of();
+    }
+
+    public static void setVerbose(boolean enabled) {
+        verbose = enabled;
+    }
+
+    public static boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * INFO 事件（按分类采样）
+     */
+    public static Event info(String category) {
+        if (!log.isInfoEnabled()) {
+            return DROPPED;
+        }
+        LongAdder[] counters = counters(category);
+        if (!verbose) {
+            double rate = sampleRates.getOrDefault(category, defaultSampleRate);
+            if (rate < 1.0 && (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate)) {
+                counters[1].increment();
+                return DROPPED;
+            }
+        }
+        counters[0].increment();
+        return new Event(category, Level.INFO);
+    }
+
+    /**
+     * WARN 事件（不采样）
+     */
+    public static Event warn(String category) {
+        counters(category)[0].increment();
+        return new Event(category, Level.WARN);
+    }
+
+    /**
+     * ERROR 事件（不采样）
+     */
+    public static Event error(String category) {
+        counters(category)[0].increment();
+        return new Event(category, Level.ERROR);
+    }
+
+    /**
+     * 各分类的输出/丢弃数量
+     */
+    public static Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        COUNTERS.forEach((category, counters) ->
+            stats.put(category, Map.of("logged", counters[0].sum(), "sampledOut", counters[1].sum())));
+        return stats;
+    }
+
+    private static LongAdder[] counters(String category) {
+        return COUNTERS.computeIfAbsent(category, key -> new LongAdder[]{new LongAdder(), new LongAdder()});
+    }
+
+    private enum Level {
+        INFO, WARN, ERROR
+    }
+
+    /**
+     * 一个事件（一行日志）
+     */
+    public static final class Event {
+
+        private final Level level;
+        private final StringBuilder line;
+        private Throwable error;
+
+        private Event(String category, Level level) {
+            this.level = level;
+            this.line = category != null ? new StringBuilder(96).append(category) : null;
+        }
+
+        /**
+         * 追加 key=value（值为null时跳过；包含空白或等号的值加引号，换行替换为空格，保证一个事件只占一行）
+         */
+        public Event with(String key, Object value) {
+            if (line == null || value == null) {
+                return this;
+            }
+            String text = value.toString();
+            line.append(' ').append(key).append('=');
+            if (needsQuotes(text)) {
+                line.append('"');
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    line.append(c == '"' ? '\'' : c == '\n' || c == '\r' || c == '\t' ? ' ' : c);
+                }
+                line.append('"');
+            } else {
+                line.append(text);
+            }
+            return this;
+        }
+
+        private static boolean needsQuotes(String text) {
+            if (text.isEmpty()) {
+                return true;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '=' || c == '"' || c == '\n' || c == '\r' || c == '\t') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 附带异常堆栈
+         */
+        public Event cause(Throwable throwable) {
+            this.error = throwable;
+            return this;
+        }
+
+        public void log() {
+            if (line == null) {
+                return;
+            }
+            String message = line.toString();
+            switch (level) {
+                case INFO -> log.info(message, error);
+                case WARN -> log.warn(message, error);
+                case ERROR -> log.error(message, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.quaer_api.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 游标分页（keyset）的游标
+ * 内容为 排序时间|ID（只按ID排序时为 |ID），Base64(URL安全)编码后返回给前端，前端只需原样传回
+ */
+public final class KeysetCursor {
+
+    private final String time;
+    private final long id;
+
+    private KeysetCursor(String time, long id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    /**
+     * 编码游标
+     *
+     * @param time 最后一条记录的排序时间（LocalDateTime 或 OffsetDateTime）
+     * @param id 最后一条记录的ID
+     */
+    public static String encode(Object time, Long id) {
+        String raw = time + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编码只按ID排序的游标
+     *
+     * @param id 最后一条记录的ID
+     */
+    public static String encode(Long id) {
+        return encode("", id);
+    }
+
+    /**
+     * 解码游标
+     *
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static KeysetCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("游标格式错误");
+            }
+            return new KeysetCursor(raw.substring(0, separator), Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("游标格式错误", e);
+        }
+    }
+
+    public LocalDateTime getLocalDateTime() {
+        try {
+            return LocalDateTime.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("游标格式错误", e);
+        }
+    }
+
+    public OffsetDateTime getOffsetDateTime() {
+        try {
+            return OffsetDateTime.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("游标格式错误", e);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+}
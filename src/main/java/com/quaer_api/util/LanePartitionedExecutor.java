@@ -0,0 +1,149 @@
+package com.quaer_api.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平台线程通道实现
+ * 按分区Key把任务路由到固定的工作通道（lane），每个通道一个工作线程 + 一个有界队列
+ */
+@Slf4j
+public class LanePartitionedExecutor extends PartitionedExecutor {
+
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    private final Lane[] lanes;
+
+    /**
+     * @param name 执行器名称（用于线程名和日志）
+     * @param laneCount 通道数量（即工作线程数）
+     * @param queueCapacity 每个通道的队列容量
+     * @param policy 队列满时的背压策略
+     * @param offerTimeoutMillis BLOCK策略下每次等待的时间（毫秒），每次等待超时记录一次告警
+     */
+    public LanePartitionedExecutor(String name, int laneCount, int queueCapacity,
+                                   BackpressurePolicy policy, long offerTimeoutMillis) {
+        super(name, policy, offerTimeoutMillis);
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount必须大于0: " + laneCount);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity必须大于0: " + queueCapacity);
+        }
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, queueCapacity);
+            lanes[i].thread.start();
+        }
+        log.info("分区执行器已启动 | 名称: {} | 模式: 平台线程 | 通道数: {} | 每通道队列容量: {} | 背压策略: {}",
+            name, laneCount, queueCapacity, getPolicy());
+    }
+
+    @Override
+    protected boolean tryEnqueue(Object partitionKey, Task task) {
+        return laneFor(partitionKey).queue.offer(task);
+    }
+
+    @Override
+    protected boolean tryEnqueue(Object partitionKey, Task task, long timeoutMillis) throws InterruptedException {
+        return laneFor(partitionKey).queue.offer(task, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Lane lane : lanes) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                lane.thread.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int left = getQueuedTaskCount();
+        if (left > 0) {
+            log.warn("⚠️ 执行器[{}]关闭时仍有{}个任务未执行", name, left);
+        } else {
+            log.info("执行器[{}]已关闭", name);
+        }
+    }
+
+    @Override
+    public int getQueuedTaskCount() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.queue.size();
+        }
+        return total;
+    }
+
+    @Override
+    public String getMode() {
+        return "platform";
+    }
+
+    /**
+     * 各通道当前队列深度
+     */
+    public int[] getLaneDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].queue.size();
+        }
+        return depths;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    private Lane laneFor(Object partitionKey) {
+        int hash = partitionKey == null ? 0 : partitionKey.hashCode();
+        // 打散hash的高位，避免相近的Key落到同一个通道
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    /**
+     * 单个工作通道：一个有界队列 + 一个工作线程
+     */
+    private final class Lane implements Runnable {
+        private final BlockingQueue<Task> queue;
+        private final Thread thread;
+
+        private Lane(int index, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, name + "-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    // 定时轮询而不是中断线程，避免关闭时打断正在执行的数据库/HTTP调用
+                    task = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                execute(task);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.quaer_api.util;
+
+import java.util.Arrays;
+
+/**
+ * long → long 哈希表（开放寻址、线性探测，不装箱、不为每个元素分配对象）
+ *
+ * 只支持 get / put / clear，不支持删除（按代整体丢弃，见 MqttMessageDeduplicator）
+ * 非线程安全，由调用方加锁
+ */
+public final class LongLongHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * 空槽位标记；key 为0时单独保存
+     */
+    private static final long EMPTY_KEY = 0L;
+
+    private long[] keys;
+    private long[] values;
+    private int shift;
+    private int size;
+    private int resizeAt;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    /**
+     * @param expectedSize 预计元素数量
+     */
+    public LongLongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * 查询
+     *
+     * @param missingValue key不存在时的返回值
+     */
+    public long get(long key, long missingValue) {
+        if (key == EMPTY_KEY) {
+            return hasZeroKey ? zeroValue : missingValue;
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long existing = keys[slot];
+            if (existing == key) {
+                return values[slot];
+            }
+            if (existing == EMPTY_KEY) {
+                return missingValue;
+            }
+        }
+    }
+
+    /**
+     * 写入（已存在时覆盖）
+     */
+    public void put(long key, long value) {
+        if (key == EMPTY_KEY) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long existing = keys[slot];
+            if (existing == key) {
+                values[slot] = value;
+                return;
+            }
+            if (existing == EMPTY_KEY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size >= resizeAt) {
+                    resize();
+                }
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 清空（保留当前容量）
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    /**
+     * Fibonacci 散列：取乘积的高位作为槽位
+     */
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        size = hasZeroKey ? 1 : 0;
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != EMPTY_KEY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+        // 负载因子 0.5，线性探测时探测长度短
+        resizeAt = capacity >>> 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity >>> 1 <= expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,252 @@
+package com.quaer_api.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分区有序执行器
+ * 同一分区Key的任务严格按提交顺序执行，不同Key的任务并行执行
+ * 具体的执行方式由子类决定：
+ * - {@link LanePartitionedExecutor}: 固定数量的平台线程通道
+ * - {@link VirtualThreadPartitionedExecutor}: 每个任务一个虚拟线程，同一Key的任务串联执行
+ */
+@Slf4j
+public abstract class PartitionedExecutor {
+
+    /**
+     * 队列满时的背压策略
+     */
+    public enum BackpressurePolicy {
+        /**
+         * 阻塞提交线程直到队列有空位（每等待 offerTimeoutMillis 记录一次告警）
+         * 阻塞会把压力传导回上游（如MQTT broker的QoS1流控），不丢消息，同一Key的顺序不变
+         * 等待期间执行器关闭或提交线程被中断时丢弃任务并计数
+         */
+        BLOCK,
+        /**
+         * 队列满时直接由提交线程执行
+         * 注意：此时该任务会越过同通道中排队的任务，同一Key的顺序无法保证
+         */
+        CALLER_RUNS,
+        /**
+         * 队列满时丢弃任务
+         */
+        DROP
+    }
+
+    protected final String name;
+    private final BackpressurePolicy policy;
+    private final long offerTimeoutMillis;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    protected volatile boolean running = true;
+
+    /**
+     * @param name 执行器名称（用于线程名和日志）
+     * @param policy 队列满时的背压策略
+     * @param offerTimeoutMillis BLOCK策略下每次等待的时间（毫秒），每次等待超时记录一次告警
+     */
+    protected PartitionedExecutor(String name, BackpressurePolicy policy, long offerTimeoutMillis) {
+        this.name = name;
+        this.policy = policy != null ? policy : BackpressurePolicy.BLOCK;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param partitionKey 分区Key（相同Key的任务按顺序执行）
+     * @param task 任务
+     * @return true=任务已被接受（入队或由提交线程执行），false=任务被丢弃
+     */
+    public boolean submit(Object partitionKey, Runnable task) {
+        submitted.increment();
+        Task wrapped = new Task(task, System.nanoTime());
+
+        if (!running) {
+            log.warn("⚠️ 执行器[{}]已关闭，由提交线程直接执行任务", name);
+            runInCaller(task);
+            return true;
+        }
+
+        if (tryEnqueue(partitionKey, wrapped)) {
+            return true;
+        }
+
+        switch (policy) {
+            case DROP:
+                dropped.increment();
+                log.warn("🚫 执行器[{}]队列已满，任务被丢弃 | 分区Key: {}", name, partitionKey);
+                return false;
+            case CALLER_RUNS:
+                log.warn("⚠️ 执行器[{}]队列已满，由提交线程执行 | 分区Key: {}", name, partitionKey);
+                runInCaller(task);
+                return true;
+            case BLOCK:
+            default:
+                // 不由提交线程执行：同一Key之前的任务仍在队列中，越过它们会打乱顺序（如出场先于入场处理）
+                long intervalMillis = offerTimeoutMillis > 0 ? offerTimeoutMillis : 1000;
+                long waitedMillis = 0;
+                try {
+                    while (running) {
+                        if (tryEnqueue(partitionKey, wrapped, intervalMillis)) {
+                            return true;
+                        }
+                        waitedMillis += intervalMillis;
+                        log.warn("⚠️ 执行器[{}]队列已等待{}毫秒仍已满，继续等待 | 分区Key: {}",
+                            name, waitedMillis, partitionKey);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                dropped.increment();
+                log.warn("🚫 执行器[{}]等待入队时{}，任务被丢弃 | 分区Key: {}",
+                    name, running ? "线程被中断" : "执行器已关闭", partitionKey);
+                return false;
+        }
+    }
+
+    /**
+     * 提交任务，队列满时立即返回，不应用背压策略（不等待、不丢弃、不由提交线程执行）
+     * 用于不能阻塞的线程（如Paho回调线程）：返回false时由调用方交给可以等待的线程调用 submit
+     *
+     * @return true=已入队，false=队列已满或执行器已关闭
+     */
+    public boolean offer(Object partitionKey, Runnable task) {
+        if (!running || !tryEnqueue(partitionKey, new Task(task, System.nanoTime()))) {
+            return false;
+        }
+        submitted.increment();
+        return true;
+    }
+
+    /**
+     * 尝试立即入队
+     *
+     * @return true=已入队，false=队列已满
+     */
+    protected abstract boolean tryEnqueue(Object partitionKey, Task task);
+
+    /**
+     * 尝试入队，队列满时最多等待指定时间
+     *
+     * @return true=已入队，false=等待超时队列仍已满
+     */
+    protected abstract boolean tryEnqueue(Object partitionKey, Task task, long timeoutMillis)
+        throws InterruptedException;
+
+    /**
+     * 停止接收新任务，并等待已入队的任务执行完成
+     *
+     * @param timeoutMillis 最长等待时间（毫秒）
+     */
+    public abstract void shutdown(long timeoutMillis);
+
+    /**
+     * 当前已入队但尚未执行完成的任务数
+     */
+    public abstract int getQueuedTaskCount();
+
+    /**
+     * 执行模式（platform / virtual）
+     */
+    public abstract String getMode();
+
+    public String getName() {
+        return name;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * 平均排队等待时间（毫秒）
+     */
+    public double getAverageQueueWaitMillis() {
+        long count = completed.sum() + failed.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    /**
+     * 最大排队等待时间（毫秒）
+     */
+    public double getMaxQueueWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * 在工作线程中执行已入队的任务，并记录排队等待时间
+     */
+    protected void execute(Task task) {
+        recordWait(System.nanoTime() - task.enqueuedAtNanos);
+        try {
+            task.delegate.run();
+            completed.increment();
+        } catch (Throwable t) {
+            failed.increment();
+            log.error("❌ 执行器[{}]任务执行失败 | 线程: {}", name, Thread.currentThread().getName(), t);
+        }
+    }
+
+    private void runInCaller(Runnable task) {
+        callerRuns.increment();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Throwable t) {
+            failed.increment();
+            log.error("❌ 执行器[{}]任务执行失败（提交线程）", name, t);
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        long currentMax;
+        do {
+            currentMax = maxWaitNanos.get();
+        } while (waitNanos > currentMax && !maxWaitNanos.compareAndSet(currentMax, waitNanos));
+    }
+
+    /**
+     * 排队中的任务（记录入队时间用于统计排队等待时长）
+     */
+    protected static final class Task {
+        private final Runnable delegate;
+        private final long enqueuedAtNanos;
+
+        private Task(Runnable delegate, long enqueuedAtNanos) {
+            this.delegate = delegate;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+}
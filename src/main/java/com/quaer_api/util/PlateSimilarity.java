@@ -0,0 +1,92 @@
+package com.quaer_api.util;
+
+/**
+ * 车牌相似度（考虑OCR易混淆字符的加权编辑距离）
+ *
+ * 普通的插入/删除/替换代价为1；易混淆字符之间的替换（如 O/0、I/1、B/8）代价较低，
+ * 用于出场车牌识别错误时匹配在场车辆
+ */
+public final class PlateSimilarity {
+
+    /**
+     * 易混淆字符组（同一组内的字符互相替换代价较低）
+     */
+    private static final String[] CONFUSION_GROUPS = {
+        "O0DQ",
+        "I1L",
+        "B8",
+        "S5",
+        "Z2",
+        "G6"
+    };
+
+    /**
+     * ASCII字符 → 易混淆组编号（0表示不属于任何组）
+     */
+    private static final byte[] GROUP = new byte[128];
+
+    static {
+        for (int i = 0; i < CONFUSION_GROUPS.length; i++) {
+            for (char c : CONFUSION_GROUPS[i].toCharArray()) {
+                GROUP[c] = (byte) (i + 1);
+            }
+        }
+    }
+
+    private PlateSimilarity() {
+    }
+
+    /**
+     * 两个字符是否属于同一易混淆组（不区分大小写）
+     */
+    public static boolean confusable(char a, char b) {
+        char ua = Character.toUpperCase(a);
+        char ub = Character.toUpperCase(b);
+        return ua < 128 && ub < 128 && GROUP[ua] != 0 && GROUP[ua] == GROUP[ub];
+    }
+
+    /**
+     * 加权编辑距离（不区分大小写）
+     * 距离超过 limit 时提前结束，返回 {@link Double#POSITIVE_INFINITY}
+     *
+     * @param a 车牌a（标准化后）
+     * @param b 车牌b（标准化后）
+     * @param confusionCost 易混淆字符替换代价（0~1）
+     * @param limit 最大距离
+     * @return 距离，超过limit时返回无穷大
+     */
+    public static double distance(String a, String b, double confusionCost, double limit) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > limit) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double[] prev = new double[m + 1];
+        double[] curr = new double[m + 1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            char ca = Character.toUpperCase(a.charAt(i - 1));
+            curr[0] = i;
+            double rowMin = curr[0];
+            for (int j = 1; j <= m; j++) {
+                char cb = Character.toUpperCase(b.charAt(j - 1));
+                double substitution = ca == cb ? 0 : confusable(ca, cb) ? confusionCost : 1;
+                double value = Math.min(prev[j - 1] + substitution, Math.min(prev[j], curr[j - 1]) + 1);
+                curr[j] = value;
+                if (value < rowMin) {
+                    rowMin = value;
+                }
+            }
+            if (rowMin > limit) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[m] > limit ? Double.POSITIVE_INFINITY : prev[m];
+    }
+}
@@ -0,0 +1,20 @@
+package com.quaer_api.util;
+
+/**
+ * 车牌号工具类
+ */
+public final class PlateUtils {
+
+    private PlateUtils() {
+    }
+
+    /**
+     * 标准化车牌号（去除连字符），与数据库查询中的 REPLACE(plate, '-', '') 保持一致
+     *
+     * @param plateNumber 原始车牌号
+     * @return 标准化的车牌号，原始值为null时返回null
+     */
+    public static String normalize(String plateNumber) {
+        return plateNumber == null ? null : plateNumber.replace("-", "");
+    }
+}
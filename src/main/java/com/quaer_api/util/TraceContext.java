@@ -0,0 +1,248 @@
+package com.quaer_api.util;
+
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 链路追踪上下文（当前线程）
+ *
+ * 每个摄像头事件 / 支付发起 / Square Webhook 对应一条链路：
+ * - 链路ID优先使用消息自带的ID（摄像头消息的 message_id、Webhook 的 event_id），没有时自动生成
+ * - 链路ID写入 MDC(traceId)，同一链路的所有日志都带上该ID
+ * - 各阶段耗时（PipelineMetrics 记录的阶段）自动作为 span 加入当前链路
+ * - mark("gate") 记录开闸指令发出的时间点（从收到消息到开闸的耗时是关键SLA）
+ *
+ * 当前线程没有链路时，所有方法都是空操作
+ */
+public final class TraceContext {
+
+    public static final String MDC_KEY = "traceId";
+
+    /**
+     * 开闸时间点
+     */
+    public static final String GATE = "gate";
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private TraceContext() {
+    }
+
+    /**
+     * 在当前线程开始一条链路
+     *
+     * @param traceId 链路ID（为空时自动生成）
+     * @param kind 链路类型（camera / payment / webhook）
+     * @param lot 停车场编号
+     * @param startNanos 开始时间（System.nanoTime()，可以早于调用时间，如消息进入队列的时间）
+     */
+    public static Trace begin(String traceId, String kind, String lot, long startNanos) {
+        Trace trace = new Trace(isBlank(traceId) ? newTraceId() : traceId, kind, lot, startNanos);
+        CURRENT.set(trace);
+        MDC.put(MDC_KEY, trace.traceId);
+        return trace;
+    }
+
+    /**
+     * 结束当前线程的链路
+     *
+     * @return 结束的链路，没有链路时返回null
+     */
+    public static Trace end() {
+        Trace trace = CURRENT.get();
+        CURRENT.remove();
+        MDC.remove(MDC_KEY);
+        if (trace != null) {
+            trace.totalNanos = System.nanoTime() - trace.startNanos;
+        }
+        return trace;
+    }
+
+    public static Trace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 当前链路ID，没有链路时返回null
+     */
+    public static String currentId() {
+        Trace trace = CURRENT.get();
+        return trace != null ? trace.traceId : null;
+    }
+
+    /**
+     * 解析出消息内容后补充链路信息（消息自带ID时替换自动生成的ID）
+     */
+    public static void identify(String traceId, String direction, String plate) {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        if (!isBlank(traceId)) {
+            trace.traceId = traceId;
+            MDC.put(MDC_KEY, traceId);
+        }
+        trace.direction = direction;
+        trace.plate = plate;
+    }
+
+    /**
+     * 补充停车场编号（开始链路时还不知道停车场的情况，如 Square Webhook）
+     */
+    public static void attachLot(String lot) {
+        Trace trace = CURRENT.get();
+        if (trace != null && trace.lot == null) {
+            trace.lot = lot;
+        }
+    }
+
+    /**
+     * 记录一个已结束的阶段（结束时间为当前时间）
+     */
+    public static void span(String name, long durationNanos) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.addSpan(name, System.nanoTime() - durationNanos - trace.startNanos, durationNanos);
+        }
+    }
+
+    /**
+     * 记录当前时间点（如开闸指令已发出）
+     */
+    public static void mark(String name) {
+        mark(name, System.nanoTime());
+    }
+
+    /**
+     * 记录指定时间点（System.nanoTime()，如其他线程发出开闸指令的时间）
+     */
+    public static void mark(String name, long atNanos) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.marks.put(name, atNanos - trace.startNanos);
+        }
+    }
+
+    private static String newTraceId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    /**
+     * 一条链路
+     */
+    public static final class Trace {
+
+        private String traceId;
+        private final String kind;
+        private String lot;
+        private String direction;
+        private String plate;
+        private final long startedAtMillis = System.currentTimeMillis();
+        private final long startNanos;
+        private long totalNanos = -1;
+        private final List<Span> spans = new ArrayList<>(8);
+        private final Map<String, Long> marks = new LinkedHashMap<>(2);
+
+        private Trace(String traceId, String kind, String lot, long startNanos) {
+            this.traceId = traceId;
+            this.kind = kind;
+            this.lot = lot;
+            this.startNanos = startNanos;
+        }
+
+        private void addSpan(String name, long offsetNanos, long durationNanos) {
+            spans.add(new Span(name, offsetNanos, durationNanos));
+        }
+
+        public String getTraceId() {
+            return traceId;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getLot() {
+            return lot;
+        }
+
+        public String getDirection() {
+            return direction;
+        }
+
+        public String getPlate() {
+            return plate;
+        }
+
+        public long getStartedAtMillis() {
+            return startedAtMillis;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public List<Span> getSpans() {
+            return Collections.unmodifiableList(spans);
+        }
+
+        /**
+         * 某个时间点相对链路开始的纳秒数，未记录时返回-1
+         */
+        public long getMarkNanos(String name) {
+            Long value = marks.get(name);
+            return value != null ? value : -1;
+        }
+
+        /**
+         * 转换为接口返回格式（毫秒）
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("traceId", traceId);
+            map.put("kind", kind);
+            map.put("lot", lot);
+            map.put("direction", direction);
+            map.put("plate", plate);
+            map.put("startedAt", startedAtMillis);
+            map.put("totalMs", millis(totalNanos));
+            Map<String, Object> markMillis = new LinkedHashMap<>();
+            marks.forEach((name, nanos) -> markMillis.put(name, millis(nanos)));
+            map.put("marksMs", markMillis);
+            List<Map<String, Object>> spanList = new ArrayList<>(spans.size());
+            for (Span span : spans) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("name", span.name());
+                item.put("offsetMs", millis(span.offsetNanos()));
+                item.put("durationMs", millis(span.durationNanos()));
+                spanList.add(item);
+            }
+            map.put("spans", spanList);
+            return map;
+        }
+
+        private static double millis(long nanos) {
+            return Math.round(nanos / 1_000.0) / 1_000.0;
+        }
+    }
+
+    /**
+     * 链路中的一个阶段
+     *
+     * @param name 阶段名称
+     * @param offsetNanos 相对链路开始的时间
+     * @param durationNanos 耗时
+     */
+    public record Span(String name, long offsetNanos, long durationNanos) {
+    }
+}
@@ -0,0 +1,126 @@
+package com.quaer_api.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 虚拟线程实现（需要Java 21）
+ * 每个任务在独立的虚拟线程上执行，同一分区Key的任务通过CompletableFuture串联，保证顺序
+ * 没有固定大小的线程池：并发上限只由 maxPending 决定，适合大部分时间在等待MySQL/Square/Broker的处理逻辑
+ */
+@Slf4j
+public class VirtualThreadPartitionedExecutor extends PartitionedExecutor {
+
+    private final int maxPending;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    /**
+     * 每个分区Key当前链尾的任务，任务执行完成且仍是链尾时移除，Map大小只与活跃Key数相关
+     */
+    private final Map<Object, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * @param name 执行器名称（用于线程名和日志）
+     * @param maxPending 最多同时存在的（排队中 + 执行中）任务数
+     * @param policy 达到上限时的背压策略
+     * @param offerTimeoutMillis BLOCK策略下每次等待的时间（毫秒），每次等待超时记录一次告警
+     */
+    public VirtualThreadPartitionedExecutor(String name, int maxPending,
+                                            BackpressurePolicy policy, long offerTimeoutMillis) {
+        super(name, policy, offerTimeoutMillis);
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending必须大于0: " + maxPending);
+        }
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-vt-", 0).factory());
+        log.info("分区执行器已启动 | 名称: {} | 模式: 虚拟线程 | 最大待处理任务数: {} | 背压策略: {}",
+            name, maxPending, getPolicy());
+    }
+
+    @Override
+    protected boolean tryEnqueue(Object partitionKey, Task task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        chain(partitionKey, task);
+        return true;
+    }
+
+    @Override
+    protected boolean tryEnqueue(Object partitionKey, Task task, long timeoutMillis) throws InterruptedException {
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        chain(partitionKey, task);
+        return true;
+    }
+
+    /**
+     * 把任务接到该Key的链尾：前一个任务完成（无论成功失败）后才在新的虚拟线程上执行
+     */
+    private void chain(Object partitionKey, Task task) {
+        Object key = partitionKey != null ? partitionKey : "";
+        CompletableFuture<Void> next = tails.compute(key, (k, tail) -> {
+            CompletableFuture<Void> previous = tail != null ? tail : CompletableFuture.completedFuture(null);
+            return previous.handleAsync((ignored, error) -> {
+                execute(task);
+                return null;
+            }, executor);
+        });
+        next.whenComplete((ignored, error) -> {
+            tails.remove(key, next);
+            permits.release();
+        });
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        boolean drained = false;
+        try {
+            drained = permits.tryAcquire(maxPending, timeoutMillis, TimeUnit.MILLISECONDS);
+            if (drained) {
+                permits.release(maxPending);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 不调用shutdownNow()，避免中断正在执行的数据库/HTTP调用
+        executor.shutdown();
+        if (drained) {
+            log.info("执行器[{}]已关闭", name);
+        } else {
+            log.warn("⚠️ 执行器[{}]关闭时仍有{}个任务未执行完成", name, getQueuedTaskCount());
+        }
+    }
+
+    @Override
+    public int getQueuedTaskCount() {
+        return maxPending - permits.availablePermits();
+    }
+
+    @Override
+    public String getMode() {
+        return "virtual";
+    }
+
+    /**
+     * 当前有待处理任务的分区Key数量
+     */
+    public int getActiveKeyCount() {
+        return tails.size();
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+}
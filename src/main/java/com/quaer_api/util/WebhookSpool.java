@@ -0,0 +1,271 @@
+package com.quaer_api.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Webhook 落盘队列（每个事件一个文件）
+ *
+ * 目录结构：{根目录}/{实例标识}/ 待处理事件，{根目录}/{实例标识}/tmp/ 写入中，{根目录}/failed/ 多次失败的事件
+ *   文件名：{接收时间毫秒(13位)}-{序号}-{event_id}.json，按文件名排序即接收顺序
+ *
+ * - 写入：先写 tmp 文件并 fsync，再原子重命名到待处理目录，崩溃时不会留下不完整的待处理文件
+ * - 处理成功后删除文件；进程重启后重新扫描未删除的文件
+ * - 验签通过但无法解析的请求体直接写入 failed 目录保留原文，等待人工处理
+ * - claim：把另一个实例（8086 / 8087）长时间未处理的文件原子移动到本实例目录，只有一个实例能成功
+ * - 心跳：每个实例定时更新自己目录下 .heartbeat 文件的修改时间，正常关闭时改为0；
+ *   对方心跳超时或已关闭时立即接管它的全部文件（热切换时旧实例被 kill，已返回200的事件不用等很久才处理）
+ */
+@Slf4j
+public class WebhookSpool {
+
+    private static final String SUFFIX = ".json";
+    private static final String TMP = "tmp";
+    private static final String FAILED = "failed";
+    private static final String HEARTBEAT = ".heartbeat";
+
+    private final Path root;
+    private final Path directory;
+    private final Path tmpDirectory;
+    private final Path failedDirectory;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param root 根目录（8086 / 8087 使用同一个根目录）
+     * @param instanceId 实例标识（端口号）
+     */
+    public WebhookSpool(Path root, String instanceId) throws IOException {
+        this.root = root;
+        this.directory = root.resolve(instanceId);
+        this.tmpDirectory = directory.resolve(TMP);
+        this.failedDirectory = root.resolve(FAILED);
+        Files.createDirectories(tmpDirectory);
+        Files.createDirectories(failedDirectory);
+    }
+
+    /**
+     * 写入一个事件（返回时数据已落盘）
+     *
+     * @param eventId 事件ID（只用于文件名，便于人工查找）
+     * @param payload 原始请求体
+     * @return 待处理文件
+     */
+    public Path append(String eventId, byte[] payload) throws IOException {
+        return write(eventId, payload, directory);
+    }
+
+    /**
+     * 直接写入 failed 目录（不处理，等待人工处理）
+     *
+     * @param payload 原始请求体
+     * @return failed 目录下的文件
+     */
+    public Path appendFailed(byte[] payload) throws IOException {
+        return write(null, payload, failedDirectory);
+    }
+
+    private Path write(String eventId, byte[] payload, Path targetDirectory) throws IOException {
+        String name = String.format("%013d-%06d-%s%s", System.currentTimeMillis(),
+            sequence.incrementAndGet() % 1_000_000, sanitize(eventId), SUFFIX);
+        Path tmp = tmpDirectory.resolve(name);
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Path target = targetDirectory.resolve(name);
+        move(tmp, target);
+        syncDirectory(targetDirectory);
+        return target;
+    }
+
+    /**
+     * 本实例目录下的待处理文件（按接收顺序）
+     */
+    public List<Path> pending() {
+        return list(directory);
+    }
+
+    /**
+     * 更新本实例的心跳
+     */
+    public void heartbeat() {
+        touch(FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * 标记本实例已关闭（另一个实例下次扫描时立即接管未处理的文件）
+     * 在工作线程停止之后调用，否则对方会接管正在处理的文件
+     */
+    public void markStopped() {
+        touch(FileTime.fromMillis(0));
+    }
+
+    /**
+     * 把其他实例目录下的文件移动到本实例目录：
+     * 对方心跳早于 aliveAfterMillis（已关闭或进程已退出）时移动全部文件，否则只移动超过指定时间仍未处理的文件
+     *
+     * @param olderThanMillis 对方仍在运行时，文件接收时间早于该时间才移动
+     * @param aliveAfterMillis 心跳晚于该时间的实例视为仍在运行（没有心跳文件的旧版本实例也视为仍在运行）
+     * @return 移动的文件数
+     */
+    public int claimStale(long olderThanMillis, long aliveAfterMillis) {
+        int claimed = 0;
+        try (DirectoryStream<Path> instances = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path instance : instances) {
+                String name = instance.getFileName().toString();
+                if (instance.equals(directory) || FAILED.equals(name)) {
+                    continue;
+                }
+                long heartbeat = heartbeatAt(instance);
+                long before = heartbeat >= 0 && heartbeat < aliveAfterMillis ? Long.MAX_VALUE : olderThanMillis;
+                for (Path file : list(instance)) {
+                    if (receivedAt(file) >= before) {
+                        break;
+                    }
+                    try {
+                        Files.move(file, directory.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                        claimed++;
+                    } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                        // 对方已处理完成或另一个实例已移动
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ 扫描Webhook落盘目录失败: {} | 错误: {}", root, e.getMessage());
+        }
+        return claimed;
+    }
+
+    public byte[] read(Path file) throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * 处理完成后删除
+     */
+    public void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("⚠️ 删除Webhook落盘文件失败: {} | 错误: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 多次处理失败后移动到 failed 目录，等待人工处理
+     */
+    public void moveToFailed(Path file) {
+        try {
+            move(file, failedDirectory.resolve(file.getFileName()));
+        } catch (NoSuchFileException e) {
+            // 已被另一个实例移动
+        } catch (IOException e) {
+            log.warn("⚠️ 移动Webhook落盘文件失败: {} | 错误: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 从文件名解析接收时间（毫秒）
+     */
+    public static long receivedAt(Path file) {
+        String name = file.getFileName().toString();
+        int dash = name.indexOf('-');
+        try {
+            return dash > 0 ? Long.parseLong(name.substring(0, dash)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void touch(FileTime time) {
+        Path file = directory.resolve(HEARTBEAT);
+        try {
+            if (Files.notExists(file)) {
+                Files.createFile(file);
+            }
+            Files.setLastModifiedTime(file, time);
+        } catch (FileAlreadyExistsException e) {
+            // 并发创建，下次更新
+        } catch (IOException e) {
+            log.warn("⚠️ 更新Webhook落盘心跳失败: {} | 错误: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * 实例心跳时间（毫秒），没有心跳文件时返回 -1
+     */
+    private static long heartbeatAt(Path instance) {
+        try {
+            return Files.getLastModifiedTime(instance.resolve(HEARTBEAT)).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static List<Path> list(Path dir) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ 读取Webhook落盘目录失败: {} | 错误: {}", dir, e.getMessage());
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    /**
+     * fsync 目录，保证重命名本身已落盘（Windows 不支持打开目录，忽略）
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // 不支持时依赖文件本身的 fsync
+        }
+    }
+
+    private static String sanitize(String eventId) {
+        if (eventId == null || eventId.isEmpty()) {
+            return "unknown";
+        }
+        StringBuilder sb = new StringBuilder(Math.min(eventId.length(), 64));
+        for (int i = 0; i < eventId.length() && sb.length() < 64; i++) {
+            char c = eventId.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+        }
+        return sb.toString();
+    }
+}
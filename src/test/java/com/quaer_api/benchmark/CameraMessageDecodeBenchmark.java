@@ -0,0 +1,108 @@
+package com.quaer_api.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.quaer_api.dto.MqttCameraMessage;
+import com.quaer_api.dto.MqttEntryMessage;
+import com.quaer_api.dto.MqttExitMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 摄像头消息解析基准测试
+ * 1. legacy：原来的流程，字节数组转两次String（日志 + 处理器），readTree 读取 event_type/action/timestamp，再 readValue 解析为DTO
+ * 2. singlePass：日志转一次String，直接从字节数组按 event_type 一次解析为 MqttEntryMessage / MqttExitMessage
+ *
+ * 运行方式（在IDE中直接运行main方法，或）:
+ *   mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ *   java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" org.openjdk.jmh.Main CameraMessageDecodeBenchmark
+ * （Windows 下把 : 换成 ;）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CameraMessageDecodeBenchmark {
+
+    private static final String ENTRY = "{\"message_id\":\"5f1d2c3e-8a7b-4c21-9d0e-3b6a1f2e4d5c\",\"record_id\":null,"
+        + "\"event_type\":\"entry\",\"action\":\"entry_new\",\"status\":\"entered\",\"entry_plate_number\":\"ABC-1234\","
+        + "\"entry_time\":\"2025-11-03 08:15:42\",\"entry_camera_ip\":\"192.168.1.100\",\"entry_camera_id\":1,"
+        + "\"entry_camera_name\":\"入口摄像头\",\"entry_event_id\":1001,\"entry_detection_count\":5,\"entry_weight\":25.50,"
+        + "\"entry_snapshot\":\"entry_20251103_081542_ABC1234.jpg\",\"upload_photo\":1,\"timestamp\":\"2025-11-03 08:15:42\","
+        + "\"payment_device_id\":\"DEVICE-001\",\"led_screen_config\":\"96:6E:6D:27:DC:9D\",\"barrier_gate_id\":\"GATE-01\","
+        + "\"backup_channel_id\":\"CH-01\"}";
+
+    private static final String EXIT = "{\"message_id\":\"7a2e4b6c-1d3f-4e5a-8b9c-0d1e2f3a4b5c\",\"record_id\":null,"
+        + "\"event_type\":\"exit\",\"action\":\"exit_normal\",\"status\":\"exited\",\"entry_plate_number\":null,"
+        + "\"exit_plate_number\":\"ABC-1234\",\"exit_time\":\"2025-11-03 10:42:17\",\"exit_camera_ip\":\"192.168.1.101\","
+        + "\"exit_payment_device_id\":\"DEVICE-002\",\"exit_led_screen_config\":\"96:6E:6D:27:DC:9E\","
+        + "\"exit_barrier_gate_id\":\"GATE-02\",\"exit_camera_id\":2,\"exit_camera_name\":\"出口摄像头\",\"exit_event_id\":2001,"
+        + "\"exit_detection_count\":6,\"exit_weight\":28.30,\"exit_snapshot\":\"exit_20251103_104217_ABC1234.jpg\","
+        + "\"upload_photo\":1,\"duration_seconds\":null,\"duration_str\":null,\"timestamp\":\"2025-11-03 10:42:17\","
+        + "\"payment_device_id\":\"DEVICE-002\",\"led_screen_config\":\"96:6E:6D:27:DC:9E\",\"barrier_gate_id\":\"GATE-02\","
+        + "\"backup_channel_id\":\"CH-02\"}";
+
+    @Param({"entry", "exit"})
+    public String eventType;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectReader cameraMessageReader = objectMapper.readerFor(MqttCameraMessage.class);
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        payload = ("entry".equals(eventType) ? ENTRY : EXIT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 原来的流程
+     */
+    @Benchmark
+    public Object legacy() throws Exception {
+        String logged = new String(payload, StandardCharsets.UTF_8);
+        String text = new String(payload, StandardCharsets.UTF_8);
+        JsonNode rootNode = objectMapper.readTree(text);
+        String type = rootNode.get("event_type").asText();
+        String action = rootNode.get("action").asText();
+        String timestamp = rootNode.has("timestamp") ? rootNode.get("timestamp").asText() : null;
+        Object message = "entry".equals(type)
+            ? objectMapper.readValue(text, MqttEntryMessage.class)
+            : objectMapper.readValue(text, MqttExitMessage.class);
+        return logged.length() + action.length() + timestamp.length() + message.hashCode();
+    }
+
+    /**
+     * 一次解析
+     */
+    @Benchmark
+    public Object singlePass() throws Exception {
+        String logged = new String(payload, StandardCharsets.UTF_8);
+        MqttCameraMessage message = cameraMessageReader.readValue(payload);
+        return logged.length() + message.getAction().length() + message.getTimestamp().length() + message.hashCode();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(CameraMessageDecodeBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,109 @@
+package com.quaer_api.benchmark;
+
+import com.quaer_api.util.LanePartitionedExecutor;
+import com.quaer_api.util.PartitionedExecutor;
+import com.quaer_api.util.VirtualThreadPartitionedExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MQTT消息接入执行器基准测试：平台线程通道 vs 虚拟线程
+ * 模拟一次入场/出场高峰：多个停车场、多辆车同时上报，每条消息的处理大部分时间在等待IO（数据库/Square/Broker）
+ *
+ * 运行方式（在IDE中直接运行main方法，或）:
+ *   mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ *   java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" org.openjdk.jmh.Main IngestExecutorBenchmark
+ * （Windows 下把 : 换成 ;）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class IngestExecutorBenchmark {
+
+    /**
+     * 执行模式
+     */
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    /**
+     * 一次高峰中的消息数量
+     */
+    @Param({"2000"})
+    public int burstSize;
+
+    /**
+     * 同时上报的车辆数（分区Key数量）
+     */
+    @Param({"500"})
+    public int vehicles;
+
+    /**
+     * 每条消息模拟的IO等待时间（微秒）
+     */
+    @Param({"2000"})
+    public int ioWaitMicros;
+
+    private PartitionedExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("virtual".equals(mode)) {
+            executor = new VirtualThreadPartitionedExecutor("bench-virtual", burstSize,
+                PartitionedExecutor.BackpressurePolicy.BLOCK, 60_000);
+        } else {
+            // 与application.yml中的默认配置一致
+            executor = new LanePartitionedExecutor("bench-platform", 8, 500,
+                PartitionedExecutor.BackpressurePolicy.BLOCK, 60_000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown(10_000);
+    }
+
+    /**
+     * 提交一次完整的消息高峰，并等待全部处理完成
+     */
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(burstSize);
+        long ioWaitNanos = TimeUnit.MICROSECONDS.toNanos(ioWaitMicros);
+        for (int i = 0; i < burstSize; i++) {
+            String partitionKey = "LOT" + (i % 10) + "|ABC" + (i % vehicles);
+            executor.submit(partitionKey, () -> {
+                LockSupport.parkNanos(ioWaitNanos);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(IngestExecutorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package com.quaer_api.benchmark;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.service.MqttMessageDeduplicator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息去重基准测试
+ * 1. legacy：原来的实现，拼接String Key + DateTimeFormatter 解析时间戳 + ConcurrentHashMap<String, LocalDateTime>（从不清理）
+ * 2. generations：64位哈希Key + 手工解析时间戳 + 分代 LongLongHashMap（有记录数上限）
+ *
+ * plates 为不同车牌数量；每次调用随机取一个车牌，时间戳逐步递增，模拟持续的入场/出场消息
+ *
+ * 运行方式（在IDE中直接运行main方法，或）:
+ *   mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ *   java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" org.openjdk.jmh.Main MessageDeduplicatorBenchmark
+ * （Windows 下把 : 换成 ;）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class MessageDeduplicatorBenchmark {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Param({"10000", "1000000"})
+    public int plates;
+
+    private String[] plateNumbers;
+    private String[] timestamps;
+
+    private final Map<String, LocalDateTime> legacyCache = new ConcurrentHashMap<>();
+    private MqttMessageDeduplicator deduplicator;
+
+    @Setup
+    public void setup() {
+        plateNumbers = new String[plates];
+        for (int i = 0; i < plates; i++) {
+            plateNumbers[i] = String.format("%s%c-%04d", (char) ('A' + i % 26), (char) ('A' + (i / 26) % 26), i % 10000);
+        }
+        // 一天内的时间戳，每秒一个
+        timestamps = new String[86400];
+        LocalDateTime start = LocalDateTime.of(2025, 11, 3, 0, 0, 0);
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = start.plusSeconds(i).format(DATE_TIME_FORMATTER);
+        }
+
+        ParkingProperties properties = new ParkingProperties();
+        properties.getDedup().setJournalEnabled(false);
+        deduplicator = new MqttMessageDeduplicator(properties);
+        deduplicator.init();
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String plate = plateNumbers[random.nextInt(plates)];
+        String timestamp = timestamps[random.nextInt(timestamps.length)];
+
+        String cacheKey = "0001" + "_" + plate.replace("-", "") + "_" + "entry";
+        LocalDateTime current = LocalDateTime.parse(timestamp, DATE_TIME_FORMATTER);
+        LocalDateTime last = legacyCache.get(cacheKey);
+        if (last != null && Duration.between(last, current).toMinutes() < 3) {
+            return true;
+        }
+        legacyCache.put(cacheKey, current);
+        return false;
+    }
+
+    @Benchmark
+    public boolean generations() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String plate = plateNumbers[random.nextInt(plates)];
+        String timestamp = timestamps[random.nextInt(timestamps.length)];
+        return deduplicator.isDuplicate("0001", plate, "entry", timestamp);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(MessageDeduplicatorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
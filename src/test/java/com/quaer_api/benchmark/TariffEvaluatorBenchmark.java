@@ -0,0 +1,112 @@
+package com.quaer_api.benchmark;
+
+import com.quaer_api.config.TariffProperties;
+import com.quaer_api.tariff.CompiledTariff;
+import com.quaer_api.tariff.TariffCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收费规则计费基准测试
+ * 1. 单次出场计费（分时段 + 周末价格 + 日封顶）
+ * 2. 看板刷新时按当前时间重新计算所有在场车辆的费用
+ *
+ * 运行方式（在IDE中直接运行main方法，或）:
+ *   mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+ *   java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" org.openjdk.jmh.Main TariffEvaluatorBenchmark
+ * （Windows 下把 : 换成 ;）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TariffEvaluatorBenchmark {
+
+    /**
+     * 在场车辆数
+     */
+    @Param({"5000"})
+    public int openSessions;
+
+    /**
+     * 最长停车天数（入场时间在 [现在 - maxDays天, 现在) 之间随机分布）
+     */
+    @Param({"1", "7"})
+    public int maxDays;
+
+    private CompiledTariff tariff;
+    private long[] entrySeconds;
+    private long nowSecond;
+
+    @Setup
+    public void setup() {
+        TariffProperties.PlanConfig plan = new TariffProperties.PlanConfig();
+        plan.setGraceMinutes(15);
+        plan.setUnitMinutes(30);
+        plan.setDailyCapCents(2000);
+        plan.getWeekday().add(band("07:00", "19:00", 200));
+        plan.getWeekday().add(band("19:00", "07:00", 100));
+        plan.getWeekend().add(band("00:00", "24:00", 100));
+        tariff = TariffCompiler.compile("benchmark", plan);
+
+        nowSecond = LocalDateTime.of(2025, 11, 3, 18, 30).toEpochSecond(ZoneOffset.UTC);
+        Random random = new Random(42);
+        entrySeconds = new long[openSessions];
+        for (int i = 0; i < openSessions; i++) {
+            entrySeconds[i] = nowSecond - 60 - (long) (random.nextDouble() * maxDays * 86400L);
+        }
+    }
+
+    /**
+     * 单次出场计费
+     */
+    @Benchmark
+    public int singleExit() {
+        return tariff.priceCents(entrySeconds[0], nowSecond);
+    }
+
+    /**
+     * 重新计算所有在场车辆的费用
+     */
+    @Benchmark
+    public long repriceOpenSessions() {
+        long total = 0;
+        for (long entry : entrySeconds) {
+            total += tariff.priceCents(entry, nowSecond);
+        }
+        return total;
+    }
+
+    private static TariffProperties.BandConfig band(String from, String to, long centsPerUnit) {
+        TariffProperties.BandConfig band = new TariffProperties.BandConfig();
+        band.setFrom(from);
+        band.setTo(to);
+        band.setCentsPerUnit(centsPerUnit);
+        return band;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TariffEvaluatorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 消息去重器测试：时间戳解析与 DateTimeFormatter 一致、每条记录至少保留一个去重窗口
+ */
+class MqttMessageDeduplicatorTest {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final long WINDOW_SECONDS = 180;
+
+    @Test
+    void parseTimestampMatchesLocalDateTimeParseForEveryDay() {
+        LocalDate end = LocalDate.of(2101, 1, 1);
+        int secondOfDay = 0;
+        for (LocalDate date = LocalDate.of(1999, 1, 1); date.isBefore(end); date = date.plusDays(1)) {
+            secondOfDay = (secondOfDay + 7919) % 86400;
+            assertParsesLikeFormatter(date.atStartOfDay().plusSeconds(secondOfDay).format(DATE_TIME_FORMATTER));
+        }
+    }
+
+    @Test
+    void parseTimestampHandlesMonthEndsAndLeapYears() {
+        assertParsesLikeFormatter("2024-02-29 23:59:59");
+        assertParsesLikeFormatter("2024-03-01 00:00:00");
+        assertParsesLikeFormatter("2000-02-29 12:00:00");
+        assertParsesLikeFormatter("2023-12-31 23:59:59");
+        assertParsesLikeFormatter("2024-01-01 00:00:00");
+        assertParsesLikeFormatter("1970-01-01 00:00:00");
+        // SMART 解析：超出当月天数时取当月最后一天
+        assertParsesLikeFormatter("2023-02-29 08:00:00");
+        assertParsesLikeFormatter("2100-02-29 08:00:00");
+        assertParsesLikeFormatter("2024-04-31 08:00:00");
+    }
+
+    @Test
+    void parseTimestampRejectsMalformedInput() {
+        assertThat(MqttMessageDeduplicator.parseTimestamp("2024-02-29T23:59:59")).isEqualTo(Long.MIN_VALUE);
+        assertThat(MqttMessageDeduplicator.parseTimestamp("2024-13-01 00:00:00")).isEqualTo(Long.MIN_VALUE);
+        assertThat(MqttMessageDeduplicator.parseTimestamp("2024-02-29 24:00:00")).isEqualTo(Long.MIN_VALUE);
+        assertThat(MqttMessageDeduplicator.parseTimestamp("2024-02-2x 00:00:00")).isEqualTo(Long.MIN_VALUE);
+        assertThat(MqttMessageDeduplicator.parseTimestamp("2024-02-29 00:00")).isEqualTo(Long.MIN_VALUE);
+    }
+
+    @Test
+    void entryIsKeptForAtLeastOneWindowAcrossRotations() {
+        long windowMillis = WINDOW_SECONDS * 1000;
+        // 在一代内的不同位置写入，在写入后一个窗口内（期间至少经过一次轮换）仍能识别重复
+        for (long offset = 0; offset < 2 * windowMillis; offset += windowMillis / 8) {
+            long before = System.currentTimeMillis();
+            MqttMessageDeduplicator deduplicator = newDeduplicator();
+            long writtenAt = before + offset;
+
+            assertThat(deduplicator.isDuplicate("0001", "ABC-1234", "entry", "2025-11-03 10:00:00", writtenAt))
+                .isFalse();
+            assertThat(deduplicator.isDuplicate("0001", "ABC-1234", "entry", "2025-11-03 10:00:00",
+                writtenAt + windowMillis / 2)).as("offset %d", offset).isTrue();
+            assertThat(deduplicator.isDuplicate("0001", "ABC-1234", "entry", "2025-11-03 10:00:00",
+                writtenAt + windowMillis - 1)).as("offset %d", offset).isTrue();
+        }
+    }
+
+    @Test
+    void entryIsDroppedAfterTwoGenerations() {
+        long now = System.currentTimeMillis();
+        MqttMessageDeduplicator deduplicator = newDeduplicator();
+        long windowMillis = WINDOW_SECONDS * 1000;
+
+        assertThat(deduplicator.isDuplicate("0001", "ABC-1234", "entry", "2025-11-03 10:00:00", now)).isFalse();
+        assertThat(deduplicator.isDuplicate("0001", "ABC-1234", "entry", "2025-11-03 10:00:00",
+            now + 3 * windowMillis)).isFalse();
+    }
+
+    private static MqttMessageDeduplicator newDeduplicator() {
+        ParkingProperties properties = new ParkingProperties();
+        properties.getDedup().setJournalEnabled(false);
+        properties.getDedup().setWindowSeconds(WINDOW_SECONDS);
+        MqttMessageDeduplicator deduplicator = new MqttMessageDeduplicator(properties);
+        deduplicator.init();
+        return deduplicator;
+    }
+
+    private static void assertParsesLikeFormatter(String text) {
+        long expected = LocalDateTime.parse(text, DATE_TIME_FORMATTER).toEpochSecond(ZoneOffset.UTC);
+        assertThat(MqttMessageDeduplicator.parseTimestamp(text)).as(text).isEqualTo(expected);
+    }
+}
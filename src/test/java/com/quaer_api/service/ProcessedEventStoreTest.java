@@ -0,0 +1,149 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.ProcessedEvent;
+import com.quaer_api.repository.ProcessedEventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+
+/**
+ * 已处理事件存储测试：布隆过滤器轮换后，重发的事件仍由数据库唯一约束拒绝；
+ * 处理中（未完成）的记录不当作重复，超时后可以接管
+ */
+@ExtendWith(MockitoExtension.class)
+class ProcessedEventStoreTest {
+
+    private static final int BLOOM_CAPACITY = 4;
+
+    @Mock
+    private ProcessedEventRepository processedEventRepository;
+
+    /**
+     * 模拟 processed_events 表（source:event_key 唯一）
+     */
+    private final Map<String, ProcessedEvent> table = new HashMap<>();
+
+    private ParkingProperties properties;
+
+    private ProcessedEventStore store;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(processedEventRepository.saveAndFlush(any(ProcessedEvent.class))).thenAnswer(invocation -> {
+            ProcessedEvent event = invocation.getArgument(0);
+            if (table.putIfAbsent(event.getSource() + ":" + event.getEventKey(), event) != null) {
+                throw new DataIntegrityViolationException("Duplicate entry for uk_processed_events");
+            }
+            return event;
+        });
+        lenient().when(processedEventRepository.findBySourceAndEventKey(anyString(), anyString()))
+            .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.getArgument(0) + ":" + invocation.getArgument(1))));
+        lenient().when(processedEventRepository.markDone(anyString(), anyString(), any(LocalDateTime.class)))
+            .thenAnswer(invocation -> {
+                ProcessedEvent event = table.get(invocation.getArgument(0) + ":" + invocation.getArgument(1));
+                if (event == null) {
+                    return 0;
+                }
+                event.setStatus("done");
+                event.setProcessedAt(invocation.getArgument(2));
+                return 1;
+            });
+        lenient().when(processedEventRepository.takeOver(anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class)))
+            .thenAnswer(invocation -> {
+                ProcessedEvent event = table.get(invocation.getArgument(0) + ":" + invocation.getArgument(1));
+                LocalDateTime staleBefore = invocation.getArgument(3);
+                if (event == null || !"processing".equals(event.getStatus()) || !event.getProcessedAt().isBefore(staleBefore)) {
+                    return 0;
+                }
+                event.setProcessedAt(invocation.getArgument(2));
+                return 1;
+            });
+        lenient().when(processedEventRepository.deleteBySourceAndEventKey(anyString(), anyString()))
+            .thenAnswer(invocation -> table.remove(invocation.getArgument(0) + ":" + invocation.getArgument(1)) != null ? 1 : 0);
+
+        properties = new ParkingProperties();
+        properties.getProcessedEvents().setBloomExpectedInsertions(BLOOM_CAPACITY);
+        store = new ProcessedEventStore(processedEventRepository, properties);
+        store.init();
+    }
+
+    @Test
+    void duplicateIsRejectedWhileInBloomFilter() {
+        assertThat(process("evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        assertThat(process("evt-1")).isEqualTo(ProcessedEventStore.Claim.DUPLICATE);
+        assertThat(store.getStats()).containsEntry("duplicates", 1L);
+    }
+
+    @Test
+    void duplicateIsRejectedAfterBloomFilterRotatesTwice() {
+        assertThat(process("evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        // 写满两代，evt-1 已不在任何一代布隆过滤器中
+        for (int i = 0; i < 2 * BLOOM_CAPACITY + 1; i++) {
+            assertThat(process("filler-" + i)).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        }
+
+        assertThat(process("evt-1")).isEqualTo(ProcessedEventStore.Claim.DUPLICATE);
+        assertThat(store.getStats()).containsEntry("duplicates", 1L);
+    }
+
+    @Test
+    void releasedEventCanBeProcessedAgain() {
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        store.release(ProcessedEventStore.SQUARE, "evt-1");
+
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+    }
+
+    @Test
+    void sourcesAreIndependent() {
+        assertThat(process("evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        assertThat(store.claim(ProcessedEventStore.CAMERA, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+    }
+
+    @Test
+    void unfinishedEventIsInProgressUntilTimeout() {
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+
+        // 未完成也未释放（进程在业务处理前后被杀）：超时前视为正在处理，不是重复
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.IN_PROGRESS);
+        assertThat(store.getStats()).containsEntry("duplicates", 0L).containsEntry("inProgress", 1L);
+    }
+
+    @Test
+    void staleUnfinishedEventIsTakenOver() {
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        table.get(ProcessedEventStore.SQUARE + ":evt-1").setProcessedAt(LocalDateTime.now()
+            .minusNanos((properties.getProcessedEvents().getProcessingTimeoutMs() + 1000) * 1_000_000L));
+
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.ACQUIRED);
+        store.complete(ProcessedEventStore.SQUARE, "evt-1");
+
+        assertThat(store.claim(ProcessedEventStore.SQUARE, "evt-1")).isEqualTo(ProcessedEventStore.Claim.DUPLICATE);
+        assertThat(store.getStats()).containsEntry("takeOvers", 1L);
+    }
+
+    /**
+     * 开始处理并在首次处理时标记完成
+     */
+    private ProcessedEventStore.Claim process(String eventKey) {
+        ProcessedEventStore.Claim claim = store.claim(ProcessedEventStore.SQUARE, eventKey);
+        if (claim == ProcessedEventStore.Claim.ACQUIRED) {
+            store.complete(ProcessedEventStore.SQUARE, eventKey);
+        }
+        return claim;
+    }
+}
@@ -0,0 +1,75 @@
+package com.quaer_api.service;
+
+import com.quaer_api.config.ParkingProperties;
+import com.quaer_api.entity.VehicleRecord;
+import com.quaer_api.repository.VehicleRecordRepository;
+import com.quaer_api.util.PlateSimilarity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 在场车辆索引模糊匹配测试（默认配置下只容忍OCR易混淆字符）
+ */
+@ExtendWith(MockitoExtension.class)
+class VehicleOccupancyIndexTest {
+
+    private static final String LOT = "P001";
+
+    @Mock
+    private VehicleRecordRepository vehicleRecordRepository;
+
+    @Spy
+    private ParkingProperties parkingProperties = new ParkingProperties();
+
+    @InjectMocks
+    private VehicleOccupancyIndex occupancyIndex;
+
+    @BeforeEach
+    void setUp() {
+        when(vehicleRecordRepository.findOpenRecordKeys()).thenReturn(List.<Object[]>of(
+            new Object[]{1L, LOT, "entered", "ABC1234", null}));
+        occupancyIndex.rebuild();
+    }
+
+    @Test
+    void ordinarySubstitutionExceedsDefaultDistance() {
+        double maxDistance = parkingProperties.getFuzzyMatch().getMaxDistance();
+        double confusionCost = parkingProperties.getFuzzyMatch().getConfusionCost();
+
+        assertThat(PlateSimilarity.distance("ABX1234", "ABC1234", confusionCost, maxDistance))
+            .isInfinite();
+        assertThat(PlateSimilarity.distance("A8C1234", "ABC1234", confusionCost, maxDistance))
+            .isEqualTo(confusionCost);
+    }
+
+    @Test
+    void oneOrdinaryCharacterDifferenceIsNotMatched() {
+        assertThat(occupancyIndex.findEnteredFuzzy(LOT, "ABX1234")).isEmpty();
+        verify(vehicleRecordRepository, never()).findById(1L);
+    }
+
+    @Test
+    void confusableCharacterDifferenceIsMatched() {
+        VehicleRecord record = new VehicleRecord();
+        record.setId(1L);
+        record.setParkingLotCode(LOT);
+        record.setStatus("entered");
+        record.setEntryPlateNumber("ABC1234");
+        when(vehicleRecordRepository.findById(1L)).thenReturn(Optional.of(record));
+
+        assertThat(occupancyIndex.findEnteredFuzzy(LOT, "A8C1234")).contains(record);
+    }
+}
@@ -0,0 +1,108 @@
+package com.quaer_api.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 去重日志测试：重新打开后恢复记录，跳过写了一半（校验失败）的记录
+ */
+class DedupJournalTest {
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoreReturnsRecordsWrittenBeforeReopen() throws IOException {
+        try (DedupJournal journal = DedupJournal.open(directory, "8086", 16)) {
+            journal.append(1L, 100L, 1_000L);
+            journal.append(2L, 200L, 2_000L);
+        }
+
+        List<long[]> restored = restore("8086", 0L);
+
+        assertThat(restored).containsExactly(new long[]{1L, 100L, 1_000L}, new long[]{2L, 200L, 2_000L});
+    }
+
+    @Test
+    void restoreSkipsTornRecords() throws IOException {
+        try (DedupJournal journal = DedupJournal.open(directory, "8086", 16)) {
+            journal.append(1L, 100L, 1_000L);
+            journal.append(2L, 200L, 2_000L);
+            journal.append(3L, 300L, 3_000L);
+        }
+        // 第二条记录只写了前半部分（消息时间戳已覆盖，校验值还是旧的）
+        overwrite(directory.resolve("dedup-8086.journal"), HEADER_SIZE + RECORD_SIZE + 8, 999L);
+
+        List<long[]> restored = restore("8086", 0L);
+
+        assertThat(restored).containsExactly(new long[]{1L, 100L, 1_000L}, new long[]{3L, 300L, 3_000L});
+    }
+
+    @Test
+    void restoreReadsPeerJournalsAndSkipsOldRecords() throws IOException {
+        try (DedupJournal peer = DedupJournal.open(directory, "8087", 16)) {
+            peer.append(1L, 100L, 1_000L);
+            peer.append(2L, 200L, 5_000L);
+        }
+        // 对方日志中写了一半的记录
+        overwrite(directory.resolve("dedup-8087.journal"), HEADER_SIZE + 16, 4_000L);
+
+        List<long[]> restored = restore("8086", 2_000L);
+
+        assertThat(restored).containsExactly(new long[]{2L, 200L, 5_000L});
+    }
+
+    @Test
+    void appendWrapsAroundAndKeepsNewestRecords() throws IOException {
+        try (DedupJournal journal = DedupJournal.open(directory, "8086", 4)) {
+            for (long i = 1; i <= 6; i++) {
+                journal.append(i, i * 100, i * 1_000);
+            }
+        }
+
+        List<long[]> restored = restore("8086", 0L);
+
+        assertThat(restored).extracting(record -> record[0]).containsExactly(3L, 4L, 5L, 6L);
+    }
+
+    private List<long[]> restore(String instanceId, long notBeforeMillis) throws IOException {
+        List<long[]> restored = new ArrayList<>();
+        try (DedupJournal journal = DedupJournal.open(directory, instanceId, capacityOf(instanceId))) {
+            journal.restore(notBeforeMillis, (key, messageSeconds, writtenAtMillis) ->
+                restored.add(new long[]{key, messageSeconds, writtenAtMillis}));
+        }
+        return restored;
+    }
+
+    private int capacityOf(String instanceId) throws IOException {
+        Path file = directory.resolve("dedup-" + instanceId + ".journal");
+        if (!file.toFile().exists()) {
+            return 16;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            return header.getInt(8);
+        }
+    }
+
+    private static void overwrite(Path file, long position, long value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+            channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.quaer_api.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * long → long 哈希表测试
+ */
+class LongLongHashMapTest {
+
+    private static final long MISSING = Long.MIN_VALUE;
+
+    @Test
+    void getReturnsMissingValueForAbsentKey() {
+        LongLongHashMap map = new LongLongHashMap(4);
+
+        assertThat(map.get(42L, MISSING)).isEqualTo(MISSING);
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    void putOverwritesExistingKey() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        map.put(42L, 1L);
+        map.put(42L, 2L);
+
+        assertThat(map.get(42L, MISSING)).isEqualTo(2L);
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    void zeroKeyIsStoredSeparately() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        assertThat(map.get(0L, MISSING)).isEqualTo(MISSING);
+
+        map.put(0L, 7L);
+        map.put(0L, 8L);
+        map.put(1L, 9L);
+
+        assertThat(map.get(0L, MISSING)).isEqualTo(8L);
+        assertThat(map.get(1L, MISSING)).isEqualTo(9L);
+        assertThat(map.size()).isEqualTo(2);
+    }
+
+    @Test
+    void resizeKeepsAllEntries() {
+        LongLongHashMap map = new LongLongHashMap(1);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(20251103L);
+        map.put(0L, -1L);
+        expected.put(0L, -1L);
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextLong();
+            map.put(key, i);
+            expected.put(key, (long) i);
+        }
+        // 低位相同、只有高位不同的key（探测冲突）
+        for (long i = 1; i <= 1000; i++) {
+            map.put(i << 40, i);
+            expected.put(i << 40, i);
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key, MISSING)).isEqualTo(value));
+        assertThat(map.get(123456789L, MISSING)).isEqualTo(MISSING);
+    }
+
+    @Test
+    void clearRemovesAllEntriesIncludingZeroKey() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        map.put(0L, 1L);
+        map.put(5L, 2L);
+
+        map.clear();
+
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.get(0L, MISSING)).isEqualTo(MISSING);
+        assertThat(map.get(5L, MISSING)).isEqualTo(MISSING);
+    }
+}